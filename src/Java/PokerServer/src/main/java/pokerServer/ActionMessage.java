@@ -1,5 +1,7 @@
 package pokerServer;
 
+import java.util.Map;
+
 import pokerServer.interfaces.Client;
 
 /**
@@ -25,6 +27,51 @@ public class ActionMessage extends Message {
 		this.action = action;
 	}
 	
+	/**
+	 * Constructor for the typed subclasses
+	 * @param action The type of action to perform
+	 * @param clientInvolved The client involved in the message
+	 * @param typed Always true
+	 */
+	protected ActionMessage(Action action, Client clientInvolved, boolean typed) {
+		super(clientInvolved, typed);
+		this.action = action;
+	}
+	
+	/**
+	 * Build a typed message from decoded parameters, checking them against the spec.
+	 * This is the only place incoming actions are validated; typed messages are valid from then on.
+	 * @param action The type of action
+	 * @param fields The parameters, by name
+	 * @param clientInvolved The client that sent the message
+	 * @return A {@link BetMessage}, {@link FoldMessage}, {@link JoinMessage} or {@link QuitMessage}
+	 * @throws IllegalArgumentException If the parameters do not match the spec for that action
+	 */
+	public static ActionMessage decode(Action action, Map<String, Object> fields, Client clientInvolved) {
+		if (!isValid(action, fields)) throw new IllegalArgumentException("Invalid " + action + " message");
+		
+		switch (action) {
+		case BET:
+			return new BetMessage((Integer) fields.get("Amount"), (Boolean) fields.get("All-in"), clientInvolved);
+		case FOLD:
+			return new FoldMessage((Boolean) fields.get("Quit"), clientInvolved);
+		case JOIN:
+			return new JoinMessage((Integer) fields.get("GameID"), clientInvolved);
+		default:
+			return new QuitMessage(clientInvolved);
+		}
+	}
+	
+	/**
+	 * Get the typed form of this message
+	 * @return This message if it is already typed, otherwise a typed copy
+	 * @throws IllegalArgumentException If the message is not valid
+	 */
+	public ActionMessage toTyped() {
+		if (isTyped()) return this;
+		return decode(action, parameters, clientInvolved);
+	}
+	
 
 	/**
 	 * Types of actions that can be performed
@@ -43,23 +90,29 @@ public class ActionMessage extends Message {
 	
 	@Override
 	public boolean isValid() {
+		//Typed messages were checked when they were built
+		if (isTyped()) return true;
+		return isValid(action, parameters);
+	}
+	
+	private static boolean isValid(Action action, Map<String, Object> parameters) {
 		if (action ==  null) return false;
 		
 		switch (action) {
 		case BET:
-			return isValidBetMessage();
+			return isValidBetMessage(parameters);
 		case FOLD:
-			return isValidFoldMessage();
+			return isValidFoldMessage(parameters);
 		case JOIN:
-			return isValidJoinMessage();
+			return isValidJoinMessage(parameters);
 		case QUIT:
-			return isValidQuitMessage();
+			return isValidQuitMessage(parameters);
 		default:
 			return false;
 		}
 	}
 	
-	private boolean isValidJoinMessage() {
+	private static boolean isValidJoinMessage(Map<String, Object> parameters) {
 		if (parameters.size() != 1) return false;
 		if (parameters.containsKey("GameID")) {
 			if (parameters.get("GameID") instanceof Integer) return true;
@@ -69,10 +122,12 @@ public class ActionMessage extends Message {
 		}
 	}
 	
-	private boolean isValidBetMessage() {
+	private static boolean isValidBetMessage(Map<String, Object> parameters) {
 		if (parameters.size() != 2) return false;
 		if (parameters.containsKey("Amount")) {
 			if (!(parameters.get("Amount") instanceof Integer)) return false;
+			if ((Integer) parameters.get("Amount") < 0) return false;
+			if ((Integer) parameters.get("Amount") > BetMessage.MAX_AMOUNT) return false;
 		} else {
 			return false;
 		}
@@ -86,7 +141,7 @@ public class ActionMessage extends Message {
 		return true;
 	}
 	
-	private boolean isValidFoldMessage() {
+	private static boolean isValidFoldMessage(Map<String, Object> parameters) {
 		if (parameters.size() != 1) return false;
 		if (parameters.containsKey("Quit")) {
 			if (parameters.get("Quit") instanceof Boolean) return true;
@@ -96,7 +151,7 @@ public class ActionMessage extends Message {
 		}
 	}
 	
-	private boolean isValidQuitMessage() {
+	private static boolean isValidQuitMessage(Map<String, Object> parameters) {
 		if (parameters.size() == 0) return true;
 		return false;
 	}
@@ -0,0 +1,57 @@
+package pokerServer;
+
+import java.util.HashMap;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * A request from a client to put chips into the pot.
+ * @author bgreen
+ *
+ */
+public class BetMessage extends ActionMessage {
+
+	/** The largest bet that can be made, so that every wire format can carry it along with the all-in flag **/
+	public static final int MAX_AMOUNT = Integer.MAX_VALUE >>> 1;
+
+	private final int amount;
+	private final boolean allIn;
+
+	/**
+	 * Create a bet
+	 * @param amount The number of chips to bet, up to {@link #MAX_AMOUNT}
+	 * @param allIn True if these are the player's last chips
+	 * @param clientInvolved The client placing the bet
+	 */
+	public BetMessage(int amount, boolean allIn, Client clientInvolved) {
+		super(Action.BET, clientInvolved, true);
+		if (amount < 0) throw new IllegalArgumentException("Cannot bet a negative amount");
+		if (amount > MAX_AMOUNT) throw new IllegalArgumentException("Bet too large");
+		this.amount = amount;
+		this.allIn = allIn;
+	}
+
+	/**
+	 * Get the size of the bet
+	 * @return The number of chips
+	 */
+	public int getAmount() {
+		return amount;
+	}
+
+	/**
+	 * Check whether the player is betting their last chips
+	 * @return True if the player is all-in
+	 */
+	public boolean isAllIn() {
+		return allIn;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Amount", amount);
+		parameters.put("All-in", allIn);
+		return parameters;
+	}
+}
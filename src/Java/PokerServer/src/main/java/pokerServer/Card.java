@@ -1,16 +1,46 @@
 package pokerServer;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Represents a single playing card. Also contains class methods to deal with decks of cards. 
+ * There is one shared instance of each of the 52 cards; use {@link #of(Suit, String)} or {@link #fromIndex(int)} to get it,
+ * so that cards can be compared by reference.
  * @author bgreen
  *
  */
 public class Card {
 
-	private Suit mySuit;
-	private String myValue;
+	/** The number of cards in a deck **/
+	public static final int DECK_SIZE = 52;
+	/** The number of ranks in a suit **/
+	public static final int NUM_RANKS = 13;
+	
+	/** The value strings for each rank index, lowest (2) to highest (A) **/
+	private static final String[] RANK_NAMES = {"2", "3", "4", "5", "6", "7", "8", "9", "10", "J", "Q", "K", "A"};
+	/** A prime number for each rank index, so that the product of a hand's primes identifies its ranks **/
+	private static final int[] RANK_PRIMES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41};
+	private static final Suit[] SUITS = Suit.values();
+	
+	/** The shared instance of each card, indexed by {@link #getIndex()} **/
+	private static final Card[] CATALOGUE = new Card[DECK_SIZE];
+	
+	static {
+		for (int i = 0; i < DECK_SIZE; i++) {
+			CATALOGUE[i] = new Card(codeForIndex(i));
+		}
+	}
+	
+	/** Every card in the deck, in index order. This list cannot be modified. **/
+	public static final List<Card> ALL_CARDS = Collections.unmodifiableList(Arrays.asList(CATALOGUE));
+	
+	private final Suit mySuit;
+	private final String myValue;
+	private final int myCode;
+	private final String myName;
 	
 	/**
 	 * The possible suits for a standard deck of French playing cards (the worldwide standard)
@@ -36,39 +66,7 @@ public class Card {
 	 * @return The deck, in ArrayList format. 
 	 */
 	public static ArrayList<Card> generateDeck() {
-		ArrayList<Card> deck = new ArrayList<Card>();
-		for (int i = 2; i <= 10; i++) {
-			deck.add(new Card(Suit.HEARTS, Integer.toString(i)));
-			deck.add(new Card(Suit.CLUBS, Integer.toString(i)));
-			deck.add(new Card(Suit.SPADES, Integer.toString(i)));
-			deck.add(new Card(Suit.DIAMONDS, Integer.toString(i)));
-		}
-		
-		//Aces
-		deck.add(new Card(Suit.HEARTS, "A"));
-		deck.add(new Card(Suit.CLUBS, "A"));
-		deck.add(new Card(Suit.SPADES, "A"));
-		deck.add(new Card(Suit.DIAMONDS, "A"));
-		
-		//Queens
-		deck.add(new Card(Suit.HEARTS, "Q"));
-		deck.add(new Card(Suit.CLUBS, "Q"));
-		deck.add(new Card(Suit.SPADES, "Q"));
-		deck.add(new Card(Suit.DIAMONDS, "Q"));
-		
-		//Kings
-		deck.add(new Card(Suit.HEARTS, "K"));
-		deck.add(new Card(Suit.CLUBS, "K"));
-		deck.add(new Card(Suit.SPADES, "K"));
-		deck.add(new Card(Suit.DIAMONDS, "K"));
-		
-		//Jacks
-		deck.add(new Card(Suit.HEARTS, "J"));
-		deck.add(new Card(Suit.CLUBS, "J"));
-		deck.add(new Card(Suit.SPADES, "J"));
-		deck.add(new Card(Suit.DIAMONDS, "J"));
-		
-		return deck;
+		return new ArrayList<Card>(ALL_CARDS);
 	}
 
 	/**
@@ -77,23 +75,175 @@ public class Card {
 	 * @param val Should either a numeric value between 2 and 10 inclusive, A for Ace, Q for Queen, J for Jack, or K for King
 	 */
 	public Card(Suit suit, String val) {
-		this.mySuit = suit;
+		this(of(suit, val).myCode);
+	}
+	
+	private Card(int code) {
+		this.myCode = code;
+		this.mySuit = suitOf(code);
+		this.myValue = RANK_NAMES[rankOf(code)];
+		this.myName = myValue + symbolFor(mySuit);
+	}
+	
+	/**
+	 * Get the shared instance of a card
+	 * @param suit One of four French suits.
+	 * @param val Should either a numeric value between 2 and 10 inclusive, A for Ace, Q for Queen, J for Jack, or K for King
+	 * @return The card
+	 */
+	public static Card of(Suit suit, String val) {
+		int rank = parseRank(val);
+		if (rank < 0) {
+			throw new IllegalArgumentException("Invalid value: must be one of 2-10, A, Q, J, or K");
+		}
+		return of(suit, rank);
+	}
+	
+	/**
+	 * Get the shared instance of a card
+	 * @param suit One of four French suits.
+	 * @param rank The rank index, from 0 (a 2) to 12 (an Ace)
+	 * @return The card
+	 */
+	public static Card of(Suit suit, int rank) {
+		if (suit == null) throw new IllegalArgumentException("Invalid suit");
+		if (rank < 0 || rank >= NUM_RANKS) throw new IllegalArgumentException("Invalid rank");
+		return CATALOGUE[suit.ordinal() * NUM_RANKS + rank];
+	}
+	
+	/**
+	 * Get the card that a primitive code represents
+	 * @param code A code as returned by {@link #getCode()}
+	 * @return The card
+	 */
+	public static Card fromCode(int code) {
+		return CATALOGUE[indexOf(code)];
+	}
+	
+	/**
+	 * Get the card at a given index of the deck
+	 * @param index A number from 0 to 51, as returned by {@link #getIndex()}
+	 * @return The card
+	 */
+	public static Card fromIndex(int index) {
+		return CATALOGUE[index];
+	}
+	
+	/**
+	 * Pack a card into an int. The layout is:
+	 * <pre>
+	 * xxxbbbbb bbbbbbbb ssssrrrr xxpppppp
+	 * </pre>
+	 * where b is a bit flag for the rank, s is a bit flag for the suit, r is the rank index (0 for a 2, 12 for an Ace), and p is the rank's prime.
+	 * @param suit The suit
+	 * @param rank The rank index, from 0 to 12
+	 * @return The code
+	 */
+	public static int encode(Suit suit, int rank) {
+		return (1 << (16 + rank)) | (1 << (12 + suit.ordinal())) | (rank << 8) | RANK_PRIMES[rank];
+	}
+	
+	/**
+	 * Get the code for the card at a given index of the deck
+	 * @param index A number from 0 to 51
+	 * @return The code
+	 */
+	public static int codeForIndex(int index) {
+		return encode(SUITS[index / NUM_RANKS], index % NUM_RANKS);
+	}
+	
+	/**
+	 * Get the rank index from a card code
+	 * @param code The card code
+	 * @return The rank index, from 0 (a 2) to 12 (an Ace)
+	 */
+	public static int rankOf(int code) {
+		return (code >>> 8) & 0xF;
+	}
+	
+	/**
+	 * Get the suit from a card code
+	 * @param code The card code
+	 * @return The suit
+	 */
+	public static Suit suitOf(int code) {
+		return SUITS[suitIndexOf(code)];
+	}
+	
+	/**
+	 * Get the prime for the card's rank from a card code
+	 * @param code The card code
+	 * @return The prime
+	 */
+	public static int primeOf(int code) {
+		return code & 0x3F;
+	}
+	
+	/**
+	 * Get the index into the deck from a card code
+	 * @param code The card code
+	 * @return A number from 0 to 51 
+	 */
+	public static int indexOf(int code) {
+		return suitIndexOf(code) * NUM_RANKS + rankOf(code);
+	}
+	
+	/**
+	 * Get the bit that represents this card in a packed card set.
+	 * Each suit has a 16-bit lane, with one bit per rank. See {@link HandEvaluator}.
+	 * @param code The card code
+	 * @return A long with exactly one bit set
+	 */
+	public static long maskOf(int code) {
+		return 1L << (suitIndexOf(code) * HandEvaluator.LANE_WIDTH + rankOf(code));
+	}
+	
+	private static int suitIndexOf(int code) {
+		return Integer.numberOfTrailingZeros(code >>> 12);
+	}
+	
+	/**
+	 * Turn a value string into a rank index without throwing or allocating
+	 * @param value The value, such as "10" or "Q". Case does not matter.
+	 * @return The rank index, or -1 if the value is not valid
+	 */
+	private static int parseRank(String value) {
+		if (value == null) return -1;
+		
+		if (value.length() == 2) {
+			return (value.charAt(0) == '1' && value.charAt(1) == '0') ? 8 : -1;
+		}
+		if (value.length() != 1) return -1;
 		
-		//Test value to ensure it's valid
-		try {
-			Integer intval = Integer.parseInt(val);
-			if (intval < 2 || intval > 10) {
-				throw new IllegalArgumentException("Invalid value: must be one of 2-10, A, Q, J, or K");
-			}
-		} catch (NumberFormatException e) {
-			if (!val.equalsIgnoreCase("A") 
-					&& !val.equalsIgnoreCase("J")
-					&& !val.equalsIgnoreCase("Q")
-					&& !val.equalsIgnoreCase("K")) {
-						throw new IllegalArgumentException("Invalid value: must be one of 1-10, A, Q, J, or K");
-					}
+		char c = value.charAt(0);
+		if (c >= '2' && c <= '9') return c - '2';
+		switch (Character.toUpperCase(c)) {
+		case 'J':
+			return 9;
+		case 'Q':
+			return 10;
+		case 'K':
+			return 11;
+		case 'A':
+			return 12;
+		default:
+			return -1;
+		}
+	}
+	
+	private static String symbolFor(Suit suit) {
+		switch(suit) {
+		case CLUBS:
+			return "♣";
+		case DIAMONDS:
+			return "♦";
+		case HEARTS:
+			return "♥";
+		case SPADES:
+			return "♠";
+		default:
+			return "";
 		}
-		this.myValue = val.toUpperCase(); //if we haven't thrown by now, it's good. Standardize it though.
 	}
 
 
@@ -112,30 +262,51 @@ public class Card {
 	public String getValue() {
 		return myValue;
 	}
+	
+	/**
+	 * Get the rank of this card as a number
+	 * @return The rank index, from 0 (a 2) to 12 (an Ace)
+	 */
+	public int getRank() {
+		return rankOf(myCode);
+	}
+	
+	/**
+	 * Get this card packed into an int. See {@link #encode(Suit, int)} for the layout.
+	 * @return The code
+	 */
+	public int getCode() {
+		return myCode;
+	}
+	
+	/**
+	 * Get this card's position in a deck. This always fits in a byte.
+	 * @return A number from 0 to 51
+	 */
+	public int getIndex() {
+		return indexOf(myCode);
+	}
+	
+	/**
+	 * Get the bit that represents this card in a packed card set
+	 * @return A long with exactly one bit set
+	 */
+	public long getMask() {
+		return maskOf(myCode);
+	}
 
 	@Override
 	public String toString() {
-		String representation = myValue;
-		switch(mySuit) {
-		case CLUBS:
-			representation += "♣";
-			break;
-		case DIAMONDS:
-			representation += "♦";
-			break;
-		case HEARTS:
-			representation += "♥";
-			break;
-		case SPADES:
-			representation += "♠";
-			break;
-		default:
-			break;
-		
-		}
-		
-		return representation;
+		return myName;
 	}
 	
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Card && ((Card) other).myCode == myCode;
+	}
 	
+	@Override
+	public int hashCode() {
+		return myCode;
+	}
 }
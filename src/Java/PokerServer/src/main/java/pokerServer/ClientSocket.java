@@ -1,40 +1,489 @@
 package pokerServer;
 
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import pokerServer.interfaces.Client;
+import pokerServer.interfaces.ClientObserver;
 import pokerServer.interfaces.Observable;
 import pokerServer.interfaces.Observer;
 
 /**
- * Instances of the class ClientSocket represent external clients connected to the system via TCP sockets. 
- * This class will send messages to the client and listen for messages from the client, 
- * automatically rejecting anything that is not signed appropriately. 
+ * Instances of the class ClientSocket represent external clients connected to the system via TCP sockets.
+ * This class will send messages to the client and listen for messages from the client,
+ * automatically rejecting anything that is not signed appropriately.
+ *
+ * Once {@link #startSigning(byte[])} is called, every native frame in each direction carries an HMAC tag keyed with
+ * the session's key and bound to the frame's place in the conversation (see {@link MessageSigner}). Frames from the
+ * client are checked on their raw bytes, and forged, replayed or unsigned ones are dropped before they are decoded.
+ *
+ * How messages are laid out on the connection is up to its {@link WireFormat}: length-prefixed
+ * {@link MessageCodec} frames for native clients, or WebSocket frames for browsers. Either way the socket is served
+ * in one of two ways. Usually it is non-blocking and belongs to one {@link SelectorLoop}, which does all of its
+ * reading and writing using buffers shared with the loop's other connections. An idle connection holds no buffers
+ * of its own; one is only kept while a frame arrives in pieces or the client is slow to read.
+ *
+ * Alternatively a socket can be served by two threads of its own, one doing blocking reads and one doing blocking
+ * writes. This is meant for virtual threads, which make a blocked thread nearly as cheap as an idle selector key.
  * @author bgreen
  *
  */
 public class ClientSocket implements Client, Observable {
 
+	/** The largest message accepted or sent, in bytes, before any framing **/
+	public static final int MAX_FRAME_SIZE = 64 * 1024;
+	/** The number of bytes holding the length of each native frame **/
+	public static final int LENGTH_BYTES = 4;
+	/** The starting size of each buffer a socket with its own threads keeps. They grow to fit bigger frames. **/
+	static final int THREAD_BUFFER_SIZE = 512;
+
+	//Queued to wake the writing thread when the format has bytes of its own to send; never written itself
+	private static final Message WAKE_UP = new ErrorMessage(null);
+
+	private final SocketChannel channel;
+	private final WireFormat format;
+	//The loop that owns this socket, or null if it has threads of its own
+	private final SelectorLoop loop;
+	private final ThreadFactory threads;
+	private volatile Thread writer;
+	//How many of the socket's own threads are still running; the last one out releases the format
+	private final AtomicInteger threadsRunning;
+	private final CopyOnWriteArrayList<ClientObserver> observers;
+	private SelectionKey key;
+	//The start of a frame that has not all arrived yet
+	private ByteBuffer partial;
+	//Encoded bytes the client has not taken yet
+	private ByteBuffer unsent;
+
+	//Messages waiting to be encoded, from any thread
+	private final LinkedBlockingQueue<Message> outbox;
+	private final AtomicBoolean flushQueued;
+	private final Runnable flushTask;
+	private final AtomicBoolean closed;
+	//Messages too big to ever fit in a frame, which were thrown away. Only the writing side changes it.
+	private volatile int droppedMessages;
+
+	/**
+	 * Wrap a connected channel that will belong to a loop. Nothing is read until the loop registers it.
+	 * @param channel The channel, which is made non-blocking
+	 * @param format How messages are laid out
+	 * @param loop The loop that will own it
+	 * @throws IOException If the channel cannot be made non-blocking
+	 */
+	ClientSocket(SocketChannel channel, WireFormat format, SelectorLoop loop) throws IOException {
+		this(channel, format, loop, null);
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Wrap a connected channel that will be served by threads of its own. Nothing is read until it is started.
+	 * @param channel The channel, which is left blocking
+	 * @param format How messages are laid out
+	 * @param threads Where the socket's reading and writing threads come from
+	 */
+	ClientSocket(SocketChannel channel, WireFormat format, ThreadFactory threads) {
+		this(channel, format, null, threads);
+	}
+
+	private ClientSocket(SocketChannel channel, WireFormat format, SelectorLoop loop, ThreadFactory threads) {
+		this.channel = channel;
+		this.format = format;
+		this.loop = loop;
+		this.threads = threads;
+		this.observers = new CopyOnWriteArrayList<ClientObserver>();
+		this.outbox = new LinkedBlockingQueue<Message>();
+		this.flushQueued = new AtomicBoolean();
+		this.closed = new AtomicBoolean();
+		this.threadsRunning = new AtomicInteger(2);
+		this.flushTask = new Runnable() {
+			@Override
+			public void run() {
+				flushQueued.set(false);
+				flush();
+			}
+		};
+	}
+
 	@Override
 	public boolean addObserver(Observer observer) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		if (observer instanceof ClientObserver) {
+			return observers.addIfAbsent((ClientObserver) observer);
+		}
+		throw new IllegalArgumentException("Not the right kind of observer");
 	}
 
 	@Override
 	public boolean removeObserver(Observer observer) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		if (observer instanceof ClientObserver) {
+			return observers.remove(observer);
+		}
+		throw new IllegalArgumentException("Not the right kind of observer");
 	}
 
+	/**
+	 * Read whatever the client has sent and pass each whole message on to the observers.
+	 * Only called by the loop, when the channel is readable.
+	 */
 	@Override
 	public void receiveMessage() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		ByteBuffer in = loop.readBuffer;
+		in.clear();
+		if (partial != null) {
+			partial.flip();
+			in.put(partial);
+			partial = null;
+		}
+
+		try {
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+		} catch (IOException e) {
+			close();
+			return;
+		}
+
+		in.flip();
+		if (!process(in)) return;
+
+		//Keep the start of the next frame until the rest arrives
+		if (in.hasRemaining() && !format.isFinished()) {
+			partial = ByteBuffer.allocate(in.remaining());
+			partial.put(in);
+		}
+		if (format.hasControl()) flush();
 	}
 
+	/**
+	 * Send a message to the client. This can be called from any thread and never blocks; the message is written by
+	 * the loop or the socket's writing thread, in the order sent. Messages sent after the connection closes are dropped.
+	 */
 	@Override
 	public void sendMessage(Message message) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		if (closed.get()) return;
+		outbox.add(message);
+		if (loop != null && flushQueued.compareAndSet(false, true)) loop.execute(flushTask);
+	}
+
+	/**
+	 * Start signing the conversation. Call it from the observer handling the message that set the session up, so
+	 * every frame read after that message must be signed, as must every message written after the call.
+	 * @param sessionKey The key shared with the client, at least 16 bytes
+	 * @throws UnsupportedOperationException If the connection's format cannot carry signatures
+	 */
+	public void startSigning(byte[] sessionKey) {
+		format.startSigning(new MessageSigner(sessionKey));
+	}
+
+	/**
+	 * Get the address of the client
+	 * @return The address, or null if it is not known
+	 */
+	public SocketAddress getRemoteAddress() {
+		try {
+			return channel.getRemoteAddress();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get the number of messages thrown away because they were too big to send
+	 * @return The number dropped
+	 */
+	public int getDroppedMessages() {
+		return droppedMessages;
+	}
+
+	/**
+	 * Check whether the connection has closed
+	 * @return True if closed
+	 */
+	public boolean isClosed() {
+		return closed.get();
+	}
+
+	/**
+	 * Close the connection. The observers are told the client has quit, once.
+	 */
+	public void close() {
+		if (!closed.compareAndSet(false, true)) return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			//Closing anyway
+		}
+		outbox.clear();
+		if (loop != null) {
+			//The format is only touched on the loop's thread
+			loop.execute(new Runnable() {
+				@Override
+				public void run() {
+					format.release();
+				}
+			});
+		} else if (writer != null) {
+			writer.interrupt();
+		}
+		dispatch(new QuitMessage(this));
 	}
 
+	/**
+	 * Pass on each whole message in what has been read
+	 * @param in The bytes read
+	 * @return False if the connection has closed
+	 */
+	private boolean process(ByteBuffer in) {
+		try {
+			while (in.hasRemaining() && !format.isFinished()) {
+				int before = in.position();
+				Message message = format.read(in, this);
+				if (message != null) {
+					dispatch(message);
+					if (closed.get()) return false;
+				} else if (in.position() == before) {
+					break;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			//Not our protocol, or not a client worth talking to
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Start reading. Only called by the loop.
+	 */
+	void register() {
+		if (closed.get()) return;
+		try {
+			key = channel.register(loop.getSelector(), SelectionKey.OP_READ, this);
+		} catch (IOException e) {
+			close();
+			return;
+		}
+		//Anything sent before now is waiting
+		flush();
+	}
+
+	/**
+	 * Write as much as the client will take. Only called by the loop.
+	 */
+	void flush() {
+		if (key == null || closed.get()) return;
+
+		try {
+			if (unsent != null) {
+				channel.write(unsent);
+				if (unsent.hasRemaining()) return;
+				unsent = null;
+			}
+
+			ByteBuffer out = loop.writeBuffer;
+			out.clear();
+			while (true) {
+				if (format.hasControl() && !format.writeControl(out)) {
+					if (!write(out)) return;
+					continue;
+				}
+
+				Message message = format.canWrite() ? outbox.peek() : null;
+				if (message == null) break;
+				boolean written;
+				try {
+					written = format.write(message, out);
+				} catch (IllegalArgumentException e) {
+					//Not something a client can be sent; skip it
+					e.printStackTrace();
+					written = true;
+				}
+
+				if (written) {
+					outbox.poll();
+				} else if (out.position() == 0) {
+					//Too big to ever send
+					outbox.poll();
+					droppedMessages++;
+				} else if (!write(out)) {
+					return;
+				}
+			}
+			if (out.position() > 0 && !write(out)) return;
+			key.interestOps(SelectionKey.OP_READ);
+			if (format.isFinished()) close();
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Write the buffer. Whatever the client will not take now is kept, and the loop waits until it can take more.
+	 * @return True if everything was written
+	 */
+	private boolean write(ByteBuffer out) throws IOException {
+		out.flip();
+		channel.write(out);
+		if (out.hasRemaining()) {
+			unsent = ByteBuffer.allocate(out.remaining());
+			unsent.put(out);
+			unsent.flip();
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			return false;
+		}
+		out.clear();
+		return true;
+	}
+
+	/**
+	 * Start the socket's own reading and writing threads
+	 */
+	void start() {
+		writer = threads.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeFrames();
+				} finally {
+					if (threadsRunning.decrementAndGet() == 0) format.release();
+				}
+			}
+		});
+		Thread reader = threads.newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					readFrames();
+				} finally {
+					if (threadsRunning.decrementAndGet() == 0) format.release();
+				}
+			}
+		});
+		writer.start();
+		reader.start();
+		//Closed before the writer existed to be stopped
+		if (closed.get()) writer.interrupt();
+	}
+
+	/**
+	 * Read until the connection closes. Runs on the socket's reading thread.
+	 */
+	private void readFrames() {
+		ByteBuffer in = ByteBuffer.allocate(THREAD_BUFFER_SIZE);
+		try {
+			while (!closed.get() && !format.isFinished()) {
+				if (channel.read(in) < 0) break;
+				in.flip();
+				if (!process(in)) return;
+				in.compact();
+				if (format.hasControl()) outbox.add(WAKE_UP);
+
+				//A frame bigger than the buffer is on its way
+				if (!in.hasRemaining()) {
+					if (in.capacity() >= WireFormat.MAX_WIRE_FRAME) break;
+					ByteBuffer bigger = ByteBuffer.allocate(Math.min(in.capacity() * 2, WireFormat.MAX_WIRE_FRAME));
+					in.flip();
+					bigger.put(in);
+					in = bigger;
+				}
+			}
+		} catch (IOException e) {
+			//Hung up
+		}
+		//A format that has finished is closed by the writer, once it has said goodbye; wake it in case it is waiting
+		if (format.isFinished()) {
+			outbox.add(WAKE_UP);
+		} else {
+			close();
+		}
+	}
+
+	/**
+	 * Write messages as they are sent until the connection closes, several to a write when they queue up.
+	 * Runs on the socket's writing thread.
+	 */
+	private void writeFrames() {
+		ByteBuffer out = ByteBuffer.allocate(THREAD_BUFFER_SIZE);
+		//Messages taken from the outbox but not yet written
+		ArrayDeque<Message> held = new ArrayDeque<Message>();
+		try {
+			while (!closed.get()) {
+				held.add(outbox.take());
+				outbox.drainTo(held);
+				out.clear();
+				//The reader queues its goodbye before the format finishes, so once this is seen the goodbye is
+				//among the controls written below
+				boolean finished = format.isFinished();
+
+				while (format.hasControl() && !format.writeControl(out)) {
+					out = makeRoom(out);
+				}
+				while (format.canWrite() && !held.isEmpty()) {
+					Message message = held.peek();
+					try {
+						if (message == WAKE_UP || format.write(message, out)) {
+							held.poll();
+						} else if (out.position() == 0 && out.capacity() >= WireFormat.MAX_WIRE_FRAME) {
+							held.poll();
+							droppedMessages++;
+						} else {
+							out = makeRoom(out);
+						}
+					} catch (IllegalArgumentException e) {
+						held.poll();
+						e.printStackTrace();
+					}
+				}
+				writeFully(out);
+
+				if (finished) close();
+			}
+		} catch (InterruptedException e) {
+			//Closed while waiting
+		} catch (IOException e) {
+			close();
+		}
+	}
+
+	/**
+	 * Make room in the writing thread's buffer, by sending what is in it or, if it is empty, by growing it
+	 * @return The buffer to carry on with
+	 */
+	private ByteBuffer makeRoom(ByteBuffer out) throws IOException {
+		if (out.position() > 0) {
+			writeFully(out);
+			return out;
+		}
+		return ByteBuffer.allocate(Math.min(out.capacity() * 2, WireFormat.MAX_WIRE_FRAME));
+	}
+
+	private void writeFully(ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+
+	private void dispatch(Message message) {
+		for (ClientObserver observer : observers) {
+			try {
+				observer.onMessageReceived(message);
+			} catch (RuntimeException e) {
+				//A broken observer must not take the loop down
+				e.printStackTrace();
+			}
+		}
+	}
 }
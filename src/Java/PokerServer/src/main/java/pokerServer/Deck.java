@@ -0,0 +1,81 @@
+package pokerServer;
+
+import java.util.Random;
+
+/**
+ * A reusable deck of playing cards. Each table should own one and shuffle it between hands.
+ * The deck is kept as a permutation of card indexes in a primitive array and is shuffled in place
+ * with a Fisher-Yates shuffle that runs one step per card dealt, so both shuffling and dealing
+ * are constant time and never create garbage.
+ * @author bgreen
+ *
+ */
+public class Deck {
+
+	private final byte[] order;
+	private final Random rand;
+	private int dealt;
+
+	/**
+	 * Create a new deck
+	 * @param rand The random number generator to shuffle with
+	 */
+	public Deck(Random rand) {
+		this.rand = rand;
+		this.order = new byte[Card.DECK_SIZE];
+		for (int i = 0; i < Card.DECK_SIZE; i++) {
+			order[i] = (byte) i;
+		}
+		this.dealt = 0;
+	}
+
+	/**
+	 * Create a new deck with its own random number generator
+	 */
+	public Deck() {
+		this(new Random());
+	}
+
+	/**
+	 * Return all cards to the deck and shuffle it.
+	 * The shuffle itself happens as cards are dealt, so this is constant time.
+	 */
+	public void shuffle() {
+		dealt = 0;
+	}
+
+	/**
+	 * Deal the next card from the deck
+	 * @return The card's index, from 0 to 51. See {@link Card#fromIndex(int)}.
+	 */
+	public int dealIndex() {
+		if (dealt >= Card.DECK_SIZE) {
+			throw new IllegalStateException("The deck is empty");
+		}
+
+		//One step of Fisher-Yates: swap a random undealt card into the next position
+		int pick = dealt + rand.nextInt(Card.DECK_SIZE - dealt);
+		byte card = order[pick];
+		order[pick] = order[dealt];
+		order[dealt] = card;
+		dealt++;
+
+		return card;
+	}
+
+	/**
+	 * Deal the next card from the deck
+	 * @return The card
+	 */
+	public Card deal() {
+		return Card.fromIndex(dealIndex());
+	}
+
+	/**
+	 * Get the number of cards that have not been dealt yet
+	 * @return The number of cards left
+	 */
+	public int remaining() {
+		return Card.DECK_SIZE - dealt;
+	}
+}
@@ -0,0 +1,415 @@
+package pokerServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Estimates each player's chance of winning, tying or losing a hand from the cards known so far.
+ * The rest of the board (and any hole cards that are not known) are dealt at random many times over,
+ * and each deal is scored with the {@link HandEvaluator}. Deals are run in fixed-size batches by one
+ * worker per core on the common fork/join pool, each using its own thread's random number generator.
+ *
+ * The work can be capped by a number of trials, by a time budget, or both.
+ * When every hole card is known and few enough boards remain (as on the flop and turn),
+ * every board is scored instead and the result is exact.
+ * @author bgreen
+ *
+ */
+public class EquityCalculator {
+
+	/** The number of trials used if no budget is given. Enough for results within about half a percent. **/
+	public static final int DEFAULT_TRIALS = 50000;
+	/** The number of trials run by each parallel batch **/
+	static final int BATCH_SIZE = 2048;
+	/** Enumerations of fewer boards than this are not worth splitting across cores **/
+	static final int PARALLEL_BOARDS = 2000;
+
+	private static final int BOARD_SIZE = 5;
+	private static final int HAND_SIZE = 2;
+
+	private final int maxTrials;
+	private final long maxNanos;
+
+	/**
+	 * Create a calculator with a trial budget and a time budget. Whichever runs out first ends the calculation.
+	 * @param maxTrials The most trials to run
+	 * @param maxMillis The most time to spend, in milliseconds, or 0 for no time limit
+	 */
+	public EquityCalculator(int maxTrials, long maxMillis) {
+		if (maxTrials < 1) throw new IllegalArgumentException("Must allow at least one trial");
+		if (maxMillis < 0) throw new IllegalArgumentException("Time budget cannot be negative");
+		this.maxTrials = maxTrials;
+		this.maxNanos = maxMillis * 1000000L;
+	}
+
+	/**
+	 * Create a calculator with a trial budget and no time budget
+	 * @param maxTrials The most trials to run
+	 */
+	public EquityCalculator(int maxTrials) {
+		this(maxTrials, 0);
+	}
+
+	/**
+	 * Create a calculator with the default trial budget
+	 */
+	public EquityCalculator() {
+		this(DEFAULT_TRIALS);
+	}
+
+	/**
+	 * Calculate equity for each hand.
+	 * If every hole card is known and there are no more possible boards than the trial budget,
+	 * every board is enumerated and the result is exact. Otherwise boards are sampled at random.
+	 * @param hands Each player's hole cards. A hand with fewer than two cards has the rest dealt at random.
+	 * @param tableCards The cards on the table so far
+	 * @return The equity of each hand, in the same order as the hands were given
+	 */
+	public Equity[] calculate(List<ArrayList<Card>> hands, ArrayList<Card> tableCards) {
+		Deal job = new Deal(hands, tableCards);
+
+		if (job.holeCardsToDeal == 0 && job.countBoards() <= maxTrials) {
+			return job.enumerate().toEquity();
+		}
+
+		int batches = (int) ((maxTrials + (long) BATCH_SIZE - 1) / BATCH_SIZE);
+		int workers = Math.min(batches, Runtime.getRuntime().availableProcessors());
+		long deadline = maxNanos > 0 ? System.nanoTime() + maxNanos : Long.MAX_VALUE;
+		AtomicInteger nextBatch = new AtomicInteger();
+
+		//Each worker keeps taking batches until the trials or the time run out. The first batch always runs.
+		Tally total = IntStream.range(0, workers).parallel()
+				.mapToObj(worker -> {
+					Tally tally = new Tally(job.numPlayers);
+					int batch;
+					while ((batch = nextBatch.getAndIncrement()) < batches) {
+						if (batch > 0 && System.nanoTime() > deadline) break;
+						job.sample(tally, (int) Math.min(BATCH_SIZE, maxTrials - (long) batch * BATCH_SIZE));
+					}
+					return tally;
+				})
+				.reduce(new Tally(job.numPlayers), Tally::merge);
+
+		return total.toEquity();
+	}
+
+	/**
+	 * Calculate the exact equity for each hand by scoring every possible way the board could finish.
+	 * This ignores the trial and time budgets. It is quick once the flop is out
+	 * (a few hundred boards for a full table) but expensive before it.
+	 * @param hands Each player's hole cards. Every hole card must be known.
+	 * @param tableCards The cards on the table so far
+	 * @return The equity of each hand, in the same order as the hands were given
+	 */
+	public Equity[] calculateExact(List<ArrayList<Card>> hands, ArrayList<Card> tableCards) {
+		Deal job = new Deal(hands, tableCards);
+		if (job.holeCardsToDeal != 0) throw new IllegalArgumentException("Every hole card must be known");
+		return job.enumerate().toEquity();
+	}
+
+	/**
+	 * The known cards of a hand in progress, and the work of finishing it. Read-only once built.
+	 */
+	private static class Deal {
+		final int numPlayers;
+		final long[] holeSets;
+		final int[] missingHoleCards;
+		final long boardSet;
+		final int boardCardsToDeal;
+		final int holeCardsToDeal;
+		final long[] liveCards;
+
+		Deal(List<ArrayList<Card>> hands, ArrayList<Card> tableCards) {
+			if (tableCards.size() > BOARD_SIZE) throw new IllegalArgumentException("Too many table cards");
+
+			numPlayers = hands.size();
+			holeSets = new long[numPlayers];
+			missingHoleCards = new int[numPlayers];
+			boardSet = HandEvaluator.addToCardSet(0L, tableCards);
+			boardCardsToDeal = BOARD_SIZE - tableCards.size();
+			if (Long.bitCount(boardSet) != tableCards.size()) throw new IllegalArgumentException("Duplicate card");
+
+			long deadCards = boardSet;
+			int toDeal = 0;
+			for (int i = 0; i < numPlayers; i++) {
+				ArrayList<Card> hand = hands.get(i);
+				if (hand.size() > HAND_SIZE) throw new IllegalArgumentException("Too many cards in hand");
+
+				holeSets[i] = HandEvaluator.addToCardSet(0L, hand);
+				missingHoleCards[i] = HAND_SIZE - hand.size();
+				toDeal += missingHoleCards[i];
+				if ((deadCards & holeSets[i]) != 0 || Long.bitCount(holeSets[i]) != hand.size()) {
+					throw new IllegalArgumentException("Duplicate card");
+				}
+				deadCards |= holeSets[i];
+			}
+			holeCardsToDeal = toDeal;
+
+			liveCards = new long[Card.DECK_SIZE - Long.bitCount(deadCards)];
+			int next = 0;
+			for (int i = 0; i < Card.DECK_SIZE; i++) {
+				long bit = Card.fromIndex(i).getMask();
+				if ((deadCards & bit) == 0) liveCards[next++] = bit;
+			}
+
+			if (boardCardsToDeal + holeCardsToDeal > liveCards.length) {
+				throw new IllegalArgumentException("Not enough cards left to deal");
+			}
+		}
+
+		/**
+		 * Count the ways the board could finish
+		 * @return The number of distinct boards
+		 */
+		long countBoards() {
+			long count = 1;
+			for (int i = 0; i < boardCardsToDeal; i++) {
+				count = count * (liveCards.length - i) / (i + 1);
+			}
+			return count;
+		}
+
+		/**
+		 * Run a batch of random trials
+		 * @param tally The totals to add the results to
+		 * @param count The number of trials
+		 */
+		void sample(Tally tally, int count) {
+			int cardsToDeal = boardCardsToDeal + holeCardsToDeal;
+			long[] deck = liveCards.clone();
+			int[] values = new int[numPlayers];
+			ThreadLocalRandom rand = ThreadLocalRandom.current();
+
+			for (int trial = 0; trial < count; trial++) {
+				//Partial Fisher-Yates: the first cardsToDeal entries of the deck become this trial's cards
+				for (int i = 0; i < cardsToDeal; i++) {
+					int pick = i + rand.nextInt(deck.length - i);
+					long card = deck[pick];
+					deck[pick] = deck[i];
+					deck[i] = card;
+				}
+
+				long board = boardSet;
+				int next = 0;
+				for (; next < boardCardsToDeal; next++) {
+					board |= deck[next];
+				}
+
+				for (int p = 0; p < numPlayers; p++) {
+					long hand = holeSets[p] | board;
+					for (int i = 0; i < missingHoleCards[p]; i++) {
+						hand |= deck[next++];
+					}
+					values[p] = HandEvaluator.evaluate(hand);
+				}
+
+				tally.record(values);
+			}
+		}
+
+		/**
+		 * Score every possible board, splitting the work across cores if there is enough of it
+		 * @return The results
+		 */
+		Tally enumerate() {
+			if (boardCardsToDeal == 0 || countBoards() < PARALLEL_BOARDS) {
+				Tally tally = new Tally(numPlayers);
+				enumerate(tally, new int[numPlayers], boardSet, 0, boardCardsToDeal);
+				return tally;
+			}
+			return ForkJoinPool.commonPool().invoke(new BoardTask(this, 0, liveCards.length - boardCardsToDeal + 1));
+		}
+
+		/**
+		 * Score every board that can be made by adding cards from a point in the live cards onward.
+		 * The partial board is carried down, so each finished board costs one OR and one evaluation per seat.
+		 * @param tally The totals to add the results to
+		 * @param values Scratch space for each seat's hand value
+		 * @param board The board so far
+		 * @param from The first live card that may be added
+		 * @param cardsLeft The number of cards still to add
+		 */
+		void enumerate(Tally tally, int[] values, long board, int from, int cardsLeft) {
+			if (cardsLeft == 0) {
+				for (int p = 0; p < numPlayers; p++) {
+					values[p] = HandEvaluator.evaluate(holeSets[p] | board);
+				}
+				tally.record(values);
+				return;
+			}
+
+			for (int i = from; i <= liveCards.length - cardsLeft; i++) {
+				enumerate(tally, values, board | liveCards[i], i + 1, cardsLeft - 1);
+			}
+		}
+	}
+
+	/**
+	 * Enumerates the boards that start with a range of live cards, splitting the range in half until it is small.
+	 */
+	@SuppressWarnings("serial")
+	private static class BoardTask extends RecursiveTask<Tally> {
+		private final Deal deal;
+		private final int firstFrom;
+		private final int firstTo;
+
+		BoardTask(Deal deal, int firstFrom, int firstTo) {
+			this.deal = deal;
+			this.firstFrom = firstFrom;
+			this.firstTo = firstTo;
+		}
+
+		@Override
+		protected Tally compute() {
+			if (firstTo - firstFrom > 1) {
+				int middle = (firstFrom + firstTo) >>> 1;
+				BoardTask low = new BoardTask(deal, firstFrom, middle);
+				low.fork();
+				Tally high = new BoardTask(deal, middle, firstTo).compute();
+				return high.merge(low.join());
+			}
+
+			Tally tally = new Tally(deal.numPlayers);
+			deal.enumerate(tally, new int[deal.numPlayers], deal.boardSet | deal.liveCards[firstFrom],
+					firstFrom + 1, deal.boardCardsToDeal - 1);
+			return tally;
+		}
+	}
+
+	/**
+	 * Running totals of trial results
+	 */
+	static class Tally {
+		final long[] wins;
+		final long[] ties;
+		final double[] tieShares;
+		long trials;
+
+		Tally(int numPlayers) {
+			wins = new long[numPlayers];
+			ties = new long[numPlayers];
+			tieShares = new double[numPlayers];
+			trials = 0;
+		}
+
+		void record(int[] values) {
+			int best = -1;
+			int numBest = 0;
+			for (int p = 0; p < values.length; p++) {
+				if (values[p] > best) {
+					best = values[p];
+					numBest = 1;
+				} else if (values[p] == best) {
+					numBest++;
+				}
+			}
+
+			for (int p = 0; p < values.length; p++) {
+				if (values[p] == best) {
+					if (numBest == 1) {
+						wins[p]++;
+					} else {
+						ties[p]++;
+						tieShares[p] += 1.0 / numBest;
+					}
+				}
+			}
+			trials++;
+		}
+
+		Tally merge(Tally other) {
+			Tally merged = new Tally(wins.length);
+			for (int p = 0; p < wins.length; p++) {
+				merged.wins[p] = wins[p] + other.wins[p];
+				merged.ties[p] = ties[p] + other.ties[p];
+				merged.tieShares[p] = tieShares[p] + other.tieShares[p];
+			}
+			merged.trials = trials + other.trials;
+			return merged;
+		}
+
+		Equity[] toEquity() {
+			Equity[] result = new Equity[wins.length];
+			for (int p = 0; p < wins.length; p++) {
+				result[p] = new Equity(wins[p], ties[p], tieShares[p], trials);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * One hand's share of the outcomes
+	 * @author bgreen
+	 *
+	 */
+	public static class Equity {
+		private final double win;
+		private final double tie;
+		private final double share;
+		private final long trials;
+
+		Equity(long wins, long ties, double tieShares, long trials) {
+			this.trials = trials;
+			this.win = trials == 0 ? 0 : (double) wins / trials;
+			this.tie = trials == 0 ? 0 : (double) ties / trials;
+			this.share = trials == 0 ? 0 : (wins + tieShares) / trials;
+		}
+
+		Equity(double win, double tie, double share) {
+			this.trials = 0;
+			this.win = win;
+			this.tie = tie;
+			this.share = share;
+		}
+
+		/**
+		 * Get the chance of winning the whole pot
+		 * @return A number from 0 to 1
+		 */
+		public double getWin() {
+			return win;
+		}
+
+		/**
+		 * Get the chance of splitting the pot with others
+		 * @return A number from 0 to 1
+		 */
+		public double getTie() {
+			return tie;
+		}
+
+		/**
+		 * Get the chance of losing
+		 * @return A number from 0 to 1
+		 */
+		public double getLose() {
+			return 1 - win - tie;
+		}
+
+		/**
+		 * Get the expected share of the pot, counting a split pot as a fraction of a win
+		 * @return A number from 0 to 1
+		 */
+		public double getShare() {
+			return share;
+		}
+
+		/**
+		 * Get the number of deals this equity was calculated from
+		 * @return The number of trials, or 0 if it was looked up in a precomputed table
+		 */
+		public long getTrials() {
+			return trials;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Win %.2f%%, Tie %.2f%%, Lose %.2f%%", win * 100, tie * 100, getLose() * 100);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package pokerServer;
+
+import java.util.HashMap;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * A request from a client to fold their hand, and possibly leave the game as well.
+ * @author bgreen
+ *
+ */
+public class FoldMessage extends ActionMessage {
+
+	private final boolean quit;
+
+	/**
+	 * Create a fold
+	 * @param quit True if the player is also leaving the game
+	 * @param clientInvolved The client folding
+	 */
+	public FoldMessage(boolean quit, Client clientInvolved) {
+		super(Action.FOLD, clientInvolved, true);
+		this.quit = quit;
+	}
+
+	/**
+	 * Check whether the player is leaving the game as well as folding
+	 * @return True if the player is quitting
+	 */
+	public boolean isQuit() {
+		return quit;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Quit", quit);
+		return parameters;
+	}
+}
@@ -1,11 +1,19 @@
 package pokerServer;
 
+import java.net.URL;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import pokerServer.ActionMessage.Action;
-import pokerServer.StateMessage.StateType;
+import pokerServer.EquityCalculator.Equity;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.HandEvaluator.HandCategory;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
 import pokerServer.interfaces.Observable;
 import pokerServer.interfaces.Observer;
 import pokerServer.interfaces.StateObserver;
@@ -14,48 +22,152 @@ import pokerServer.interfaces.StateObserver;
  * Instances of the class �Game� shall represent a single game currently in progress. 
  * It shall handle the turns of the game, including enforcing the business rules. 
  * There is the possibility of observing a game without being a player in it, though no client currently implements this behavior.
+ * 
+ * A game is only ever changed by one thread at a time. Anything from outside, such as a player's action, a player
+ * joining or leaving, or a timer, is posted to the game's {@link Mailbox} with {@link #post(Runnable)}, and the
+ * game's other methods are only called from inside those events. The game logic itself needs no locks, runs in the
+ * order things were posted, and different tables still run on different cores.
+ * 
+ * Each player has {@link PokerServer#ACTION_TIMEOUT_MILLIS} to act, timed on the shared {@link TurnTimer}. When it
+ * runs out, their time bank buys them more if it can; otherwise they check if nobody has bet this round, and fold if
+ * somebody has, so one idle player cannot stall the table.
+ * 
+ * The game keeps the lobbies' listing of it up to date itself, sending a new {@link Listing} whenever what it shows
+ * changes.
  * @author bgreen
  *
  */
 public class Game implements Observable {
 
+	/** The most deltas sent in a row before a full snapshot is sent again **/
+	public static final int SNAPSHOT_INTERVAL = 20;
+
 	protected Integer ID;
+	private final Mailbox inbox;
+	//Which event loop the game runs on, or null if it was given an executor of its own
+	private final GameScheduler.Placement placement;
 	private ArrayList<StateObserver> observers;
-	private HashMap<Integer, Player> players;
-	private HashMap<Integer, Player> stillInGame;
+	private StateDispatcher dispatcher;
+	//Each seat holds a player or null. Bit n of occupiedSeats is set when seat n is taken,
+	//and bit n of activeSeats while that player is still in the current hand.
+	private Player[] seats;
+	private int occupiedSeats;
+	private int activeSeats;
 	public GameState state;
-	private ArrayList<Card> deck;
+	private Deck deck;
 	private Random rand;
 	private Integer pot;
 	private Player dealer;
+	//The dealer's seat, which still ends each round of betting if the dealer leaves during the hand
+	private int dealerSeat = -1;
 	private Player currentActor;
 	private ArrayList<Card> tableCards;
 	private ActionMessage lastAction;
 	
+	//Each position's cards and best hand so far, kept up to date as cards are dealt
+	private long[] holeCards;
+	private long boardCards;
+	private int[] handValues;
+	
+	//What each position has put in this hand, and what it wins back
+	private PotSettlement settlement;
+	private int[] payouts;
+	
 	private boolean useAnte;
 	
+	//The current actor's deadline, and a count of turns so a deadline that fires after its turn is over is ignored
+	private TurnTimer.Timeout turnTimeout;
+	private int turnNumber;
+	//Whether anyone has put chips in during this round of betting, which decides between checking and folding
+	private boolean betThisRound;
+	
+	//Updates are numbered so clients can tell when they have missed one. Most are sent as deltas from the last state.
+	private int stateSequence;
+	private GameStateMessage lastState;
+	private int deltasSinceSnapshot;
+	//Each seat's own hand, chips and equity as its player last saw them, so deltas only carry them when they change
+	private PrivateState[] sentPrivate;
+	//The listing last sent to the lobbies, so an unchanged one is not sent again
+	private Listing lastListing;
+	
 	/**
 	 * Create a new game and add it to the list
+	 * @param ante Whether each hand starts with an ante
 	 */
 	public Game(boolean ante) {
-		ID = PokerServer.addGame(this);
+		this(ante, null);
+	}
+	
+	/**
+	 * Create a new game and add it to the list
+	 * @param ante Whether each hand starts with an ante
+	 * @param executor Where the game's events run, or null to pin the game to one of the server's event loops
+	 */
+	public Game(boolean ante, Executor executor) {
+		this(ante, executor, null);
+	}
+	
+	/**
+	 * Create a new game and add it to the list
+	 * @param ante Whether each hand starts with an ante
+	 * @param executor Where the game's events run, or null to pin the game to one of the server's event loops
+	 * @param dispatcher What delivers the game's state to its observers, or null to use the server's
+	 */
+	public Game(boolean ante, Executor executor, StateDispatcher dispatcher) {
+		ID = PokerServer.allocateGameID();
+		placement = executor == null ? PokerServer.getGameScheduler().place(ID) : null;
+		inbox = new Mailbox(executor == null ? placement : executor);
 		observers = new ArrayList<StateObserver>();
-		players = new HashMap<Integer, Player>();
+		this.dispatcher = dispatcher == null ? PokerServer.getStateDispatcher() : dispatcher;
+		seats = new Player[PokerServer.MAX_PLAYERS_PER_GAME];
+		sentPrivate = new PrivateState[PokerServer.MAX_PLAYERS_PER_GAME];
+		occupiedSeats = 0;
+		activeSeats = 0;
 		this.state = GameState.WAITING_FOR_PLAYERS;
 		this.rand = new Random();
+		this.deck = new Deck(rand);
 		this.pot = 0;
 		this.tableCards = new ArrayList<Card>();
+		this.holeCards = new long[PokerServer.MAX_PLAYERS_PER_GAME];
+		this.boardCards = 0L;
+		this.handValues = new int[PokerServer.MAX_PLAYERS_PER_GAME];
+		Arrays.fill(handValues, -1);
+		this.settlement = new PotSettlement(PokerServer.MAX_PLAYERS_PER_GAME);
+		this.payouts = new int[PokerServer.MAX_PLAYERS_PER_GAME];
 		useAnte = ante;
+		
+		//Other threads can find the game from here on
+		PokerServer.addGame(this);
+		listingChanged();
 	}
 	
 	public Game() {
 		this(true);
 	}
 	
+	/**
+	 * Get the game's ID, which clients use to join it
+	 * @return The ID
+	 */
+	public Integer getID() {
+		return ID;
+	}
+	
+	/**
+	 * Run something on the game's own thread, after everything posted before it. Safe to call from any thread.
+	 * @param event What to run. It may call any of the game's methods.
+	 */
+	public void post(Runnable event) {
+		inbox.post(event);
+	}
+	
 	@Override
 	public boolean addObserver(Observer observer) {
 		if (observer instanceof StateObserver) {
 			observers.add((StateObserver) observer);
+			//Deltas are no use without the state they apply to
+			sendSnapshot((StateObserver) observer);
+			listingChanged();
 			return true;
 		}
 		throw new IllegalArgumentException("Not the right kind of observer");
@@ -64,7 +176,11 @@ public class Game implements Observable {
 	@Override
 	public boolean removeObserver(Observer observer) {
 		if (observer instanceof StateObserver) {
-			return observers.remove((StateObserver) observer);
+			//Only what this game queued; the observer may already have updates waiting from its next game
+			dispatcher.remove(this, (StateObserver) observer);
+			boolean removed = observers.remove((StateObserver) observer);
+			listingChanged();
+			return removed;
 		}
 		throw new IllegalArgumentException("Not the right kind of observer");
 	}
@@ -75,21 +191,21 @@ public class Game implements Observable {
 	 * @return True if the add succeeded, false if it did not. Usually if it did not succeed, the game is full.
 	 */
 	public boolean addPlayer(Player player) {
-		//Here we have to iterate over the option positions
-		//because when people leave, they leave an open seat
-		//so we will want to fill open seats
+		//When people leave, they leave an open seat, so fill the lowest open seat
+		int limit = Math.min(PokerServer.MAX_PLAYERS_PER_GAME, seats.length);
+		int openSeats = ~occupiedSeats & ((1 << limit) - 1);
+		if (openSeats == 0) return false;
 		
-		for (int i = 0; i < PokerServer.MAX_PLAYERS_PER_GAME; i++) {
-			if (!players.containsKey(i)) {
-				players.put(i, player);
-				if (state == GameState.WAITING_FOR_PLAYERS && players.size() >= PokerServer.MIN_PLAYERS_PER_GAME) {
-					advanceState();
-				}
-				return true;
-			};
-		}
+		int seat = Integer.numberOfTrailingZeros(openSeats);
+		seats[seat] = player;
+		occupiedSeats |= 1 << seat;
+		player.takeSeat(this, seat);
 		
-		return false;
+		if (state == GameState.WAITING_FOR_PLAYERS && Integer.bitCount(occupiedSeats) >= PokerServer.MIN_PLAYERS_PER_GAME) {
+			advanceState();
+		}
+		listingChanged();
+		return true;
 	}
 	
 	/**
@@ -104,76 +220,101 @@ public class Game implements Observable {
 			return false;
 		}
 		
-		int position = getPositionFor(player);
+		int position = seatOf(player);
 		
 		//That just leaves betting and folding
 		if (am.action == Action.FOLD) {
-			stillInGame.remove(position);
+			activeSeats &= ~(1 << position);
+			settlement.fold(position);
 			
 			//Check for end of game resulting from this action
-			if (stillInGame.size() <= 1) {
+			if (Integer.bitCount(activeSeats) <= 1) {
 				calculateWinner();
 			}
 		} else if (am.action == Action.BET){
-			//Betting
-			Integer amount = (Integer) am.getParameter("Amount");
+			//Betting. Bets that arrived untyped are checked here; typed ones were checked when they were decoded.
+			BetMessage bet;
+			try {
+				bet = (BetMessage) am.toTyped();
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+			
+			//Player already checked if they have enough, and has taken the bet from their chips, so it is all-in if
+			//that left them none. The client's own flag is not trusted: claiming all-in with chips left is refused.
+			boolean allIn = player.getChips() == 0;
+			if (bet.isAllIn() && !allIn) return false;
 			
-			//Player already checked if they have enough
 			//So we just add it to the pot
-			pot += amount;
+			pot += bet.getAmount();
+			settlement.contribute(position, bet.getAmount(), allIn);
+			if (bet.getAmount() > 0) betThisRound = true;
 			
 		} else {
 			return false;
 		}
+		lastAction = am;
 		
 		//Continue on
 		currentActor = getNextValidPlayer(position);
-		//If the next player is the dealer, advance the state
-		if (currentActor == dealer) {
+		//If the next player is the dealer, advance the state. A dealer who is all in or has left is passed over, so
+		//passing their seat counts too.
+		int nextPosition = seatOf(currentActor);
+		if (nextPosition == dealerSeat || passes(position, nextPosition, dealerSeat)) {
 			advanceState();
 		}
+		startTurn();
 		messageStateChanged();
 		return true;
 	}
 	
 	private Player getNextValidPlayer(int lastPosition) {
-		for (int i = lastPosition+1; i <= stillInGame.size(); i++) {
-			if (stillInGame.containsKey(i)) {
-				return stillInGame.get(i);
-			}
-		}
-		
-		//Wrap around
-		for (int i = 0; i <= lastPosition; i++) {
-			if (stillInGame.containsKey(i)) {
-				return stillInGame.get(i);
-			}
-		}
+		//Players who are all in have nothing left to bet. If that is everyone, they check their way to the showdown.
+		int canAct = activeSeats & ~settlement.getAllInSeats();
+		return seats[nextSeat(canAct != 0 ? canAct : activeSeats, lastPosition)];
+	}
+	
+	/**
+	 * Check whether going round the table from one seat to another passes over a third on the way
+	 * @param from The seat to start from
+	 * @param to The seat to stop at, which may be the same seat all the way round
+	 * @param seat The seat to look for
+	 * @return True if the seat comes after from and before to
+	 */
+	private boolean passes(int from, int to, int seat) {
+		if (seat < 0 || seat == from) return false;
+		return Math.floorMod(seat - from, seats.length) <= Math.floorMod(to - from - 1, seats.length);
+	}
+	
+	/**
+	 * Find the next seat in a set after a given one, wrapping around the table
+	 * @param seatMask The seats to pick from, one bit per seat
+	 * @param lastPosition The seat to start after
+	 * @return The first seat in the set after lastPosition, or the lowest one if there are none after it
+	 */
+	private static int nextSeat(int seatMask, int lastPosition) {
+		if (seatMask == 0) throw new IllegalStateException("No players can act!");
 		
-		throw new IllegalStateException("No players can act!");
+		//Clear every bit up to and including lastPosition, and wrap around if that leaves nothing
+		int after = lastPosition + 1 >= Integer.SIZE ? 0 : seatMask & (-1 << (lastPosition + 1));
+		return Integer.numberOfTrailingZeros(after != 0 ? after : seatMask);
 	}
 
 	private void startGame() {
 		//Game starts! 
-		stillInGame = new HashMap<Integer,Player>();
-		for (int i = 0; i < players.size(); i++) {
-			stillInGame.put(i, players.get(i));
-		}
+		activeSeats = occupiedSeats;
 		
 		//Pick dealer
-		int lastDealerPosition = 0;
-		if (dealer != null) {
-			lastDealerPosition = getPositionFor(dealer);
-			dealer = null;
-		}
-		
+		int lastDealerPosition = dealerSeat >= 0 ? dealerSeat : 0;
 		dealer = getNextValidPlayer(lastDealerPosition+1);
+		dealerSeat = seatOf(dealer);
 		
 		//null out other variables
 		tableCards = new ArrayList<Card>();
 		lastAction = null;
 		pot = 0;
-		deck = Card.generateDeck();
+		settlement.reset();
+		betThisRound = false;
 				
 		//Dealers left goes first
 		currentActor = getNextValidPlayer(lastDealerPosition+2);
@@ -183,10 +324,63 @@ public class Game implements Observable {
 		
 		if (!useAnte) advanceState();
 		
+		startTurn();
 		messageStateChanged();
 	}
 	
+	/**
+	 * Give the current actor their time to act, replacing the last player's deadline
+	 */
+	private void startTurn() {
+		if (turnTimeout != null) turnTimeout.cancel();
+		turnTimeout = null;
+		turnNumber++;
+		//Once only one player is left there is nobody to wait for
+		if (PokerServer.ACTION_TIMEOUT_MILLIS > 0 && currentActor != null && Integer.bitCount(activeSeats) > 1) {
+			armTurnTimeout(PokerServer.ACTION_TIMEOUT_MILLIS);
+		}
+	}
+	
+	private void armTurnTimeout(long millis) {
+		final int turn = turnNumber;
+		turnTimeout = PokerServer.getTurnTimer().schedule(new Runnable() {
+			@Override
+			public void run() {
+				//This is the timer's thread; the game decides what happens on its own
+				post(new Runnable() {
+					@Override
+					public void run() {
+						turnExpired(turn);
+					}
+				});
+			}
+		}, millis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Deal with the current actor running out of time
+	 * @param turn The turn whose time ran out. If the player has acted since, there is nothing to do.
+	 */
+	private void turnExpired(int turn) {
+		if (turn != turnNumber || currentActor == null || seatOf(currentActor) < 0) return;
+		turnTimeout = null;
+		
+		Player player = currentActor;
+		int extension = player.drawTimeBank(PokerServer.TIME_BANK_CHUNK_MILLIS);
+		if (extension > 0) {
+			armTurnTimeout(extension);
+			return;
+		}
+		if (betThisRound) {
+			parseMessage(new FoldMessage(false, null), player);
+		} else {
+			parseMessage(new BetMessage(0, false, null), player);
+		}
+	}
+	
 	private void advanceState() {
+		//Every change of state starts a new round of betting
+		betThisRound = false;
 		switch(state) {
 		case ANTE:
 			//After the ante, we deal hands
@@ -227,60 +421,192 @@ public class Game implements Observable {
 	}
 
 	private void dealHands() {
-		//Deal each player two cards
-		for (int i = 0; i < players.size(); i++) {
-			Card card = deck.remove(rand.nextInt(deck.size()));
-			players.get(i).addCardToHand(card);
+		//Nothing from the last hand is still going, so this is when the table can move to a quieter loop
+		if (placement != null) placement.handStarting();
+		
+		//Clear out last hand
+		for (int mask = occupiedSeats; mask != 0; mask &= mask - 1) {
+			seats[Integer.numberOfTrailingZeros(mask)].resetHand();
+		}
+		tableCards.clear();
+		boardCards = 0L;
+		Arrays.fill(holeCards, 0L);
+		deck.shuffle();
+		
+		//Deal each player in the hand two cards
+		for (int mask = activeSeats; mask != 0; mask &= mask - 1) {
+			int seat = Integer.numberOfTrailingZeros(mask);
+			Card card = deck.deal();
+			seats[seat].addCardToHand(card);
+			holeCards[seat] |= card.getMask();
 			
-			card = deck.remove(rand.nextInt(deck.size()));
-			players.get(i).addCardToHand(card);
+			card = deck.deal();
+			seats[seat].addCardToHand(card);
+			holeCards[seat] |= card.getMask();
 		}
 		
+		updateHandValues();
 		//messageStateChanged();
 	}
 	
 	private void dealTableCard() {
-		Card card = deck.remove(rand.nextInt(deck.size()));
+		Card card = deck.deal();
 		tableCards.add(card);
+		boardCards |= card.getMask();
+		
+		updateHandValues();
 		//messageStateChanged();
 	}
 	
+	/**
+	 * Re-score each position's best hand after a deal. Each position's cards are already packed,
+	 * so this is one evaluation per position with no allocation.
+	 */
+	private void updateHandValues() {
+		for (int i = 0; i < handValues.length; i++) {
+			handValues[i] = holeCards[i] == 0L ? -1 : HandEvaluator.evaluate(holeCards[i] | boardCards);
+		}
+	}
+	
 	private void calculateWinner() {
-		//TODO
+		//Split the pot into the main pot and any side pots, and award each to the best hand that can win it.
+		//Odd chips go to the first winner clockwise from the dealer.
+		int firstSeat = dealerSeat < 0 ? 0 : (dealerSeat + 1) % payouts.length;
+		//Only players still in the hand can win, even before any cards are dealt to tell them apart
+		for (int mask = ~activeSeats & ((1 << payouts.length) - 1); mask != 0; mask &= mask - 1) {
+			settlement.fold(Integer.numberOfTrailingZeros(mask));
+		}
+		settlement.settle(handValues, firstSeat, payouts);
+		
+		for (int i = 0; i < payouts.length; i++) {
+			if (seats[i] != null && payouts[i] > 0) {
+				seats[i].addChips(payouts[i]);
+			}
+		}
+		pot = 0;
+		settlement.reset();
 		
 		messageStateChanged();
 	}
 	
 	private void messageStateChanged() {		
-		StateMessage message = new StateMessage(StateType.GAME, null);
-		ArrayList<HashMap<String, Object>> playersEncoded = new ArrayList<HashMap<String, Object>>();
-		
-		//Static elements
-		message.addParameter("Pot", pot);
-		message.addParameter("Dealer", dealer);
-		message.addParameter("Actor", currentActor.getUsername());
-		message.addParameter("TableCards", tableCards);
-		message.addParameter("LastAction", lastAction);
-		
 		//Encode each player
-		for (int i = 0; i < players.size(); i++) {
-			Player player = players.get(i);
-			HashMap<String,Object> playerHash = new HashMap<String, Object>();
-			playerHash.put("Position", i);
-			playerHash.put("Username", player.getUsername());
-			playerHash.put("Avatar", player.getAvatarURL());
-			playerHash.put("Chips", player.getChips());
-			
-			playersEncoded.add(playerHash);
+		ArrayList<Seat> seatsEncoded = new ArrayList<Seat>(Integer.bitCount(occupiedSeats));
+		for (int mask = occupiedSeats; mask != 0; mask &= mask - 1) {
+			int seat = Integer.numberOfTrailingZeros(mask);
+			Player player = seats[seat];
+			URL avatar = player.getAvatarURL();
+			seatsEncoded.add(new Seat(seat, player.getUsername(), avatar == null ? "" : avatar.toString(), player.getChips()));
 		}
 		
-		message.addParameter("OtherPlayers", playersEncoded);
+		//This is the shared part; each seated player is sent a copy with their own hand added
+		GameStateMessage message = new GameStateMessage(++stateSequence, pot, dealer == null ? null : dealer.getUsername(),
+				currentActor.getUsername(), tableCards, lastAction, seatsEncoded, null);
+		
+		//Send only what changed, with a full snapshot now and then and whenever the change is too big for a delta
+		GameStateDelta delta = null;
+		if (lastState != null && deltasSinceSnapshot < SNAPSHOT_INTERVAL) {
+			delta = GameStateDelta.between(lastState, message);
+		}
+		lastState = message;
+		StateMessage update = message;
+		if (delta == null) {
+			deltasSinceSnapshot = 0;
+		} else {
+			deltasSinceSnapshot++;
+			update = delta;
+		}
 		
-		//send 
+		//Queue it for each observer; slow ones fall behind on their own without holding up the game
 		for (StateObserver observer : observers) {
-			//TODO: thread
-			observer.onStateChanged(message);
+			int seat = observer instanceof Player ? seatOf((Player) observer) : -1;
+			if (seat < 0) {
+				dispatcher.publish(this, observer, update, message);
+				continue;
+			}
+			
+			//Players are sent their own hand here, while it cannot change under us
+			PrivateState mine = privateStateOf(seat);
+			GameStateMessage snapshot = message.withPrivateState(mine);
+			StateMessage personal = snapshot;
+			if (delta != null) {
+				//Equity counts too, so it is sent when it changes and cleared once it is no longer known
+				personal = mine.equals(sentPrivate[seat]) ? delta : delta.withPrivateState(mine);
+			}
+			sentPrivate[seat] = mine;
+			dispatcher.publish(this, observer, personal, snapshot);
 		}
+		listingChanged();
+	}
+	
+	/**
+	 * Describe what only the player in a seat can see
+	 * @param seat The seat, which must be taken
+	 * @return Their hand, chips and equity
+	 */
+	private PrivateState privateStateOf(int seat) {
+		Player player = seats[seat];
+		Equity equity = getPreflopEquity(player);
+		return new PrivateState(seat, player.getHand(), player.getChips(), equity == null ? null : equity.getShare());
+	}
+	
+	/**
+	 * Tell the lobbies about the game, if anything they show has changed since they were last told
+	 */
+	private void listingChanged() {
+		if (!PokerServer.hasLobbies()) return;
+		Listing listing = getListing();
+		if (listing.equals(lastListing)) return;
+		lastListing = listing;
+		PokerServer.gameListingChanged(listing);
+	}
+	
+	/**
+	 * Send the game's listing to one lobby, such as one that has just started
+	 * @param lobby The lobby
+	 */
+	public void sendListing(Lobby lobby) {
+		lobby.gameChanged(getListing());
+	}
+	
+	/**
+	 * Describe the game for the lobby: who is playing, who is watching, and whether there is a seat free
+	 * @return The listing
+	 */
+	public Listing getListing() {
+		ArrayList<Occupant> players = new ArrayList<Occupant>(Integer.bitCount(occupiedSeats));
+		for (int mask = occupiedSeats; mask != 0; mask &= mask - 1) {
+			Player player = seats[Integer.numberOfTrailingZeros(mask)];
+			URL avatar = player.getAvatarURL();
+			players.add(new Occupant(player.getUsername(), avatar == null ? "" : avatar.toString(), player.getChips()));
+		}
+		//Watchers are players following the game without a seat
+		ArrayList<Occupant> watchers = new ArrayList<Occupant>(0);
+		for (StateObserver observer : observers) {
+			if (observer instanceof Player && seatOf((Player) observer) < 0) {
+				Player watcher = (Player) observer;
+				URL avatar = watcher.getAvatarURL();
+				watchers.add(new Occupant(watcher.getUsername(), avatar == null ? "" : avatar.toString(), null));
+			}
+		}
+		int limit = Math.min(PokerServer.MAX_PLAYERS_PER_GAME, seats.length);
+		return new Listing(ID, Integer.bitCount(occupiedSeats) < limit, players, watchers);
+	}
+	
+	/**
+	 * Send the full current state to one observer, such as one that has missed an update. Only called on the game's
+	 * thread.
+	 * @param observer The observer
+	 */
+	public void sendSnapshot(StateObserver observer) {
+		if (lastState == null) return;
+		GameStateMessage snapshot = lastState;
+		int seat = observer instanceof Player ? seatOf((Player) observer) : -1;
+		if (seat >= 0) {
+			sentPrivate[seat] = privateStateOf(seat);
+			snapshot = lastState.withPrivateState(sentPrivate[seat]);
+		}
+		dispatcher.publish(this, observer, snapshot, snapshot);
 	}
 	
 	/**
@@ -289,27 +615,120 @@ public class Game implements Observable {
 	 * @return The position, or null if they are not in the game
 	 */
 	public Integer getPositionFor(Player p) {
-		for (Integer position : players.keySet()) {
-			if (players.get(position) == p) {
-				return position;
-			}
+		int seat = seatOf(p);
+		return seat < 0 ? null : seat;
+	}
+	
+	/**
+	 * Find a player's seat. Players remember where they sit, so this is normally a single check;
+	 * the scan only happens if the player has since taken a seat in another game without leaving this one.
+	 * @param p The player
+	 * @return The seat, or -1 if they are not in the game
+	 */
+	private int seatOf(Player p) {
+		if (p == null) return -1;
+		int seat = p.getSeat(this);
+		if (seat >= 0) return seat;
+		
+		for (int mask = occupiedSeats; mask != 0; mask &= mask - 1) {
+			seat = Integer.numberOfTrailingZeros(mask);
+			if (seats[seat] == p) return seat;
 		}
-		return null;
+		return -1;
 	}
 
+	/**
+	 * Get the value of a player's best hand from the cards dealt so far. This is kept up to date as cards are dealt.
+	 * @param player The player
+	 * @return The hand value as scored by {@link HandEvaluator}, or -1 if the player has not been dealt in
+	 */
+	public int getHandValue(Player player) {
+		int seat = seatOf(player);
+		if (seat < 0) return -1;
+		return handValues[seat];
+	}
+	
+	/**
+	 * Get the category of a player's best hand from the cards dealt so far, such as TWO_PAIR
+	 * @param player The player
+	 * @return The category, or null if the player has not been dealt in
+	 */
+	public HandCategory getHandCategory(Player player) {
+		int value = getHandValue(player);
+		return value < 0 ? null : HandEvaluator.categoryOf(value);
+	}
+	
+	/**
+	 * Calculate the equity of each player still in the hand, based on the cards dealt so far
+	 * @param calculator The calculator to use, which decides how much work to spend
+	 * @return The equity for each position, with null for positions that are empty or have folded
+	 */
+	public Equity[] getEquities(EquityCalculator calculator) {
+		Equity[] result = new Equity[seats.length];
+		if (activeSeats == 0) return result;
+		
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		int[] positions = new int[Integer.bitCount(activeSeats)];
+		for (int mask = activeSeats; mask != 0; mask &= mask - 1) {
+			int seat = Integer.numberOfTrailingZeros(mask);
+			positions[hands.size()] = seat;
+			hands.add(seats[seat].getHand());
+		}
+		
+		Equity[] equities = calculator.calculate(hands, tableCards);
+		for (int i = 0; i < equities.length; i++) {
+			result[positions[i]] = equities[i];
+		}
+		return result;
+	}
+	
+	/**
+	 * Look up a player's preflop equity against the rest of the players in the hand, treating their cards as unknown.
+	 * This uses the precomputed table, so it is cheap enough to call for every state message.
+	 * @param player The player
+	 * @return The equity, or null if it is not preflop, the player is not in the hand, or no table is loaded
+	 */
+	public Equity getPreflopEquity(Player player) {
+		PreflopEquityTable table = PokerServer.getPreflopTable();
+		int seat = seatOf(player);
+		if (table == null || state != GameState.PREFLOP || seat < 0 || (activeSeats & (1 << seat)) == 0) {
+			return null;
+		}
+		return table.lookup(player.getHand(), Integer.bitCount(activeSeats));
+	}
+	
 	/**
 	 * Remove a player from the game
 	 * @param player The player to add
 	 * @return True if the removal succeeded, false if it did not (usually because you're not in the game)
 	 */
 	public boolean removePlayer(Player player) {
-		for (Integer position : players.keySet()) {
-			if (players.get(position) == player) {
-				players.remove(position);
-				return true;
-			}
+		int seat = seatOf(player);
+		if (seat < 0) return false;
+		
+		//Leaving on your turn is folding, so the turn passes on and the next player is timed
+		if (player == currentActor && (activeSeats & (1 << seat)) != 0 && Integer.bitCount(activeSeats) > 1) {
+			parseMessage(new FoldMessage(false, null), player);
 		}
-		return false;
+		
+		//Anything they put in this hand stays in the pot
+		boolean wasInHand = (activeSeats & (1 << seat)) != 0;
+		settlement.fold(seat);
+		seats[seat] = null;
+		sentPrivate[seat] = null;
+		holeCards[seat] = 0L;
+		handValues[seat] = -1;
+		occupiedSeats &= ~(1 << seat);
+		activeSeats &= ~(1 << seat);
+		player.leaveSeat(this);
+		
+		//If that leaves nobody to play against, the hand is over
+		if (wasInHand && Integer.bitCount(activeSeats) <= 1) {
+			calculateWinner();
+			startTurn();
+		}
+		listingChanged();
+		return true;
 	}
 
 	
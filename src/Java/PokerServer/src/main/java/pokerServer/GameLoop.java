@@ -0,0 +1,176 @@
+package pokerServer;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One event-loop thread for games. It runs the mailboxes of the tables pinned to it (see {@link GameScheduler}) and
+ * its own timers, so a table's events keep landing on the same core and the same warm caches, and thousands of
+ * tables share a handful of threads.
+ * @author bgreen
+ *
+ */
+class GameLoop implements Runnable {
+
+	/** The most tasks run before the timers are checked again **/
+	static final int MAX_TASKS_PER_PASS = 256;
+
+	/**
+	 * Something to run at a set time
+	 */
+	private static final class Timer implements Comparable<Timer> {
+		private final long deadline;
+		//Timers due at the same moment run in the order they were set
+		private final long sequence;
+		private final Runnable task;
+
+		Timer(long deadline, long sequence, Runnable task) {
+			this.deadline = deadline;
+			this.sequence = sequence;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(Timer other) {
+			if (deadline != other.deadline) return deadline - other.deadline < 0 ? -1 : 1;
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	/** How busy the loop has been lately **/
+	final GameScheduler.Load load;
+	/** The last interval a table moved on or off this loop **/
+	volatile long lastMove;
+
+	private final Thread thread;
+	//Work handed over by any thread
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+	//Only touched on the loop's thread
+	private final PriorityQueue<Timer> timers;
+	private long timersSet;
+	//Whether the loop is parked, or about to be, and needs waking for new work
+	private final AtomicBoolean sleeping;
+	private volatile boolean running;
+
+	/**
+	 * Create a loop. It does nothing until started.
+	 * @param name The name of its thread
+	 * @param interval The length of the intervals its load is measured over, in nanoseconds
+	 */
+	GameLoop(String name, long interval) {
+		load = new GameScheduler.Load(interval);
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		timers = new PriorityQueue<Timer>();
+		sleeping = new AtomicBoolean(false);
+		thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Start the loop's thread
+	 */
+	void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Stop the loop. Anything still waiting is dropped.
+	 */
+	void shutdown() {
+		running = false;
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Run something on the loop's thread, soon. Safe to call from any thread.
+	 * @param task The work to do
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (sleeping.compareAndSet(true, false)) LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Run something on the loop's thread after a delay. Safe to call from any thread.
+	 * @param task The work to do
+	 * @param delay How long to wait
+	 * @param unit The unit of the delay
+	 */
+	void schedule(final Runnable task, long delay, TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(delay);
+		if (inLoop()) {
+			timers.add(new Timer(deadline, timersSet++, task));
+			return;
+		}
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				timers.add(new Timer(deadline, timersSet++, task));
+			}
+		});
+	}
+
+	/**
+	 * Check whether the caller is on the loop's thread
+	 * @return True if it is
+	 */
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			runDueTimers();
+			int ran = runTasks();
+			if (ran == MAX_TASKS_PER_PASS) continue;
+
+			//Nothing left to do. Say so before the last look, so work added after it wakes us.
+			sleeping.set(true);
+			if (!tasks.isEmpty() || !running) {
+				sleeping.set(false);
+				continue;
+			}
+			Timer next = timers.peek();
+			if (next == null) {
+				LockSupport.park(this);
+			} else {
+				long wait = next.deadline - System.nanoTime();
+				if (wait > 0) LockSupport.parkNanos(this, wait);
+			}
+			sleeping.set(false);
+		}
+	}
+
+	private void runDueTimers() {
+		long now = System.nanoTime();
+		Timer next;
+		while ((next = timers.peek()) != null && next.deadline - now <= 0) {
+			timers.poll();
+			runSafely(next.task);
+		}
+	}
+
+	private int runTasks() {
+		int ran = 0;
+		Runnable task;
+		while (ran < MAX_TASKS_PER_PASS && (task = tasks.poll()) != null) {
+			runSafely(task);
+			ran++;
+		}
+		return ran;
+	}
+
+	private static void runSafely(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			//One bad table must not take the others on this loop down with it
+			e.printStackTrace();
+		}
+	}
+}
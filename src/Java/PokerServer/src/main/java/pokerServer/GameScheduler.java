@@ -0,0 +1,237 @@
+package pokerServer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares tables out between a fixed number of event-loop threads, normally one per core. Each game is pinned to a
+ * loop by its ID, and its {@link Mailbox} only ever runs there, so a table keeps its caches and games never wait on
+ * each other's threads.
+ *
+ * Pinning by ID can leave one loop with more busy tables than another. Each loop and each table keeps a running
+ * tally of the time spent on it, and when a table starts a new hand it may move to the least busy loop, if that
+ * evens things out. Between hands a table has nothing on the go, so moving it is just a matter of where its next
+ * event is run. Loads are only measured once an interval, so a loop sends or takes at most one table an interval;
+ * otherwise every table finishing a hand before the figures catch up would pile onto the same loop.
+ * @author bgreen
+ *
+ */
+public class GameScheduler {
+
+	/** How long load is measured over, by default **/
+	public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+	/** How far apart two loops' loads must be before tables move, as a share of the interval **/
+	static final int MIN_IMBALANCE_PERCENT = 10;
+
+	/**
+	 * Time spent busy, counted in fixed intervals so that only recent work counts. Only one thread adds to a tally at
+	 * a time; any thread may read it, and may see it slightly out of date.
+	 * @author bgreen
+	 *
+	 */
+	static final class Load {
+		private final long interval;
+		private volatile long currentInterval;
+		private volatile long current;
+		private volatile long previous;
+
+		Load(long interval) {
+			this.interval = interval;
+		}
+
+		/**
+		 * Count some busy time
+		 * @param nanos The time spent
+		 * @param now The time now, from System.nanoTime()
+		 */
+		void add(long nanos, long now) {
+			long at = now / interval;
+			if (at != currentInterval) {
+				previous = at == currentInterval + 1 ? current : 0;
+				current = 0;
+				currentInterval = at;
+			}
+			current += nanos;
+		}
+
+		/**
+		 * Get the number of the interval a time falls in
+		 * @param now The time, from System.nanoTime()
+		 * @return The interval's number
+		 */
+		long intervalOf(long now) {
+			return now / interval;
+		}
+
+		/**
+		 * Get the time spent busy in the last whole interval
+		 * @param now The time now, from System.nanoTime()
+		 * @return The time, in nanoseconds
+		 */
+		long recent(long now) {
+			long at = now / interval;
+			long counted = currentInterval;
+			if (counted == at) return previous;
+			if (counted == at - 1) return current;
+			return 0;
+		}
+	}
+
+	/**
+	 * Where one game runs. It is the executor for the game's mailbox, and passes each run on to the game's loop.
+	 * @author bgreen
+	 *
+	 */
+	public class Placement implements Executor, Runnable {
+		private final Load load;
+		private volatile GameLoop loop;
+		//The game's mailbox; a mailbox only ever asks for one run at a time
+		private volatile Runnable task;
+
+		private Placement(GameLoop loop) {
+			this.loop = loop;
+			this.load = new Load(interval);
+		}
+
+		@Override
+		public void execute(Runnable task) {
+			GameLoop target = loop;
+			if (target == null) {
+				task.run();
+				return;
+			}
+			this.task = task;
+			target.execute(this);
+		}
+
+		/**
+		 * Run the game's mailbox on its loop, counting the time it takes
+		 */
+		@Override
+		public void run() {
+			GameLoop current = loop;
+			long start = System.nanoTime();
+			try {
+				task.run();
+			} finally {
+				long end = System.nanoTime();
+				load.add(end - start, end);
+				current.load.add(end - start, end);
+			}
+		}
+
+		/**
+		 * Run something on the game's loop after a delay. It runs on the loop rather than in the game, so it should
+		 * only post to the game.
+		 * @param task The work to do
+		 * @param delay How long to wait
+		 * @param unit The unit of the delay
+		 * @throws UnsupportedOperationException If games run on the threads that post to them, with no loops
+		 */
+		public void schedule(Runnable task, long delay, TimeUnit unit) {
+			GameLoop target = loop;
+			if (target == null) throw new UnsupportedOperationException("No event loops to time things on");
+			target.schedule(task, delay, unit);
+		}
+
+		/**
+		 * Tell the scheduler the game is between hands, so it can be moved if its loop is busier than another.
+		 * Only call this from one of the game's own events.
+		 */
+		public void handStarting() {
+			if (loop == null || loops.length < 2) return;
+			long now = System.nanoTime();
+			GameLoop quietest = loops[0];
+			for (GameLoop other : loops) {
+				if (other.load.recent(now) < quietest.load.recent(now)) quietest = other;
+			}
+
+			//Moving only helps if this table is smaller than the gap it is moving across
+			long gap = loop.load.recent(now) - quietest.load.recent(now);
+			long mine = load.recent(now);
+			long at = load.intervalOf(now);
+			if (quietest != loop && gap > minImbalance && mine > 0 && mine < gap
+					&& loop.lastMove != at && quietest.lastMove != at) {
+				loop.lastMove = at;
+				quietest.lastMove = at;
+				loop = quietest;
+			}
+		}
+
+		/**
+		 * Get the number of the loop the game runs on
+		 * @return The loop's number, or -1 if games run on the threads that post to them
+		 */
+		public int getLoopIndex() {
+			GameLoop current = loop;
+			for (int i = 0; i < loops.length; i++) {
+				if (loops[i] == current) return i;
+			}
+			return -1;
+		}
+	}
+
+	private final GameLoop[] loops;
+	private final long interval;
+	private final long minImbalance;
+
+	/**
+	 * Create a scheduler. Its loops do nothing until started.
+	 * @param loopCount The number of event loops. With none, each game's events run on whichever thread posts them.
+	 */
+	public GameScheduler(int loopCount) {
+		this(loopCount, DEFAULT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Create a scheduler. Its loops do nothing until started.
+	 * @param loopCount The number of event loops. With none, each game's events run on whichever thread posts them.
+	 * @param intervalMillis How long load is measured over when deciding whether to move a table
+	 */
+	public GameScheduler(int loopCount, long intervalMillis) {
+		if (loopCount < 0) throw new IllegalArgumentException("Negative number of loops");
+		if (intervalMillis < 1) throw new IllegalArgumentException("Interval too short");
+		interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		minImbalance = interval * MIN_IMBALANCE_PERCENT / 100;
+		loops = new GameLoop[loopCount];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new GameLoop("game-loop-" + i, interval);
+		}
+	}
+
+	/**
+	 * Start the loops
+	 */
+	public void start() {
+		for (GameLoop loop : loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * Stop the loops. Anything still waiting is dropped.
+	 */
+	public void shutdown() {
+		for (GameLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	/**
+	 * Pin a game to a loop
+	 * @param gameID The game's ID, which picks its loop
+	 * @return Where the game runs, to use as its mailbox's executor
+	 */
+	public Placement place(int gameID) {
+		if (loops.length == 0) return new Placement(null);
+		return new Placement(loops[Math.floorMod(gameID, loops.length)]);
+	}
+
+	/**
+	 * Get the number of loops
+	 * @return The number
+	 */
+	public int getLoopCount() {
+		return loops.length;
+	}
+}
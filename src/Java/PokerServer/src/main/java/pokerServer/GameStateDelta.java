@@ -0,0 +1,268 @@
+package pokerServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.interfaces.Client;
+
+/**
+ * A change to the state of a game, sent instead of the whole state when only a few things have changed.
+ * Anything left out of a delta is unchanged, apart from whose turn it is, which is always sent. Each update is
+ * numbered one after the one it follows, so a client that misses one can tell, and asks for a snapshot
+ * (a full {@link GameStateMessage}) to catch up.
+ *
+ * People sitting down or leaving, and a new dealer, are never sent as deltas; the game sends a snapshot instead.
+ * @author bgreen
+ *
+ */
+public class GameStateDelta extends StateMessage {
+
+	private final int sequence;
+	private final Integer pot;
+	private final String actor;
+	private final List<Card> newTableCards;
+	private final ActionMessage lastAction;
+	private final List<ChipCount> chips;
+	private final PrivateState you;
+
+	/**
+	 * Create a delta
+	 * @param sequence The number of this update, one more than the update it follows
+	 * @param pot The new pot, or null if it has not changed
+	 * @param actor The username of the player whose turn it now is
+	 * @param newTableCards The cards dealt to the table since the last update
+	 * @param lastAction The action just taken, or null if there has not been one
+	 * @param chips The seats whose chips have changed
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public GameStateDelta(int sequence, Integer pot, String actor, List<Card> newTableCards, ActionMessage lastAction,
+			List<ChipCount> chips, Client clientInvolved) {
+		this(sequence, pot, actor, Collections.unmodifiableList(new ArrayList<Card>(newTableCards)), lastAction,
+				Collections.unmodifiableList(new ArrayList<ChipCount>(chips)), null, clientInvolved);
+
+		if (pot != null && pot < 0) throw new IllegalArgumentException("Pot cannot be negative");
+		if (actor == null) throw new IllegalArgumentException("Must have an actor");
+		if (newTableCards.size() > 5) throw new IllegalArgumentException("Too many table cards");
+	}
+
+	private GameStateDelta(int sequence, Integer pot, String actor, List<Card> newTableCards, ActionMessage lastAction,
+			List<ChipCount> chips, PrivateState you, Client clientInvolved) {
+		super(StateType.GAME, clientInvolved, true);
+		this.sequence = sequence;
+		this.pot = pot;
+		this.actor = actor;
+		this.newTableCards = newTableCards;
+		this.lastAction = lastAction;
+		this.chips = chips;
+		this.you = you;
+	}
+
+	/**
+	 * Work out what changed between two shared states
+	 * @param before The state the clients already have
+	 * @param after The new state
+	 * @return The delta, or null if the change cannot be sent as one and a snapshot is needed
+	 */
+	public static GameStateDelta between(GameStateMessage before, GameStateMessage after) {
+		if (after.getSequence() != before.getSequence() + 1) return null;
+		if (before.getDealer() == null ? after.getDealer() != null : !before.getDealer().equals(after.getDealer())) return null;
+		if (before.getLastAction() != null && after.getLastAction() == null) return null;
+
+		//Cards can only be added to the table
+		List<Card> oldCards = before.getTableCards();
+		List<Card> newCards = after.getTableCards();
+		if (newCards.size() < oldCards.size() || !newCards.subList(0, oldCards.size()).equals(oldCards)) return null;
+
+		//The same people must be in the same seats
+		List<Seat> oldSeats = before.getSeats();
+		List<Seat> newSeats = after.getSeats();
+		if (oldSeats.size() != newSeats.size()) return null;
+		List<ChipCount> chips = new ArrayList<ChipCount>(0);
+		for (int i = 0; i < newSeats.size(); i++) {
+			Seat oldSeat = oldSeats.get(i);
+			Seat newSeat = newSeats.get(i);
+			if (oldSeat.getPosition() != newSeat.getPosition() || !oldSeat.getUsername().equals(newSeat.getUsername())
+					|| !oldSeat.getAvatar().equals(newSeat.getAvatar())) {
+				return null;
+			}
+			if (oldSeat.getChips() != newSeat.getChips()) chips.add(new ChipCount(newSeat.getPosition(), newSeat.getChips()));
+		}
+
+		return new GameStateDelta(after.getSequence(),
+				before.getPot() == after.getPot() ? null : after.getPot(),
+				after.getActor(),
+				Collections.unmodifiableList(new ArrayList<Card>(newCards.subList(oldCards.size(), newCards.size()))),
+				before.getLastAction() == after.getLastAction() ? null : after.getLastAction(),
+				Collections.unmodifiableList(chips), null, null);
+	}
+
+	/**
+	 * Apply this delta to the state it follows, as a client would
+	 * @param before The last state received, shared or a player's own copy
+	 * @return The new state
+	 * @throws IllegalArgumentException If this delta does not follow that state, so a snapshot is needed
+	 */
+	public GameStateMessage applyTo(GameStateMessage before) {
+		if (before.getSequence() + 1 != sequence) {
+			throw new IllegalArgumentException("Update " + sequence + " does not follow " + before.getSequence());
+		}
+
+		List<Seat> seats = new ArrayList<Seat>(before.getSeats());
+		for (ChipCount change : chips) {
+			for (int i = 0; i < seats.size(); i++) {
+				Seat seat = seats.get(i);
+				if (seat.getPosition() == change.getPosition()) {
+					seats.set(i, new Seat(seat.getPosition(), seat.getUsername(), seat.getAvatar(), change.getChips()));
+				}
+			}
+		}
+
+		List<Card> tableCards = before.getTableCards();
+		if (!newTableCards.isEmpty()) {
+			tableCards = new ArrayList<Card>(tableCards);
+			tableCards.addAll(newTableCards);
+		}
+
+		GameStateMessage after = new GameStateMessage(sequence, pot == null ? before.getPot() : pot, before.getDealer(), actor,
+				tableCards, lastAction == null ? before.getLastAction() : lastAction, seats, before.clientInvolved);
+
+		PrivateState mine = you == null ? before.getPrivateState() : you;
+		return mine == null ? after : after.withPrivateState(mine);
+	}
+
+	/**
+	 * Make the copy of this delta for one player, with their own state added
+	 * @param you The player's private state
+	 * @return The player's copy
+	 */
+	public GameStateDelta withPrivateState(PrivateState you) {
+		return new GameStateDelta(sequence, pot, actor, newTableCards, lastAction, chips, you, clientInvolved);
+	}
+
+	/**
+	 * Get the number of this update
+	 * @return The sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the new pot
+	 * @return The pot, or null if it has not changed
+	 */
+	public Integer getPot() {
+		return pot;
+	}
+
+	/**
+	 * Get the player whose turn it now is
+	 * @return Their username
+	 */
+	public String getActor() {
+		return actor;
+	}
+
+	/**
+	 * Get the cards dealt to the table since the last update
+	 * @return The cards, which cannot be changed
+	 */
+	public List<Card> getNewTableCards() {
+		return newTableCards;
+	}
+
+	/**
+	 * Get the action just taken
+	 * @return The action, or null if there has not been one
+	 */
+	public ActionMessage getLastAction() {
+		return lastAction;
+	}
+
+	/**
+	 * Get the seats whose chips have changed
+	 * @return The changes, which cannot be changed
+	 */
+	public List<ChipCount> getChips() {
+		return chips;
+	}
+
+	/**
+	 * Get the private state of the player this copy is for
+	 * @return Their state, or null if it has not changed
+	 */
+	public PrivateState getPrivateState() {
+		return you;
+	}
+
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Sequence", sequence);
+		if (pot != null) parameters.put("Pot", pot);
+		parameters.put("Actor", actor);
+		if (!newTableCards.isEmpty()) parameters.put("NewTableCards", new ArrayList<Card>(newTableCards));
+		if (lastAction != null) parameters.put("LastAction", lastAction);
+		if (!chips.isEmpty()) {
+			ArrayList<HashMap<String, Object>> changes = new ArrayList<HashMap<String, Object>>();
+			for (ChipCount change : chips) {
+				changes.add(change.describe());
+			}
+			parameters.put("Chips", changes);
+		}
+		if (you != null) parameters.put("You", you.describe());
+		return parameters;
+	}
+
+	/**
+	 * A seat's new number of chips
+	 * @author bgreen
+	 *
+	 */
+	public static class ChipCount {
+		private final int position;
+		private final int chips;
+
+		/**
+		 * Describe a change of chips
+		 * @param position The seat number
+		 * @param chips The number of chips the player now has
+		 */
+		public ChipCount(int position, int chips) {
+			this.position = position;
+			this.chips = chips;
+		}
+
+		/**
+		 * Get the seat number
+		 * @return The seat number
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the player's chips
+		 * @return The number of chips
+		 */
+		public int getChips() {
+			return chips;
+		}
+
+		HashMap<String, Object> describe() {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("Position", position);
+			parameters.put("Chips", chips);
+			return parameters;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+package pokerServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * The state of a game, sent to everyone watching it whenever it changes. The public part is built once per change
+ * and shared; each player then gets a copy with their own hand added by {@link #withPrivateState(PrivateState)}.
+ * The shared part is also only encoded once: the first copy to be sent encodes it, and the rest reuse the bytes.
+ * @author bgreen
+ *
+ */
+public class GameStateMessage extends StateMessage {
+
+	private final int sequence;
+	private final int pot;
+	private final String dealer;
+	private final String actor;
+	private final List<Card> tableCards;
+	private final ActionMessage lastAction;
+	private final List<Seat> seats;
+	private final PrivateState you;
+	//The message everyone's copy was made from, which holds the encoded shared part
+	private final GameStateMessage shared;
+	private volatile JsonCodec.SharedGameState sharedJson;
+
+	/**
+	 * Create the public state of a game
+	 * @param pot The number of chips in the pot
+	 * @param dealer The username of the dealer
+	 * @param actor The username of the player whose turn it is
+	 * @param tableCards The cards on the table
+	 * @param lastAction The last action taken, or null
+	 * @param seats Everyone sitting at the table
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public GameStateMessage(int pot, String dealer, String actor, List<Card> tableCards, ActionMessage lastAction,
+			List<Seat> seats, Client clientInvolved) {
+		this(0, pot, dealer, actor, tableCards, lastAction, seats, clientInvolved);
+	}
+
+	/**
+	 * Create the public state of a game as one of a numbered series of updates
+	 * @param sequence The number of this update. Deltas after it are numbered on from here.
+	 * @param pot The number of chips in the pot
+	 * @param dealer The username of the dealer
+	 * @param actor The username of the player whose turn it is
+	 * @param tableCards The cards on the table
+	 * @param lastAction The last action taken, or null
+	 * @param seats Everyone sitting at the table
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public GameStateMessage(int sequence, int pot, String dealer, String actor, List<Card> tableCards,
+			ActionMessage lastAction, List<Seat> seats, Client clientInvolved) {
+		this(sequence, pot, dealer, actor, Collections.unmodifiableList(new ArrayList<Card>(tableCards)), lastAction,
+				Collections.unmodifiableList(new ArrayList<Seat>(seats)), null, null, clientInvolved);
+
+		if (pot < 0) throw new IllegalArgumentException("Pot cannot be negative");
+		if (actor == null) throw new IllegalArgumentException("Must have an actor");
+		int numCards = tableCards.size();
+		if (numCards != 0 && (numCards < 3 || numCards > 5)) throw new IllegalArgumentException("Invalid number of table cards");
+	}
+
+	private GameStateMessage(int sequence, int pot, String dealer, String actor, List<Card> tableCards,
+			ActionMessage lastAction, List<Seat> seats, PrivateState you, GameStateMessage shared, Client clientInvolved) {
+		super(StateType.GAME, clientInvolved, true);
+		this.sequence = sequence;
+		this.pot = pot;
+		this.dealer = dealer;
+		this.actor = actor;
+		this.tableCards = tableCards;
+		this.lastAction = lastAction;
+		this.seats = seats;
+		this.you = you;
+		this.shared = shared == null ? this : shared;
+	}
+
+	/**
+	 * Make the copy of this state for one player. Their own seat moves out of the list of other players and
+	 * their private state is added. Everything else is shared with this message rather than copied.
+	 * @param you The player's private state
+	 * @return The player's copy
+	 */
+	public GameStateMessage withPrivateState(PrivateState you) {
+		List<Seat> others = new ArrayList<Seat>(shared.seats.size());
+		for (Seat seat : shared.seats) {
+			if (seat.getPosition() != you.getPosition()) others.add(seat);
+		}
+		return new GameStateMessage(sequence, pot, dealer, actor, tableCards, lastAction,
+				Collections.unmodifiableList(others), you, shared, clientInvolved);
+	}
+
+	/**
+	 * Get the message this copy was made from
+	 * @return The shared message, or this message if it is the shared one
+	 */
+	GameStateMessage getShared() {
+		return shared;
+	}
+
+	/**
+	 * Get the encoded shared part, if it has been encoded yet. Only used on the shared message.
+	 * @return The encoded state, or null
+	 */
+	JsonCodec.SharedGameState getSharedJson() {
+		return sharedJson;
+	}
+
+	/**
+	 * Remember the encoded shared part. Only used on the shared message.
+	 * @param sharedJson The encoded state
+	 */
+	void setSharedJson(JsonCodec.SharedGameState sharedJson) {
+		this.sharedJson = sharedJson;
+	}
+
+	/**
+	 * Get the number of this update
+	 * @return The sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the number of chips in the pot
+	 * @return The pot
+	 */
+	public int getPot() {
+		return pot;
+	}
+
+	/**
+	 * Get the dealer
+	 * @return The dealer's username
+	 */
+	public String getDealer() {
+		return dealer;
+	}
+
+	/**
+	 * Get the player whose turn it is
+	 * @return Their username
+	 */
+	public String getActor() {
+		return actor;
+	}
+
+	/**
+	 * Get the cards on the table
+	 * @return The cards, which cannot be changed
+	 */
+	public List<Card> getTableCards() {
+		return tableCards;
+	}
+
+	/**
+	 * Get the last action taken
+	 * @return The action, or null
+	 */
+	public ActionMessage getLastAction() {
+		return lastAction;
+	}
+
+	/**
+	 * Get the players at the table. In a player's own copy this leaves them out.
+	 * @return The seats, which cannot be changed
+	 */
+	public List<Seat> getSeats() {
+		return seats;
+	}
+
+	/**
+	 * Get the private state of the player this copy is for
+	 * @return Their state, or null if this is the shared copy
+	 */
+	public PrivateState getPrivateState() {
+		return you;
+	}
+
+	/**
+	 * A game state is only complete once it has been made for a particular player
+	 */
+	@Override
+	public boolean isValid() {
+		return you != null;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Sequence", sequence);
+		parameters.put("Pot", pot);
+		parameters.put("Dealer", dealer);
+		parameters.put("Actor", actor);
+		parameters.put("TableCards", new ArrayList<Card>(tableCards));
+		parameters.put("LastAction", lastAction);
+
+		ArrayList<HashMap<String, Object>> otherPlayers = new ArrayList<HashMap<String, Object>>();
+		for (Seat seat : seats) {
+			otherPlayers.add(seat.describe());
+		}
+		parameters.put("OtherPlayers", otherPlayers);
+
+		if (you != null) parameters.put("You", you.describe());
+		return parameters;
+	}
+
+	/**
+	 * What everyone can see about a player at the table
+	 * @author bgreen
+	 *
+	 */
+	public static class Seat {
+		private final int position;
+		private final String username;
+		private final String avatar;
+		private final int chips;
+
+		/**
+		 * Describe a seat
+		 * @param position The seat number
+		 * @param username The player's username
+		 * @param avatar The address of the player's avatar
+		 * @param chips The number of chips the player has
+		 */
+		public Seat(int position, String username, String avatar, int chips) {
+			if (username == null || avatar == null) throw new IllegalArgumentException("Seat must have a username and avatar");
+			this.position = position;
+			this.username = username;
+			this.avatar = avatar;
+			this.chips = chips;
+		}
+
+		/**
+		 * Get the seat number
+		 * @return The seat number
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the player's username
+		 * @return The username
+		 */
+		public String getUsername() {
+			return username;
+		}
+
+		/**
+		 * Get the player's avatar
+		 * @return The address of the avatar
+		 */
+		public String getAvatar() {
+			return avatar;
+		}
+
+		/**
+		 * Get the player's chips
+		 * @return The number of chips
+		 */
+		public int getChips() {
+			return chips;
+		}
+
+		HashMap<String, Object> describe() {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("Position", position);
+			parameters.put("Username", username);
+			parameters.put("Avatar", avatar);
+			parameters.put("Chips", chips);
+			return parameters;
+		}
+	}
+
+	/**
+	 * What only one player can see about themselves
+	 * @author bgreen
+	 *
+	 */
+	public static class PrivateState {
+		private final int position;
+		private final List<Card> hand;
+		private final int chips;
+		private final Double equity;
+
+		/**
+		 * Describe a player's own state
+		 * @param position Their seat number
+		 * @param hand Their hole cards
+		 * @param chips The number of chips they have
+		 * @param equity Their share of the pot on average, or null if it is not known
+		 */
+		public PrivateState(int position, List<Card> hand, int chips, Double equity) {
+			if (hand.size() != 0 && hand.size() != 2) throw new IllegalArgumentException("Invalid number of hole cards");
+			this.position = position;
+			this.hand = Collections.unmodifiableList(new ArrayList<Card>(hand));
+			this.chips = chips;
+			this.equity = equity;
+		}
+
+		/**
+		 * Get the seat number
+		 * @return The seat number
+		 */
+		public int getPosition() {
+			return position;
+		}
+
+		/**
+		 * Get the player's hole cards
+		 * @return The cards, which cannot be changed
+		 */
+		public List<Card> getHand() {
+			return hand;
+		}
+
+		/**
+		 * Get the player's chips
+		 * @return The number of chips
+		 */
+		public int getChips() {
+			return chips;
+		}
+
+		/**
+		 * Get the player's equity in the hand
+		 * @return Their share of the pot on average, or null if it is not known
+		 */
+		public Double getEquity() {
+			return equity;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PrivateState)) return false;
+			PrivateState state = (PrivateState) other;
+			return state.position == position && state.chips == chips && state.hand.equals(hand)
+					&& (state.equity == null ? equity == null : state.equity.equals(equity));
+		}
+
+		@Override
+		public int hashCode() {
+			return (position * 31 + hand.hashCode()) * 31 + chips;
+		}
+
+		HashMap<String, Object> describe() {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("Hand", new ArrayList<Card>(hand));
+			parameters.put("Chips", chips);
+			parameters.put("Position", position);
+			if (equity != null) parameters.put("Equity", equity);
+			return parameters;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package pokerServer;
+
+import java.util.ArrayList;
+
+/**
+ * Scores poker hands of up to seven cards.
+ * Cards are packed into a 64-bit set (one 16-bit lane per suit, one bit per rank within the lane),
+ * and the hand is ranked with bitwise arithmetic over those lanes plus a few precomputed 13-bit rank tables.
+ * No objects are allocated while scoring, so this is safe to call for every seat at every showdown.
+ *
+ * The value returned is a positive int that orders hands correctly: a higher value is a better hand,
+ * and two hands with the same value tie.
+ * Hands with fewer than five cards can also be scored; they order correctly against hands of the same size.
+ * @author bgreen
+ *
+ */
+public final class HandEvaluator {
+
+	/** Number of bits per suit lane in a card set **/
+	static final int LANE_WIDTH = 16;
+	/** Mask for the 13 rank bits of a lane **/
+	static final int RANK_MASK = 0x1FFF;
+
+	private static final int CATEGORY_SHIFT = 26;
+	private static final int MAJOR_SHIFT = 13;
+
+	/** For each 13-bit rank mask, the highest straight it contains (index of the top rank, 3 for a wheel), or -1 **/
+	private static final byte[] STRAIGHT_HIGH = new byte[RANK_MASK + 1];
+	/** For each 13-bit rank mask, the same mask with all but the highest five ranks cleared **/
+	private static final short[] TOP_FIVE = new short[RANK_MASK + 1];
+
+	static {
+		for (int mask = 0; mask <= RANK_MASK; mask++) {
+			STRAIGHT_HIGH[mask] = -1;
+			for (int high = 12; high >= 4; high--) {
+				int run = 0x1F << (high - 4);
+				if ((mask & run) == run) {
+					STRAIGHT_HIGH[mask] = (byte) high;
+					break;
+				}
+			}
+
+			//The wheel: A-2-3-4-5
+			if (STRAIGHT_HIGH[mask] < 0 && (mask & 0x100F) == 0x100F) {
+				STRAIGHT_HIGH[mask] = 3;
+			}
+
+			TOP_FIVE[mask] = (short) topBits(mask, 5);
+		}
+	}
+
+	/**
+	 * The categories of poker hand, from worst to best
+	 * @author bgreen
+	 *
+	 */
+	public static enum HandCategory {
+		/** No matching cards **/
+		HIGH_CARD,
+		/** Two cards of the same rank **/
+		PAIR,
+		/** Two different pairs **/
+		TWO_PAIR,
+		/** Three cards of the same rank **/
+		THREE_OF_A_KIND,
+		/** Five cards of sequential rank **/
+		STRAIGHT,
+		/** Five cards of the same suit **/
+		FLUSH,
+		/** Three of a kind plus a pair **/
+		FULL_HOUSE,
+		/** Four cards of the same rank **/
+		FOUR_OF_A_KIND,
+		/** Five cards of sequential rank in the same suit **/
+		STRAIGHT_FLUSH
+	}
+
+	private static final HandCategory[] CATEGORIES = HandCategory.values();
+
+	private HandEvaluator() {
+		//Static utility class
+	}
+
+	/**
+	 * Score a player's hand together with the cards on the table
+	 * @param hand The player's hole cards
+	 * @param tableCards The community cards
+	 * @return The hand value. Higher is better.
+	 */
+	public static int evaluate(ArrayList<Card> hand, ArrayList<Card> tableCards) {
+		return evaluate(addToCardSet(addToCardSet(0L, hand), tableCards));
+	}
+
+	/**
+	 * Score a set of cards
+	 * @param cards The cards to score
+	 * @return The hand value. Higher is better.
+	 */
+	public static int evaluate(ArrayList<Card> cards) {
+		return evaluate(addToCardSet(0L, cards));
+	}
+
+	/**
+	 * Add cards to a packed card set
+	 * @param cardSet The set to add to
+	 * @param cards The cards to add
+	 * @return The new set
+	 */
+	public static long addToCardSet(long cardSet, ArrayList<Card> cards) {
+		for (int i = 0; i < cards.size(); i++) {
+			cardSet |= cardBit(cards.get(i));
+		}
+		return cardSet;
+	}
+
+	/**
+	 * Get the bit that represents a single card in a packed card set
+	 * @param card The card
+	 * @return A long with exactly one bit set
+	 */
+	public static long cardBit(Card card) {
+		return card.getMask();
+	}
+	
+	/**
+	 * Score cards given as primitive codes
+	 * @param codes The card codes, as returned by {@link Card#getCode()}
+	 * @param offset The position of the first card in the array
+	 * @param count The number of cards to score
+	 * @return The hand value. Higher is better.
+	 */
+	public static int evaluate(int[] codes, int offset, int count) {
+		long cardSet = 0L;
+		for (int i = offset; i < offset + count; i++) {
+			cardSet |= Card.maskOf(codes[i]);
+		}
+		return evaluate(cardSet);
+	}
+
+	/**
+	 * Score a packed card set. This is the core of the evaluator.
+	 * @param cardSet The cards, one bit each, as built by {@link #cardBit(Card)}
+	 * @return The hand value. Higher is better.
+	 */
+	public static int evaluate(long cardSet) {
+		//One rank mask per suit. Which suit is in which lane makes no difference to the result.
+		int lane0 = (int) cardSet & RANK_MASK;
+		int lane1 = (int) (cardSet >>> LANE_WIDTH) & RANK_MASK;
+		int lane2 = (int) (cardSet >>> (2 * LANE_WIDTH)) & RANK_MASK;
+		int lane3 = (int) (cardSet >>> (3 * LANE_WIDTH)) & RANK_MASK;
+
+		int ranks = lane0 | lane1 | lane2 | lane3;
+
+		//Flushes. With at most seven cards only one suit can hold five.
+		int flushSuit = 0;
+		if (Integer.bitCount(lane0) >= 5) flushSuit = lane0;
+		else if (Integer.bitCount(lane1) >= 5) flushSuit = lane1;
+		else if (Integer.bitCount(lane2) >= 5) flushSuit = lane2;
+		else if (Integer.bitCount(lane3) >= 5) flushSuit = lane3;
+
+		if (flushSuit != 0) {
+			int high = STRAIGHT_HIGH[flushSuit];
+			if (high >= 0) {
+				return value(HandCategory.STRAIGHT_FLUSH, high, 0);
+			}
+		}
+
+		//Count how many of each rank we hold, as a 3-bit binary number spread across three masks
+		int ones = 0, twos = 0, fours = 0, carry;
+		carry = ones & lane0; ones ^= lane0; fours |= twos & carry; twos ^= carry;
+		carry = ones & lane1; ones ^= lane1; fours |= twos & carry; twos ^= carry;
+		carry = ones & lane2; ones ^= lane2; fours |= twos & carry; twos ^= carry;
+		carry = ones & lane3; ones ^= lane3; fours |= twos & carry; twos ^= carry;
+
+		if (fours != 0) {
+			return value(HandCategory.FOUR_OF_A_KIND, fours, Integer.highestOneBit(ranks & ~fours));
+		}
+
+		int trips = twos & ones;
+		int pairs = twos & ~ones;
+
+		if (trips != 0) {
+			int topTrip = Integer.highestOneBit(trips);
+			int rest = (trips & ~topTrip) | pairs;
+			if (rest != 0) {
+				return value(HandCategory.FULL_HOUSE, topTrip, Integer.highestOneBit(rest));
+			}
+		}
+
+		if (flushSuit != 0) {
+			return value(HandCategory.FLUSH, 0, TOP_FIVE[flushSuit]);
+		}
+
+		int straightHigh = STRAIGHT_HIGH[ranks];
+		if (straightHigh >= 0) {
+			return value(HandCategory.STRAIGHT, straightHigh, 0);
+		}
+
+		if (trips != 0) {
+			return value(HandCategory.THREE_OF_A_KIND, trips, topBits(ranks & ~trips, 2));
+		}
+
+		if (pairs != 0) {
+			int topPair = Integer.highestOneBit(pairs);
+			int secondPair = Integer.highestOneBit(pairs & ~topPair);
+			if (secondPair != 0) {
+				int bothPairs = topPair | secondPair;
+				return value(HandCategory.TWO_PAIR, bothPairs, Integer.highestOneBit(ranks & ~bothPairs));
+			}
+			return value(HandCategory.PAIR, topPair, topBits(ranks & ~topPair, 3));
+		}
+
+		return value(HandCategory.HIGH_CARD, 0, TOP_FIVE[ranks]);
+	}
+
+	/**
+	 * Get the category of a scored hand
+	 * @param handValue A value returned by one of the evaluate methods
+	 * @return The category, such as FLUSH or TWO_PAIR
+	 */
+	public static HandCategory categoryOf(int handValue) {
+		return CATEGORIES[handValue >>> CATEGORY_SHIFT];
+	}
+
+	private static int value(HandCategory category, int major, int minor) {
+		return (category.ordinal() << CATEGORY_SHIFT) | (major << MAJOR_SHIFT) | minor;
+	}
+
+	private static int topBits(int mask, int count) {
+		int result = 0;
+		for (int i = 0; i < count && mask != 0; i++) {
+			int top = Integer.highestOneBit(mask);
+			result |= top;
+			mask &= ~top;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,40 @@
+package pokerServer;
+
+import java.util.HashMap;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * A request from a client to join a game.
+ * @author bgreen
+ *
+ */
+public class JoinMessage extends ActionMessage {
+
+	private final int gameID;
+
+	/**
+	 * Create a join request
+	 * @param gameID The ID of the game to join
+	 * @param clientInvolved The client joining
+	 */
+	public JoinMessage(int gameID, Client clientInvolved) {
+		super(Action.JOIN, clientInvolved, true);
+		this.gameID = gameID;
+	}
+
+	/**
+	 * Get the game to join
+	 * @return The game's ID
+	 */
+	public int getGameID() {
+		return gameID;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("GameID", gameID);
+		return parameters;
+	}
+}
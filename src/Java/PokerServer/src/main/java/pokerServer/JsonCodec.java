@@ -0,0 +1,500 @@
+package pokerServer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import pokerServer.ActionMessage.Action;
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.interfaces.Client;
+
+/**
+ * Turns messages into JSON and back for browser clients, in the format given in the system design.
+ * Messages go straight between their typed objects and bytes, without building the maps of
+ * {@link Message#getParameter(String)} along the way. Keys, action names and cards are encoded once, up front.
+ * The part of a game state that everyone at the table sees is encoded once per change, and kept with the shared
+ * message; each player's copy reuses those bytes and only their own hand, chips and position are encoded for them.
+ *
+ * Incoming messages are checked as they are read, and come out as typed messages. Unknown top-level keys
+ * (such as the client's token) are skipped, but unknown parameters are not.
+ *
+ * A codec keeps a reader and a writer to reuse, so it should be used by one thread at a time.
+ * @author bgreen
+ *
+ */
+public class JsonCodec {
+
+	private static final byte[] TYPE = JsonWriter.key("Type");
+	private static final byte[] STATE = JsonWriter.key("State");
+	private static final byte[] SEQUENCE = JsonWriter.key("Sequence");
+	private static final byte[] POT = JsonWriter.key("Pot");
+	private static final byte[] DEALER = JsonWriter.key("Dealer");
+	private static final byte[] ACTOR = JsonWriter.key("Actor");
+	private static final byte[] TABLE_CARDS = JsonWriter.key("TableCards");
+	private static final byte[] NEW_TABLE_CARDS = JsonWriter.key("NewTableCards");
+	private static final byte[] LAST_ACTION = JsonWriter.key("LastAction");
+	private static final byte[] OTHER_PLAYERS = JsonWriter.key("OtherPlayers");
+	private static final byte[] YOU = JsonWriter.key("You");
+	private static final byte[] POSITION = JsonWriter.key("Position");
+	private static final byte[] USERNAME = JsonWriter.key("Username");
+	private static final byte[] AVATAR = JsonWriter.key("Avatar");
+	private static final byte[] CHIPS = JsonWriter.key("Chips");
+	private static final byte[] HAND = JsonWriter.key("Hand");
+	private static final byte[] EQUITY = JsonWriter.key("Equity");
+	private static final byte[] GAMES = JsonWriter.key("Games");
+	private static final byte[] LOBBY_OCCUPANTS = JsonWriter.key("LobbyOccupants");
+	private static final byte[] ID = JsonWriter.key("ID");
+	private static final byte[] OPEN = JsonWriter.key("Open");
+	private static final byte[] PLAYERS = JsonWriter.key("Players");
+	private static final byte[] WATCHERS = JsonWriter.key("Watchers");
+	private static final byte[] CLOSED_GAMES = JsonWriter.key("ClosedGames");
+	private static final byte[] DEPARTURES = JsonWriter.key("Departures");
+	private static final byte[] ACTION = JsonWriter.key("Action");
+	private static final byte[] PARAMETERS = JsonWriter.key("Parameters");
+	private static final byte[] AMOUNT = JsonWriter.key("Amount");
+	private static final byte[] ALL_IN = JsonWriter.key("All-in");
+	private static final byte[] GAME_ID = JsonWriter.key("GameID");
+	private static final byte[] QUIT = JsonWriter.key("Quit");
+
+	private static final byte[] AFTER_SEATS = (",\"You\":").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] END_GAME_STATE = "}}".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] GAME = JsonWriter.literal("Game");
+	private static final byte[] GAME_DELTA = JsonWriter.literal("GameDelta");
+	private static final byte[] LOBBY = JsonWriter.literal("Lobby");
+	private static final byte[] LOBBY_DELTA = JsonWriter.literal("LobbyDelta");
+
+	//Action names, in the order of Action.values()
+	private static final String[] ACTION_NAMES = new String[Action.values().length];
+	private static final byte[][] ACTION_LITERALS = new byte[Action.values().length][];
+	//Every card as {"Value":"A","Suit":"Hearts"}, by Card.getIndex()
+	private static final byte[][] CARDS = new byte[Card.DECK_SIZE][];
+
+	//Keys we read, without their quotes, and their indexes
+	private static final byte[][] MESSAGE_KEYS = {bare("Action"), bare("Parameters")};
+	private static final int KEY_ACTION = 0;
+	private static final int KEY_PARAMETERS = 1;
+	private static final byte[][] PARAMETER_KEYS = {bare("Amount"), bare("All-in"), bare("GameID"), bare("Quit")};
+	private static final int PARAM_AMOUNT = 0;
+	private static final int PARAM_ALL_IN = 1;
+	private static final int PARAM_GAME_ID = 2;
+	private static final int PARAM_QUIT = 3;
+
+	static {
+		for (Action action : Action.values()) {
+			String name = action.name().charAt(0) + action.name().substring(1).toLowerCase();
+			ACTION_NAMES[action.ordinal()] = name;
+			ACTION_LITERALS[action.ordinal()] = JsonWriter.literal(name);
+		}
+		for (Card card : Card.ALL_CARDS) {
+			String suit = card.getSuit().name().charAt(0) + card.getSuit().name().substring(1).toLowerCase();
+			CARDS[card.getIndex()] = ("{\"Value\":\"" + card.getValue() + "\",\"Suit\":\"" + suit + "\"}")
+					.getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+
+	//The first guess at how big the shared part of a game state will be
+	private static final int SHARED_STATE_SIZE = 1024;
+
+	private final JsonWriter writer;
+	private final JsonReader reader;
+
+	/**
+	 * Create a codec
+	 */
+	public JsonCodec() {
+		writer = new JsonWriter(null);
+		reader = new JsonReader(null);
+	}
+
+	/**
+	 * Write a message to a buffer as JSON. If it does not fit, nothing is written and the buffer is left as it was.
+	 * @param message The message. State messages must be typed; untyped action messages are converted.
+	 * @param out The buffer to write into, from its current position
+	 * @throws BufferOverflowException If the buffer is too small
+	 * @throws IllegalArgumentException If the message cannot be encoded
+	 */
+	public void encode(Message message, ByteBuffer out) {
+		int start = out.position();
+		writer.reset(out);
+
+		try {
+			if (message instanceof ActionMessage) {
+				writeAction(((ActionMessage) message).toTyped());
+			} else if (message instanceof GameStateMessage) {
+				writeGameState((GameStateMessage) message, out);
+			} else if (message instanceof GameStateDelta) {
+				writer.beginObject().name(TYPE).raw(GAME_DELTA).name(STATE);
+				writeDelta((GameStateDelta) message);
+				writer.endObject();
+			} else if (message instanceof LobbyStateMessage) {
+				writer.beginObject().name(TYPE).raw(LOBBY).name(STATE);
+				writeLobbyState((LobbyStateMessage) message);
+				writer.endObject();
+			} else if (message instanceof LobbyStateDelta) {
+				writer.beginObject().name(TYPE).raw(LOBBY_DELTA).name(STATE);
+				writeLobbyDelta((LobbyStateDelta) message);
+				writer.endObject();
+			} else {
+				throw new IllegalArgumentException("Only actions and typed state messages can be encoded");
+			}
+		} catch (BufferOverflowException | IllegalArgumentException e) {
+			out.position(start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Read an action sent by a client
+	 * @param in The buffer, holding exactly one JSON document from its position to its limit. On return it is fully read.
+	 * @param clientInvolved The client the message came from
+	 * @return A {@link BetMessage}, {@link FoldMessage}, {@link JoinMessage} or {@link QuitMessage}
+	 * @throws IllegalArgumentException If the bytes are not a valid action
+	 */
+	public ActionMessage decode(ByteBuffer in, Client clientInvolved) {
+		reader.reset(in);
+
+		Action action = null;
+		//Parameters may come before the action, so hold on to them all until the end
+		int seen = 0;
+		int amount = 0;
+		boolean allIn = false;
+		int gameID = 0;
+		boolean quit = false;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName(MESSAGE_KEYS)) {
+			case KEY_ACTION:
+				if (action != null) throw new IllegalArgumentException("Duplicate action");
+				action = parseAction(reader.nextString());
+				break;
+			case KEY_PARAMETERS:
+				if ((seen & 1 << PARAMETER_KEYS.length) != 0) throw new IllegalArgumentException("Duplicate parameters");
+				seen |= 1 << PARAMETER_KEYS.length;
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					int key = reader.nextName(PARAMETER_KEYS);
+					if (key < 0) throw new IllegalArgumentException("Unknown parameter");
+					if ((seen & 1 << key) != 0) throw new IllegalArgumentException("Duplicate parameter");
+					seen |= 1 << key;
+
+					switch (key) {
+					case PARAM_AMOUNT:
+						amount = reader.nextInt();
+						break;
+					case PARAM_ALL_IN:
+						allIn = reader.nextBoolean();
+						break;
+					case PARAM_GAME_ID:
+						gameID = reader.nextInt();
+						break;
+					default:
+						quit = reader.nextBoolean();
+						break;
+					}
+				}
+				reader.endObject();
+				break;
+			default:
+				//Things like the client's token are not our concern
+				reader.skipValue();
+				break;
+			}
+		}
+		reader.endObject();
+		reader.endDocument();
+
+		if (action == null) throw new IllegalArgumentException("Missing action");
+		int parameters = seen & ~(1 << PARAMETER_KEYS.length);
+		switch (action) {
+		case BET:
+			if (parameters != (1 << PARAM_AMOUNT | 1 << PARAM_ALL_IN)) throw new IllegalArgumentException("Invalid BET message");
+			if (amount < 0 || amount > BetMessage.MAX_AMOUNT) throw new IllegalArgumentException("Invalid BET message");
+			return new BetMessage(amount, allIn, clientInvolved);
+		case FOLD:
+			if (parameters != 1 << PARAM_QUIT) throw new IllegalArgumentException("Invalid FOLD message");
+			return new FoldMessage(quit, clientInvolved);
+		case JOIN:
+			if (parameters != 1 << PARAM_GAME_ID) throw new IllegalArgumentException("Invalid JOIN message");
+			return new JoinMessage(gameID, clientInvolved);
+		default:
+			if (parameters != 0) throw new IllegalArgumentException("Invalid QUIT message");
+			return new QuitMessage(clientInvolved);
+		}
+	}
+
+	private static Action parseAction(String name) {
+		for (int i = 0; i < ACTION_NAMES.length; i++) {
+			if (ACTION_NAMES[i].equals(name)) return Action.values()[i];
+		}
+		throw new IllegalArgumentException("Unknown action " + name);
+	}
+
+	private void writeAction(ActionMessage message) {
+		writeAction(writer, message);
+	}
+
+	private static void writeAction(JsonWriter writer, ActionMessage message) {
+		writer.beginObject().name(ACTION).raw(ACTION_LITERALS[message.action.ordinal()]).name(PARAMETERS).beginObject();
+		switch (message.action) {
+		case BET:
+			BetMessage bet = (BetMessage) message;
+			writer.name(AMOUNT).value(bet.getAmount()).name(ALL_IN).value(bet.isAllIn());
+			break;
+		case FOLD:
+			writer.name(QUIT).value(((FoldMessage) message).isQuit());
+			break;
+		case JOIN:
+			writer.name(GAME_ID).value(((JoinMessage) message).getGameID());
+			break;
+		default:
+			break;
+		}
+		writer.endObject().endObject();
+	}
+
+	/**
+	 * Write a game state by copying in the shared part, leaving out the recipient's own seat, then adding their private part
+	 */
+	private void writeGameState(GameStateMessage message, ByteBuffer out) {
+		SharedGameState shared = sharedStateOf(message.getShared());
+		PrivateState you = message.getPrivateState();
+		int mySeat = you == null ? -1 : you.getPosition();
+
+		out.put(shared.bytes, 0, shared.seatStarts[0]);
+		boolean first = true;
+		for (int i = 0; i < shared.positions.length; i++) {
+			if (shared.positions[i] == mySeat) continue;
+			if (!first) out.put((byte) ',');
+			out.put(shared.bytes, shared.seatStarts[i], shared.seatStarts[i + 1] - shared.seatStarts[i]);
+			first = false;
+		}
+		out.put((byte) ']');
+
+		if (you != null) {
+			out.put(AFTER_SEATS);
+			writer.reset(out);
+			writePrivateState(you);
+		}
+		out.put(END_GAME_STATE);
+	}
+
+	private void writeDelta(GameStateDelta delta) {
+		writer.beginObject();
+		writer.name(SEQUENCE).value(delta.getSequence());
+		if (delta.getPot() != null) writer.name(POT).value(delta.getPot().intValue());
+		writer.name(ACTOR).value(delta.getActor());
+		if (!delta.getNewTableCards().isEmpty()) {
+			writer.name(NEW_TABLE_CARDS);
+			writeCards(delta.getNewTableCards());
+		}
+		if (delta.getLastAction() != null) {
+			writer.name(LAST_ACTION);
+			writeAction(delta.getLastAction().toTyped());
+		}
+		if (!delta.getChips().isEmpty()) {
+			writer.name(CHIPS).beginArray();
+			for (ChipCount change : delta.getChips()) {
+				writer.beginObject().name(POSITION).value(change.getPosition()).name(CHIPS).value(change.getChips()).endObject();
+			}
+			writer.endArray();
+		}
+		if (delta.getPrivateState() != null) {
+			writer.name(YOU);
+			writePrivateState(delta.getPrivateState());
+		}
+		writer.endObject();
+	}
+
+	private void writePrivateState(PrivateState you) {
+		writer.beginObject();
+		writer.name(POSITION).value(you.getPosition());
+		writer.name(HAND);
+		writeCards(you.getHand());
+		writer.name(CHIPS).value(you.getChips());
+		if (you.getEquity() != null) writer.name(EQUITY).value(you.getEquity().doubleValue());
+		writer.endObject();
+	}
+
+	/**
+	 * Get the encoded shared part of a game state, encoding it if this is the first time it has been sent
+	 */
+	private static SharedGameState sharedStateOf(GameStateMessage message) {
+		SharedGameState shared = message.getSharedJson();
+		if (shared != null) return shared;
+
+		//Lock so that everyone at the table waits for one encoding rather than all doing their own
+		synchronized (message) {
+			shared = message.getSharedJson();
+			if (shared == null) {
+				shared = encodeShared(message);
+				message.setSharedJson(shared);
+			}
+			return shared;
+		}
+	}
+
+	private static SharedGameState encodeShared(GameStateMessage message) {
+		List<Seat> seats = message.getSeats();
+		ByteBuffer buffer = ByteBuffer.allocate(SHARED_STATE_SIZE);
+		while (true) {
+			try {
+				return encodeShared(message, seats, buffer);
+			} catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+	}
+
+	private static SharedGameState encodeShared(GameStateMessage message, List<Seat> seats, ByteBuffer buffer) {
+		JsonWriter writer = new JsonWriter(buffer);
+		writer.beginObject().name(TYPE).raw(GAME).name(STATE).beginObject();
+		writer.name(SEQUENCE).value(message.getSequence());
+		writer.name(POT).value(message.getPot());
+		writer.name(DEALER).value(message.getDealer());
+		writer.name(ACTOR).value(message.getActor());
+		writer.name(TABLE_CARDS);
+		writeCards(writer, message.getTableCards());
+
+		writer.name(LAST_ACTION);
+		if (message.getLastAction() == null) {
+			writer.nullValue();
+		} else {
+			writeAction(writer, message.getLastAction().toTyped());
+		}
+		writer.name(OTHER_PLAYERS).beginArray();
+
+		//Each seat is written on its own, without commas, so that any one of them can be left out
+		int[] seatStarts = new int[seats.size() + 1];
+		int[] positions = new int[seats.size()];
+		for (int i = 0; i < seats.size(); i++) {
+			Seat seat = seats.get(i);
+			seatStarts[i] = buffer.position();
+			positions[i] = seat.getPosition();
+			writer.reset(buffer);
+			writer.beginObject();
+			writer.name(POSITION).value(seat.getPosition());
+			writer.name(USERNAME).value(seat.getUsername());
+			writer.name(AVATAR).value(seat.getAvatar());
+			writer.name(CHIPS).value(seat.getChips());
+			writer.endObject();
+		}
+		seatStarts[seats.size()] = buffer.position();
+
+		byte[] bytes = new byte[buffer.position()];
+		buffer.flip();
+		buffer.get(bytes);
+		return new SharedGameState(bytes, seatStarts, positions);
+	}
+
+	private void writeLobbyState(LobbyStateMessage message) {
+		writer.beginObject();
+		writer.name(SEQUENCE).value(message.getSequence());
+		writer.name(GAMES);
+		writeListings(message.getGames());
+		writer.name(LOBBY_OCCUPANTS);
+		writeOccupants(message.getOccupants());
+		writer.endObject();
+	}
+
+	private void writeLobbyDelta(LobbyStateDelta delta) {
+		writer.beginObject();
+		writer.name(SEQUENCE).value(delta.getSequence());
+		//Only what changed is written
+		if (!delta.getGames().isEmpty()) {
+			writer.name(GAMES);
+			writeListings(delta.getGames());
+		}
+		if (!delta.getClosedGames().isEmpty()) {
+			writer.name(CLOSED_GAMES).beginArray();
+			for (Integer id : delta.getClosedGames()) {
+				writer.value(id.intValue());
+			}
+			writer.endArray();
+		}
+		if (!delta.getArrivals().isEmpty()) {
+			writer.name(LOBBY_OCCUPANTS);
+			writeOccupants(delta.getArrivals());
+		}
+		if (!delta.getDepartures().isEmpty()) {
+			writer.name(DEPARTURES).beginArray();
+			for (String username : delta.getDepartures()) {
+				writer.value(username);
+			}
+			writer.endArray();
+		}
+		writer.endObject();
+	}
+
+	private void writeListings(List<Listing> games) {
+		writer.beginArray();
+		for (Listing game : games) {
+			writer.beginObject();
+			writer.name(ID).value(game.getID());
+			writer.name(OPEN).value(game.isOpen());
+			writer.name(PLAYERS);
+			writeOccupants(game.getPlayers());
+			//Watchers are optional
+			if (!game.getWatchers().isEmpty()) {
+				writer.name(WATCHERS);
+				writeOccupants(game.getWatchers());
+			}
+			writer.endObject();
+		}
+		writer.endArray();
+	}
+
+	private void writeOccupants(List<Occupant> occupants) {
+		writer.beginArray();
+		for (Occupant occupant : occupants) {
+			writer.beginObject();
+			writer.name(USERNAME).value(occupant.getUsername());
+			writer.name(AVATAR).value(occupant.getAvatar());
+			if (occupant.getChips() != null) writer.name(CHIPS).value(occupant.getChips().intValue());
+			writer.endObject();
+		}
+		writer.endArray();
+	}
+
+	private void writeCards(List<Card> cards) {
+		writeCards(writer, cards);
+	}
+
+	private static void writeCards(JsonWriter writer, List<Card> cards) {
+		writer.beginArray();
+		for (Card card : cards) {
+			writer.raw(CARDS[card.getIndex()]);
+		}
+		writer.endArray();
+	}
+
+	private static byte[] bare(String key) {
+		return key.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The part of a game state that is the same for everyone at the table, already encoded. The bytes run from the
+	 * start of the message to just inside the list of other players, followed by each seat's object with no commas.
+	 * @author bgreen
+	 *
+	 */
+	static final class SharedGameState {
+		final byte[] bytes;
+		//Where each seat starts in the bytes, plus where the last one ends
+		final int[] seatStarts;
+		//The position of each seat
+		final int[] positions;
+
+		SharedGameState(byte[] bytes, int[] seatStarts, int[] positions) {
+			this.bytes = bytes;
+			this.seatStarts = seatStarts;
+			this.positions = positions;
+		}
+	}
+}
@@ -0,0 +1,516 @@
+package pokerServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads JSON one token at a time from a byte buffer of UTF-8, without building a tree of maps and lists.
+ * The caller asks what comes next with {@link #peek()} and then takes it with the matching method.
+ * Object keys can be matched against pre-encoded names with {@link #nextName(byte[][])}, which does not allocate.
+ *
+ * Anything that is not well-formed JSON, or is not what the caller asked for, gives an IllegalArgumentException.
+ * @author bgreen
+ *
+ */
+public class JsonReader {
+
+	/** The deepest nesting accepted **/
+	public static final int MAX_DEPTH = 32;
+	/** The longest string accepted, in bytes **/
+	public static final int MAX_STRING_LENGTH = 1024;
+
+	/**
+	 * The kinds of thing that can come next
+	 * @author bgreen
+	 *
+	 */
+	public enum Token {
+		/** The start of an object **/
+		BEGIN_OBJECT,
+		/** The end of an object **/
+		END_OBJECT,
+		/** The start of an array **/
+		BEGIN_ARRAY,
+		/** The end of an array **/
+		END_ARRAY,
+		/** An object key **/
+		NAME,
+		/** A string value **/
+		STRING,
+		/** A number **/
+		NUMBER,
+		/** true or false **/
+		BOOLEAN,
+		/** null **/
+		NULL,
+		/** The end of the document **/
+		END_DOCUMENT
+	}
+
+	//Where we are in each level of nesting
+	private static final byte EMPTY_DOCUMENT = 0;
+	private static final byte NONEMPTY_DOCUMENT = 1;
+	private static final byte EMPTY_OBJECT = 2;
+	private static final byte NONEMPTY_OBJECT = 3;
+	private static final byte DANGLING_NAME = 4;
+	private static final byte EMPTY_ARRAY = 5;
+	private static final byte NONEMPTY_ARRAY = 6;
+
+	private ByteBuffer in;
+	private final byte[] stack;
+	private int depth;
+	private Token peeked;
+
+	//Scratch space for strings that need unescaping
+	private byte[] scratch;
+	private int scratchLength;
+	private final CharsetDecoder utf8;
+
+	/**
+	 * Create a reader
+	 * @param in The buffer to read from, from its current position to its limit
+	 */
+	public JsonReader(ByteBuffer in) {
+		stack = new byte[MAX_DEPTH + 1];
+		scratch = new byte[64];
+		utf8 = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+		reset(in);
+	}
+
+	/**
+	 * Start reading a new document, so the reader can be reused
+	 * @param in The buffer to read from, from its current position to its limit
+	 */
+	public void reset(ByteBuffer in) {
+		this.in = in;
+		this.depth = 1;
+		this.stack[0] = EMPTY_DOCUMENT;
+		this.peeked = null;
+	}
+
+	/**
+	 * Find out what comes next, without taking it
+	 * @return The kind of token
+	 */
+	public Token peek() {
+		if (peeked != null) return peeked;
+
+		byte top = stack[depth - 1];
+		switch (top) {
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			skipWhitespace();
+			if (in.hasRemaining()) throw error("Unexpected data after the document");
+			return peeked = Token.END_DOCUMENT;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			stack[depth - 1] = DANGLING_NAME;
+			byte c = nextNonWhitespace();
+			if (c == '}') {
+				in.get();
+				return peeked = Token.END_OBJECT;
+			}
+			if (top == NONEMPTY_OBJECT) {
+				if (c != ',') throw error("Expected ',' or '}'");
+				in.get();
+				c = nextNonWhitespace();
+			}
+			if (c != '"') throw error("Expected a key");
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			if (nextNonWhitespace() != ':') throw error("Expected ':'");
+			in.get();
+			break;
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			if (nextNonWhitespace() == ']') {
+				in.get();
+				return peeked = Token.END_ARRAY;
+			}
+			break;
+		default:
+			//NONEMPTY_ARRAY
+			c = nextNonWhitespace();
+			if (c == ']') {
+				in.get();
+				return peeked = Token.END_ARRAY;
+			}
+			if (c != ',') throw error("Expected ',' or ']'");
+			in.get();
+			break;
+		}
+
+		//A value
+		byte c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			in.get();
+			return peeked = Token.BEGIN_OBJECT;
+		case '[':
+			in.get();
+			return peeked = Token.BEGIN_ARRAY;
+		case '"':
+			return peeked = Token.STRING;
+		case 't':
+		case 'f':
+			return peeked = Token.BOOLEAN;
+		case 'n':
+			return peeked = Token.NULL;
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) return peeked = Token.NUMBER;
+			throw error("Unexpected character");
+		}
+	}
+
+	/**
+	 * Check whether the current object or array has more in it
+	 * @return True if there is another key or value
+	 */
+	public boolean hasNext() {
+		Token token = peek();
+		return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+	}
+
+	/**
+	 * Take the start of an object
+	 */
+	public void beginObject() {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	/**
+	 * Take the end of an object
+	 */
+	public void endObject() {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	/**
+	 * Take the start of an array
+	 */
+	public void beginArray() {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	/**
+	 * Take the end of an array
+	 */
+	public void endArray() {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	/**
+	 * Take the end of the document, checking nothing follows it
+	 */
+	public void endDocument() {
+		expect(Token.END_DOCUMENT);
+	}
+
+	/**
+	 * Take an object key and match it against a list of known keys
+	 * @param names The known keys, as UTF-8 without quotes
+	 * @return The index of the key in the list, or -1 if it is not one of them
+	 */
+	public int nextName(byte[][] names) {
+		expect(Token.NAME);
+		readString();
+		for (int i = 0; i < names.length; i++) {
+			if (scratchLength == names[i].length && matches(names[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Take an object key
+	 * @return The key
+	 */
+	public String nextName() {
+		expect(Token.NAME);
+		readString();
+		return decodeScratch();
+	}
+
+	/**
+	 * Take a string value
+	 * @return The string
+	 */
+	public String nextString() {
+		expect(Token.STRING);
+		readString();
+		return decodeScratch();
+	}
+
+	/**
+	 * Take a whole number
+	 * @return The number
+	 */
+	public int nextInt() {
+		expect(Token.NUMBER);
+		boolean negative = in.get(in.position()) == '-';
+		if (negative) in.get();
+
+		//Work in negatives so that Integer.MIN_VALUE can be read
+		long value = 0;
+		int digits = 0;
+		while (in.hasRemaining()) {
+			byte c = in.get(in.position());
+			if (c < '0' || c > '9') break;
+			in.get();
+			if (digits == 1 && value == 0) throw error("Leading zero");
+			value = value * 10 - (c - '0');
+			if (value < Integer.MIN_VALUE) throw error("Number too large");
+			digits++;
+		}
+		if (digits == 0) throw error("Expected a digit");
+		if (in.hasRemaining()) {
+			byte c = in.get(in.position());
+			if (c == '.' || c == 'e' || c == 'E') throw error("Expected a whole number");
+		}
+
+		if (!negative) {
+			if (value == Integer.MIN_VALUE) throw error("Number too large");
+			value = -value;
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Take true or false
+	 * @return The value
+	 */
+	public boolean nextBoolean() {
+		expect(Token.BOOLEAN);
+		if (in.get(in.position()) == 't') {
+			literal("true");
+			return true;
+		}
+		literal("false");
+		return false;
+	}
+
+	/**
+	 * Take a null
+	 */
+	public void nextNull() {
+		expect(Token.NULL);
+		literal("null");
+	}
+
+	/**
+	 * Skip over the next value, however deeply nested
+	 */
+	public void skipValue() {
+		switch (peek()) {
+		case BEGIN_OBJECT:
+			beginObject();
+			while (hasNext()) {
+				nextName();
+				skipValue();
+			}
+			endObject();
+			break;
+		case BEGIN_ARRAY:
+			beginArray();
+			while (hasNext()) {
+				skipValue();
+			}
+			endArray();
+			break;
+		case STRING:
+			expect(Token.STRING);
+			readString();
+			break;
+		case NUMBER:
+			skipNumber();
+			break;
+		case BOOLEAN:
+			nextBoolean();
+			break;
+		case NULL:
+			nextNull();
+			break;
+		default:
+			throw error("No value to skip");
+		}
+	}
+
+	private void expect(Token token) {
+		Token next = peek();
+		if (next != token) throw error("Expected " + token + " but found " + next);
+		peeked = null;
+	}
+
+	private void push(byte state) {
+		if (depth > MAX_DEPTH) throw error("Nested too deeply");
+		stack[depth++] = state;
+	}
+
+	private void skipWhitespace() {
+		while (in.hasRemaining()) {
+			byte c = in.get(in.position());
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r') return;
+			in.get();
+		}
+	}
+
+	private byte nextNonWhitespace() {
+		skipWhitespace();
+		if (!in.hasRemaining()) throw error("Unexpected end of input");
+		return in.get(in.position());
+	}
+
+	private void literal(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (!in.hasRemaining() || in.get() != word.charAt(i)) throw error("Expected " + word);
+		}
+	}
+
+	private void skipNumber() {
+		expect(Token.NUMBER);
+		if (in.get(in.position()) == '-') in.get();
+		int digits = 0;
+		while (in.hasRemaining()) {
+			byte c = in.get(in.position());
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				in.get();
+				digits++;
+			} else {
+				break;
+			}
+		}
+		if (digits == 0) throw error("Expected a digit");
+	}
+
+	/**
+	 * Read a quoted string into the scratch buffer as UTF-8, undoing any escapes
+	 */
+	private void readString() {
+		in.get(); //Opening quote
+		scratchLength = 0;
+
+		while (true) {
+			if (!in.hasRemaining()) throw error("Unterminated string");
+			byte c = in.get();
+			if (c == '"') return;
+			if (c >= 0 && c < 0x20) throw error("Control character in string");
+
+			if (c != '\\') {
+				append(c);
+				continue;
+			}
+
+			if (!in.hasRemaining()) throw error("Unterminated string");
+			byte escaped = in.get();
+			switch (escaped) {
+			case '"':
+			case '\\':
+			case '/':
+				append(escaped);
+				break;
+			case 'b':
+				append((byte) '\b');
+				break;
+			case 'f':
+				append((byte) '\f');
+				break;
+			case 'n':
+				append((byte) '\n');
+				break;
+			case 'r':
+				append((byte) '\r');
+				break;
+			case 't':
+				append((byte) '\t');
+				break;
+			case 'u':
+				appendCodePoint(readUnicodeEscape());
+				break;
+			default:
+				throw error("Invalid escape");
+			}
+		}
+	}
+
+	private int readUnicodeEscape() {
+		int value = readHex();
+
+		//A surrogate pair is written as two escapes
+		if (Character.isHighSurrogate((char) value)) {
+			if (in.remaining() < 6 || in.get() != '\\' || in.get() != 'u') throw error("Unpaired surrogate");
+			int low = readHex();
+			if (!Character.isLowSurrogate((char) low)) throw error("Unpaired surrogate");
+			return Character.toCodePoint((char) value, (char) low);
+		}
+		if (Character.isSurrogate((char) value)) throw error("Unpaired surrogate");
+		return value;
+	}
+
+	private int readHex() {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			if (!in.hasRemaining()) throw error("Unterminated string");
+			int digit = Character.digit(in.get(), 16);
+			if (digit < 0) throw error("Invalid unicode escape");
+			value = value << 4 | digit;
+		}
+		return value;
+	}
+
+	private void appendCodePoint(int codePoint) {
+		if (codePoint < 0x80) {
+			append((byte) codePoint);
+		} else if (codePoint < 0x800) {
+			append((byte) (0xC0 | codePoint >> 6));
+			append((byte) (0x80 | codePoint & 0x3F));
+		} else if (codePoint < 0x10000) {
+			append((byte) (0xE0 | codePoint >> 12));
+			append((byte) (0x80 | codePoint >> 6 & 0x3F));
+			append((byte) (0x80 | codePoint & 0x3F));
+		} else {
+			append((byte) (0xF0 | codePoint >> 18));
+			append((byte) (0x80 | codePoint >> 12 & 0x3F));
+			append((byte) (0x80 | codePoint >> 6 & 0x3F));
+			append((byte) (0x80 | codePoint & 0x3F));
+		}
+	}
+
+	private void append(byte b) {
+		if (scratchLength == MAX_STRING_LENGTH) throw error("String too long");
+		if (scratchLength == scratch.length) scratch = Arrays.copyOf(scratch, Math.min(scratch.length * 2, MAX_STRING_LENGTH));
+		scratch[scratchLength++] = b;
+	}
+
+	private boolean matches(byte[] name) {
+		for (int i = 0; i < scratchLength; i++) {
+			if (scratch[i] != name[i]) return false;
+		}
+		return true;
+	}
+
+	private String decodeScratch() {
+		try {
+			return utf8.decode(ByteBuffer.wrap(scratch, 0, scratchLength)).toString();
+		} catch (CharacterCodingException e) {
+			throw error("Invalid UTF-8");
+		}
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at byte " + in.position());
+	}
+}
@@ -0,0 +1,255 @@
+package pokerServer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes JSON straight into a byte buffer as UTF-8, without building any objects along the way.
+ * Commas are put in automatically. Keys are written from pre-encoded byte arrays made with {@link #key(String)},
+ * and other constant snippets can be copied in whole with {@link #raw(byte[])}.
+ *
+ * The writer does not check that what it is given makes sense as JSON; that is up to the caller.
+ * @author bgreen
+ *
+ */
+public class JsonWriter {
+
+	/** The deepest nesting supported **/
+	public static final int MAX_DEPTH = 63;
+
+	private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private ByteBuffer out;
+	private int depth;
+	//Bit n is set once something has been written at depth n, so the next thing needs a comma
+	private long needsComma;
+	//True straight after a key, when the value must not have a comma
+	private boolean afterKey;
+
+	/**
+	 * Create a writer
+	 * @param out The buffer to write into, from its current position
+	 */
+	public JsonWriter(ByteBuffer out) {
+		reset(out);
+	}
+
+	/**
+	 * Start writing a new document, so the writer can be reused
+	 * @param out The buffer to write into, from its current position
+	 */
+	public void reset(ByteBuffer out) {
+		this.out = out;
+		this.depth = 0;
+		this.needsComma = 0;
+		this.afterKey = false;
+	}
+
+	/**
+	 * Pre-encode an object key, with its quotes and the colon after it
+	 * @param name The key
+	 * @return The bytes to pass to {@link #name(byte[])}
+	 */
+	public static byte[] key(String name) {
+		return ("\"" + name + "\":").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Pre-encode a string value, with its quotes
+	 * @param value The string, which must not need escaping
+	 * @return The bytes to pass to {@link #raw(byte[])}
+	 */
+	public static byte[] literal(String value) {
+		return ("\"" + value + "\"").getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Start an object
+	 * @return This writer
+	 */
+	public JsonWriter beginObject() {
+		return open('{');
+	}
+
+	/**
+	 * Finish an object
+	 * @return This writer
+	 */
+	public JsonWriter endObject() {
+		return close('}');
+	}
+
+	/**
+	 * Start an array
+	 * @return This writer
+	 */
+	public JsonWriter beginArray() {
+		return open('[');
+	}
+
+	/**
+	 * Finish an array
+	 * @return This writer
+	 */
+	public JsonWriter endArray() {
+		return close(']');
+	}
+
+	/**
+	 * Write an object key
+	 * @param key The key, as made by {@link #key(String)}
+	 * @return This writer
+	 */
+	public JsonWriter name(byte[] key) {
+		separate();
+		out.put(key);
+		afterKey = true;
+		return this;
+	}
+
+	/**
+	 * Write a number
+	 * @param value The number
+	 * @return This writer
+	 */
+	public JsonWriter value(int value) {
+		separate();
+		//Work in negatives so that Integer.MIN_VALUE works
+		if (value < 0) {
+			out.put((byte) '-');
+		} else {
+			value = -value;
+		}
+
+		int start = out.position();
+		do {
+			out.put((byte) ('0' - value % 10));
+			value /= 10;
+		} while (value != 0);
+
+		//The digits went in backwards
+		for (int i = start, j = out.position() - 1; i < j; i++, j--) {
+			byte swap = out.get(i);
+			out.put(i, out.get(j));
+			out.put(j, swap);
+		}
+		return this;
+	}
+
+	/**
+	 * Write a number with a fractional part
+	 * @param value The number, which must be finite
+	 * @return This writer
+	 */
+	public JsonWriter value(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) throw new IllegalArgumentException("Not a finite number");
+		return raw(Double.toString(value).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Write true or false
+	 * @param value The value
+	 * @return This writer
+	 */
+	public JsonWriter value(boolean value) {
+		return raw(value ? TRUE : FALSE);
+	}
+
+	/**
+	 * Write a string, escaping it as needed
+	 * @param value The string, or null
+	 * @return This writer
+	 */
+	public JsonWriter value(String value) {
+		if (value == null) return nullValue();
+		separate();
+		out.put((byte) '"');
+
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.put((byte) '\\');
+				out.put((byte) c);
+			} else if (c < 0x20) {
+				out.put((byte) '\\');
+				out.put((byte) 'u');
+				out.put((byte) '0');
+				out.put((byte) '0');
+				out.put(HEX[c >> 4]);
+				out.put(HEX[c & 0xF]);
+			} else if (c < 0x80) {
+				out.put((byte) c);
+			} else if (c < 0x800) {
+				out.put((byte) (0xC0 | c >> 6));
+				out.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				out.put((byte) (0xF0 | codePoint >> 18));
+				out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				out.put((byte) (0x80 | codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				//A lone surrogate cannot be encoded
+				out.put((byte) '?');
+			} else {
+				out.put((byte) (0xE0 | c >> 12));
+				out.put((byte) (0x80 | c >> 6 & 0x3F));
+				out.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+
+		out.put((byte) '"');
+		return this;
+	}
+
+	/**
+	 * Write null
+	 * @return This writer
+	 */
+	public JsonWriter nullValue() {
+		return raw(NULL);
+	}
+
+	/**
+	 * Copy in a complete value that has already been encoded, such as a card
+	 * @param value The encoded value
+	 * @return This writer
+	 */
+	public JsonWriter raw(byte[] value) {
+		separate();
+		out.put(value);
+		return this;
+	}
+
+	private JsonWriter open(char bracket) {
+		separate();
+		if (depth == MAX_DEPTH) throw new IllegalStateException("Nested too deeply");
+		out.put((byte) bracket);
+		depth++;
+		needsComma &= ~(1L << depth);
+		return this;
+	}
+
+	private JsonWriter close(char bracket) {
+		if (depth == 0) throw new IllegalStateException("Nothing to close");
+		out.put((byte) bracket);
+		depth--;
+		return this;
+	}
+
+	/**
+	 * Put a comma before the next value or key if something has already been written at this level
+	 */
+	private void separate() {
+		if (afterKey) {
+			afterKey = false;
+			return;
+		}
+		long bit = 1L << depth;
+		if ((needsComma & bit) != 0) out.put((byte) ',');
+		needsComma |= bit;
+	}
+}
@@ -0,0 +1,109 @@
+package pokerServer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * The native format: each message is a four-byte big-endian length followed by that many bytes of
+ * {@link MessageCodec} output. There is no handshake.
+ *
+ * Once signing starts, each frame's length also counts a {@link MessageSigner} tag after the message. A frame whose
+ * tag is wrong is dropped before it is decoded.
+ * @author bgreen
+ *
+ */
+class LengthPrefixedFormat implements WireFormat {
+
+	private final MessageCodec codec;
+	//Set once, by whichever thread sets up the session
+	private volatile MessageSigner signer;
+
+	/**
+	 * Create the format for a new connection
+	 */
+	LengthPrefixedFormat() {
+		codec = new MessageCodec();
+	}
+
+	@Override
+	public Message read(ByteBuffer in, ClientSocket client) {
+		if (in.remaining() < ClientSocket.LENGTH_BYTES) return null;
+		MessageSigner signer = this.signer;
+		int tagBytes = signer == null ? 0 : MessageSigner.TAG_BYTES;
+		int start = in.position();
+		int length = in.getInt(start);
+		if (length < 1 + tagBytes || length > ClientSocket.MAX_FRAME_SIZE + tagBytes) {
+			throw new IllegalArgumentException("Bad frame length " + length);
+		}
+		if (in.remaining() < ClientSocket.LENGTH_BYTES + length) return null;
+
+		int limit = in.limit();
+		int end = start + ClientSocket.LENGTH_BYTES + length;
+		in.limit(end).position(start + ClientSocket.LENGTH_BYTES);
+		if (signer != null && !signer.verify(in)) {
+			//Forged, replayed or unsigned: skip it without decoding
+			in.limit(limit).position(end);
+			return null;
+		}
+		in.limit(end - tagBytes);
+		Message message = codec.decode(in, client);
+		if (in.hasRemaining()) throw new IllegalArgumentException("Frame longer than its message");
+		in.limit(limit).position(end);
+		return message;
+	}
+
+	@Override
+	public boolean canWrite() {
+		return true;
+	}
+
+	@Override
+	public boolean write(Message message, ByteBuffer out) {
+		MessageSigner signer = this.signer;
+		int tagBytes = signer == null ? 0 : MessageSigner.TAG_BYTES;
+		int start = out.position();
+		int limit = out.limit();
+		if (out.remaining() <= ClientSocket.LENGTH_BYTES + tagBytes) return false;
+		//Keep room for the tag, so a message that is encoded is always sent
+		out.limit(limit - tagBytes).position(start + ClientSocket.LENGTH_BYTES);
+		try {
+			codec.encode(message, out);
+		} catch (BufferOverflowException e) {
+			out.limit(limit).position(start);
+			return false;
+		} catch (IllegalArgumentException e) {
+			out.limit(limit).position(start);
+			throw e;
+		}
+
+		out.limit(limit);
+		if (signer != null) signer.sign(out, start + ClientSocket.LENGTH_BYTES);
+		out.putInt(start, out.position() - start - ClientSocket.LENGTH_BYTES);
+		return true;
+	}
+
+	@Override
+	public boolean hasControl() {
+		return false;
+	}
+
+	@Override
+	public boolean writeControl(ByteBuffer out) {
+		return true;
+	}
+
+	@Override
+	public boolean isFinished() {
+		return false;
+	}
+
+	@Override
+	public void startSigning(MessageSigner signer) {
+		this.signer = signer;
+	}
+
+	@Override
+	public void release() {
+		//Nothing held
+	}
+}
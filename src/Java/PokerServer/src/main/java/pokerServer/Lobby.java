@@ -1,25 +1,309 @@
 package pokerServer;
 
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
 import pokerServer.interfaces.Observable;
 import pokerServer.interfaces.Observer;
+import pokerServer.interfaces.StateObserver;
 
 /**
  * Instances of the class Lobby represent a lobby where players reside when they are not in a Game.
+ * 
+ * The lobby keeps its own index of the games and of who is waiting, kept up to date by the games themselves: each
+ * game sends its new listing whenever someone joins, leaves, starts or stops watching, or its chip counts change.
+ * Changes from any thread are only noted when they arrive, latest per game or player. Once a tick the lobby's thread
+ * applies them to the index and sends every observer one {@link LobbyStateDelta} with just those changes, so a busy
+ * table costs at most one listing per tick, and the traffic does not grow with the number of tables. Someone arriving
+ * gets the whole index as a {@link LobbyStateMessage} instead, and deltas from then on. That whole index is only
+ * copied out when someone needs it, not every tick.
  * @author bgreen
  *
  */
-public class Lobby implements Observable {
+public class Lobby implements Observable, Runnable {
+
+	//Noted in place of a listing or player to say they have gone
+	private static final Listing CLOSED = new Listing(-1, false, Collections.<Occupant>emptyList(),
+			Collections.<Occupant>emptyList());
+	private static final Occupant DEPARTED = new Occupant("", "", 0);
+	/** The most ticks of changes kept to build a snapshot from, before the lobby builds one from its index **/
+	static final int SNAPSHOT_INTERVAL = 64;
+
+	private final long tickNanos;
+	private final Thread thread;
+	private volatile boolean running;
+	private final StateDispatcher dispatcher;
+
+	//Changes from any thread, taken by the next tick
+	private final ConcurrentHashMap<Integer, Listing> changedGames;
+	private final ConcurrentHashMap<String, Occupant> changedOccupants;
+	private final ConcurrentLinkedQueue<StateObserver> arriving;
+	private final Set<StateObserver> observers;
+
+	//Only touched on the lobby's thread
+	private final LinkedHashMap<Integer, Listing> games;
+	private final LinkedHashMap<String, Occupant> occupants;
+	//Observers that have been sent a snapshot, and so are sent deltas
+	private final LinkedHashSet<StateObserver> upToDate;
+	private int sequence;
+	private volatile LazySnapshot snapshot;
+
+	/**
+	 * Create a lobby that sends its changes every {@link PokerServer#LOBBY_TICK_MILLIS}. It does nothing until started.
+	 */
+	public Lobby() {
+		this(PokerServer.LOBBY_TICK_MILLIS);
+	}
+
+	/**
+	 * Create a lobby. It does nothing until started.
+	 * @param tickMillis How often changes are sent to observers
+	 */
+	public Lobby(long tickMillis) {
+		if (tickMillis < 1) throw new IllegalArgumentException("Tick too short");
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		thread = new Thread(this, "lobby");
+		thread.setDaemon(true);
+		dispatcher = PokerServer.getStateDispatcher();
+		changedGames = new ConcurrentHashMap<Integer, Listing>();
+		changedOccupants = new ConcurrentHashMap<String, Occupant>();
+		arriving = new ConcurrentLinkedQueue<StateObserver>();
+		observers = ConcurrentHashMap.newKeySet();
+		games = new LinkedHashMap<Integer, Listing>();
+		occupants = new LinkedHashMap<String, Occupant>();
+		upToDate = new LinkedHashSet<StateObserver>();
+		snapshot = new LazySnapshot(new LobbyStateMessage(0, new ArrayList<Listing>(), new ArrayList<Occupant>(), null));
+	}
+
+	/**
+	 * Add the lobby to the list, ask every game for its listing, and start sending changes
+	 */
+	public void start() {
+		running = true;
+		//Games changing from here on tell us themselves
+		PokerServer.addLobby(this);
+		for (final Game game : PokerServer.getGames()) {
+			game.post(new Runnable() {
+				@Override
+				public void run() {
+					game.sendListing(Lobby.this);
+				}
+			});
+		}
+		thread.start();
+	}
+
+	/**
+	 * Take the lobby off the list and stop sending changes
+	 */
+	public void shutdown() {
+		running = false;
+		PokerServer.removeLobby(this);
+		thread.interrupt();
+	}
 
 	@Override
 	public boolean addObserver(Observer observer) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		if (!(observer instanceof StateObserver)) throw new IllegalArgumentException("Not the right kind of observer");
+		if (!observers.add((StateObserver) observer)) return false;
+		
+		if (observer instanceof Player) {
+			Player player = (Player) observer;
+			changedOccupants.put(player.getUsername(), occupantFor(player));
+		}
+		//Deltas are no use without the state they apply to, so they get a snapshot on the next tick
+		arriving.add((StateObserver) observer);
+		return true;
 	}
 
 	@Override
 	public boolean removeObserver(Observer observer) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("Coming soon");
+		if (!(observer instanceof StateObserver)) throw new IllegalArgumentException("Not the right kind of observer");
+		//The lobby's thread may be sending to it now, so its queue is dropped there on the next tick
+		if (!observers.remove(observer)) return false;
+		
+		if (observer instanceof Player) changedOccupants.put(((Player) observer).getUsername(), DEPARTED);
+		return true;
+	}
+
+	/**
+	 * Note a game's new listing. Safe to call from any thread.
+	 * @param listing The listing
+	 */
+	public void gameChanged(Listing listing) {
+		changedGames.put(listing.getID(), listing);
+	}
+
+	/**
+	 * Note that a game is no longer listed. Safe to call from any thread.
+	 * @param gameID The game's ID
+	 */
+	public void gameClosed(int gameID) {
+		changedGames.put(gameID, CLOSED);
+	}
+
+	/**
+	 * Get the full state as of the last tick
+	 * @return The state
+	 */
+	public LobbyStateMessage getSnapshot() {
+		return snapshot.get();
 	}
 
+	@Override
+	public void run() {
+		long next = System.nanoTime() + tickNanos;
+		while (running) {
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+			//A fixed rate, without catching up on ticks missed while busy
+			next = Math.max(next + tickNanos, System.nanoTime());
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				//Keep the lobby going for everyone else
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Apply everything noted since the last tick to the index, and send it out
+	 */
+	private void tick() {
+		List<Listing> changed = new ArrayList<Listing>(0);
+		List<Integer> closed = new ArrayList<Integer>(0);
+		for (Integer id : changedGames.keySet()) {
+			Listing listing = changedGames.remove(id);
+			if (listing == CLOSED) {
+				if (games.remove(id) != null) closed.add(id);
+			} else if (listing != null && !listing.equals(games.put(id, listing))) {
+				changed.add(listing);
+			}
+		}
+
+		List<Occupant> arrivals = new ArrayList<Occupant>(0);
+		List<String> departures = new ArrayList<String>(0);
+		for (String username : changedOccupants.keySet()) {
+			Occupant occupant = changedOccupants.remove(username);
+			if (occupant == DEPARTED) {
+				if (occupants.remove(username) != null) departures.add(username);
+			} else if (occupant != null && !occupant.equals(occupants.put(username, occupant))) {
+				arrivals.add(occupant);
+			}
+		}
+
+		LobbyStateDelta delta = null;
+		if (!changed.isEmpty() || !closed.isEmpty() || !arrivals.isEmpty() || !departures.isEmpty()) {
+			sequence++;
+			delta = new LobbyStateDelta(sequence, changed, closed, arrivals, departures, null);
+			snapshot = new LazySnapshot(snapshot, delta);
+			//Don't let the changes pile up for ever waiting for someone to need them
+			if (snapshot.depth >= SNAPSHOT_INTERVAL) buildSnapshot();
+		}
+
+		//Anyone arriving gets the snapshot, which already has this tick's changes, so not the delta too
+		List<StateObserver> arrived = new ArrayList<StateObserver>(0);
+		StateObserver observer;
+		while ((observer = arriving.poll()) != null) {
+			upToDate.remove(observer);
+			arrived.add(observer);
+		}
+
+		if (delta != null) {
+			for (Iterator<StateObserver> it = upToDate.iterator(); it.hasNext();) {
+				observer = it.next();
+				if (observers.contains(observer)) {
+					dispatcher.publish(this, observer, delta, snapshot);
+				} else {
+					it.remove();
+					dispatcher.remove(this, observer);
+				}
+			}
+		}
+		for (StateObserver newcomer : arrived) {
+			if (observers.contains(newcomer) && upToDate.add(newcomer)) {
+				LobbyStateMessage state = buildSnapshot();
+				dispatcher.publish(this, newcomer, state, state);
+			}
+		}
+	}
+
+	/**
+	 * Copy the index out as the state for this tick, unless it has been already. Only called on the lobby's thread.
+	 * @return The state
+	 */
+	private LobbyStateMessage buildSnapshot() {
+		if (!snapshot.isBuilt()) {
+			snapshot.build(new LobbyStateMessage(sequence, new ArrayList<Listing>(games.values()),
+					new ArrayList<Occupant>(occupants.values()), null));
+		}
+		return snapshot.get();
+	}
+
+	/**
+	 * The lobby's state as of one tick, only put together when someone needs it. Until then it is the state before and
+	 * the tick's delta, which cannot change, so it can be put together on any thread.
+	 */
+	private static class LazySnapshot implements StateDispatcher.Snapshot {
+		private LazySnapshot before;
+		private LobbyStateDelta delta;
+		private LobbyStateMessage built;
+		//How many deltas there are to apply, at most, to build this from the last state that was built
+		final int depth;
+
+		LazySnapshot(LobbyStateMessage built) {
+			this.built = built;
+			this.depth = 0;
+		}
+
+		LazySnapshot(LazySnapshot before, LobbyStateDelta delta) {
+			this.before = before;
+			this.delta = delta;
+			this.depth = before.isBuilt() ? 1 : before.depth + 1;
+		}
+
+		@Override
+		public synchronized LobbyStateMessage get() {
+			if (built == null) build(delta.applyTo(before.get()));
+			return built;
+		}
+
+		synchronized boolean isBuilt() {
+			return built != null;
+		}
+
+		/**
+		 * Fill in the state, and let go of what it would have been built from
+		 * @param state The state
+		 */
+		synchronized void build(LobbyStateMessage state) {
+			built = state;
+			before = null;
+			delta = null;
+		}
+	}
+
+	private static Occupant occupantFor(Player player) {
+		URL avatar = player.getAvatarURL();
+		Integer chips = player.getChips();
+		return new Occupant(player.getUsername(), avatar == null ? "" : avatar.toString(), chips == null ? 0 : chips);
+	}
 }
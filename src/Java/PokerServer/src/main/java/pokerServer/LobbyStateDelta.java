@@ -0,0 +1,150 @@
+package pokerServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.interfaces.Client;
+
+/**
+ * What changed in a lobby over one tick: the games that were opened or changed, the games that closed, and the
+ * players who arrived in or left the lobby. Everything else is as it was, so a delta is as big as the changes in it
+ * however many games are listed. Deltas are numbered like {@link GameStateDelta}s, and follow the
+ * {@link LobbyStateMessage} or delta with the number before.
+ * @author bgreen
+ *
+ */
+public class LobbyStateDelta extends StateMessage {
+
+	private final int sequence;
+	private final List<Listing> games;
+	private final List<Integer> closedGames;
+	private final List<Occupant> arrivals;
+	private final List<String> departures;
+
+	/**
+	 * Create a delta
+	 * @param sequence The number of this update, one more than the update it follows
+	 * @param games The games that are new or have changed, in full
+	 * @param closedGames The IDs of the games that are no longer listed
+	 * @param arrivals The players who arrived in the lobby or whose details changed, who must all have their chip counts
+	 * @param departures The usernames of the players who left the lobby
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public LobbyStateDelta(int sequence, List<Listing> games, List<Integer> closedGames, List<Occupant> arrivals,
+			List<String> departures, Client clientInvolved) {
+		super(StateType.LOBBY, clientInvolved, true);
+		for (Occupant occupant : arrivals) {
+			if (occupant.getChips() == null) throw new IllegalArgumentException("Lobby occupants must have chips");
+		}
+		this.sequence = sequence;
+		this.games = Collections.unmodifiableList(new ArrayList<Listing>(games));
+		this.closedGames = Collections.unmodifiableList(new ArrayList<Integer>(closedGames));
+		this.arrivals = Collections.unmodifiableList(new ArrayList<Occupant>(arrivals));
+		this.departures = Collections.unmodifiableList(new ArrayList<String>(departures));
+	}
+
+	/**
+	 * Apply this delta to the state it follows, as a client would. New games and players go at the end of their lists,
+	 * and changed ones stay where they were.
+	 * @param before The last state received
+	 * @return The new state
+	 * @throws IllegalArgumentException If this delta does not follow that state, so a snapshot is needed
+	 */
+	public LobbyStateMessage applyTo(LobbyStateMessage before) {
+		if (before.getSequence() + 1 != sequence) {
+			throw new IllegalArgumentException("Update " + sequence + " does not follow " + before.getSequence());
+		}
+
+		LinkedHashMap<Integer, Listing> listed = new LinkedHashMap<Integer, Listing>();
+		for (Listing game : before.getGames()) {
+			listed.put(game.getID(), game);
+		}
+		for (Integer id : closedGames) {
+			listed.remove(id);
+		}
+		for (Listing game : games) {
+			listed.put(game.getID(), game);
+		}
+
+		LinkedHashMap<String, Occupant> present = new LinkedHashMap<String, Occupant>();
+		for (Occupant occupant : before.getOccupants()) {
+			present.put(occupant.getUsername(), occupant);
+		}
+		for (String username : departures) {
+			present.remove(username);
+		}
+		for (Occupant occupant : arrivals) {
+			present.put(occupant.getUsername(), occupant);
+		}
+
+		return new LobbyStateMessage(sequence, new ArrayList<Listing>(listed.values()),
+				new ArrayList<Occupant>(present.values()), before.clientInvolved);
+	}
+
+	/**
+	 * Get the number of this update
+	 * @return The sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the games that are new or have changed
+	 * @return The games, which cannot be changed
+	 */
+	public List<Listing> getGames() {
+		return games;
+	}
+
+	/**
+	 * Get the games that are no longer listed
+	 * @return Their IDs, which cannot be changed
+	 */
+	public List<Integer> getClosedGames() {
+		return closedGames;
+	}
+
+	/**
+	 * Get the players who arrived in the lobby, or whose details changed
+	 * @return The players, which cannot be changed
+	 */
+	public List<Occupant> getArrivals() {
+		return arrivals;
+	}
+
+	/**
+	 * Get the players who left the lobby
+	 * @return Their usernames, which cannot be changed
+	 */
+	public List<String> getDepartures() {
+		return departures;
+	}
+
+	@Override
+	public boolean isValid() {
+		return true;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Sequence", sequence);
+		if (!games.isEmpty()) {
+			ArrayList<HashMap<String, Object>> gamesList = new ArrayList<HashMap<String, Object>>();
+			for (Listing game : games) {
+				gamesList.add(game.describe());
+			}
+			parameters.put("Games", gamesList);
+		}
+		if (!closedGames.isEmpty()) parameters.put("ClosedGames", new ArrayList<Integer>(closedGames));
+		if (!arrivals.isEmpty()) parameters.put("LobbyOccupants", LobbyStateMessage.describe(arrivals));
+		if (!departures.isEmpty()) parameters.put("Departures", new ArrayList<String>(departures));
+		return parameters;
+	}
+}
@@ -0,0 +1,247 @@
+package pokerServer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * The state of a lobby: the games that can be joined and who is waiting in the lobby. Lobbies send this as a
+ * snapshot when someone arrives, and numbered {@link LobbyStateDelta}s after that.
+ * @author bgreen
+ *
+ */
+public class LobbyStateMessage extends StateMessage {
+
+	private final int sequence;
+	private final List<Listing> games;
+	private final List<Occupant> occupants;
+
+	/**
+	 * Create a lobby state
+	 * @param games The games listed in the lobby
+	 * @param occupants The players in the lobby, who must all have their chip counts
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public LobbyStateMessage(List<Listing> games, List<Occupant> occupants, Client clientInvolved) {
+		this(0, games, occupants, clientInvolved);
+	}
+
+	/**
+	 * Create a numbered lobby state
+	 * @param sequence The number of the last update included, which the next delta follows
+	 * @param games The games listed in the lobby
+	 * @param occupants The players in the lobby, who must all have their chip counts
+	 * @param clientInvolved The client the message is going to, or null if it is for everyone
+	 */
+	public LobbyStateMessage(int sequence, List<Listing> games, List<Occupant> occupants, Client clientInvolved) {
+		super(StateType.LOBBY, clientInvolved, true);
+		this.sequence = sequence;
+		for (Occupant occupant : occupants) {
+			if (occupant.getChips() == null) throw new IllegalArgumentException("Lobby occupants must have chips");
+		}
+		this.games = Collections.unmodifiableList(new ArrayList<Listing>(games));
+		this.occupants = Collections.unmodifiableList(new ArrayList<Occupant>(occupants));
+	}
+
+	/**
+	 * Get the number of the last update included in this state
+	 * @return The sequence number
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Get the games listed in the lobby
+	 * @return The games, which cannot be changed
+	 */
+	public List<Listing> getGames() {
+		return games;
+	}
+
+	/**
+	 * Get the players in the lobby
+	 * @return The players, which cannot be changed
+	 */
+	public List<Occupant> getOccupants() {
+		return occupants;
+	}
+
+	@Override
+	protected HashMap<String, Object> describe() {
+		HashMap<String, Object> parameters = new HashMap<String, Object>();
+		parameters.put("Sequence", sequence);
+
+		ArrayList<HashMap<String, Object>> gamesList = new ArrayList<HashMap<String, Object>>();
+		for (Listing game : games) {
+			gamesList.add(game.describe());
+		}
+		parameters.put("Games", gamesList);
+		parameters.put("LobbyOccupants", describe(occupants));
+		return parameters;
+	}
+
+	static ArrayList<HashMap<String, Object>> describe(List<Occupant> occupants) {
+		ArrayList<HashMap<String, Object>> list = new ArrayList<HashMap<String, Object>>();
+		for (Occupant occupant : occupants) {
+			list.add(occupant.describe());
+		}
+		return list;
+	}
+
+	/**
+	 * A game listed in the lobby
+	 * @author bgreen
+	 *
+	 */
+	public static class Listing {
+		private final int id;
+		private final boolean open;
+		private final List<Occupant> players;
+		private final List<Occupant> watchers;
+
+		/**
+		 * Describe a game
+		 * @param id The game's ID
+		 * @param open True if the game has an open seat
+		 * @param players The players in the game, who must all have their chip counts
+		 * @param watchers Anyone watching the game without playing
+		 */
+		public Listing(int id, boolean open, List<Occupant> players, List<Occupant> watchers) {
+			for (Occupant player : players) {
+				if (player.getChips() == null) throw new IllegalArgumentException("Players must have chips");
+			}
+			this.id = id;
+			this.open = open;
+			this.players = Collections.unmodifiableList(new ArrayList<Occupant>(players));
+			this.watchers = Collections.unmodifiableList(new ArrayList<Occupant>(watchers));
+		}
+
+		/**
+		 * Get the game's ID
+		 * @return The ID
+		 */
+		public int getID() {
+			return id;
+		}
+
+		/**
+		 * Check whether the game can be joined
+		 * @return True if there is an open seat
+		 */
+		public boolean isOpen() {
+			return open;
+		}
+
+		/**
+		 * Get the players in the game
+		 * @return The players, which cannot be changed
+		 */
+		public List<Occupant> getPlayers() {
+			return players;
+		}
+
+		/**
+		 * Get the people watching the game
+		 * @return The watchers, which cannot be changed
+		 */
+		public List<Occupant> getWatchers() {
+			return watchers;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Listing)) return false;
+			Listing listing = (Listing) other;
+			return listing.id == id && listing.open == open && listing.players.equals(players)
+					&& listing.watchers.equals(watchers);
+		}
+
+		@Override
+		public int hashCode() {
+			return (id * 31 + players.hashCode()) * 31 + watchers.hashCode() + (open ? 1 : 0);
+		}
+
+		HashMap<String, Object> describe() {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("ID", id);
+			parameters.put("Open", open);
+			parameters.put("Players", LobbyStateMessage.describe(players));
+			//Watchers are optional
+			if (!watchers.isEmpty()) parameters.put("Watchers", LobbyStateMessage.describe(watchers));
+			return parameters;
+		}
+	}
+
+	/**
+	 * A player in the lobby, or in a listed game
+	 * @author bgreen
+	 *
+	 */
+	public static class Occupant {
+		private final String username;
+		private final String avatar;
+		private final Integer chips;
+
+		/**
+		 * Describe a player
+		 * @param username The player's username
+		 * @param avatar The address of the player's avatar
+		 * @param chips The number of chips the player has, or null to leave it out
+		 */
+		public Occupant(String username, String avatar, Integer chips) {
+			if (username == null || avatar == null) throw new IllegalArgumentException("Player must have a username and avatar");
+			this.username = username;
+			this.avatar = avatar;
+			this.chips = chips;
+		}
+
+		/**
+		 * Get the player's username
+		 * @return The username
+		 */
+		public String getUsername() {
+			return username;
+		}
+
+		/**
+		 * Get the player's avatar
+		 * @return The address of the avatar
+		 */
+		public String getAvatar() {
+			return avatar;
+		}
+
+		/**
+		 * Get the player's chips
+		 * @return The number of chips, or null if it is left out
+		 */
+		public Integer getChips() {
+			return chips;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Occupant)) return false;
+			Occupant occupant = (Occupant) other;
+			return occupant.username.equals(username) && occupant.avatar.equals(avatar)
+					&& (occupant.chips == null ? chips == null : occupant.chips.equals(chips));
+		}
+
+		@Override
+		public int hashCode() {
+			return username.hashCode() * 31 + (chips == null ? 0 : chips);
+		}
+
+		HashMap<String, Object> describe() {
+			HashMap<String, Object> parameters = new HashMap<String, Object>();
+			parameters.put("Username", username);
+			parameters.put("Avatar", avatar);
+			if (chips != null) parameters.put("Chips", chips);
+			return parameters;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package pokerServer;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The events waiting for one owner, such as a {@link Game}. Any thread can post an event; they run in the order they
+ * were posted, on the owner's executor, and never two at once. Everything the owner does happens in an event, so its
+ * state needs no locks however many threads talk to it.
+ *
+ * The queue is a linked list. Posting swaps the new event in as the tail with one atomic step and never blocks or
+ * locks; only the thread running the events takes them off the head. A mailbox is its own task: it is handed to the
+ * executor when an event arrives and nothing is running, and runs until it is empty.
+ * @author bgreen
+ *
+ */
+public class Mailbox implements Runnable {
+
+	/** The most events run in one go before the executor's other tasks get a turn **/
+	static final int MAX_BATCH = 64;
+
+	/**
+	 * One link in the queue
+	 */
+	private static final class Node {
+		private Runnable event;
+		private volatile Node next;
+
+		Node(Runnable event) {
+			this.event = event;
+		}
+	}
+
+	private final Executor executor;
+	//Producers add after the tail; the head is a node whose event has already been taken, and only the runner moves it
+	private final AtomicReference<Node> tail;
+	private Node head;
+	//Whether the mailbox has been given to the executor and not yet emptied
+	private final AtomicBoolean scheduled;
+
+	/**
+	 * Create an empty mailbox
+	 * @param executor Where events run. An executor that runs tasks straight away runs them on the posting thread,
+	 * unless another thread is already running this mailbox's events, in which case that thread runs them too.
+	 */
+	public Mailbox(Executor executor) {
+		this.executor = executor;
+		head = new Node(null);
+		tail = new AtomicReference<Node>(head);
+		scheduled = new AtomicBoolean(false);
+	}
+
+	/**
+	 * Post an event. This can be called from any thread, including from inside another event, and never blocks.
+	 * An event posted from inside one of this mailbox's events runs after that event, never inside it.
+	 * @param event The event
+	 */
+	public void post(Runnable event) {
+		if (event == null) throw new IllegalArgumentException("No event");
+		Node node = new Node(event);
+		tail.getAndSet(node).next = node;
+		if (scheduled.compareAndSet(false, true)) executor.execute(this);
+	}
+
+	/**
+	 * Run the waiting events. Only ever called by the executor.
+	 */
+	@Override
+	public void run() {
+		for (int i = 0; i < MAX_BATCH; i++) {
+			Node next = head.next;
+			if (next == null) {
+				scheduled.set(false);
+				//An event may have been linked in after we looked; if so, whoever wins the flag runs it
+				if (head.next == null || !scheduled.compareAndSet(false, true)) return;
+				continue;
+			}
+
+			Runnable event = next.event;
+			next.event = null;
+			head = next;
+			try {
+				event.run();
+			} catch (RuntimeException e) {
+				// TODO Log this once a logger is implemented
+				e.printStackTrace();
+			}
+		}
+		//Give other mailboxes a turn, then carry on
+		executor.execute(this);
+	}
+}
@@ -10,15 +10,47 @@ import pokerServer.interfaces.Client;
  */
 public abstract class Message implements Cloneable {
 	Client clientInvolved;
+	//Only used by untyped messages
 	HashMap<String, Object> parameters;
+	//A typed message's fields as parameters, only built if someone asks for one by name. The same typed message may
+	//be sent on several threads at once, so this is published whole through a volatile and never changed after.
+	private volatile HashMap<String, Object> described;
+	private final boolean typed;
 
 	/**
 	 * Basic constructor
 	 * @param clientInvolved The client sending or receiving the message.
 	 */
 	public Message(Client clientInvolved) {
+		this(clientInvolved, false);
+	}
+	
+	/**
+	 * Constructor for subclasses
+	 * @param clientInvolved The client sending or receiving the message.
+	 * @param typed True if the subclass holds its contents in typed fields, which are validated when the message is built.
+	 * The parameters of a typed message can be read with {@link #getParameter(String)} but not changed.
+	 */
+	protected Message(Client clientInvolved, boolean typed) {
 		this.clientInvolved = clientInvolved;
-		this.parameters = new HashMap<String, Object>();
+		this.typed = typed;
+		this.parameters = typed ? null : new HashMap<String, Object>();
+	}
+	
+	/**
+	 * Check whether this message holds its contents in typed fields rather than parameters
+	 * @return True if the message is typed
+	 */
+	public boolean isTyped() {
+		return typed;
+	}
+	
+	/**
+	 * Get the client sending or receiving the message
+	 * @return The client
+	 */
+	public Client getClient() {
+		return clientInvolved;
 	}
 
 
@@ -26,10 +58,10 @@ public abstract class Message implements Cloneable {
 	 * Add a parameter to the message state. This is safe and will not overwrite existing parameters
 	 * @param name The name of the parameter to add
 	 * @param value The value to set
-	 * @return True if it succeeded, false if not. It will return false if the parameter already existed.
+	 * @return True if it succeeded, false if not. It will return false if the parameter already existed, or the message is typed.
 	 */
 	public boolean addParameter(String name, Object value) {
-		if (parameters.containsKey(name)) return false;
+		if (typed || parameters.containsKey(name)) return false;
 		parameters.put(name, value);
 		return true;
 	}
@@ -37,9 +69,10 @@ public abstract class Message implements Cloneable {
 	/**
 	 * Remove a parameter from the message
 	 * @param name The parameter to remove
-	 * @return True for a success. 
+	 * @return True for a success, false if the message is typed.
 	 */
 	public boolean removeParameter(String name) {
+		if (typed) return false;
 		parameters.remove(name);
 		return true;
 	}
@@ -48,9 +81,10 @@ public abstract class Message implements Cloneable {
 	 * Set a parameter to a value, whether it previously existed or not. 
 	 * @param name The name of the parameter to set
 	 * @param value The value to set
-	 * @return True if it succeeded, false if not
+	 * @return True if it succeeded, false if not. It will return false if the message is typed.
 	 */
 	public boolean setParameter(String name, Object value) {
+		if (typed) return false;
 		if (parameters.containsKey(name)) parameters.replace(name, value);
 		else parameters.put(name, value);
 		return true;
@@ -62,10 +96,28 @@ public abstract class Message implements Cloneable {
 	 * @return True if it succeeded, false if not
 	 */
 	public Object getParameter(String name) {
-		if (parameters.containsKey(name)) return parameters.get(name);
+		HashMap<String, Object> fields = parameters;
+		if (typed) {
+			fields = described;
+			//Two threads may both build it; they build the same thing, so either copy will do
+			if (fields == null) {
+				fields = describe();
+				described = fields;
+			}
+		}
+		if (fields.containsKey(name)) return fields.get(name);
 		throw new IllegalArgumentException("Invalid parameter");
 	}
 	
+	/**
+	 * List a typed message's fields as parameters, in the form the untyped message would have held them.
+	 * Typed messages must override this.
+	 * @return The parameters
+	 */
+	protected HashMap<String, Object> describe() {
+		return new HashMap<String, Object>();
+	}
+	
 	/**
 	 * Computes if the parameters given to the message are complete and valid according to the spec
 	 * @return True if so, false if it is not valid. 
@@ -0,0 +1,544 @@
+package pokerServer;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.interfaces.Client;
+
+/**
+ * Turns messages into bytes and back for sending over a connection. Each message is written as
+ * <pre>
+ * byte   format version
+ * byte   message type
+ * ...    the message's fields
+ * </pre>
+ * Numbers are written as varints (seven bits per byte, low bits first, high bit set if more follow),
+ * cards as a single byte holding {@link Card#getIndex()}, and flags packed into bits.
+ *
+ * Strings such as usernames are interned: the first time a string is sent it is given the next ID, and after that
+ * only the ID is sent. Each side of a connection keeps its own table, so a codec must be used for one connection only,
+ * and every message it encodes must actually be sent, in order.
+ *
+ * The decoder checks everything as it reads, and throws an IllegalArgumentException on anything malformed,
+ * so what comes out is always a valid typed message.
+ * @author bgreen
+ *
+ */
+public class MessageCodec {
+
+	/** The version of the format written by this code **/
+	public static final byte VERSION = 3;
+	/** The most strings either side will intern per connection **/
+	public static final int MAX_INTERNED_STRINGS = 4096;
+	/** The longest string that will be accepted, in bytes **/
+	public static final int MAX_STRING_LENGTH = 1024;
+
+	static final byte TYPE_BET = 1;
+	static final byte TYPE_FOLD = 2;
+	static final byte TYPE_JOIN = 3;
+	static final byte TYPE_QUIT = 4;
+	static final byte TYPE_GAME_STATE = 5;
+	static final byte TYPE_LOBBY_STATE = 6;
+	static final byte TYPE_ERROR = 7;
+	static final byte TYPE_GAME_DELTA = 8;
+	static final byte TYPE_LOBBY_DELTA = 9;
+
+	//Flags for the optional parts of a game state or delta
+	private static final int HAS_DEALER = 1;
+	private static final int HAS_LAST_ACTION = 1 << 1;
+	private static final int HAS_PRIVATE_STATE = 1 << 2;
+	private static final int HAS_EQUITY = 1 << 3;
+	private static final int HAS_POT = 1 << 4;
+	private static final int HAS_TABLE_CARDS = 1 << 5;
+	private static final int HAS_CHIPS = 1 << 6;
+	private static final int GAME_STATE_FLAGS = HAS_DEALER | HAS_LAST_ACTION | HAS_PRIVATE_STATE | HAS_EQUITY;
+	private static final int DELTA_FLAGS = HAS_LAST_ACTION | HAS_PRIVATE_STATE | HAS_EQUITY | HAS_POT | HAS_TABLE_CARDS
+			| HAS_CHIPS;
+
+	//Equity is sent as a fraction of this
+	private static final double EQUITY_SCALE = 65535.0;
+
+	//Strings we have sent, and the IDs we gave them
+	private final HashMap<String, Integer> sentIDs;
+	private final ArrayList<String> sentStrings;
+	//Strings we have received, by ID
+	private final ArrayList<String> receivedStrings;
+	private final CharsetDecoder utf8;
+
+	/**
+	 * Create a codec for a new connection
+	 */
+	public MessageCodec() {
+		sentIDs = new HashMap<String, Integer>();
+		sentStrings = new ArrayList<String>();
+		receivedStrings = new ArrayList<String>();
+		utf8 = StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPORT)
+				.onUnmappableCharacter(CodingErrorAction.REPORT);
+	}
+
+	/**
+	 * Write a message to a buffer. If it does not fit, nothing is written and the buffer is left as it was.
+	 * @param message The message. State messages must be typed; untyped action messages are converted.
+	 * @param out The buffer to write into, from its current position
+	 * @throws BufferOverflowException If the buffer is too small
+	 * @throws IllegalArgumentException If the message cannot be encoded
+	 */
+	public void encode(Message message, ByteBuffer out) {
+		int start = out.position();
+		int interned = sentStrings.size();
+
+		try {
+			out.put(VERSION);
+			if (message instanceof ActionMessage) {
+				encodeAction(((ActionMessage) message).toTyped(), out);
+			} else if (message instanceof GameStateMessage) {
+				out.put(TYPE_GAME_STATE);
+				encodeGameState((GameStateMessage) message, out);
+			} else if (message instanceof GameStateDelta) {
+				out.put(TYPE_GAME_DELTA);
+				encodeDelta((GameStateDelta) message, out);
+			} else if (message instanceof LobbyStateMessage) {
+				out.put(TYPE_LOBBY_STATE);
+				encodeLobbyState((LobbyStateMessage) message, out);
+			} else if (message instanceof LobbyStateDelta) {
+				out.put(TYPE_LOBBY_DELTA);
+				encodeLobbyDelta((LobbyStateDelta) message, out);
+			} else if (message instanceof ErrorMessage) {
+				out.put(TYPE_ERROR);
+			} else {
+				throw new IllegalArgumentException("Only typed state messages can be encoded");
+			}
+		} catch (BufferOverflowException | IllegalArgumentException e) {
+			//Forget any strings that were interned but never sent
+			while (sentStrings.size() > interned) {
+				sentIDs.remove(sentStrings.remove(sentStrings.size() - 1));
+			}
+			out.position(start);
+			throw e;
+		}
+	}
+
+	/**
+	 * Read a message from a buffer
+	 * @param in The buffer, positioned at the start of a message. On return it is positioned after the message.
+	 * @param clientInvolved The client the message came from
+	 * @return The message
+	 * @throws IllegalArgumentException If the bytes are not a valid message
+	 */
+	public Message decode(ByteBuffer in, Client clientInvolved) {
+		try {
+			byte version = in.get();
+			if (version != VERSION) throw new IllegalArgumentException("Unsupported message version " + version);
+
+			byte type = in.get();
+			switch (type) {
+			case TYPE_BET:
+			case TYPE_FOLD:
+			case TYPE_JOIN:
+			case TYPE_QUIT:
+				return decodeAction(type, in, clientInvolved);
+			case TYPE_GAME_STATE:
+				return decodeGameState(in, clientInvolved);
+			case TYPE_GAME_DELTA:
+				return decodeDelta(in, clientInvolved);
+			case TYPE_LOBBY_STATE:
+				return decodeLobbyState(in, clientInvolved);
+			case TYPE_LOBBY_DELTA:
+				return decodeLobbyDelta(in, clientInvolved);
+			case TYPE_ERROR:
+				return new ErrorMessage(clientInvolved);
+			default:
+				throw new IllegalArgumentException("Unknown message type " + type);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated message");
+		}
+	}
+
+	private void encodeAction(ActionMessage message, ByteBuffer out) {
+		switch (message.action) {
+		case BET:
+			BetMessage bet = (BetMessage) message;
+			out.put(TYPE_BET);
+			//The amount is never negative, so there is room for the all-in flag in the low bit
+			writeVarint(out, bet.getAmount() << 1 | (bet.isAllIn() ? 1 : 0));
+			break;
+		case FOLD:
+			out.put(TYPE_FOLD);
+			writeBoolean(out, ((FoldMessage) message).isQuit());
+			break;
+		case JOIN:
+			out.put(TYPE_JOIN);
+			writeVarint(out, ((JoinMessage) message).getGameID());
+			break;
+		default:
+			out.put(TYPE_QUIT);
+			break;
+		}
+	}
+
+	private ActionMessage decodeAction(byte type, ByteBuffer in, Client clientInvolved) {
+		switch (type) {
+		case TYPE_BET:
+			int bet = readVarint(in);
+			return new BetMessage(bet >>> 1, (bet & 1) != 0, clientInvolved);
+		case TYPE_FOLD:
+			return new FoldMessage(readBoolean(in), clientInvolved);
+		case TYPE_JOIN:
+			return new JoinMessage(readVarint(in), clientInvolved);
+		case TYPE_QUIT:
+			return new QuitMessage(clientInvolved);
+		default:
+			throw new IllegalArgumentException("Not an action: " + type);
+		}
+	}
+
+	private void encodeGameState(GameStateMessage message, ByteBuffer out) {
+		PrivateState you = message.getPrivateState();
+		int flags = 0;
+		if (message.getDealer() != null) flags |= HAS_DEALER;
+		if (message.getLastAction() != null) flags |= HAS_LAST_ACTION;
+		if (you != null) flags |= HAS_PRIVATE_STATE;
+		if (you != null && you.getEquity() != null) flags |= HAS_EQUITY;
+		out.put((byte) flags);
+
+		writeVarint(out, message.getSequence());
+		writeVarint(out, message.getPot());
+		if (message.getDealer() != null) writeString(out, message.getDealer());
+		writeString(out, message.getActor());
+		writeCards(out, message.getTableCards());
+		if (message.getLastAction() != null) encodeAction(message.getLastAction().toTyped(), out);
+
+		List<Seat> seats = message.getSeats();
+		writeVarint(out, seats.size());
+		for (Seat seat : seats) {
+			writeVarint(out, seat.getPosition());
+			writeString(out, seat.getUsername());
+			writeString(out, seat.getAvatar());
+			writeVarint(out, seat.getChips());
+		}
+
+		if (you != null) writePrivateState(out, you);
+	}
+
+	private GameStateMessage decodeGameState(ByteBuffer in, Client clientInvolved) {
+		int flags = readFlags(in, GAME_STATE_FLAGS);
+		int sequence = readVarint(in);
+		int pot = readVarint(in);
+		String dealer = (flags & HAS_DEALER) != 0 ? readString(in) : null;
+		String actor = readString(in);
+		List<Card> tableCards = readCards(in, 5);
+
+		ActionMessage lastAction = null;
+		if ((flags & HAS_LAST_ACTION) != 0) lastAction = decodeAction(in.get(), in, clientInvolved);
+
+		int numSeats = readCount(in, 4);
+		List<Seat> seats = new ArrayList<Seat>(numSeats);
+		for (int i = 0; i < numSeats; i++) {
+			seats.add(new Seat(readVarint(in), readString(in), readString(in), readVarint(in)));
+		}
+
+		GameStateMessage message = new GameStateMessage(sequence, pot, dealer, actor, tableCards, lastAction, seats,
+				clientInvolved);
+		if ((flags & HAS_PRIVATE_STATE) != 0) message = message.withPrivateState(readPrivateState(in, flags));
+		return message;
+	}
+
+	private void encodeDelta(GameStateDelta delta, ByteBuffer out) {
+		PrivateState you = delta.getPrivateState();
+		int flags = 0;
+		if (delta.getPot() != null) flags |= HAS_POT;
+		if (!delta.getNewTableCards().isEmpty()) flags |= HAS_TABLE_CARDS;
+		if (delta.getLastAction() != null) flags |= HAS_LAST_ACTION;
+		if (!delta.getChips().isEmpty()) flags |= HAS_CHIPS;
+		if (you != null) flags |= HAS_PRIVATE_STATE;
+		if (you != null && you.getEquity() != null) flags |= HAS_EQUITY;
+		out.put((byte) flags);
+
+		writeVarint(out, delta.getSequence());
+		if (delta.getPot() != null) writeVarint(out, delta.getPot());
+		writeString(out, delta.getActor());
+		if (!delta.getNewTableCards().isEmpty()) writeCards(out, delta.getNewTableCards());
+		if (delta.getLastAction() != null) encodeAction(delta.getLastAction().toTyped(), out);
+		if (!delta.getChips().isEmpty()) {
+			writeVarint(out, delta.getChips().size());
+			for (ChipCount change : delta.getChips()) {
+				writeVarint(out, change.getPosition());
+				writeVarint(out, change.getChips());
+			}
+		}
+		if (you != null) writePrivateState(out, you);
+	}
+
+	private GameStateDelta decodeDelta(ByteBuffer in, Client clientInvolved) {
+		int flags = readFlags(in, DELTA_FLAGS);
+		int sequence = readVarint(in);
+		Integer pot = (flags & HAS_POT) != 0 ? readVarint(in) : null;
+		String actor = readString(in);
+		List<Card> tableCards = (flags & HAS_TABLE_CARDS) != 0 ? readCards(in, 5) : new ArrayList<Card>(0);
+
+		ActionMessage lastAction = null;
+		if ((flags & HAS_LAST_ACTION) != 0) lastAction = decodeAction(in.get(), in, clientInvolved);
+
+		List<ChipCount> chips = new ArrayList<ChipCount>(0);
+		if ((flags & HAS_CHIPS) != 0) {
+			int count = readCount(in, 2);
+			for (int i = 0; i < count; i++) {
+				chips.add(new ChipCount(readVarint(in), readVarint(in)));
+			}
+		}
+
+		GameStateDelta delta = new GameStateDelta(sequence, pot, actor, tableCards, lastAction, chips, clientInvolved);
+		if ((flags & HAS_PRIVATE_STATE) != 0) delta = delta.withPrivateState(readPrivateState(in, flags));
+		return delta;
+	}
+
+	private static void writePrivateState(ByteBuffer out, PrivateState you) {
+		writeVarint(out, you.getPosition());
+		writeCards(out, you.getHand());
+		writeVarint(out, you.getChips());
+		if (you.getEquity() != null) out.putChar((char) Math.round(you.getEquity() * EQUITY_SCALE));
+	}
+
+	private static PrivateState readPrivateState(ByteBuffer in, int flags) {
+		int position = readVarint(in);
+		List<Card> hand = readCards(in, 2);
+		int chips = readVarint(in);
+		Double equity = (flags & HAS_EQUITY) != 0 ? in.getChar() / EQUITY_SCALE : null;
+		return new PrivateState(position, hand, chips, equity);
+	}
+
+	private static int readFlags(ByteBuffer in, int allowed) {
+		int flags = in.get() & 0xFF;
+		if ((flags & ~allowed) != 0) throw new IllegalArgumentException("Unknown flags");
+		if ((flags & HAS_EQUITY) != 0 && (flags & HAS_PRIVATE_STATE) == 0) {
+			throw new IllegalArgumentException("Equity without a private state");
+		}
+		return flags;
+	}
+
+	private void encodeLobbyState(LobbyStateMessage message, ByteBuffer out) {
+		writeVarint(out, message.getSequence());
+		writeListings(out, message.getGames());
+		writeOccupants(out, message.getOccupants());
+	}
+
+	private LobbyStateMessage decodeLobbyState(ByteBuffer in, Client clientInvolved) {
+		int sequence = readVarint(in);
+		List<Listing> games = readListings(in);
+		return new LobbyStateMessage(sequence, games, readOccupants(in), clientInvolved);
+	}
+
+	private void encodeLobbyDelta(LobbyStateDelta delta, ByteBuffer out) {
+		writeVarint(out, delta.getSequence());
+		writeListings(out, delta.getGames());
+		writeVarint(out, delta.getClosedGames().size());
+		for (Integer id : delta.getClosedGames()) {
+			writeVarint(out, id);
+		}
+		writeOccupants(out, delta.getArrivals());
+		writeVarint(out, delta.getDepartures().size());
+		for (String username : delta.getDepartures()) {
+			writeString(out, username);
+		}
+	}
+
+	private LobbyStateDelta decodeLobbyDelta(ByteBuffer in, Client clientInvolved) {
+		int sequence = readVarint(in);
+		List<Listing> games = readListings(in);
+		int numClosed = readCount(in, 1);
+		List<Integer> closed = new ArrayList<Integer>(numClosed);
+		for (int i = 0; i < numClosed; i++) {
+			closed.add(readVarint(in));
+		}
+		List<Occupant> arrivals = readOccupants(in);
+		int numDepartures = readCount(in, 1);
+		List<String> departures = new ArrayList<String>(numDepartures);
+		for (int i = 0; i < numDepartures; i++) {
+			departures.add(readString(in));
+		}
+		return new LobbyStateDelta(sequence, games, closed, arrivals, departures, clientInvolved);
+	}
+
+	private void writeListings(ByteBuffer out, List<Listing> games) {
+		writeVarint(out, games.size());
+		for (Listing game : games) {
+			writeVarint(out, game.getID());
+			writeBoolean(out, game.isOpen());
+			writeOccupants(out, game.getPlayers());
+			writeOccupants(out, game.getWatchers());
+		}
+	}
+
+	private List<Listing> readListings(ByteBuffer in) {
+		int numGames = readCount(in, 4);
+		List<Listing> games = new ArrayList<Listing>(numGames);
+		for (int i = 0; i < numGames; i++) {
+			games.add(new Listing(readVarint(in), readBoolean(in), readOccupants(in), readOccupants(in)));
+		}
+		return games;
+	}
+
+	private void writeOccupants(ByteBuffer out, List<Occupant> occupants) {
+		writeVarint(out, occupants.size());
+		for (Occupant occupant : occupants) {
+			writeString(out, occupant.getUsername());
+			writeString(out, occupant.getAvatar());
+			//Zero means the chip count is left out
+			writeVarint(out, occupant.getChips() == null ? 0 : occupant.getChips() + 1);
+		}
+	}
+
+	private List<Occupant> readOccupants(ByteBuffer in) {
+		int count = readCount(in, 3);
+		List<Occupant> occupants = new ArrayList<Occupant>(count);
+		for (int i = 0; i < count; i++) {
+			String username = readString(in);
+			String avatar = readString(in);
+			int chips = readVarint(in);
+			occupants.add(new Occupant(username, avatar, chips == 0 ? null : chips - 1));
+		}
+		return occupants;
+	}
+
+	private static void writeCards(ByteBuffer out, List<Card> cards) {
+		out.put((byte) cards.size());
+		for (Card card : cards) {
+			out.put((byte) card.getIndex());
+		}
+	}
+
+	private static List<Card> readCards(ByteBuffer in, int max) {
+		int count = in.get();
+		if (count < 0 || count > max) throw new IllegalArgumentException("Too many cards");
+
+		List<Card> cards = new ArrayList<Card>(count);
+		for (int i = 0; i < count; i++) {
+			int index = in.get();
+			if (index < 0 || index >= Card.DECK_SIZE) throw new IllegalArgumentException("Invalid card " + index);
+			cards.add(Card.fromIndex(index));
+		}
+		return cards;
+	}
+
+	private static void writeBoolean(ByteBuffer out, boolean value) {
+		out.put((byte) (value ? 1 : 0));
+	}
+
+	private static boolean readBoolean(ByteBuffer in) {
+		byte value = in.get();
+		if (value != 0 && value != 1) throw new IllegalArgumentException("Invalid boolean");
+		return value == 1;
+	}
+
+	/**
+	 * Write a string. The tag is 0 for a string sent in full without interning, an odd number for a string sent in full
+	 * and given the next ID, or an even number for a string already sent, whose ID is (tag / 2) - 1.
+	 */
+	private void writeString(ByteBuffer out, String value) {
+		Integer id = sentIDs.get(value);
+		if (id != null) {
+			writeVarint(out, (id + 1) << 1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_LENGTH) throw new IllegalArgumentException("String too long");
+		if (sentStrings.size() < MAX_INTERNED_STRINGS) {
+			sentIDs.put(value, sentStrings.size());
+			sentStrings.add(value);
+			writeVarint(out, 1);
+		} else {
+			writeVarint(out, 0);
+		}
+		writeVarint(out, bytes.length);
+		out.put(bytes);
+	}
+
+	private String readString(ByteBuffer in) {
+		int tag = readVarint(in);
+		if (tag != 0 && (tag & 1) == 0) {
+			int id = (tag >>> 1) - 1;
+			if (id >= receivedStrings.size()) throw new IllegalArgumentException("Unknown string " + id);
+			return receivedStrings.get(id);
+		}
+		if (tag > 1) throw new IllegalArgumentException("Invalid string tag");
+
+		int length = readVarint(in);
+		if (length > MAX_STRING_LENGTH || length > in.remaining()) throw new IllegalArgumentException("Invalid string length");
+
+		ByteBuffer bytes = in.slice();
+		bytes.limit(length);
+		String value;
+		try {
+			CharBuffer chars = utf8.decode(bytes);
+			value = chars.toString();
+		} catch (CharacterCodingException e) {
+			throw new IllegalArgumentException("Invalid string");
+		}
+		in.position(in.position() + length);
+
+		if (tag == 1) {
+			if (receivedStrings.size() >= MAX_INTERNED_STRINGS) throw new IllegalArgumentException("Too many strings");
+			receivedStrings.add(value);
+		}
+		return value;
+	}
+
+	/**
+	 * Write a non-negative int as a varint
+	 * @param out The buffer
+	 * @param value The value
+	 */
+	static void writeVarint(ByteBuffer out, int value) {
+		if (value < 0) throw new IllegalArgumentException("Cannot encode a negative number");
+		while ((value & ~0x7F) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	/**
+	 * Read a varint, checking that it fits in a non-negative int
+	 * @param in The buffer
+	 * @return The value
+	 */
+	static int readVarint(ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			if (shift == 28 && (b & 0xF8) != 0) throw new IllegalArgumentException("Varint too large");
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalArgumentException("Varint too long");
+	}
+
+	/**
+	 * Read the length of a list, checking it against the bytes left so a bad length cannot cause a huge allocation
+	 * @param in The buffer
+	 * @param minBytesEach The fewest bytes each entry can take
+	 * @return The length
+	 */
+	private static int readCount(ByteBuffer in, int minBytesEach) {
+		int count = readVarint(in);
+		if (count > in.remaining() / minBytesEach) throw new IllegalArgumentException("Invalid count");
+		return count;
+	}
+}
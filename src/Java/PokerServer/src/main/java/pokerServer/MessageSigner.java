@@ -0,0 +1,117 @@
+package pokerServer;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Signs and checks the frames of one session with HMAC-SHA256, cut to {@link #TAG_BYTES} bytes.
+ *
+ * Each tag covers the direction, the frame's number and the frame's bytes. Frames are numbered from zero in each
+ * direction and the numbers are never sent; both ends count. TCP keeps frames in order, so a frame sent again, or
+ * one bounced back at its sender, is checked against the wrong number and fails like a forgery.
+ *
+ * Each direction has its own Mac, keyed once when the signer is made; a Mac is ready for the next frame as soon as it
+ * finishes one. Each direction is only ever used by one thread at a time (the connection's loop, or its reader or its
+ * writer), so they need no locking.
+ * @author bgreen
+ *
+ */
+class MessageSigner {
+
+	/** The number of bytes of each tag **/
+	static final int TAG_BYTES = 16;
+	/** The shortest key accepted **/
+	static final int MIN_KEY_BYTES = 16;
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final byte FROM_CLIENT = 'C';
+	private static final byte FROM_SERVER = 'S';
+
+	//Each only touched by the side that reads or writes
+	private final Mac receiving;
+	private final byte[] receivedTag;
+	private long received;
+	private final Mac sending;
+	private final byte[] sentTag;
+	private long sent;
+
+	/**
+	 * Create a signer for a session
+	 * @param sessionKey The key both ends share
+	 */
+	MessageSigner(byte[] sessionKey) {
+		if (sessionKey.length < MIN_KEY_BYTES) throw new IllegalArgumentException("Session key too short");
+		SecretKeySpec key = new SecretKeySpec(sessionKey, ALGORITHM);
+		receiving = keyedMac(key);
+		sending = keyedMac(key);
+		receivedTag = new byte[receiving.getMacLength()];
+		sentTag = new byte[sending.getMacLength()];
+	}
+
+	private static Mac keyedMac(SecretKeySpec key) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(key);
+			return mac;
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM has " + ALGORITHM, e);
+		} catch (InvalidKeyException e) {
+			throw new IllegalArgumentException("Bad session key", e);
+		}
+	}
+
+	/**
+	 * Check the next frame from the client
+	 * @param frame The bytes, with the frame's bytes then its tag from its position to its limit. Left as it was.
+	 * @return True if the tag is right. Only then does the count move on.
+	 */
+	boolean verify(ByteBuffer frame) {
+		int start = frame.position();
+		int end = frame.limit() - TAG_BYTES;
+		if (end < start) return false;
+		byte[] expected = tag(receiving, receivedTag, FROM_CLIENT, received, frame, start, end);
+
+		int difference = 0;
+		for (int i = 0; i < TAG_BYTES; i++) {
+			difference |= expected[i] ^ frame.get(end + i);
+		}
+		if (difference != 0) return false;
+		received++;
+		return true;
+	}
+
+	/**
+	 * Sign the next frame to the client
+	 * @param out The buffer, with the frame's bytes from start to its position. The tag is put after them.
+	 * @param start Where the frame's bytes start
+	 */
+	void sign(ByteBuffer out, int start) {
+		byte[] tag = tag(sending, sentTag, FROM_SERVER, sent, out, start, out.position());
+		out.put(tag, 0, TAG_BYTES);
+		sent++;
+	}
+
+	private static byte[] tag(Mac mac, byte[] tag, byte direction, long number, ByteBuffer bytes, int start, int end) {
+		int position = bytes.position();
+		int limit = bytes.limit();
+		try {
+			mac.update(direction);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				mac.update((byte) (number >>> shift));
+			}
+			bytes.limit(end).position(start);
+			mac.update(bytes);
+			mac.doFinal(tag, 0);
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			bytes.limit(limit).position(position);
+		}
+		return tag;
+	}
+}
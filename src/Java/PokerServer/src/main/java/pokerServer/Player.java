@@ -7,24 +7,37 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import pokerServer.ActionMessage.Action;
+import pokerServer.EquityCalculator.Equity;
 import pokerServer.interfaces.Client;
 import pokerServer.interfaces.ClientObserver;
 import pokerServer.interfaces.StateObserver;
 
 /**
  * Instances of the class Player shall represent a single player, either in a game or in the lobby. 
+ * 
+ * A player belongs to the game they sit at: anything their client asks for is posted to that game with
+ * {@link Game#post(Runnable)}, and their hand and chips only change on the game's thread. State updates may be
+ * delivered on other threads, so the fields they read are volatile and the hand is replaced rather than changed.
  * @author bgreen
  */
 public class Player implements StateObserver, ClientObserver {
 	private String username;
 	private URL avatarURL;
-	private Integer chipsRemaining;
-	private ArrayList<Card> currentHand;
-	private Game currentGame;
-	private Lobby currentLobby;
+	private volatile Integer chipsRemaining;
+	//Extra time to act, in milliseconds, drawn on by the game when a turn runs out
+	private volatile int timeBankMillis;
+	private volatile ArrayList<Card> currentHand;
+	private volatile Game currentGame;
+	private volatile Lobby currentLobby;
 	private Client client;
+	
+	//The game this player has a seat in, and which seat, so the game can find them without searching. Both change
+	//together on whichever game the player is joining or leaving, and are read from other threads, so they are swapped
+	//as one.
+	private final AtomicReference<Seating> seating;
 
 	
 	/**
@@ -39,11 +52,13 @@ public class Player implements StateObserver, ClientObserver {
 		this.username = username;
 		this.client = client;
 		this.chipsRemaining = numChips;
+		this.timeBankMillis = PokerServer.TIME_BANK_MILLIS;
 		
 		this.avatarURL = makeGravatarURL(email);
 		this.currentGame = null;
 		this.currentLobby = null;
 		this.currentHand = new ArrayList<Card>();
+		this.seating = new AtomicReference<Seating>();
 	}
 
 	/**
@@ -106,7 +121,10 @@ public class Player implements StateObserver, ClientObserver {
 	 * @param card The card to add.
 	 */	
 	public void addCardToHand(Card card) {
-		currentHand.add(card);
+		ArrayList<Card> hand = new ArrayList<Card>(currentHand.size() + 1);
+		hand.addAll(currentHand);
+		hand.add(card);
+		currentHand = hand;
 	}
 	
 	/**
@@ -137,57 +155,102 @@ public class Player implements StateObserver, ClientObserver {
 		if (message instanceof ActionMessage) {
 			ActionMessage am = (ActionMessage) message;
 			
+			//Anything that does not match the spec is ignored
+			ActionMessage action;
+			try {
+				action = am.toTyped();
+			} catch (IllegalArgumentException e) {
+				return;
+			}
+			
+			//Everything that touches a game happens on that game's own thread
+			final Game game = currentGame;
+			
 			//Quitting
-			if (am.action == Action.QUIT ) {
-				if (currentGame != null) {
-					currentGame.removeObserver(this);
-					currentGame.removePlayer(this);
-				}
-				currentGame = null;
+			if (am.action == Action.QUIT && game != null) {
+				leaveLater(game);
 			}
 			
 			//Betting
-			if (am.action == Action.BET) {
-				//Basic validation
-				Integer amount = (Integer) am.getParameter("Amount");
-				
-				if (amount < chipsRemaining) {
-					//Pass on the message
-					if (currentGame.parseMessage(am, this)) {
-						//deduct chips for bet
-						chipsRemaining -= amount;
+			if (am.action == Action.BET && game != null) {
+				final int amount = ((BetMessage) action).getAmount();
+				game.post(new Runnable() {
+					@Override
+					public void run() {
+						//Basic validation; betting every chip we have is going all-in
+						if (amount <= chipsRemaining) {
+							//Deduct chips for the bet first, so the state the game sends shows them gone
+							chipsRemaining -= amount;
+							//Pass on the message, and give the chips back if the bet is refused
+							if (!game.parseMessage(am, Player.this)) {
+								chipsRemaining += amount;
+							}
+						}
 					}
-				}	
+				});
 			}
 			
 			//Folding
-			if (am.action == Action.FOLD) {
-				//Pass on the message
-				currentGame.parseMessage(am, this);
-				
-				if ( (Boolean) am.getParameter("Quit")) {
-					if (currentGame != null) {
-						currentGame.removeObserver(this);
-						currentGame.removePlayer(this);
+			if (am.action == Action.FOLD && game != null) {
+				final boolean quit = ((FoldMessage) action).isQuit();
+				game.post(new Runnable() {
+					@Override
+					public void run() {
+						//Pass on the message
+						game.parseMessage(am, Player.this);
+						if (quit) leave(game);
 					}
-					currentGame = null;
-				}
+				});
 			}
 			
 			//Join a new game
 			if (am.action == Action.JOIN) {
-				Integer gameID = (Integer) am.getParameter("GameID");
-				if (PokerServer.gameIDIsValid(gameID)) {
-					joinGame(PokerServer.getGameFromID(gameID));
+				final Game gameToJoin = PokerServer.findGame(((JoinMessage) action).getGameID());
+				if (gameToJoin != null) {
+					gameToJoin.post(new Runnable() {
+						@Override
+						public void run() {
+							joinGame(gameToJoin);
+						}
+					});
 				}
 			}
 			
 			//If we're not in a game or lobby, join a lobby
-			if (currentGame == null && currentLobby == null) {
-				Lobby tentativeLobby = PokerServer.getLobbyToJoin();
-				if (tentativeLobby != null) joinLobby(tentativeLobby);
+			joinLobbyIfIdle();
+		}
+	}
+	
+	/**
+	 * Leave a game on its own thread, some time after this returns
+	 * @param game The game
+	 */
+	private void leaveLater(final Game game) {
+		game.post(new Runnable() {
+			@Override
+			public void run() {
+				leave(game);
 			}
-			
+		});
+	}
+	
+	/**
+	 * Leave a game. Only called on the game's thread.
+	 * @param game The game
+	 */
+	private void leave(Game game) {
+		game.removeObserver(this);
+		game.removePlayer(this);
+		if (currentGame == game) {
+			currentGame = null;
+			joinLobbyIfIdle();
+		}
+	}
+	
+	private void joinLobbyIfIdle() {
+		if (currentGame == null && currentLobby == null) {
+			Lobby tentativeLobby = PokerServer.getLobbyToJoin();
+			if (tentativeLobby != null) joinLobby(tentativeLobby);
 		}
 	}
 
@@ -195,6 +258,13 @@ public class Player implements StateObserver, ClientObserver {
 	@Override
 	public void onStateChanged(StateMessage newState) {
 		
+		//Typed game states already carry our own hand, added by the game on its own thread
+		if (newState instanceof GameStateMessage || newState instanceof GameStateDelta) {
+			client.sendMessage(newState);
+			return;
+		}
+		
+		//Games only send typed states, so this is for untyped ones from elsewhere
 		if (currentGame != null) {
 			Integer mySeat = currentGame.getPositionFor(this);
 			
@@ -214,6 +284,11 @@ public class Player implements StateObserver, ClientObserver {
 			me.put("Chips", chipsRemaining);
 			me.put("Position", mySeat);
 			
+			Equity equity = currentGame.getPreflopEquity(this);
+			if (equity != null) {
+				me.put("Equity", equity.getShare());
+			}
+			
 			newState.setParameter("You", me);
 		}
 
@@ -222,16 +297,32 @@ public class Player implements StateObserver, ClientObserver {
 	}
 	
 	/**
-	 * Join a Game.
+	 * Ask for the full state of our game again, such as when our client has missed an update
+	 */
+	public void requestSnapshot() {
+		final Game game = currentGame;
+		if (game == null) return;
+		game.post(new Runnable() {
+			@Override
+			public void run() {
+				game.sendSnapshot(Player.this);
+			}
+		});
+	}
+	
+	/**
+	 * Join a Game. Only call this on that game's thread; the game being left is left on its own thread.
 	 * @param gameToJoin the Game to join
 	 * @return True if the action succeeded, false if not. 
 	 */
 	public boolean joinGame(Game gameToJoin) {
 
 		if(gameToJoin.addObserver(this) && gameToJoin.addPlayer(this)) {
-			if (currentGame != null){
-				currentGame.removeObserver(this);
-				currentGame.removePlayer(this);
+			//Move over before leaving, so leaving does not send us to the lobby
+			Game oldGame = currentGame;
+			currentGame = gameToJoin;
+			if (oldGame != null && oldGame != gameToJoin){
+				leaveLater(oldGame);
 			}
 			
 			if (currentLobby != null) {
@@ -239,7 +330,6 @@ public class Player implements StateObserver, ClientObserver {
 				currentLobby = null;
 			}
 			
-			currentGame = gameToJoin;
 			return true;
 		}
 		
@@ -264,5 +354,73 @@ public class Player implements StateObserver, ClientObserver {
 	public Integer getChips() {
 		return chipsRemaining;
 	}
+	
+	/**
+	 * Get the seat this player is sitting in
+	 * @param game The game to check
+	 * @return The seat, or -1 if the player is not seated in that game
+	 */
+	public int getSeat(Game game) {
+		Seating current = seating.get();
+		return current != null && current.game == game ? current.seat : -1;
+	}
+	
+	/**
+	 * Record that the player has been seated. Called by the game.
+	 * @param game The game
+	 * @param seat The seat
+	 */
+	void takeSeat(Game game, int seat) {
+		seating.set(new Seating(game, seat));
+	}
+	
+	/**
+	 * Record that the player has left a game's seat. Called by the game.
+	 * @param game The game being left. If the player has since sat down somewhere else, that seat is kept.
+	 */
+	void leaveSeat(Game game) {
+		Seating current = seating.get();
+		//Only if the seat is still this game's; another game may be seating the player at the same time
+		if (current != null && current.game == game) seating.compareAndSet(current, null);
+	}
+	
+	/**
+	 * Get the extra time the player has left to act in, over all their turns
+	 * @return The time, in milliseconds
+	 */
+	public int getTimeBank() {
+		return timeBankMillis;
+	}
+	
+	/**
+	 * Use up some of the player's time bank. Called by the game when their turn runs out.
+	 * @param most The most to use
+	 * @return The time used, in milliseconds, which is zero once the bank is empty
+	 */
+	int drawTimeBank(int most) {
+		int drawn = Math.min(most, timeBankMillis);
+		timeBankMillis -= drawn;
+		return drawn;
+	}
+	
+	/**
+	 * Give chips to the player, usually because they won a pot.
+	 * @param amount The number of chips to add
+	 */
+	public void addChips(int amount) {
+		chipsRemaining += amount;
+	}
 
+	/**
+	 * A seat at a game, which cannot change
+	 */
+	private static final class Seating {
+		final Game game;
+		final int seat;
+
+		Seating(Game game, int seat) {
+			this.game = game;
+			this.seat = seat;
+		}
+	}
 }
@@ -1,13 +1,32 @@
 package pokerServer;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.SocketServer.Protocol;
+import pokerServer.SocketServer.Transport;
+import pokerServer.StateDispatcher.OverflowPolicy;
 
 /**
  * Instances of the class PokerServer shall represent a single concurrent server running. 
  * Each instance of the server shall listen on a specific port. 
  * It shall have the responsibility for managing connections and creating game objects as needed. 
  * This shall be a Singleton object
+ * 
+ * The registries of games, lobbies and players are read and changed by every connection's thread at once, so none of
+ * them lock. Game IDs come from an atomic counter and games are looked up in a concurrent map. Listings, which are
+ * read far more often than games come and go, walk a copy-on-write list, so reading one never waits on anything.
  * @author bgreen
  *
  */
@@ -16,20 +35,76 @@ public class PokerServer {
 	public static int MAX_PLAYERS_PER_GAME = 6;
 	/**The minimum players needed to run a game **/
 	public static int MIN_PLAYERS_PER_GAME = 3;
-	private static Integer nextGameID = 1;
-	private static HashMap<Integer, Game> activeGames = new HashMap<Integer, Game>();
-	private static HashMap<Integer, Lobby> activeLobbies = new HashMap<Integer, Lobby>();
-	private static ArrayList<Player> allPlayers = new ArrayList<Player>();
+	/** The file holding the precomputed preflop equity table. It is optional. **/
+	public static String PREFLOP_TABLE_FILE = "preflop.eq";
+	/** The number of threads delivering state updates to clients. With none, updates are delivered by the game's own thread. **/
+	public static int STATE_WORKERS = 0;
+	/** The number of event loops tables are shared between. With none, a game's events run on the thread that posts them. **/
+	public static int GAME_THREADS = 0;
+	/** The number of state updates that can wait for each client **/
+	public static int STATE_QUEUE_CAPACITY = 64;
+	/** What to do when a client falls so far behind that its queue is full **/
+	public static OverflowPolicy STATE_OVERFLOW_POLICY = OverflowPolicy.COALESCE;
+	/** How long each player has to act, in milliseconds, before their time bank is used. With none, players may take as long as they like. **/
+	public static int ACTION_TIMEOUT_MILLIS = 0;
+	/** The extra time each player has to spread over all their turns, in milliseconds **/
+	public static int TIME_BANK_MILLIS = 60000;
+	/** The most of a player's time bank used each time a turn runs out, in milliseconds **/
+	public static int TIME_BANK_CHUNK_MILLIS = 10000;
+	/** How often lobbies send their changes, in milliseconds **/
+	public static int LOBBY_TICK_MILLIS = 250;
+	/** The TCP port clients connect to **/
+	public static int PORT = 4242;
+	/** The TCP port browsers connect to with WebSockets **/
+	public static int WEBSOCKET_PORT = 8080;
+	/** Whether WebSocket clients may have their messages compressed. It saves bandwidth but costs memory per connection. **/
+	public static boolean WEBSOCKET_COMPRESSION = true;
+	/** How client connections are served **/
+	public static Transport TRANSPORT = Transport.SELECTOR;
+	/** The number of threads serving client connections with the selector transport **/
+	public static int SELECTOR_THREADS = 2;
+	private static final AtomicInteger nextGameID = new AtomicInteger(1);
+	private static final ConcurrentHashMap<Integer, Game> activeGames = new ConcurrentHashMap<Integer, Game>();
+	private static final CopyOnWriteArrayList<Game> gameListing = new CopyOnWriteArrayList<Game>();
+	private static final CopyOnWriteArrayList<Lobby> activeLobbies = new CopyOnWriteArrayList<Lobby>();
+	private static final ConcurrentHashMap<String, Player> allPlayers = new ConcurrentHashMap<String, Player>();
+	private static PreflopEquityTable preflopTable = null;
+	private static StateDispatcher stateDispatcher = null;
+	private static GameScheduler gameScheduler = null;
+	private static TurnTimer turnTimer = null;
+	private static SocketServer socketServer = null;
+	private static SocketServer webSocketServer = null;
 	
 	
 	 /**
 	  * The main method. Starts the server
-	 * @param args Command-line arguments
+	 * @param args Command-line arguments. --threads serves each connection with its own (virtual) threads
+	 * instead of the selector threads.
 	 */
 	public static void main(String args[]) {
-		 //Create a lobby and a game. They will add themselves to the lists.
-		 new Lobby();
+		 loadPreflopTable(new File(PREFLOP_TABLE_FILE));
+		 STATE_WORKERS = Runtime.getRuntime().availableProcessors();
+		 GAME_THREADS = Runtime.getRuntime().availableProcessors();
+		 ACTION_TIMEOUT_MILLIS = 30000;
+		 for (String arg : args) {
+			 if (arg.equals("--threads")) TRANSPORT = Transport.THREAD_PER_CONNECTION;
+		 }
+		 
+		 //Create a lobby and a game. They will add themselves to the lists; the lobby once it is started.
+		 new Lobby().start();
 		 new Game();		
+		 
+		 try {
+			 socketServer = new SocketServer(new InetSocketAddress(PORT), TRANSPORT, SELECTOR_THREADS);
+			 socketServer.start();
+			 webSocketServer = new SocketServer(new InetSocketAddress(WEBSOCKET_PORT), TRANSPORT, Protocol.WEBSOCKET, SELECTOR_THREADS);
+			 webSocketServer.start();
+			 if (TRANSPORT == Transport.THREAD_PER_CONNECTION && !SocketServer.hasVirtualThreads()) {
+				 System.err.println("No virtual threads on this JVM; each connection gets ordinary threads");
+			 }
+		 } catch (IOException e) {
+			 System.err.println("Could not listen: " + e.getMessage());
+		 }
 	 }
 	
 	/**
@@ -38,19 +113,51 @@ public class PokerServer {
 	 * @return the Game object
 	 */
 	public static Game getGameFromID(Integer gameID) {
-		if (activeGames.containsKey(gameID)) return activeGames.get(gameID);
+		Game game = findGame(gameID);
+		if (game != null) return game;
 		throw new IllegalArgumentException("Invalid game ID");
 	}
 	
+	/**
+	 * Look up a game by its ID, in one step, so it cannot vanish between checking and getting it
+	 * @param gameID The ID for the game
+	 * @return The game, or null if there is no game by that ID
+	 */
+	public static Game findGame(Integer gameID) {
+		return gameID == null ? null : activeGames.get(gameID);
+	}
+	
+	/**
+	 * Hand out the ID for a new game. Every call gets a different one, whichever thread it is on.
+	 * @return The ID
+	 */
+	public static int allocateGameID() {
+		return nextGameID.getAndIncrement();
+	}
 	
 	/**
-	 * Add a Game to the list
+	 * Add a Game to the list. Only add a game once it is fully set up, since other threads can find it from then on.
+	 * @param game The game object, with an ID from {@link #allocateGameID()}
+	 * @return False if a game already has that ID
+	 */
+	public static boolean addGame(Game game) {
+		if (activeGames.putIfAbsent(game.getID(), game) != null) return false;
+		gameListing.add(game);
+		return true;
+	}
+	
+	/**
+	 * Take a Game off the list
 	 * @param game The game object
-	 * @return The ID for the game
+	 * @return True if it was listed
 	 */
-	public static Integer addGame(Game game) {
-		activeGames.put(nextGameID, game);
-		return nextGameID++;
+	public static boolean removeGame(Game game) {
+		if (!activeGames.remove(game.getID(), game)) return false;
+		gameListing.remove(game);
+		for (Lobby lobby : activeLobbies) {
+			lobby.gameClosed(game.getID());
+		}
+		return true;
 	}
 	
 	/**
@@ -59,16 +166,168 @@ public class PokerServer {
 	 * @return True if there is a game by that ID, false if not.
 	 */
 	public static boolean gameIDIsValid(Integer gameID) {
-		return activeGames.containsKey(gameID);
+		return findGame(gameID) != null;
+	}
+	
+	/**
+	 * Get every listed game, such as for a lobby listing. This never waits, and never sees the list change while it
+	 * is being read; games added or removed afterwards show up in the next call.
+	 * @return The games, in the order they were added. It cannot be changed.
+	 */
+	public static List<Game> getGames() {
+		return Collections.unmodifiableList(gameListing);
+	}
+	
+	/**
+	 * Add a Lobby to the list
+	 * @param lobby The lobby
+	 */
+	public static void addLobby(Lobby lobby) {
+		activeLobbies.addIfAbsent(lobby);
+	}
+	
+	/**
+	 * Take a Lobby off the list
+	 * @param lobby The lobby
+	 * @return True if it was listed
+	 */
+	public static boolean removeLobby(Lobby lobby) {
+		return activeLobbies.remove(lobby);
+	}
+	
+	/**
+	 * Check whether there are any lobbies, and so whether games need to keep them up to date
+	 * @return True if there is at least one
+	 */
+	public static boolean hasLobbies() {
+		return !activeLobbies.isEmpty();
+	}
+	
+	/**
+	 * Pass a game's new listing on to every lobby
+	 * @param listing The listing
+	 */
+	public static void gameListingChanged(Listing listing) {
+		for (Lobby lobby : activeLobbies) {
+			lobby.gameChanged(listing);
+		}
+	}
+	
+	/**
+	 * Add a Player to the list of everyone connected
+	 * @param player The player
+	 * @return False if someone with that username is already connected
+	 */
+	public static boolean addPlayer(Player player) {
+		return allPlayers.putIfAbsent(player.getUsername(), player) == null;
+	}
+	
+	/**
+	 * Take a Player off the list of everyone connected
+	 * @param player The player
+	 * @return True if they were listed
+	 */
+	public static boolean removePlayer(Player player) {
+		return allPlayers.remove(player.getUsername(), player);
+	}
+	
+	/**
+	 * Find a connected player
+	 * @param username Their username
+	 * @return The player, or null if nobody by that name is connected
+	 */
+	public static Player getPlayer(String username) {
+		return username == null ? null : allPlayers.get(username);
 	}
 
 
+	/**
+	 * Memory-map the preflop equity table. The server runs without one if it is missing or unreadable.
+	 * @param file The table file
+	 * @return True if the table was loaded, false if not
+	 */
+	public static boolean loadPreflopTable(File file) {
+		if (!file.isFile()) return false;
+		
+		try {
+			preflopTable = PreflopEquityTable.load(file);
+			return true;
+		} catch (IOException | IllegalArgumentException e) {
+			// TODO Log this once a logger is implemented
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Get the preflop equity table
+	 * @return The table, or null if none is loaded
+	 */
+	public static PreflopEquityTable getPreflopTable() {
+		return preflopTable;
+	}
+	
+	/**
+	 * Get the dispatcher that games use to send state updates, creating it from the settings above the first time
+	 * @return The dispatcher
+	 */
+	public static synchronized StateDispatcher getStateDispatcher() {
+		if (stateDispatcher == null) {
+			Executor workers;
+			if (STATE_WORKERS > 0) {
+				workers = Executors.newFixedThreadPool(STATE_WORKERS, new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable task) {
+						Thread thread = new Thread(task, "state-dispatcher");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+			} else {
+				workers = new Executor() {
+					@Override
+					public void execute(Runnable task) {
+						task.run();
+					}
+				};
+			}
+			stateDispatcher = new StateDispatcher(workers, STATE_QUEUE_CAPACITY, STATE_OVERFLOW_POLICY);
+		}
+		return stateDispatcher;
+	}
+	
+	/**
+	 * Get the scheduler that pins games to event loops, creating and starting it from the settings above the first time
+	 * @return The scheduler
+	 */
+	public static synchronized GameScheduler getGameScheduler() {
+		if (gameScheduler == null) {
+			gameScheduler = new GameScheduler(GAME_THREADS);
+			gameScheduler.start();
+		}
+		return gameScheduler;
+	}
+	
+	/**
+	 * Get the timer that every table's turns are timed on, creating and starting it the first time
+	 * @return The timer
+	 */
+	public static synchronized TurnTimer getTurnTimer() {
+		if (turnTimer == null) {
+			turnTimer = new TurnTimer();
+			turnTimer.start();
+		}
+		return turnTimer;
+	}
+	
 	/**
 	 * Get the lobby that the player should be assigned to.
 	 * @return A Lobby that can accept a new player.
 	 */
 	public static Lobby getLobbyToJoin() {
-		return activeLobbies.get(0);
+		//The list could change between checking it and reading it, so read a copy
+		Iterator<Lobby> lobbies = activeLobbies.iterator();
+		return lobbies.hasNext() ? lobbies.next() : null;
 	}
 	
 }
@@ -0,0 +1,236 @@
+package pokerServer;
+
+import java.util.Arrays;
+
+/**
+ * Tracks what each seat has put into the pot during a hand, and divides the pot between the winners at the end.
+ * When players are all-in for different amounts the pot is split into layers (a main pot and side pots),
+ * each of which can only be won by the seats that paid into all of it. Each layer goes to the best eligible hand,
+ * split evenly on a tie, with any odd chips handed out one at a time clockwise from a given seat.
+ *
+ * Everything is kept in primitive arrays sized once per table, so settling a hand does not allocate.
+ * @author bgreen
+ *
+ */
+public class PotSettlement {
+
+	private final int[] contributions;
+	private int foldedSeats;
+	private int allInSeats;
+
+	//The layers from the last call to buildPots
+	private final int[] potAmounts;
+	private final int[] potEligible;
+	private int numPots;
+
+	/**
+	 * Create a settlement for a table
+	 * @param numSeats The number of seats at the table
+	 */
+	public PotSettlement(int numSeats) {
+		if (numSeats < 1 || numSeats > Integer.SIZE - 1) throw new IllegalArgumentException("Invalid number of seats");
+		contributions = new int[numSeats];
+		potAmounts = new int[numSeats];
+		potEligible = new int[numSeats];
+		reset();
+	}
+
+	/**
+	 * Clear everything, ready for a new hand
+	 */
+	public void reset() {
+		Arrays.fill(contributions, 0);
+		foldedSeats = 0;
+		allInSeats = 0;
+		numPots = 0;
+	}
+
+	/**
+	 * Record chips put into the pot
+	 * @param seat The seat putting the chips in
+	 * @param amount The number of chips
+	 * @param allIn True if these are the seat's last chips
+	 */
+	public void contribute(int seat, int amount, boolean allIn) {
+		if (amount < 0) throw new IllegalArgumentException("Cannot take chips out of the pot");
+		contributions[seat] += amount;
+		if (allIn) allInSeats |= 1 << seat;
+	}
+
+	/**
+	 * Record that a seat has folded. Its chips stay in the pot but it can no longer win any of it.
+	 * @param seat The seat
+	 */
+	public void fold(int seat) {
+		foldedSeats |= 1 << seat;
+	}
+
+	/**
+	 * Get the number of chips a seat has put in this hand
+	 * @param seat The seat
+	 * @return The number of chips
+	 */
+	public int getContribution(int seat) {
+		return contributions[seat];
+	}
+
+	/**
+	 * Check whether a seat is all-in
+	 * @param seat The seat
+	 * @return True if the seat has put in its last chips
+	 */
+	public boolean isAllIn(int seat) {
+		return (allInSeats & (1 << seat)) != 0;
+	}
+
+	/**
+	 * Get the seats that are all-in
+	 * @return One bit per seat, set if the seat has put in its last chips
+	 */
+	public int getAllInSeats() {
+		return allInSeats;
+	}
+
+	/**
+	 * Check whether a seat has folded
+	 * @param seat The seat
+	 * @return True if the seat has folded this hand
+	 */
+	public boolean hasFolded(int seat) {
+		return (foldedSeats & (1 << seat)) != 0;
+	}
+
+	/**
+	 * Get the total number of chips in the pot
+	 * @return The number of chips
+	 */
+	public int getTotal() {
+		int total = 0;
+		for (int contribution : contributions) {
+			total += contribution;
+		}
+		return total;
+	}
+
+	/**
+	 * Divide the pot into layers. The first layer is the main pot, and each later one is a side pot.
+	 * Each layer's boundary is a contribution level of a seat that has not folded, and every seat that has not folded
+	 * and put in at least that much is eligible for it. Chips put in by folded seats above the highest level
+	 * go into the last layer, or into a single layer for everyone left if no live seat has put anything in.
+	 * @return The number of layers
+	 */
+	public int buildPots() {
+		numPots = 0;
+		int level = 0;
+		int assigned = 0;
+		int live = liveSeats();
+
+		while (true) {
+			//The next level is the smallest live contribution above the current one
+			int next = Integer.MAX_VALUE;
+			for (int seat = 0; seat < contributions.length; seat++) {
+				if ((live & (1 << seat)) != 0 && contributions[seat] > level && contributions[seat] < next) {
+					next = contributions[seat];
+				}
+			}
+			if (next == Integer.MAX_VALUE) break;
+
+			int amount = 0;
+			int eligible = 0;
+			for (int seat = 0; seat < contributions.length; seat++) {
+				int top = Math.min(contributions[seat], next);
+				if (top > level) amount += top - level;
+				if ((live & (1 << seat)) != 0 && contributions[seat] >= next) eligible |= 1 << seat;
+			}
+
+			potAmounts[numPots] = amount;
+			potEligible[numPots] = eligible;
+			numPots++;
+			assigned += amount;
+			level = next;
+		}
+
+		//Anything folded seats put in above the highest live level goes to whoever is left
+		int remainder = getTotal() - assigned;
+		if (remainder > 0) {
+			if (numPots == 0) {
+				potAmounts[0] = remainder;
+				potEligible[0] = live;
+				numPots = 1;
+			} else {
+				potAmounts[numPots - 1] += remainder;
+			}
+		}
+
+		return numPots;
+	}
+
+	/**
+	 * Get the size of a layer built by {@link #buildPots()}
+	 * @param pot The layer, 0 being the main pot
+	 * @return The number of chips in it
+	 */
+	public int getPotAmount(int pot) {
+		if (pot >= numPots) throw new IllegalArgumentException("No such pot");
+		return potAmounts[pot];
+	}
+
+	/**
+	 * Get the seats that can win a layer built by {@link #buildPots()}
+	 * @param pot The layer, 0 being the main pot
+	 * @return A bitmask with bit n set if seat n is eligible
+	 */
+	public int getPotEligible(int pot) {
+		if (pot >= numPots) throw new IllegalArgumentException("No such pot");
+		return potEligible[pot];
+	}
+
+	/**
+	 * Work out how many chips each seat wins. This builds the layers, then awards each one to the best eligible hand.
+	 * @param handValues Each seat's hand value, as scored by {@link HandEvaluator}
+	 * @param firstSeat The seat that gets the first odd chip, normally the first seat to the dealer's left
+	 * @param payouts Filled in with the number of chips each seat wins. Must be at least as long as the number of seats.
+	 */
+	public void settle(int[] handValues, int firstSeat, int[] payouts) {
+		int numSeats = contributions.length;
+		Arrays.fill(payouts, 0, numSeats, 0);
+		buildPots();
+
+		for (int pot = 0; pot < numPots; pot++) {
+			int eligible = potEligible[pot];
+
+			//Find the best hand among the eligible seats, and everyone who shares it
+			int best = Integer.MIN_VALUE;
+			int winners = 0;
+			for (int seat = 0; seat < numSeats; seat++) {
+				if ((eligible & (1 << seat)) == 0) continue;
+				if (handValues[seat] > best) {
+					best = handValues[seat];
+					winners = 1 << seat;
+				} else if (handValues[seat] == best) {
+					winners |= 1 << seat;
+				}
+			}
+
+			int numWinners = Integer.bitCount(winners);
+			if (numWinners == 0) continue;
+			int share = potAmounts[pot] / numWinners;
+			int oddChips = potAmounts[pot] % numWinners;
+
+			//Everyone gets an even share, then odd chips go clockwise from the first seat
+			for (int i = 0; i < numSeats; i++) {
+				int seat = (firstSeat + i) % numSeats;
+				if ((winners & (1 << seat)) == 0) continue;
+				payouts[seat] += share;
+				if (oddChips > 0) {
+					payouts[seat]++;
+					oddChips--;
+				}
+			}
+		}
+	}
+
+	private int liveSeats() {
+		return ((1 << contributions.length) - 1) & ~foldedSeats;
+	}
+}
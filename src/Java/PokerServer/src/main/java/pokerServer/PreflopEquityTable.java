@@ -0,0 +1,150 @@
+package pokerServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import pokerServer.EquityCalculator.Equity;
+
+/**
+ * A precomputed table of preflop equity for each of the 169 kinds of starting hand against a field of random hands.
+ * The table is built ahead of time by {@link PreflopTableGenerator} and memory-mapped when the server starts,
+ * so lookups are constant time and the table takes up no heap.
+ *
+ * The file is laid out as a header followed by one entry per starting hand and field size:
+ * <pre>
+ * int    magic number
+ * short  format version
+ * byte   smallest field size
+ * byte   largest field size
+ * short  number of starting hands (169)
+ * then for each starting hand, for each field size: three unsigned shorts (win, tie and pot share, in 65535ths)
+ * </pre>
+ * @author bgreen
+ *
+ */
+public class PreflopEquityTable {
+
+	/** Identifies a preflop equity table file **/
+	static final int MAGIC = 0x50455154;
+	/** The version of the file format written by this code **/
+	static final short VERSION = 1;
+	/** The number of distinct starting hands **/
+	public static final int NUM_HAND_CLASSES = Card.NUM_RANKS * Card.NUM_RANKS;
+	/** The size of the file header, in bytes **/
+	static final int HEADER_SIZE = 10;
+	/** The size of a single entry, in bytes **/
+	static final int ENTRY_SIZE = 6;
+	/** Equities are stored as a fraction of this **/
+	static final double SCALE = 65535.0;
+
+	private final ByteBuffer table;
+	private final int minPlayers;
+	private final int maxPlayers;
+
+	private PreflopEquityTable(ByteBuffer table) {
+		if (table.capacity() < HEADER_SIZE || table.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a preflop equity table");
+		}
+		if (table.getShort(4) != VERSION) {
+			throw new IllegalArgumentException("Unsupported preflop equity table version");
+		}
+
+		this.table = table;
+		this.minPlayers = table.get(6);
+		this.maxPlayers = table.get(7);
+
+		if (table.getShort(8) != NUM_HAND_CLASSES || minPlayers < 2 || maxPlayers < minPlayers
+				|| table.capacity() != HEADER_SIZE + NUM_HAND_CLASSES * (maxPlayers - minPlayers + 1) * ENTRY_SIZE) {
+			throw new IllegalArgumentException("Corrupt preflop equity table");
+		}
+	}
+
+	/**
+	 * Memory-map a table file
+	 * @param file The file written by {@link PreflopTableGenerator}
+	 * @return The table
+	 * @throws IOException If the file cannot be read
+	 */
+	public static PreflopEquityTable load(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new PreflopEquityTable(mapped);
+		}
+	}
+
+	/**
+	 * Get the index of the starting hand that two hole cards belong to.
+	 * Pairs sit on the diagonal of a 13 by 13 grid, suited hands above it and offsuit hands below it.
+	 * @param first One hole card
+	 * @param second The other hole card
+	 * @return A number from 0 to 168
+	 */
+	public static int classOf(Card first, Card second) {
+		int high = Math.max(first.getRank(), second.getRank());
+		int low = Math.min(first.getRank(), second.getRank());
+		if (first.getSuit() == second.getSuit()) {
+			return high * Card.NUM_RANKS + low;
+		}
+		return low * Card.NUM_RANKS + high;
+	}
+
+	/**
+	 * Get the smallest field size in the table
+	 * @return The number of players, including the hero
+	 */
+	public int getMinPlayers() {
+		return minPlayers;
+	}
+
+	/**
+	 * Get the largest field size in the table
+	 * @return The number of players, including the hero
+	 */
+	public int getMaxPlayers() {
+		return maxPlayers;
+	}
+
+	/**
+	 * Look up the equity of a starting hand
+	 * @param hand The two hole cards
+	 * @param numPlayers The number of players in the hand, including this one
+	 * @return The equity, or null if the hand is not two cards or the table does not cover that many players
+	 */
+	public Equity lookup(ArrayList<Card> hand, int numPlayers) {
+		if (hand.size() != 2 || numPlayers < minPlayers || numPlayers > maxPlayers) return null;
+		return lookup(classOf(hand.get(0), hand.get(1)), numPlayers);
+	}
+
+	/**
+	 * Look up the equity of a starting hand
+	 * @param handClass The starting hand, as returned by {@link #classOf(Card, Card)}
+	 * @param numPlayers The number of players in the hand, including this one
+	 * @return The equity
+	 */
+	public Equity lookup(int handClass, int numPlayers) {
+		if (handClass < 0 || handClass >= NUM_HAND_CLASSES) throw new IllegalArgumentException("Invalid starting hand");
+		if (numPlayers < minPlayers || numPlayers > maxPlayers) throw new IllegalArgumentException("Field size not in table");
+
+		int offset = offsetOf(handClass, numPlayers, minPlayers, maxPlayers);
+		return new Equity(table.getChar(offset) / SCALE, table.getChar(offset + 2) / SCALE,
+				table.getChar(offset + 4) / SCALE);
+	}
+
+	/**
+	 * Find where an entry lives in the file
+	 * @param handClass The starting hand
+	 * @param numPlayers The field size
+	 * @param minPlayers The smallest field size in the file
+	 * @param maxPlayers The largest field size in the file
+	 * @return The byte offset of the entry
+	 */
+	static int offsetOf(int handClass, int numPlayers, int minPlayers, int maxPlayers) {
+		int fieldSizes = maxPlayers - minPlayers + 1;
+		return HEADER_SIZE + (handClass * fieldSizes + (numPlayers - minPlayers)) * ENTRY_SIZE;
+	}
+}
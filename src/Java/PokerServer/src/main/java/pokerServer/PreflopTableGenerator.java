@@ -0,0 +1,106 @@
+package pokerServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import pokerServer.Card.Suit;
+import pokerServer.EquityCalculator.Equity;
+
+/**
+ * Builds the file read by {@link PreflopEquityTable}. This is run at build time
+ * (see the preflop-table profile in the pom) rather than by the server.
+ * @author bgreen
+ *
+ */
+public class PreflopTableGenerator {
+
+	/** The number of trials per entry if none is given **/
+	public static final int DEFAULT_TRIALS = 200000;
+
+	/**
+	 * Generate the table
+	 * @param args The file to write, and optionally the number of trials per entry
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void main(String args[]) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: PreflopTableGenerator <output file> [trials per entry]");
+			System.exit(1);
+		}
+
+		int trials = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TRIALS;
+		File output = new File(args[0]);
+		if (output.getParentFile() != null) output.getParentFile().mkdirs();
+
+		write(output, 2, PokerServer.MAX_PLAYERS_PER_GAME, trials);
+	}
+
+	/**
+	 * Calculate every entry and write the table
+	 * @param output The file to write
+	 * @param minPlayers The smallest field size to include
+	 * @param maxPlayers The largest field size to include
+	 * @param trials The number of trials for each entry
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(File output, int minPlayers, int maxPlayers, int trials) throws IOException {
+		if (minPlayers < 2 || maxPlayers < minPlayers) throw new IllegalArgumentException("Invalid field sizes");
+
+		int fieldSizes = maxPlayers - minPlayers + 1;
+		ByteBuffer table = ByteBuffer.allocate(PreflopEquityTable.HEADER_SIZE
+				+ PreflopEquityTable.NUM_HAND_CLASSES * fieldSizes * PreflopEquityTable.ENTRY_SIZE);
+
+		table.putInt(PreflopEquityTable.MAGIC);
+		table.putShort(PreflopEquityTable.VERSION);
+		table.put((byte) minPlayers);
+		table.put((byte) maxPlayers);
+		table.putShort((short) PreflopEquityTable.NUM_HAND_CLASSES);
+
+		EquityCalculator calculator = new EquityCalculator(trials);
+		ArrayList<Card> noTableCards = new ArrayList<Card>();
+
+		for (int handClass = 0; handClass < PreflopEquityTable.NUM_HAND_CLASSES; handClass++) {
+			ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+			hands.add(representativeHand(handClass));
+
+			for (int players = minPlayers; players <= maxPlayers; players++) {
+				//Everyone else gets random cards
+				while (hands.size() < players) {
+					hands.add(new ArrayList<Card>());
+				}
+
+				Equity equity = calculator.calculate(hands, noTableCards)[0];
+				table.putChar(toFixed(equity.getWin()));
+				table.putChar(toFixed(equity.getTie()));
+				table.putChar(toFixed(equity.getShare()));
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+			file.setLength(0);
+			file.write(table.array());
+		}
+	}
+
+	/**
+	 * Pick two cards that belong to a starting hand
+	 * @param handClass The starting hand, as numbered by {@link PreflopEquityTable#classOf(Card, Card)}
+	 * @return Two hole cards
+	 */
+	static ArrayList<Card> representativeHand(int handClass) {
+		int row = handClass / Card.NUM_RANKS;
+		int column = handClass % Card.NUM_RANKS;
+
+		ArrayList<Card> hand = new ArrayList<Card>();
+		hand.add(Card.of(Suit.HEARTS, row));
+		hand.add(Card.of(row > column ? Suit.HEARTS : Suit.CLUBS, column));
+		return hand;
+	}
+
+	private static char toFixed(double fraction) {
+		return (char) Math.round(fraction * PreflopEquityTable.SCALE);
+	}
+}
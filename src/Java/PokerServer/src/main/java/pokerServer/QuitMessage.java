@@ -0,0 +1,19 @@
+package pokerServer;
+
+import pokerServer.interfaces.Client;
+
+/**
+ * A request from a client to leave their game altogether.
+ * @author bgreen
+ *
+ */
+public class QuitMessage extends ActionMessage {
+
+	/**
+	 * Create a quit request
+	 * @param clientInvolved The client quitting
+	 */
+	public QuitMessage(Client clientInvolved) {
+		super(Action.QUIT, clientInvolved, true);
+	}
+}
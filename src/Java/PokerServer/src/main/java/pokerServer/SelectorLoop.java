@@ -0,0 +1,134 @@
+package pokerServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread. It owns a share of the server's connections and does all of their reading and writing,
+ * so a connection costs a registration and a few small objects rather than a thread. Connections only ever
+ * touch their loop's buffers from the loop's thread, so one pair of direct buffers serves all of them.
+ * @author bgreen
+ *
+ */
+class SelectorLoop implements Runnable {
+
+	/** The size of the buffer messages are encoded into before writing. Big enough for any frame. **/
+	static final int WRITE_BUFFER_SIZE = WireFormat.MAX_WIRE_FRAME;
+
+	/** Bytes read from whichever connection is being read. Holds at least one whole frame. **/
+	final ByteBuffer readBuffer;
+	/** Bytes being written to whichever connection is being written **/
+	final ByteBuffer writeBuffer;
+
+	private final Selector selector;
+	private final Thread thread;
+	//Work handed over by other threads, run on the loop's thread
+	private final ConcurrentLinkedQueue<Runnable> tasks;
+	private volatile boolean running;
+
+	/**
+	 * Create a loop. It does nothing until started.
+	 * @param name The name of its thread
+	 * @throws IOException If a selector cannot be opened
+	 */
+	SelectorLoop(String name) throws IOException {
+		readBuffer = ByteBuffer.allocateDirect(WireFormat.MAX_WIRE_FRAME);
+		writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		selector = Selector.open();
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		thread = new Thread(this, name);
+	}
+
+	/**
+	 * Start the loop's thread
+	 */
+	void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Stop the loop, closing every connection it owns
+	 */
+	void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Run something on the loop's thread, soon
+	 * @param task The work to do
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != thread) selector.wakeup();
+	}
+
+	/**
+	 * Get the selector connections register with. Only for use on the loop's thread.
+	 * @return The selector
+	 */
+	Selector getSelector() {
+		return selector;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				//Tasks the loop gave itself run now; ones from other threads wake the select up
+				runTasks();
+				selector.select();
+
+				Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+				while (ready.hasNext()) {
+					SelectionKey key = ready.next();
+					ready.remove();
+					if (!key.isValid()) continue;
+
+					Object attachment = key.attachment();
+					if (attachment instanceof SocketServer) {
+						((SocketServer) attachment).accept();
+					} else {
+						ClientSocket client = (ClientSocket) attachment;
+						if (key.isReadable()) client.receiveMessage();
+						if (key.isValid() && key.isWritable()) client.flush();
+					}
+				}
+			}
+		} catch (IOException | ClosedSelectorException e) {
+			e.printStackTrace();
+		} finally {
+			closeAll();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				//One bad task must not take every connection on this loop down with it
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void closeAll() {
+		for (SelectionKey key : selector.keys()) {
+			Object attachment = key.attachment();
+			if (attachment instanceof ClientSocket) ((ClientSocket) attachment).close();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
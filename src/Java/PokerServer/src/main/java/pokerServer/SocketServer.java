@@ -0,0 +1,323 @@
+package pokerServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+
+import pokerServer.interfaces.ClientObserver;
+import pokerServer.interfaces.ConnectionObserver;
+import pokerServer.interfaces.Observable;
+import pokerServer.interfaces.Observer;
+
+/**
+ * Listens for TCP connections and serves them in one of two ways, chosen when the server is created (see
+ * {@link Transport}), speaking one of two protocols (see {@link Protocol}). Each new connection is handed to the
+ * observers as a {@link ClientSocket} before anything is read from it.
+ * @author bgreen
+ *
+ */
+public class SocketServer implements Observable {
+
+	/**
+	 * How connections are served
+	 * @author bgreen
+	 *
+	 */
+	public enum Transport {
+		/** Connections are shared out between a few {@link SelectorLoop}s, so any number are served by a fixed number of threads **/
+		SELECTOR,
+		/** Each connection has its own virtual threads doing blocking reads and writes, or ordinary threads where the
+		 * JVM has no virtual threads **/
+		THREAD_PER_CONNECTION
+	}
+
+	/**
+	 * What clients speak
+	 * @author bgreen
+	 *
+	 */
+	public enum Protocol {
+		/** Length-prefixed {@link MessageCodec} frames **/
+		NATIVE,
+		/** WebSockets, for browsers **/
+		WEBSOCKET
+	}
+
+	private final Transport transport;
+	private final Protocol protocol;
+	private final ServerSocketChannel serverChannel;
+	private final SelectorLoop[] loops;
+	private final CopyOnWriteArrayList<ConnectionObserver> observers;
+	//Only used on the first loop's thread, which does the accepting
+	private int nextLoop;
+
+	//Under THREAD_PER_CONNECTION, where connection threads come from and which connections are open
+	private final ThreadFactory connectionThreads;
+	private final Set<ClientSocket> openClients;
+	private final ClientObserver closeWatcher;
+	private Thread acceptor;
+
+	/**
+	 * Create a server using selector threads, bound but not yet accepting
+	 * @param address The address to listen on. Port 0 picks a free port.
+	 * @param selectorThreads The number of threads serving connections
+	 * @throws IOException If the address cannot be bound
+	 */
+	public SocketServer(InetSocketAddress address, int selectorThreads) throws IOException {
+		this(address, Transport.SELECTOR, selectorThreads);
+	}
+
+	/**
+	 * Create a server, bound but not yet accepting
+	 * @param address The address to listen on. Port 0 picks a free port.
+	 * @param transport How connections are served
+	 * @param selectorThreads The number of threads serving connections under {@link Transport#SELECTOR}
+	 * @throws IOException If the address cannot be bound
+	 */
+	public SocketServer(InetSocketAddress address, Transport transport, int selectorThreads) throws IOException {
+		this(address, transport, Protocol.NATIVE, selectorThreads);
+	}
+
+	/**
+	 * Create a server, bound but not yet accepting
+	 * @param address The address to listen on. Port 0 picks a free port.
+	 * @param transport How connections are served
+	 * @param protocol What clients speak
+	 * @param selectorThreads The number of threads serving connections under {@link Transport#SELECTOR}
+	 * @throws IOException If the address cannot be bound
+	 */
+	public SocketServer(InetSocketAddress address, Transport transport, Protocol protocol, int selectorThreads)
+			throws IOException {
+		if (transport == Transport.SELECTOR && selectorThreads < 1) {
+			throw new IllegalArgumentException("Need at least one selector thread");
+		}
+		this.transport = transport;
+		this.protocol = protocol;
+		observers = new CopyOnWriteArrayList<ConnectionObserver>();
+
+		if (transport == Transport.SELECTOR) {
+			loops = new SelectorLoop[selectorThreads];
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new SelectorLoop("selector-" + i);
+			}
+			connectionThreads = null;
+			openClients = null;
+			closeWatcher = null;
+		} else {
+			loops = new SelectorLoop[0];
+			connectionThreads = newConnectionThreadFactory();
+			openClients = ConcurrentHashMap.newKeySet();
+			closeWatcher = new ClientObserver() {
+				@Override
+				public void onMessageReceived(Message message) {
+					if (message instanceof QuitMessage && ((ClientSocket) message.getClient()).isClosed()) {
+						openClients.remove(message.getClient());
+					}
+				}
+			};
+		}
+
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(transport != Transport.SELECTOR);
+		serverChannel.bind(address);
+	}
+
+	/**
+	 * Start accepting connections
+	 */
+	public void start() {
+		if (transport == Transport.THREAD_PER_CONNECTION) {
+			acceptor = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					acceptBlocking();
+				}
+			}, "acceptor");
+			acceptor.start();
+			return;
+		}
+
+		for (SelectorLoop loop : loops) {
+			loop.start();
+		}
+		final SocketServer server = this;
+		loops[0].execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					serverChannel.register(loops[0].getSelector(), SelectionKey.OP_ACCEPT, server);
+				} catch (ClosedChannelException e) {
+					//Stopped before it started
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stop accepting connections and close every one that is open
+	 */
+	public void stop() {
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (SelectorLoop loop : loops) {
+			loop.shutdown();
+		}
+		if (openClients != null) {
+			for (ClientSocket client : openClients) {
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Get the port the server is listening on
+	 * @return The port
+	 */
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * Get the way connections are served
+	 * @return The transport
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Get what clients speak
+	 * @return The protocol
+	 */
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+	@Override
+	public boolean addObserver(Observer observer) {
+		if (observer instanceof ConnectionObserver) {
+			return observers.addIfAbsent((ConnectionObserver) observer);
+		}
+		throw new IllegalArgumentException("Not the right kind of observer");
+	}
+
+	@Override
+	public boolean removeObserver(Observer observer) {
+		if (observer instanceof ConnectionObserver) {
+			return observers.remove(observer);
+		}
+		throw new IllegalArgumentException("Not the right kind of observer");
+	}
+
+	/**
+	 * Take every waiting connection. Only called by the first loop, when the server is acceptable.
+	 */
+	void accept() {
+		SocketChannel channel;
+		try {
+			while ((channel = serverChannel.accept()) != null) {
+				try {
+					//Poker messages are small and a player is waiting on each one
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					SelectorLoop loop = loops[nextLoop];
+					nextLoop = (nextLoop + 1) % loops.length;
+					final ClientSocket client = new ClientSocket(channel, newFormat(), loop);
+
+					for (ConnectionObserver observer : observers) {
+						observer.onClientConnected(client);
+					}
+					loop.execute(new Runnable() {
+						@Override
+						public void run() {
+							client.register();
+						}
+					});
+				} catch (IOException e) {
+					channel.close();
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Accept connections one at a time, giving each threads of its own, until the server stops
+	 */
+	private void acceptBlocking() {
+		while (serverChannel.isOpen()) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+			} catch (IOException e) {
+				//Stopped
+				return;
+			}
+
+			try {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			} catch (IOException e) {
+				//Still usable, just slower
+			}
+			ClientSocket client = new ClientSocket(channel, newFormat(), connectionThreads);
+			client.addObserver(closeWatcher);
+			openClients.add(client);
+			for (ConnectionObserver observer : observers) {
+				observer.onClientConnected(client);
+			}
+			client.start();
+		}
+	}
+
+	private WireFormat newFormat() {
+		if (protocol == Protocol.WEBSOCKET) return new WebSocketFormat(PokerServer.WEBSOCKET_COMPRESSION);
+		return new LengthPrefixedFormat();
+	}
+
+	/**
+	 * Make the factory for connection threads. Virtual threads are used where the JVM has them (Java 21 on); they are
+	 * looked up by name so the server still builds and runs on older JVMs, which get ordinary daemon threads.
+	 * @return The factory
+	 */
+	static ThreadFactory newConnectionThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "connection-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "connection");
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Check whether this JVM has virtual threads for {@link Transport#THREAD_PER_CONNECTION}
+	 * @return True if connections get virtual threads, false if they get ordinary ones
+	 */
+	public static boolean hasVirtualThreads() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package pokerServer;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import pokerServer.interfaces.StateObserver;
+
+/**
+ * Delivers state updates to observers without holding up the game that sent them. Each observer has its own
+ * bounded queue for each source of updates, such as a game or a lobby, drained by a pool of workers one update at a
+ * time, so updates from a source reach each observer in order but a slow observer only ever delays itself. Keeping the
+ * sources apart means one source can forget an observer without losing what another has queued for it.
+ *
+ * When an observer's queue is full, the {@link OverflowPolicy} decides what happens. Either way the observer
+ * is eventually brought up to date with a snapshot, since the deltas it missed are no use on their own.
+ * @author bgreen
+ *
+ */
+public class StateDispatcher {
+
+	/**
+	 * What to do with an observer that has fallen so far behind that its queue is full
+	 * @author bgreen
+	 *
+	 */
+	public enum OverflowPolicy {
+		/** Throw away everything waiting and queue the latest snapshot in its place **/
+		COALESCE,
+		/** Let the observer finish what is waiting, drop anything new, then send the latest snapshot **/
+		RESYNC
+	}
+
+	/**
+	 * The full state of a source, only put together if an observer falls behind and needs it. It may be asked for on
+	 * any thread, and must always give the same state.
+	 * @author bgreen
+	 *
+	 */
+	public interface Snapshot {
+		/**
+		 * Get the state
+		 * @return The state
+		 */
+		StateMessage get();
+	}
+
+	/** The most updates delivered to one observer before its worker moves on to other observers **/
+	static final int MAX_BATCH = 16;
+
+	private final Executor workers;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final ConcurrentHashMap<Route, Outbox> outboxes;
+
+	/**
+	 * Create a dispatcher
+	 * @param workers The threads that deliver updates. An executor that runs tasks straight away delivers them
+	 * on the sending thread, before {@link #publish(Object, StateObserver, StateMessage, StateMessage)} returns.
+	 * @param capacity The number of updates that can wait for each observer
+	 * @param policy What to do when an observer's queue is full
+	 */
+	public StateDispatcher(Executor workers, int capacity, OverflowPolicy policy) {
+		if (capacity < 1) throw new IllegalArgumentException("Queues must hold at least one update");
+		this.workers = workers;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.outboxes = new ConcurrentHashMap<Route, Outbox>();
+	}
+
+	/**
+	 * Queue an update for an observer. This never blocks or calls the observer itself, unless the workers run on the
+	 * calling thread.
+	 * @param source What the update is from, such as the game that sent it
+	 * @param observer The observer
+	 * @param update The update to send
+	 * @param snapshot The full state as of this update, to send instead if the observer has fallen behind
+	 */
+	public void publish(Object source, StateObserver observer, StateMessage update, StateMessage snapshot) {
+		queueFor(source, observer).publish(update, snapshot, null);
+	}
+
+	/**
+	 * Queue an update for an observer, with a snapshot that is only made if the observer has fallen behind
+	 * @param source What the update is from, such as the lobby that sent it
+	 * @param observer The observer
+	 * @param update The update to send
+	 * @param snapshot The full state as of this update
+	 */
+	public void publish(Object source, StateObserver observer, StateMessage update, Snapshot snapshot) {
+		queueFor(source, observer).publish(update, null, snapshot);
+	}
+
+	private Outbox queueFor(Object source, StateObserver observer) {
+		Route route = new Route(source, observer);
+		Outbox outbox = outboxes.get(route);
+		if (outbox == null) {
+			outbox = new Outbox(observer);
+			Outbox existing = outboxes.putIfAbsent(route, outbox);
+			if (existing != null) outbox = existing;
+		}
+		return outbox;
+	}
+
+	/**
+	 * Stop sending an observer updates from one source, throwing away anything from it still waiting. Updates from
+	 * other sources are not affected.
+	 * @param source The source
+	 * @param observer The observer
+	 */
+	public void remove(Object source, StateObserver observer) {
+		Outbox outbox = outboxes.remove(new Route(source, observer));
+		if (outbox != null) outbox.close();
+	}
+
+	/**
+	 * Get the number of updates from one source waiting for an observer
+	 * @param source The source
+	 * @param observer The observer
+	 * @return The number waiting
+	 */
+	public int getBacklog(Object source, StateObserver observer) {
+		Outbox outbox = outboxes.get(new Route(source, observer));
+		return outbox == null ? 0 : outbox.size();
+	}
+
+	/**
+	 * Which queue an update goes in: one per source and observer. Sources are told apart by identity, as games and
+	 * lobbies are.
+	 */
+	private static final class Route {
+		private final Object source;
+		private final StateObserver observer;
+
+		Route(Object source, StateObserver observer) {
+			this.source = source;
+			this.observer = observer;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Route)) return false;
+			Route route = (Route) other;
+			return source == route.source && observer.equals(route.observer);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(source) + observer.hashCode();
+		}
+	}
+
+	/**
+	 * One observer's queue for one source. It is also the task that drains it; only one worker runs it at a time.
+	 */
+	private class Outbox implements Runnable {
+		private final StateObserver observer;
+		private final ArrayDeque<StateMessage> queue;
+		//Whether a worker has been given this outbox and not yet finished with it
+		private boolean scheduled;
+		//Under RESYNC, whether updates have been dropped and a snapshot is owed
+		private boolean resync;
+		//The latest snapshot, or where to get it if it has not been made yet
+		private StateMessage latestSnapshot;
+		private Snapshot latestSource;
+		private boolean closed;
+
+		Outbox(StateObserver observer) {
+			this.observer = observer;
+			this.queue = new ArrayDeque<StateMessage>(Math.min(capacity, 16));
+		}
+
+		/**
+		 * Add an update, and give the outbox to a worker if none has it
+		 */
+		void publish(StateMessage update, StateMessage snapshot, Snapshot source) {
+			if (offer(update, snapshot, source)) workers.execute(this);
+		}
+
+		/**
+		 * Add an update
+		 * @return True if a worker needs to be given this outbox
+		 */
+		private synchronized boolean offer(StateMessage update, StateMessage snapshot, Snapshot source) {
+			if (closed) return false;
+			latestSnapshot = snapshot;
+			latestSource = source;
+
+			if (resync) {
+				//Already behind; the snapshot at the end will cover this
+			} else if (queue.size() < capacity) {
+				queue.add(update);
+			} else if (policy == OverflowPolicy.COALESCE) {
+				queue.clear();
+				queue.add(latestSnapshot());
+			} else {
+				resync = true;
+			}
+
+			if (scheduled) return false;
+			scheduled = true;
+			return true;
+		}
+
+		synchronized int size() {
+			return queue.size();
+		}
+
+		synchronized void close() {
+			closed = true;
+			resync = false;
+			queue.clear();
+			latestSnapshot = null;
+			latestSource = null;
+		}
+
+		private StateMessage latestSnapshot() {
+			return latestSnapshot != null ? latestSnapshot : latestSource.get();
+		}
+
+		@Override
+		public void run() {
+			boolean drained = false;
+			try {
+				for (int i = 0; i < MAX_BATCH; i++) {
+					StateMessage next = take();
+					if (next == null) {
+						drained = true;
+						return;
+					}
+					observer.onStateChanged(next);
+				}
+			} finally {
+				//Give other observers a turn, then carry on. This also keeps the queue going if the observer threw.
+				if (!drained) workers.execute(this);
+			}
+		}
+
+		/**
+		 * Take the next update, or give up the worker if there are none
+		 */
+		private synchronized StateMessage take() {
+			StateMessage next = queue.poll();
+			if (next == null && resync) {
+				resync = false;
+				next = latestSnapshot();
+			}
+			if (next == null) scheduled = false;
+			return next;
+		}
+	}
+}
@@ -24,11 +24,32 @@ public class StateMessage extends Message {
 		super(clientInvolved);
 		this.type = type;
 	}
+	
+	/**
+	 * Constructor for the typed subclasses
+	 * @param type The type of state message to create
+	 * @param clientInvolved The client that the message is from or to.
+	 * @param typed Always true
+	 */
+	protected StateMessage(StateType type, Client clientInvolved, boolean typed) {
+		super(clientInvolved, typed);
+		this.type = type;
+	}
+	
+	/**
+	 * Get the type of state this message describes
+	 * @return The type
+	 */
+	public StateType getType() {
+		return type;
+	}
 
 	@Override
 	public boolean isValid() {
 		//Must have type
 		if (type == null) return false;
+		//Typed messages were checked when they were built
+		if (isTyped()) return true;
 		
 		switch(type) {
 			case LOBBY:
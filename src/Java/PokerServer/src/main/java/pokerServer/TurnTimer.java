@@ -0,0 +1,286 @@
+package pokerServer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Times players' turns for every table at once. It is a hashed timing wheel: a ring of buckets, one per tick, that a
+ * single thread steps round. Each timeout is hashed into the bucket for the tick it falls due on, with a count of
+ * how many more turns of the wheel to wait if that is further away than one turn. Setting and cancelling a timeout
+ * are both constant time however many are pending, and a tick only looks at one bucket. The price is that a
+ * timeout can fire up to a tick late, which does not matter for turns measured in seconds.
+ *
+ * Any thread can set or cancel a timeout; the request is queued without locking and the wheel's thread files it on
+ * its next tick. Timeouts run on the wheel's thread, so they should only post to a game rather than do work there.
+ * @author bgreen
+ *
+ */
+public class TurnTimer implements Runnable {
+
+	/** How long each tick is, by default **/
+	public static final long DEFAULT_TICK_MILLIS = 100;
+	/** The number of buckets in the wheel, by default. With the default tick, one turn of the wheel is 51.2 seconds. **/
+	public static final int DEFAULT_WHEEL_SIZE = 512;
+	/** The most new timeouts filed in one tick, so a flood of them cannot hold up the ones falling due **/
+	static final int MAX_FILED_PER_TICK = 100000;
+
+	/**
+	 * Something to run when a deadline passes, unless cancelled first
+	 * @author bgreen
+	 *
+	 */
+	public static final class Timeout {
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int EXPIRED = 2;
+
+		private final TurnTimer timer;
+		private final Runnable task;
+		//Nanoseconds after the wheel's start
+		private final long deadline;
+		private final AtomicInteger state;
+
+		//Only touched on the wheel's thread
+		private long rounds;
+		private Bucket bucket;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(TurnTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+			this.state = new AtomicInteger(PENDING);
+		}
+
+		/**
+		 * Stop the timeout from running. Safe to call from any thread.
+		 * @return True if it was stopped, false if it has already run or been cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(PENDING, CANCELLED)) return false;
+			timer.pending.decrementAndGet();
+			timer.cancelled.add(this);
+			return true;
+		}
+
+		/**
+		 * Check whether the timeout was cancelled
+		 * @return True if cancelled
+		 */
+		public boolean isCancelled() {
+			return state.get() == CANCELLED;
+		}
+
+		/**
+		 * Check whether the timeout has run
+		 * @return True if it has run, or is running
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(PENDING, EXPIRED)) return;
+			timer.pending.decrementAndGet();
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				//One table's timeout must not stop every other table's
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The timeouts hashed to one tick, as a doubly-linked list so any of them can be taken out in one step
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			timeout.previous = tail;
+			if (tail == null) {
+				head = timeout;
+			} else {
+				tail.next = timeout;
+			}
+			tail = timeout;
+		}
+
+		void remove(Timeout timeout) {
+			if (timeout.previous == null) {
+				head = timeout.next;
+			} else {
+				timeout.previous.next = timeout.next;
+			}
+			if (timeout.next == null) {
+				tail = timeout.previous;
+			} else {
+				timeout.next.previous = timeout.previous;
+			}
+			timeout.bucket = null;
+			timeout.previous = null;
+			timeout.next = null;
+		}
+
+		/**
+		 * Run every timeout due by the end of this tick, and bring the rest a turn of the wheel closer
+		 * @param deadline The end of the tick, in nanoseconds after the wheel's start
+		 */
+		void expire(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.rounds <= 0 && timeout.deadline <= deadline) {
+					remove(timeout);
+					timeout.expire();
+				} else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final long startTime;
+	private final Thread thread;
+	private volatile boolean running;
+
+	//Requests from any thread, filed by the wheel's thread on its next tick
+	private final ConcurrentLinkedQueue<Timeout> armed;
+	private final ConcurrentLinkedQueue<Timeout> cancelled;
+	private final AtomicLong pending;
+	//Only touched on the wheel's thread
+	private long tick;
+
+	/**
+	 * Create a wheel with the default tick and size. It does nothing until started.
+	 */
+	public TurnTimer() {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * Create a wheel. It does nothing until started.
+	 * @param tickMillis How long each tick is, and so how late a timeout can be
+	 * @param wheelSize The number of buckets, rounded up to a power of two. A turn of the wheel longer than most
+	 * timeouts keeps each bucket short.
+	 */
+	public TurnTimer(long tickMillis, int wheelSize) {
+		if (tickMillis < 1) throw new IllegalArgumentException("Tick too short");
+		if (wheelSize < 1 || wheelSize > 1 << 30) throw new IllegalArgumentException("Bad wheel size " + wheelSize);
+		tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+		int size = Integer.highestOneBit(wheelSize);
+		if (size < wheelSize) size <<= 1;
+		wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		armed = new ConcurrentLinkedQueue<Timeout>();
+		cancelled = new ConcurrentLinkedQueue<Timeout>();
+		pending = new AtomicLong();
+		startTime = System.nanoTime();
+		thread = new Thread(this, "turn-timer");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Start the wheel's thread
+	 */
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	/**
+	 * Stop the wheel. Timeouts still pending never run.
+	 */
+	public void shutdown() {
+		running = false;
+		thread.interrupt();
+	}
+
+	/**
+	 * Set a timeout. Safe to call from any thread.
+	 * @param task What to run on the wheel's thread when the time is up. It should be quick.
+	 * @param delay How long to wait
+	 * @param unit The unit of the delay
+	 * @return The timeout, to cancel it with
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) throw new IllegalArgumentException("No task");
+		long deadline = System.nanoTime() - startTime + unit.toNanos(Math.max(delay, 0));
+		Timeout timeout = new Timeout(this, task, deadline);
+		pending.incrementAndGet();
+		armed.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Get the number of timeouts waiting to run
+	 * @return The number
+	 */
+	public long getPending() {
+		return pending.get();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			long deadline = waitForNextTick();
+			if (deadline < 0) break;
+
+			removeCancelled();
+			fileArmed();
+			wheel[(int) (tick & mask)].expire(deadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleep until the current tick is over
+	 * @return The end of the tick, in nanoseconds after the wheel's start, or -1 if stopped
+	 */
+	private long waitForNextTick() {
+		long deadline = tickNanos * (tick + 1);
+		while (true) {
+			long sleep = deadline - (System.nanoTime() - startTime);
+			if (sleep <= 0) return deadline;
+			try {
+				TimeUnit.NANOSECONDS.sleep(sleep);
+			} catch (InterruptedException e) {
+				if (!running) return -1;
+			}
+		}
+	}
+
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			//Ones not filed yet are skipped when they are
+			if (timeout.bucket != null) timeout.bucket.remove(timeout);
+		}
+	}
+
+	private void fileArmed() {
+		for (int i = 0; i < MAX_FILED_PER_TICK; i++) {
+			Timeout timeout = armed.poll();
+			if (timeout == null) return;
+			if (timeout.state.get() != Timeout.PENDING) continue;
+
+			long dueTick = timeout.deadline / tickNanos;
+			timeout.rounds = (dueTick - tick) / wheel.length;
+			//Anything already overdue goes in this tick's bucket
+			wheel[(int) (Math.max(dueTick, tick) & mask)].add(timeout);
+		}
+	}
+}
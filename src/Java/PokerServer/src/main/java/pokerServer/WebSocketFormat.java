@@ -0,0 +1,567 @@
+package pokerServer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * WebSocket framing (RFC 6455) for browser clients. The connection starts with the HTTP upgrade handshake; after
+ * that each message is one WebSocket message. Text messages carry {@link JsonCodec} JSON and binary messages carry
+ * {@link MessageCodec} bytes. Messages to the client use JSON, unless the client asked for the "poker-binary"
+ * subprotocol.
+ *
+ * If the client offers it, messages are compressed with permessage-deflate (RFC 7692). Each direction keeps one
+ * compression context for the life of the connection (context takeover), so a state message mostly refers back to
+ * the last one and costs a few bytes. The price is about 300 KiB of native memory per connection, which is why
+ * {@link PokerServer#WEBSOCKET_COMPRESSION} can turn it off.
+ *
+ * Browsers cannot keep a session key from the page's own scripts, so WebSocket messages are not signed; these
+ * connections rely on TLS in front of the server instead.
+ * @author bgreen
+ *
+ */
+class WebSocketFormat implements WireFormat {
+
+	/** The subprotocol for JSON messages, which is also the default **/
+	static final String JSON_PROTOCOL = "poker-json";
+	/** The subprotocol for {@link MessageCodec} messages **/
+	static final String BINARY_PROTOCOL = "poker-binary";
+	/** The longest handshake accepted **/
+	static final int MAX_HANDSHAKE = 8 * 1024;
+
+	private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final byte[] BAD_REQUEST =
+			"HTTP/1.1 400 Bad Request\r\nConnection: close\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	//What each compressed message is missing from the end of its deflate stream
+	private static final byte[] DEFLATE_TAIL = {0, 0, (byte) 0xFF, (byte) 0xFF};
+
+	private static final int CONTINUATION = 0x0;
+	private static final int TEXT = 0x1;
+	private static final int BINARY = 0x2;
+	private static final int CLOSE = 0x8;
+	private static final int PING = 0x9;
+	private static final int PONG = 0xA;
+	private static final int FIN = 0x80;
+	private static final int COMPRESSED = 0x40;
+	private static final int MAX_HEADER = 10;
+	private static final int NORMAL_CLOSURE = 1000;
+
+	private final boolean compressionAllowed;
+	private final JsonCodec json;
+	private final MessageCodec binary;
+
+	//Set by the reading side during the handshake, before open
+	private boolean binaryOut;
+	private boolean resetDeflater;
+	private Deflater deflater;
+	private Inflater inflater;
+	private volatile boolean open;
+	private volatile boolean finished;
+
+	//Reading side: a message arriving in fragments, and the space to inflate into
+	private int fragmentOpcode;
+	private boolean fragmentCompressed;
+	private ByteBuffer fragments;
+	private ByteBuffer inflated;
+
+	//Writing side: the message being written, and its encoded and compressed forms
+	private Message prepared;
+	private ByteBuffer scratch;
+	private ByteBuffer frame;
+
+	//Bytes of our own to send, from either side, or null if there have never been any
+	private ByteBuffer control;
+
+	/**
+	 * Create the format for a new connection
+	 * @param compressionAllowed Whether to accept an offer of compression
+	 */
+	WebSocketFormat(boolean compressionAllowed) {
+		this.compressionAllowed = compressionAllowed;
+		this.json = new JsonCodec();
+		this.binary = new MessageCodec();
+	}
+
+	/**
+	 * Get the subprotocol agreed in the handshake
+	 * @return The subprotocol
+	 */
+	String getProtocol() {
+		return binaryOut ? BINARY_PROTOCOL : JSON_PROTOCOL;
+	}
+
+	/**
+	 * Check whether messages are compressed
+	 * @return True if permessage-deflate was agreed
+	 */
+	boolean isCompressed() {
+		return deflater != null;
+	}
+
+	@Override
+	public Message read(ByteBuffer in, ClientSocket client) {
+		if (!open) {
+			readHandshake(in);
+			return null;
+		}
+
+		int start = in.position();
+		if (in.remaining() < 2) return null;
+		int first = in.get(start) & 0xFF;
+		int second = in.get(start + 1) & 0xFF;
+		if ((first & 0x30) != 0) throw new IllegalArgumentException("Unknown extension bits set");
+		if ((second & 0x80) == 0) throw new IllegalArgumentException("Frames from clients must be masked");
+		boolean fin = (first & FIN) != 0;
+		boolean compressed = (first & COMPRESSED) != 0;
+		int opcode = first & 0x0F;
+
+		long length = second & 0x7F;
+		int header = 2;
+		if (length == 126) {
+			if (in.remaining() < 4) return null;
+			length = in.getShort(start + 2) & 0xFFFF;
+			header = 4;
+		} else if (length == 127) {
+			if (in.remaining() < 10) return null;
+			length = in.getLong(start + 2);
+			header = 10;
+		}
+		if (length < 0 || length > ClientSocket.MAX_FRAME_SIZE) throw new IllegalArgumentException("Frame too long");
+		int payload = start + header + 4;
+		int end = payload + (int) length;
+		if (in.limit() < end) return null;
+
+		//Unmask in place; nothing else will read these bytes
+		int mask = in.getInt(start + header);
+		for (int i = payload; i < end; i++) {
+			in.put(i, (byte) (in.get(i) ^ mask >>> (24 - 8 * ((i - payload) & 3))));
+		}
+		in.position(end);
+
+		if (opcode >= CLOSE) {
+			if (!fin || length > 125 || compressed) throw new IllegalArgumentException("Bad control frame");
+			readControl(opcode, in, payload, end);
+			return null;
+		}
+
+		if (opcode == CONTINUATION) {
+			if (fragmentOpcode == 0 || compressed) throw new IllegalArgumentException("Unexpected continuation");
+		} else if (opcode == TEXT || opcode == BINARY) {
+			if (fragmentOpcode != 0) throw new IllegalArgumentException("Expected a continuation");
+			if (compressed && inflater == null) throw new IllegalArgumentException("Compression was not agreed");
+			fragmentOpcode = opcode;
+			fragmentCompressed = compressed;
+		} else {
+			throw new IllegalArgumentException("Unknown opcode " + opcode);
+		}
+
+		int limit = in.limit();
+		in.limit(end).position(payload);
+		try {
+			ByteBuffer body = in;
+			if (!fin || (fragments != null && fragments.position() > 0)) {
+				//Gather the pieces until the last one
+				fragments = append(fragments, in, ClientSocket.MAX_FRAME_SIZE);
+				if (!fin) return null;
+				fragments.flip();
+				body = fragments;
+			}
+			return decode(body, client);
+		} finally {
+			in.limit(limit).position(end);
+			if (fin) {
+				fragmentOpcode = 0;
+				if (fragments != null) fragments.clear();
+			}
+		}
+	}
+
+	private Message decode(ByteBuffer body, ClientSocket client) {
+		if (fragmentCompressed) body = inflate(body);
+		if (fragmentOpcode == TEXT) return json.decode(body, client);
+
+		Message message = binary.decode(body, client);
+		if (body.hasRemaining()) throw new IllegalArgumentException("Frame longer than its message");
+		return message;
+	}
+
+	private ByteBuffer inflate(ByteBuffer body) {
+		if (inflated == null) inflated = ByteBuffer.allocate(ClientSocket.THREAD_BUFFER_SIZE);
+		inflated.clear();
+		try {
+			inflater.setInput(body);
+			inflateInput();
+			inflater.setInput(DEFLATE_TAIL);
+			inflateInput();
+		} catch (DataFormatException e) {
+			throw new IllegalArgumentException("Bad compressed data");
+		}
+		inflated.flip();
+		return inflated;
+	}
+
+	private void inflateInput() throws DataFormatException {
+		while (true) {
+			inflater.inflate(inflated);
+			if (!inflated.hasRemaining()) {
+				//The limit keeps a small message from inflating into a huge one
+				inflated = grow(inflated, ClientSocket.MAX_FRAME_SIZE);
+			} else if (inflater.needsInput()) {
+				return;
+			} else {
+				throw new IllegalArgumentException("Compressed stream ended");
+			}
+		}
+	}
+
+	private void readControl(int opcode, ByteBuffer in, int payload, int end) {
+		if (opcode == PING) {
+			byte[] body = new byte[end - payload];
+			in.get(payload, body);
+			queueControl(frameHeader(PONG, body.length), body);
+		} else if (opcode == CLOSE) {
+			int status = end - payload >= 2 ? in.getShort(payload) & 0xFFFF : NORMAL_CLOSURE;
+			queueControl(frameHeader(CLOSE, 2), new byte[] {(byte) (status >> 8), (byte) status});
+			finished = true;
+		} else if (opcode != PONG) {
+			throw new IllegalArgumentException("Unknown opcode " + opcode);
+		}
+	}
+
+	private void readHandshake(ByteBuffer in) {
+		int end = -1;
+		for (int i = in.position(); i + 3 < in.limit(); i++) {
+			if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+				end = i + 4;
+				break;
+			}
+		}
+		if (end < 0) {
+			if (in.remaining() >= MAX_HANDSHAKE) throw new IllegalArgumentException("Handshake too long");
+			return;
+		}
+
+		byte[] request = new byte[end - in.position()];
+		in.get(request);
+		String response = accept(new String(request, StandardCharsets.ISO_8859_1));
+		if (response == null) {
+			queueControl(BAD_REQUEST, new byte[0]);
+			finished = true;
+			return;
+		}
+		queueControl(response.getBytes(StandardCharsets.ISO_8859_1), new byte[0]);
+		open = true;
+	}
+
+	/**
+	 * Check an upgrade request and agree its options
+	 * @param request The request, up to and including the blank line
+	 * @return The reply, or null if the request is not a WebSocket upgrade we can accept
+	 */
+	private String accept(String request) {
+		String[] lines = request.split("\r\n");
+		if (!lines[0].startsWith("GET ") || !lines[0].endsWith(" HTTP/1.1")) return null;
+
+		HashMap<String, String> headers = new HashMap<String, String>();
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) return null;
+			String name = lines[i].substring(0, colon).trim().toLowerCase();
+			String value = lines[i].substring(colon + 1).trim();
+			//Repeated headers are the same as one with the values joined
+			headers.put(name, headers.containsKey(name) ? headers.get(name) + "," + value : value);
+		}
+
+		if (!hasToken(headers.get("upgrade"), "websocket") || !hasToken(headers.get("connection"), "upgrade")
+				|| !"13".equals(headers.get("sec-websocket-version"))) {
+			return null;
+		}
+		String key = headers.get("sec-websocket-key");
+		try {
+			if (key == null || Base64.getDecoder().decode(key).length != 16) return null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+
+		StringBuilder response = new StringBuilder("HTTP/1.1 101 Switching Protocols\r\n"
+				+ "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Accept: ");
+		response.append(acceptKey(key)).append("\r\n");
+
+		String protocols = headers.get("sec-websocket-protocol");
+		if (protocols != null) {
+			for (String protocol : protocols.split(",")) {
+				protocol = protocol.trim();
+				if (protocol.equals(JSON_PROTOCOL) || protocol.equals(BINARY_PROTOCOL)) {
+					binaryOut = protocol.equals(BINARY_PROTOCOL);
+					response.append("Sec-WebSocket-Protocol: ").append(protocol).append("\r\n");
+					break;
+				}
+			}
+		}
+
+		String extensions = headers.get("sec-websocket-extensions");
+		if (compressionAllowed && extensions != null) {
+			String agreed = negotiateDeflate(extensions);
+			if (agreed != null) response.append("Sec-WebSocket-Extensions: ").append(agreed).append("\r\n");
+		}
+		return response.append("\r\n").toString();
+	}
+
+	/**
+	 * Accept the first permessage-deflate offer we can honour
+	 * @param offers The client's extension offers
+	 * @return The extension to put in the reply, or null if none can be accepted
+	 */
+	private String negotiateDeflate(String offers) {
+		for (String offer : offers.split(",")) {
+			String[] parameters = offer.split(";");
+			if (!parameters[0].trim().equalsIgnoreCase("permessage-deflate")) continue;
+
+			StringBuilder agreed = new StringBuilder("permessage-deflate");
+			HashSet<String> seen = new HashSet<String>();
+			boolean acceptable = true;
+			boolean noTakeover = false;
+			for (int i = 1; i < parameters.length && acceptable; i++) {
+				String name = parameters[i].trim();
+				String value = null;
+				int equals = name.indexOf('=');
+				if (equals >= 0) {
+					value = name.substring(equals + 1).trim().replace("\"", "");
+					name = name.substring(0, equals).trim();
+				}
+				if (!seen.add(name)) {
+					acceptable = false;
+				} else if (name.equals("server_no_context_takeover") || name.equals("client_no_context_takeover")) {
+					acceptable = value == null;
+					agreed.append("; ").append(name);
+					if (name.equals("server_no_context_takeover")) noTakeover = true;
+				} else if (name.equals("server_max_window_bits")) {
+					//The JDK's deflater always uses the largest window
+					acceptable = "15".equals(value);
+					agreed.append("; server_max_window_bits=15");
+				} else if (name.equals("client_max_window_bits")) {
+					//Our inflater takes any window size, so there is nothing to agree
+					acceptable = value == null || value.matches("8|9|1[0-5]");
+				} else {
+					acceptable = false;
+				}
+			}
+
+			if (acceptable) {
+				resetDeflater = noTakeover;
+				deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+				inflater = new Inflater(true);
+				return agreed.toString();
+			}
+		}
+		return null;
+	}
+
+	private static boolean hasToken(String header, String token) {
+		if (header == null) return false;
+		for (String value : header.split(",")) {
+			if (value.trim().equalsIgnoreCase(token)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Work out the Sec-WebSocket-Accept reply to a key
+	 * @param key The client's Sec-WebSocket-Key
+	 * @return The reply
+	 */
+	static String acceptKey(String key) {
+		try {
+			MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+			return Base64.getEncoder().encodeToString(sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("Every JVM has SHA-1", e);
+		}
+	}
+
+	@Override
+	public boolean canWrite() {
+		return open && !finished;
+	}
+
+	@Override
+	public boolean write(Message message, ByteBuffer out) {
+		if (deflater == null) return writeUncompressed(message, out);
+
+		//Compressing moves the context on, so once done the frame is kept until there is room for it
+		if (prepared != message) {
+			prepareCompressed(message);
+			prepared = message;
+		}
+		if (out.remaining() < frame.remaining()) return false;
+		out.put(frame);
+		prepared = null;
+		return true;
+	}
+
+	/**
+	 * Encode straight into the output, leaving room for the longest header this format sends, then close the gap
+	 */
+	private boolean writeUncompressed(Message message, ByteBuffer out) {
+		int start = out.position();
+		if (out.remaining() <= 4) return false;
+		int limit = out.limit();
+		//Messages are at most 16 bits long, so the header is at most 4 bytes
+		out.limit((int) Math.min(limit, start + 4L + 0xFFFF)).position(start + 4);
+		try {
+			if (binaryOut) {
+				binary.encode(message, out);
+			} else {
+				json.encode(message, out);
+			}
+		} catch (BufferOverflowException e) {
+			out.limit(limit).position(start);
+			return false;
+		} finally {
+			out.limit(limit);
+		}
+
+		int length = out.position() - start - 4;
+		int opcode = binaryOut ? BINARY : TEXT;
+		if (length < 126) {
+			for (int i = 0; i < length; i++) {
+				out.put(start + 2 + i, out.get(start + 4 + i));
+			}
+			out.put(start, (byte) (FIN | opcode)).put(start + 1, (byte) length);
+			out.position(start + 2 + length);
+		} else {
+			out.put(start, (byte) (FIN | opcode)).put(start + 1, (byte) 126).putShort(start + 2, (short) length);
+		}
+		return true;
+	}
+
+	private void prepareCompressed(Message message) {
+		if (scratch == null) scratch = ByteBuffer.allocate(ClientSocket.THREAD_BUFFER_SIZE);
+		scratch.clear();
+		while (true) {
+			try {
+				if (binaryOut) {
+					binary.encode(message, scratch);
+				} else {
+					json.encode(message, scratch);
+				}
+				break;
+			} catch (BufferOverflowException e) {
+				if (scratch.capacity() >= ClientSocket.MAX_FRAME_SIZE) throw new IllegalArgumentException("Message too long");
+				scratch = ByteBuffer.allocate(Math.min(scratch.capacity() * 2, ClientSocket.MAX_FRAME_SIZE));
+			}
+		}
+		scratch.flip();
+
+		if (frame == null) frame = ByteBuffer.allocate(ClientSocket.THREAD_BUFFER_SIZE);
+		frame.clear().position(MAX_HEADER);
+		deflater.setInput(scratch);
+		while (true) {
+			deflater.deflate(frame, Deflater.SYNC_FLUSH);
+			if (frame.hasRemaining()) break;
+			frame = grow(frame, MAX_WIRE_FRAME);
+		}
+		if (resetDeflater) deflater.reset();
+
+		//Leave off the empty block every flush ends with; the client puts it back
+		int length = frame.position() - MAX_HEADER - DEFLATE_TAIL.length;
+		byte[] header = frameHeader((binaryOut ? BINARY : TEXT) | COMPRESSED, length);
+		frame.limit(MAX_HEADER + length).position(MAX_HEADER - header.length);
+		frame.put(header).position(MAX_HEADER - header.length);
+	}
+
+	/**
+	 * Copy bytes onto the end of a buffer, making a bigger one if needed
+	 * @param to The buffer to add to, or null for a new one
+	 * @param from The bytes to add
+	 * @param maximum The most the buffer may hold
+	 * @return The buffer now holding them
+	 */
+	private static ByteBuffer append(ByteBuffer to, ByteBuffer from, int maximum) {
+		int needed = (to == null ? 0 : to.position()) + from.remaining();
+		if (needed > maximum) throw new IllegalArgumentException("Message too long");
+		if (to == null || to.capacity() < needed) {
+			int size = to == null ? ClientSocket.THREAD_BUFFER_SIZE : to.capacity();
+			while (size < needed) size *= 2;
+			ByteBuffer bigger = ByteBuffer.allocate(Math.min(size, maximum));
+			if (to != null) {
+				to.flip();
+				bigger.put(to);
+			}
+			to = bigger;
+		}
+		to.put(from);
+		return to;
+	}
+
+	/**
+	 * Swap a full buffer for one twice the size holding the same bytes
+	 * @param full The buffer, with no room left
+	 * @param maximum The most the buffer may hold
+	 * @return The bigger buffer
+	 */
+	private static ByteBuffer grow(ByteBuffer full, int maximum) {
+		if (full.capacity() >= maximum) throw new IllegalArgumentException("Message too long");
+		ByteBuffer bigger = ByteBuffer.allocate(Math.min(full.capacity() * 2, maximum));
+		full.flip();
+		return bigger.put(full);
+	}
+
+	private static byte[] frameHeader(int opcode, int length) {
+		if (length < 126) return new byte[] {(byte) (FIN | opcode), (byte) length};
+		if (length <= 0xFFFF) return new byte[] {(byte) (FIN | opcode), 126, (byte) (length >> 8), (byte) length};
+		ByteBuffer header = ByteBuffer.allocate(MAX_HEADER);
+		header.put((byte) (FIN | opcode)).put((byte) 127).putLong(length);
+		return header.array();
+	}
+
+	/**
+	 * Queue bytes of our own to send
+	 */
+	private synchronized void queueControl(byte[] header, byte[] body) {
+		control = append(control, ByteBuffer.wrap(header), Integer.MAX_VALUE);
+		control = append(control, ByteBuffer.wrap(body), Integer.MAX_VALUE);
+	}
+
+	@Override
+	public synchronized boolean hasControl() {
+		return control != null && control.position() > 0;
+	}
+
+	@Override
+	public synchronized boolean writeControl(ByteBuffer out) {
+		if (control == null) return true;
+		control.flip();
+		int count = Math.min(control.remaining(), out.remaining());
+		int limit = control.limit();
+		control.limit(control.position() + count);
+		out.put(control);
+		control.limit(limit);
+		control.compact();
+		return control.position() == 0;
+	}
+
+	@Override
+	public boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public void startSigning(MessageSigner signer) {
+		throw new UnsupportedOperationException("WebSocket connections are not signed");
+	}
+
+	@Override
+	public void release() {
+		if (deflater != null) deflater.end();
+		if (inflater != null) inflater.end();
+	}
+}
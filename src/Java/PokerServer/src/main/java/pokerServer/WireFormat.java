@@ -0,0 +1,74 @@
+package pokerServer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * How messages are laid out on one connection. A {@link ClientSocket} moves the bytes; its format decides where each
+ * message starts and ends, and may have bytes of its own to send, such as a handshake reply.
+ *
+ * A format is used by at most one reading thread and one writing thread. Anything both sides touch is the format's
+ * to guard.
+ * @author bgreen
+ *
+ */
+interface WireFormat {
+
+	/** The most bytes one frame can take on the wire, header included **/
+	static final int MAX_WIRE_FRAME = ClientSocket.MAX_FRAME_SIZE + 128;
+
+	/**
+	 * Read from the bytes received so far
+	 * @param in The bytes, from its position. On return the position is after whatever was used.
+	 * @param client The client the bytes came from
+	 * @return The next message, or null if there is not a whole one yet. Bytes that carried no message, such as a
+	 * handshake, may still have been used.
+	 * @throws IllegalArgumentException If the bytes break the protocol, and the connection should be dropped
+	 */
+	Message read(ByteBuffer in, ClientSocket client);
+
+	/**
+	 * Check whether messages can be written yet
+	 * @return False until any handshake is done
+	 */
+	boolean canWrite();
+
+	/**
+	 * Write one message. If it does not fit, call again with the same message once there is more room.
+	 * @param message The message
+	 * @param out The buffer to write into, from its position
+	 * @return True if it was written, false if it did not fit
+	 * @throws IllegalArgumentException If the message cannot be sent at all
+	 */
+	boolean write(Message message, ByteBuffer out);
+
+	/**
+	 * Check whether the format has bytes of its own to send
+	 * @return True if {@link #writeControl(ByteBuffer)} has something to write
+	 */
+	boolean hasControl();
+
+	/**
+	 * Write the format's own bytes, ahead of any messages
+	 * @param out The buffer to write into, from its position
+	 * @return True if all of them were written, false if some are still waiting for room
+	 */
+	boolean writeControl(ByteBuffer out);
+
+	/**
+	 * Check whether the conversation is over, so the connection should close once its control bytes are sent
+	 * @return True if finished
+	 */
+	boolean isFinished();
+
+	/**
+	 * Sign everything written from now on, and drop anything read from now on that is not signed
+	 * @param signer The session's signer
+	 * @throws UnsupportedOperationException If the format cannot carry signatures
+	 */
+	void startSigning(MessageSigner signer);
+
+	/**
+	 * Free anything held outside the heap. Called once, when the connection closes.
+	 */
+	void release();
+}
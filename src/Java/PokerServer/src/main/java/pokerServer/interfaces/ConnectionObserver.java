@@ -0,0 +1,17 @@
+package pokerServer.interfaces;
+
+import pokerServer.ClientSocket;
+
+/**
+ * This represents something that observes a server for new connections. It defines a common callback to be used.
+ * @author bgreen
+ *
+ */
+public interface ConnectionObserver extends Observer {
+	/**
+	 * The callback for a client connecting. Nothing is read from the client until every observer has been told,
+	 * so this is the place to start observing it.
+	 * @param client The new client
+	 */
+	public void onClientConnected(ClientSocket client);
+}
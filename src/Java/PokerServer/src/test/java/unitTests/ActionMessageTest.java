@@ -2,10 +2,16 @@ package unitTests;
 
 import static org.junit.Assert.*;
 
+import java.util.HashMap;
+
 import org.junit.Test;
 
 import pokerServer.ActionMessage;
 import pokerServer.ActionMessage.Action;
+import pokerServer.BetMessage;
+import pokerServer.FoldMessage;
+import pokerServer.JoinMessage;
+import pokerServer.QuitMessage;
 
 /**
  * Tests for the ActionMessage class
@@ -190,6 +196,18 @@ public class ActionMessageTest {
 		assertFalse(oot.isValid());
 	}
 	
+	/**
+	 * Verifies that a Bet too large for the wire formats fails validation
+	 * Rule: Amount must be at most BetMessage.MAX_AMOUNT
+	 */
+	@Test
+	public void betTooLargeFailsValidation() {
+		ActionMessage oot = new ActionMessage(Action.BET, null);
+		oot.addParameter("Amount", BetMessage.MAX_AMOUNT + 1);
+		oot.addParameter("All-in", true);
+		assertFalse(oot.isValid());
+	}
+	
 	
 	/**
 	 * Verifies that a Bet message with no All-in parameter fails validation
@@ -246,4 +264,81 @@ public class ActionMessageTest {
 		assertFalse(oot.isValid());
 	}
 
+	/**
+	 * Verifies that a negative bet fails validation
+	 * Rule: Amount cannot be negative
+	 */
+	@Test
+	public void betWithNegativeAmountFailsValidation() {
+		ActionMessage oot = new ActionMessage(Action.BET, null);
+		oot.addParameter("Amount", -500);
+		oot.addParameter("All-in", false);
+		assertFalse(oot.isValid());
+	}
+	
+	/**
+	 * Verifies that decoding gives a typed message with the right fields
+	 */
+	@Test
+	public void decodeGivesTypedMessages() {
+		HashMap<String, Object> fields = new HashMap<String, Object>();
+		fields.put("Amount", 500);
+		fields.put("All-in", true);
+		ActionMessage bet = ActionMessage.decode(Action.BET, fields, null);
+		assertTrue(bet instanceof BetMessage);
+		assertEquals(500, ((BetMessage) bet).getAmount());
+		assertTrue(((BetMessage) bet).isAllIn());
+		
+		fields.clear();
+		fields.put("Quit", true);
+		assertTrue(((FoldMessage) ActionMessage.decode(Action.FOLD, fields, null)).isQuit());
+		
+		fields.clear();
+		fields.put("GameID", 7);
+		assertEquals(7, ((JoinMessage) ActionMessage.decode(Action.JOIN, fields, null)).getGameID());
+		
+		fields.clear();
+		assertTrue(ActionMessage.decode(Action.QUIT, fields, null) instanceof QuitMessage);
+	}
+	
+	/**
+	 * Verifies that decoding rejects anything that would fail validation
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void decodeRejectsInvalidMessage() {
+		HashMap<String, Object> fields = new HashMap<String, Object>();
+		fields.put("Amount", "500");
+		fields.put("All-in", true);
+		ActionMessage.decode(Action.BET, fields, null);
+	}
+	
+	/**
+	 * Verifies that an untyped message converts to a typed one, and a typed one is returned as it is
+	 */
+	@Test
+	public void toTypedConvertsOnce() {
+		ActionMessage generic = new ActionMessage(Action.JOIN, null);
+		generic.addParameter("GameID", 3);
+		ActionMessage typed = generic.toTyped();
+		
+		assertTrue(typed instanceof JoinMessage);
+		assertTrue(typed.isTyped());
+		assertSame(typed, typed.toTyped());
+	}
+	
+	/**
+	 * Verifies that a typed message can still be read by parameter name, but not changed
+	 */
+	@Test
+	public void typedMessageHasParameterView() {
+		BetMessage oot = new BetMessage(250, false, null);
+		
+		assertTrue(oot.isValid());
+		assertEquals(250, oot.getParameter("Amount"));
+		assertEquals(false, oot.getParameter("All-in"));
+		assertFalse(oot.addParameter("Extra", 1));
+		assertFalse(oot.setParameter("Amount", 1));
+		assertEquals(250, oot.getParameter("Amount"));
+	}
+
 }
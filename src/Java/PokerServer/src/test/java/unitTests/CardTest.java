@@ -161,6 +161,92 @@ public class CardTest {
 		assertEquals(4, getNumCards(deck,"K"));
 	}
 	
+	/**
+	 * Tests that every card survives a round trip through its primitive code and deck index
+	 */
+	@Test
+	public void codesRoundTrip() {
+		for (Card card : Card.generateDeck()) {
+			Card fromCode = Card.fromCode(card.getCode());
+			Card fromIndex = Card.fromIndex(card.getIndex());
+			
+			assertEquals(card.getSuit(), fromCode.getSuit());
+			assertEquals(card.getValue(), fromCode.getValue());
+			assertEquals(card.getSuit(), fromIndex.getSuit());
+			assertEquals(card.getValue(), fromIndex.getValue());
+		}
+	}
+	
+	/**
+	 * Tests that each card in a deck has its own index and its own bit in a card set
+	 */
+	@Test
+	public void codesAreUnique() {
+		boolean[] seenIndex = new boolean[Card.DECK_SIZE];
+		long seenMasks = 0L;
+		
+		for (Card card : Card.generateDeck()) {
+			assertFalse(seenIndex[card.getIndex()]);
+			seenIndex[card.getIndex()] = true;
+			
+			assertEquals(1, Long.bitCount(card.getMask()));
+			assertEquals(0L, seenMasks & card.getMask());
+			seenMasks |= card.getMask();
+		}
+	}
+	
+	/**
+	 * Tests that the fields packed into a card code can be read back out
+	 */
+	@Test
+	public void codeFieldsAreCorrect() {
+		Card aceOfSpades = new Card(Suit.SPADES, "A");
+		Card twoOfHearts = new Card(Suit.HEARTS, "2");
+		Card tenOfClubs = new Card(Suit.CLUBS, "10");
+		
+		assertEquals(12, aceOfSpades.getRank());
+		assertEquals(41, Card.primeOf(aceOfSpades.getCode()));
+		assertEquals(Suit.SPADES, Card.suitOf(aceOfSpades.getCode()));
+		
+		assertEquals(0, twoOfHearts.getRank());
+		assertEquals(2, Card.primeOf(twoOfHearts.getCode()));
+		
+		assertEquals(8, tenOfClubs.getRank());
+		assertEquals(1 << (16 + 8), tenOfClubs.getCode() & 0x1FFF0000);
+	}
+	
+	/**
+	 * Tests that looking a card up always gives back the same shared instance
+	 */
+	@Test
+	public void catalogueCardsAreShared() {
+		assertSame(Card.of(Suit.HEARTS, "10"), Card.of(Suit.HEARTS, "10"));
+		assertSame(Card.of(Suit.SPADES, "q"), Card.of(Suit.SPADES, 10));
+		assertSame(Card.of(Suit.CLUBS, "A"), Card.fromIndex(Card.of(Suit.CLUBS, "A").getIndex()));
+		assertEquals(Card.DECK_SIZE, Card.ALL_CARDS.size());
+	}
+	
+	/**
+	 * Tests that a constructed card is equal to the shared instance of the same card, and different to others
+	 */
+	@Test
+	public void constructedCardsEqualCatalogue() {
+		Card constructed = new Card(Suit.DIAMONDS, "K");
+		
+		assertEquals(Card.of(Suit.DIAMONDS, "K"), constructed);
+		assertEquals(Card.of(Suit.DIAMONDS, "K").hashCode(), constructed.hashCode());
+		assertFalse(constructed.equals(Card.of(Suit.HEARTS, "K")));
+		assertFalse(constructed.equals(Card.of(Suit.DIAMONDS, "Q")));
+	}
+	
+	/**
+	 * Tests that looking up an invalid value is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidCatalogueLookupRejected() {
+		Card.of(Suit.HEARTS, "1");
+	}
+	
 	private int getNumCards(ArrayList<Card> deck, Suit suit) {
 		int count = 0;
 		for (Card card : deck) {
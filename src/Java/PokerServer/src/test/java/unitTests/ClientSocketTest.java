@@ -0,0 +1,225 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.BetMessage;
+import pokerServer.Card;
+import pokerServer.ClientSocket;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.JoinMessage;
+import pokerServer.Message;
+import pokerServer.MessageCodec;
+import pokerServer.QuitMessage;
+import pokerServer.SocketServer;
+import pokerServer.SocketServer.Transport;
+import pokerServer.interfaces.ClientObserver;
+import pokerServer.interfaces.ConnectionObserver;
+
+/**
+ * Unit tests for clients connected over TCP, using a real server on the loopback address
+ * @author bgreen
+ *
+ */
+public class ClientSocketTest {
+
+	private SocketServer server;
+	private BlockingQueue<ClientSocket> connected;
+	private BlockingQueue<Message> received;
+	private SocketChannel channel;
+	private MessageCodec codec;
+
+	/**
+	 * Start a server that records everything its clients send
+	 * @throws IOException If the server cannot start
+	 */
+	@Before
+	public void setUp() throws IOException {
+		connected = new LinkedBlockingQueue<ClientSocket>();
+		received = new LinkedBlockingQueue<Message>();
+		final ClientObserver recorder = new ClientObserver() {
+			@Override
+			public void onMessageReceived(Message message) {
+				received.add(message);
+			}
+		};
+
+		server = new SocketServer(new InetSocketAddress("127.0.0.1", 0), transport(), 2);
+		server.addObserver(new ConnectionObserver() {
+			@Override
+			public void onClientConnected(ClientSocket client) {
+				client.addObserver(recorder);
+				connected.add(client);
+			}
+		});
+		server.start();
+
+		channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+		codec = new MessageCodec();
+	}
+
+	/**
+	 * Shut everything down
+	 * @throws IOException If the connection will not close
+	 */
+	@After
+	public void tearDown() throws IOException {
+		channel.close();
+		server.stop();
+	}
+
+	/**
+	 * Tests that framed messages reach the observers, including several in one write
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void messagesAreReceived() throws Exception {
+		ByteBuffer out = ByteBuffer.allocate(256);
+		frame(new BetMessage(50, true, null), out);
+		frame(new JoinMessage(3, null), out);
+		out.flip();
+		channel.write(out);
+
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		BetMessage bet = (BetMessage) received.poll(2, TimeUnit.SECONDS);
+		assertEquals(50, bet.getAmount());
+		assertTrue(bet.isAllIn());
+		assertSame(client, bet.getClient());
+		assertEquals(3, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+	}
+
+	/**
+	 * Tests that a frame split across writes is put back together
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void splitFrameIsReassembled() throws Exception {
+		ByteBuffer out = ByteBuffer.allocate(256);
+		frame(new BetMessage(1234, false, null), out);
+		out.flip();
+		int end = out.limit();
+
+		out.limit(3);
+		channel.write(out);
+		Thread.sleep(50);
+		assertTrue(received.isEmpty());
+		out.limit(end);
+		channel.write(out);
+
+		assertEquals(1234, ((BetMessage) received.poll(2, TimeUnit.SECONDS)).getAmount());
+	}
+
+	/**
+	 * Tests that sent messages arrive framed and in order
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void messagesAreSent() throws Exception {
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(1, "PlayerA", "", 100));
+		client.sendMessage(new GameStateMessage(10, "PlayerA", "PlayerA", new ArrayList<Card>(), null, seats, null));
+		client.sendMessage(new BetMessage(10, false, null));
+
+		GameStateMessage state = (GameStateMessage) readFrame();
+		assertEquals(10, state.getPot());
+		assertEquals("PlayerA", state.getSeats().get(0).getUsername());
+		assertEquals(10, ((BetMessage) readFrame()).getAmount());
+	}
+
+	/**
+	 * Tests that a message too big to send is dropped and counted, and the ones after it still go
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void oversizedMessageIsDropped() throws Exception {
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		StringBuilder name = new StringBuilder();
+		while (name.length() < 1000) {
+			name.append("Player");
+		}
+		//Long names, all different, until they cannot fit in one frame
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		for (int i = 0; i * 1000 <= ClientSocket.MAX_FRAME_SIZE; i++) {
+			seats.add(new Seat(i, name.toString() + i, "", 100));
+		}
+		client.sendMessage(new GameStateMessage(10, "PlayerA", "PlayerA", new ArrayList<Card>(), null, seats, null));
+		client.sendMessage(new BetMessage(10, false, null));
+
+		assertEquals(10, ((BetMessage) readFrame()).getAmount());
+		assertEquals(1, client.getDroppedMessages());
+	}
+
+	/**
+	 * Tests that a frame that is too big closes the connection and tells the observers the client quit
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void oversizedFrameDisconnects() throws Exception {
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		ByteBuffer out = ByteBuffer.allocate(ClientSocket.LENGTH_BYTES);
+		out.putInt(ClientSocket.MAX_FRAME_SIZE + 1);
+		out.flip();
+		channel.write(out);
+
+		assertTrue(received.poll(2, TimeUnit.SECONDS) instanceof QuitMessage);
+		assertTrue(client.isClosed());
+		assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+	}
+
+	/**
+	 * Tests that hanging up is passed on as quitting
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void hangingUpQuits() throws Exception {
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		channel.close();
+
+		QuitMessage quit = (QuitMessage) received.poll(2, TimeUnit.SECONDS);
+		assertSame(client, quit.getClient());
+	}
+
+	/**
+	 * The way the server under test serves connections
+	 * @return The transport
+	 */
+	protected Transport transport() {
+		return Transport.SELECTOR;
+	}
+
+	private void frame(Message message, ByteBuffer out) {
+		int start = out.position();
+		out.position(start + ClientSocket.LENGTH_BYTES);
+		codec.encode(message, out);
+		out.putInt(start, out.position() - start - ClientSocket.LENGTH_BYTES);
+	}
+
+	private Message readFrame() throws IOException {
+		ByteBuffer length = ByteBuffer.allocate(ClientSocket.LENGTH_BYTES);
+		readFully(length);
+		ByteBuffer body = ByteBuffer.allocate(length.getInt(0));
+		readFully(body);
+		body.flip();
+		return codec.decode(body, null);
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) throw new IOException("Closed early");
+		}
+	}
+}
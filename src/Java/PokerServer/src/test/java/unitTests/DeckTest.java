@@ -0,0 +1,99 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import pokerServer.Card;
+import pokerServer.Deck;
+
+/**
+ * Unit tests for the Deck class
+ * @author bgreen
+ *
+ */
+public class DeckTest {
+
+	/**
+	 * Tests that a deck deals each of the 52 cards exactly once
+	 */
+	@Test
+	public void dealsEveryCardOnce() {
+		Deck oot = new Deck(new Random(42));
+		boolean[] seen = new boolean[Card.DECK_SIZE];
+
+		for (int i = 0; i < Card.DECK_SIZE; i++) {
+			int index = oot.dealIndex();
+			assertFalse("Card dealt twice: " + index, seen[index]);
+			seen[index] = true;
+		}
+
+		assertEquals(0, oot.remaining());
+	}
+
+	/**
+	 * Tests that dealing from an empty deck is refused
+	 */
+	@Test(expected=IllegalStateException.class)
+	public void emptyDeckCannotDeal() {
+		Deck oot = new Deck(new Random(42));
+		for (int i = 0; i <= Card.DECK_SIZE; i++) {
+			oot.deal();
+		}
+	}
+
+	/**
+	 * Tests that shuffling returns every card to the deck
+	 */
+	@Test
+	public void shuffleRestoresDeck() {
+		Deck oot = new Deck(new Random(42));
+		oot.deal();
+		oot.deal();
+		assertEquals(50, oot.remaining());
+
+		oot.shuffle();
+		assertEquals(Card.DECK_SIZE, oot.remaining());
+	}
+
+	/**
+	 * Tests that the same card is always handed out as the same object
+	 */
+	@Test
+	public void cardsAreShared() {
+		Deck oot = new Deck(new Random(42));
+		Card[] first = new Card[Card.DECK_SIZE];
+		for (int i = 0; i < Card.DECK_SIZE; i++) {
+			Card card = oot.deal();
+			first[card.getIndex()] = card;
+		}
+
+		oot.shuffle();
+		for (int i = 0; i < Card.DECK_SIZE; i++) {
+			Card card = oot.deal();
+			assertSame(first[card.getIndex()], card);
+		}
+	}
+
+	/**
+	 * Tests that the first card dealt is spread over the whole deck
+	 */
+	@Test
+	public void shuffleIsSpread() {
+		Deck oot = new Deck(new Random(42));
+		int[] counts = new int[Card.DECK_SIZE];
+		int hands = Card.DECK_SIZE * 200;
+
+		for (int i = 0; i < hands; i++) {
+			oot.shuffle();
+			counts[oot.dealIndex()]++;
+		}
+
+		for (int count : counts) {
+			assertTrue("Card dealt first too rarely: " + count, count > 100);
+			assertTrue("Card dealt first too often: " + count, count < 300);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.EquityCalculator;
+import pokerServer.EquityCalculator.Equity;
+
+/**
+ * Unit tests for the equity calculator
+ * @author bgreen
+ *
+ */
+public class EquityCalculatorTest {
+
+	/**
+	 * Tests a well-known preflop matchup. Aces against kings of the other two suits wins 81.1% of the time, and loses 18.6%.
+	 */
+	@Test
+	public void acesBeatKingsPreflop() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "K"), Card.of(Suit.CLUBS, "K")));
+
+		Equity[] equities = new EquityCalculator().calculate(hands, new ArrayList<Card>());
+
+		assertEquals(0.811, equities[0].getWin(), 0.01);
+		assertEquals(0.186, equities[1].getWin(), 0.01);
+		assertEquals(equities[0].getTie(), equities[1].getTie(), 0.0001);
+		assertEquals(1.0, equities[0].getShare() + equities[1].getShare(), 0.0001);
+		assertEquals(EquityCalculator.DEFAULT_TRIALS, equities[0].getTrials());
+	}
+
+	/**
+	 * Tests that once all the table cards are out, the result is exact
+	 */
+	@Test
+	public void riverIsExact() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "K"), Card.of(Suit.CLUBS, "K")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "2"), Card.of(Suit.CLUBS, "7")));
+
+		ArrayList<Card> table = hand(Card.of(Suit.HEARTS, "K"), Card.of(Suit.SPADES, "9"),
+				Card.of(Suit.CLUBS, "4"), Card.of(Suit.HEARTS, "3"), Card.of(Suit.DIAMONDS, "J"));
+
+		Equity[] equities = new EquityCalculator().calculate(hands, table);
+
+		assertEquals(0.0, equities[0].getWin(), 0);
+		assertEquals(1.0, equities[1].getWin(), 0);
+		assertEquals(1.0, equities[2].getLose(), 0);
+		assertEquals(1, equities[1].getTrials());
+	}
+
+	/**
+	 * Tests that a board that plays for everyone is a certain tie
+	 */
+	@Test
+	public void boardPlaysIsATie() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "2"), Card.of(Suit.SPADES, "3")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "2"), Card.of(Suit.CLUBS, "3")));
+
+		ArrayList<Card> table = hand(Card.of(Suit.HEARTS, "10"), Card.of(Suit.SPADES, "J"),
+				Card.of(Suit.CLUBS, "Q"), Card.of(Suit.HEARTS, "K"), Card.of(Suit.DIAMONDS, "A"));
+
+		Equity[] equities = new EquityCalculator().calculate(hands, table);
+
+		assertEquals(1.0, equities[0].getTie(), 0);
+		assertEquals(0.5, equities[0].getShare(), 0);
+	}
+
+	/**
+	 * Tests that unknown hole cards are dealt at random
+	 */
+	@Test
+	public void unknownHandsAreDealt() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(new ArrayList<Card>());
+		hands.add(new ArrayList<Card>());
+
+		Equity[] equities = new EquityCalculator(20000).calculate(hands, new ArrayList<Card>());
+
+		assertEquals(equities[0].getShare(), equities[1].getShare(), 0.03);
+		assertEquals(20000, equities[0].getTrials());
+	}
+
+	/**
+	 * Tests that the time budget stops the calculation early
+	 */
+	@Test
+	public void timeBudgetIsRespected() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "K"), Card.of(Suit.CLUBS, "K")));
+
+		Equity[] equities = new EquityCalculator(Integer.MAX_VALUE, 20).calculate(hands, new ArrayList<Card>());
+
+		assertTrue(equities[0].getTrials() > 0);
+		assertTrue(equities[0].getTrials() < Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Tests that the same card cannot be in two places at once
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void duplicateCardsRejected() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.CLUBS, "K")));
+
+		new EquityCalculator().calculate(hands, new ArrayList<Card>());
+	}
+
+	/**
+	 * Tests that enumerating every board gives the exact answer. There are 1,712,304 boards for aces against kings.
+	 */
+	@Test
+	public void exactPreflopMatchesKnownResult() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "K"), Card.of(Suit.CLUBS, "K")));
+
+		Equity[] equities = new EquityCalculator().calculateExact(hands, new ArrayList<Card>());
+
+		assertEquals(1712304, equities[0].getTrials());
+		assertEquals(1388072, Math.round(equities[0].getWin() * 1712304));
+		assertEquals(317694, Math.round(equities[1].getWin() * 1712304));
+		assertEquals(6538, Math.round(equities[0].getTie() * 1712304));
+	}
+
+	/**
+	 * Tests that on the flop every remaining board is scored rather than sampled
+	 */
+	@Test
+	public void flopIsEnumerated() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(hand(Card.of(Suit.DIAMONDS, "K"), Card.of(Suit.CLUBS, "K")));
+
+		ArrayList<Card> table = hand(Card.of(Suit.HEARTS, "K"), Card.of(Suit.SPADES, "9"), Card.of(Suit.CLUBS, "4"));
+
+		Equity[] equities = new EquityCalculator().calculate(hands, table);
+
+		//45 cards left, so 990 ways to finish the board. Aces win 85 of them.
+		assertEquals(990, equities[0].getTrials());
+		assertEquals(85, Math.round(equities[0].getWin() * 990));
+	}
+
+	/**
+	 * Tests that exact equity cannot be calculated with unknown hole cards
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void exactNeedsKnownHands() {
+		ArrayList<ArrayList<Card>> hands = new ArrayList<ArrayList<Card>>();
+		hands.add(hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A")));
+		hands.add(new ArrayList<Card>());
+
+		new EquityCalculator().calculateExact(hands, new ArrayList<Card>());
+	}
+
+	private ArrayList<Card> hand(Card... cards) {
+		ArrayList<Card> hand = new ArrayList<Card>();
+		for (Card card : cards) {
+			hand.add(card);
+		}
+		return hand;
+	}
+}
@@ -0,0 +1,192 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pokerServer.GameScheduler;
+import pokerServer.GameScheduler.Placement;
+
+/**
+ * Unit tests for sharing tables out between event loops
+ * @author bgreen
+ *
+ */
+public class GameSchedulerTest {
+
+	private GameScheduler scheduler;
+
+	/**
+	 * Stop the loops
+	 */
+	@After
+	public void tearDown() {
+		if (scheduler != null) scheduler.shutdown();
+	}
+
+	/**
+	 * Tests that games are pinned to loops by ID, and run on their loop's thread
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void gamesArePinnedById() throws Exception {
+		scheduler = new GameScheduler(3);
+		scheduler.start();
+		Placement first = scheduler.place(1);
+		Placement same = scheduler.place(4);
+		Placement other = scheduler.place(2);
+		assertEquals(1, first.getLoopIndex());
+		assertEquals(1, same.getLoopIndex());
+		assertEquals(2, other.getLoopIndex());
+
+		assertSame(threadOf(first), threadOf(same));
+		assertNotSame(threadOf(first), threadOf(other));
+		assertNotSame(Thread.currentThread(), threadOf(first));
+	}
+
+	/**
+	 * Tests that with no loops, games run on whichever thread posts to them
+	 * @throws Exception If the test fails
+	 */
+	@Test
+	public void noLoopsRunsOnCaller() throws Exception {
+		scheduler = new GameScheduler(0);
+		Placement placement = scheduler.place(7);
+		assertEquals(-1, placement.getLoopIndex());
+		assertSame(Thread.currentThread(), threadOf(placement));
+		placement.handStarting();
+		try {
+			placement.schedule(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}, 1, TimeUnit.MILLISECONDS);
+			fail("Timers need a loop");
+		} catch (UnsupportedOperationException e) {
+			//Expected
+		}
+	}
+
+	/**
+	 * Tests that timers run on the game's loop, in the order they fall due
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void timersRunInDeadlineOrder() throws Exception {
+		scheduler = new GameScheduler(1);
+		scheduler.start();
+		Placement placement = scheduler.place(0);
+		final Thread loopThread = threadOf(placement);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final CountDownLatch done = new CountDownLatch(3);
+
+		for (final int delay : new int[] {90, 30, 60}) {
+			placement.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (Thread.currentThread() == loopThread) order.add(delay);
+					done.countDown();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals(3, order.size());
+		assertEquals(30, order.get(0).intValue());
+		assertEquals(60, order.get(1).intValue());
+		assertEquals(90, order.get(2).intValue());
+	}
+
+	/**
+	 * Tests that when two busy tables share a loop and another loop is idle, one of them moves at its next hand,
+	 * and only one
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=10000)
+	public void busyTableMovesAtHandBoundary() throws Exception {
+		scheduler = new GameScheduler(2, 100);
+		scheduler.start();
+		long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(350);
+		CountDownLatch done = new CountDownLatch(2);
+		Spinner first = new Spinner(scheduler.place(2), until, done);
+		Spinner second = new Spinner(scheduler.place(4), until, done);
+		first.start();
+		second.start();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, first.loopAfter + second.loopAfter);
+	}
+
+	/**
+	 * Tests that a busy table alone on its loop stays put, since moving it would only move the hot spot
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=10000)
+	public void loneBusyTableStays() throws Exception {
+		scheduler = new GameScheduler(2, 100);
+		scheduler.start();
+		CountDownLatch done = new CountDownLatch(1);
+		Spinner spinner = new Spinner(scheduler.place(2), System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(350), done);
+		spinner.start();
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(0, spinner.loopAfter);
+	}
+
+	private Thread threadOf(Placement placement) throws InterruptedException {
+		final Thread[] thread = new Thread[1];
+		final CountDownLatch ran = new CountDownLatch(1);
+		placement.execute(new Runnable() {
+			@Override
+			public void run() {
+				thread[0] = Thread.currentThread();
+				ran.countDown();
+			}
+		});
+		assertTrue(ran.await(2, TimeUnit.SECONDS));
+		return thread[0];
+	}
+
+	/**
+	 * A table that keeps its loop busy with short bursts of work until a set time, then starts a hand
+	 */
+	private static class Spinner implements Runnable {
+		private final Placement placement;
+		private final long until;
+		private final CountDownLatch done;
+		private volatile int loopAfter = -2;
+
+		Spinner(Placement placement, long until, CountDownLatch done) {
+			this.placement = placement;
+			this.until = until;
+			this.done = done;
+		}
+
+		void start() {
+			placement.execute(this);
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			if (now < until) {
+				long burst = now + TimeUnit.MILLISECONDS.toNanos(5);
+				while (System.nanoTime() < burst) {
+					//Busy
+				}
+				placement.execute(this);
+				return;
+			}
+			placement.handStarting();
+			loopAfter = placement.getLoopIndex();
+			done.countDown();
+		}
+	}
+}
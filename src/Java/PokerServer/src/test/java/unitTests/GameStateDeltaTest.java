@@ -0,0 +1,128 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import pokerServer.BetMessage;
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.GameStateDelta;
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+
+/**
+ * Unit tests for game state deltas
+ * @author bgreen
+ *
+ */
+public class GameStateDeltaTest {
+
+	/**
+	 * Verifies that a bet only sends the pot, the next actor, the action and the better's chips
+	 */
+	@Test
+	public void betSendsOnlyWhatChanged() {
+		GameStateMessage before = createState(4, 0, "PlayerA", 100, 100, null);
+		BetMessage bet = new BetMessage(20, false, null);
+		GameStateMessage after = createState(5, 20, "PlayerB", 80, 100, bet);
+
+		GameStateDelta delta = GameStateDelta.between(before, after);
+
+		assertEquals(5, delta.getSequence());
+		assertEquals(Integer.valueOf(20), delta.getPot());
+		assertEquals("PlayerB", delta.getActor());
+		assertTrue(delta.getNewTableCards().isEmpty());
+		assertSame(bet, delta.getLastAction());
+		assertEquals(1, delta.getChips().size());
+		assertEquals(1, delta.getChips().get(0).getPosition());
+		assertEquals(80, delta.getChips().get(0).getChips());
+	}
+
+	/**
+	 * Verifies that applying a delta gives the state it was made from
+	 */
+	@Test
+	public void applyingDeltaRebuildsState() {
+		GameStateMessage before = createState(4, 0, "PlayerA", 100, 100, null);
+		List<Card> flop = new ArrayList<Card>();
+		flop.add(Card.of(Suit.HEARTS, "2"));
+		flop.add(Card.of(Suit.HEARTS, "3"));
+		flop.add(Card.of(Suit.HEARTS, "4"));
+		List<Seat> seats = new ArrayList<Seat>(before.getSeats());
+		seats.set(1, new Seat(2, "PlayerB", "", 60));
+		GameStateMessage after = new GameStateMessage(5, 40, "PlayerA", "PlayerA", flop, null, seats, null);
+
+		GameStateDelta delta = GameStateDelta.between(before, after);
+		assertEquals(3, delta.getNewTableCards().size());
+		assertNull(delta.getLastAction());
+
+		GameStateMessage rebuilt = delta.applyTo(before);
+		assertEquals(5, rebuilt.getSequence());
+		assertEquals(40, rebuilt.getPot());
+		assertEquals(flop, rebuilt.getTableCards());
+		assertEquals(60, rebuilt.getSeats().get(1).getChips());
+		assertEquals(100, rebuilt.getSeats().get(0).getChips());
+	}
+
+	/**
+	 * Verifies that a player's own copy keeps their private state until a delta brings a new one
+	 */
+	@Test
+	public void privateStateCarriesOver() {
+		PrivateState me = new PrivateState(1, new ArrayList<Card>(), 100, null);
+		GameStateMessage before = createState(4, 0, "PlayerA", 100, 100, null).withPrivateState(me);
+		GameStateDelta delta = new GameStateDelta(5, 10, "PlayerB", new ArrayList<Card>(), null,
+				new ArrayList<ChipCount>(), null);
+
+		GameStateMessage after = delta.applyTo(before);
+		assertSame(me, after.getPrivateState());
+		assertEquals(1, after.getSeats().size());
+
+		PrivateState changed = new PrivateState(1, new ArrayList<Card>(), 90, null);
+		assertSame(changed, delta.withPrivateState(changed).applyTo(before).getPrivateState());
+	}
+
+	/**
+	 * Verifies that changes a delta cannot describe need a snapshot
+	 */
+	@Test
+	public void bigChangesNeedSnapshot() {
+		GameStateMessage before = createState(4, 0, "PlayerA", 100, 100, null);
+
+		//A gap in the numbering
+		assertNull(GameStateDelta.between(before, createState(6, 0, "PlayerA", 100, 100, null)));
+
+		//Somebody leaves
+		List<Seat> seats = new ArrayList<Seat>(before.getSeats());
+		seats.remove(1);
+		assertNull(GameStateDelta.between(before,
+				new GameStateMessage(5, 0, "PlayerA", "PlayerA", new ArrayList<Card>(), null, seats, null)));
+
+		//A new dealer
+		assertNull(GameStateDelta.between(before,
+				new GameStateMessage(5, 0, "PlayerB", "PlayerA", new ArrayList<Card>(), null, before.getSeats(), null)));
+	}
+
+	/**
+	 * Verifies that a delta cannot be applied to the wrong state
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void missedUpdateDetected() {
+		GameStateDelta delta = new GameStateDelta(7, null, "PlayerA", new ArrayList<Card>(), null,
+				new ArrayList<ChipCount>(), null);
+		delta.applyTo(createState(5, 0, "PlayerA", 100, 100, null));
+	}
+
+	private GameStateMessage createState(int sequence, int pot, String actor, int chipsA, int chipsB, BetMessage lastAction) {
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(1, "PlayerA", "", chipsA));
+		seats.add(new Seat(2, "PlayerB", "", chipsB));
+		return new GameStateMessage(sequence, pot, "PlayerA", actor, new ArrayList<Card>(), lastAction, seats, null);
+	}
+}
@@ -0,0 +1,131 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.StateMessage;
+import pokerServer.StateMessage.StateType;
+
+/**
+ * Unit tests for typed game state messages
+ * @author bgreen
+ *
+ */
+public class GameStateMessageTest {
+
+	/**
+	 * Verifies that the shared state is not complete until a player's own state is added
+	 */
+	@Test
+	public void sharedStateIsIncomplete() {
+		GameStateMessage shared = createTwoPlayerState();
+		assertFalse(shared.isValid());
+		assertNull(shared.getPrivateState());
+	}
+
+	/**
+	 * Verifies that each player's copy leaves their own seat out of the other players, without changing the shared copy
+	 */
+	@Test
+	public void privateCopyLeavesOutOwnSeat() {
+		GameStateMessage shared = createTwoPlayerState();
+		GameStateMessage mine = shared.withPrivateState(new PrivateState(1, new ArrayList<Card>(), 80, null));
+
+		assertTrue(mine.isValid());
+		assertEquals(1, mine.getSeats().size());
+		assertEquals(2, mine.getSeats().get(0).getPosition());
+		assertEquals(2, shared.getSeats().size());
+		assertSame(shared.getTableCards(), mine.getTableCards());
+	}
+
+	/**
+	 * Verifies that the parameter view of a player's copy passes the untyped validation rules
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parameterViewMatchesSpec() {
+		ArrayList<Card> hand = new ArrayList<Card>();
+		hand.add(Card.of(Suit.HEARTS, "A"));
+		hand.add(Card.of(Suit.SPADES, "A"));
+		GameStateMessage mine = createTwoPlayerState().withPrivateState(new PrivateState(1, hand, 80, 0.85));
+
+		StateMessage untyped = new StateMessage(StateType.GAME, null);
+		for (String name : new String[] {"Pot", "Dealer", "Actor", "TableCards", "LastAction", "OtherPlayers", "You"}) {
+			untyped.addParameter(name, mine.getParameter(name));
+		}
+		assertTrue(untyped.isValid());
+
+		HashMap<String, Object> you = (HashMap<String, Object>) mine.getParameter("You");
+		assertEquals(0.85, you.get("Equity"));
+		assertEquals(2, ((List<Card>) you.get("Hand")).size());
+	}
+
+	/**
+	 * Verifies that the turn's four table cards are allowed
+	 */
+	@Test
+	public void fourTableCardsAllowed() {
+		ArrayList<Card> table = new ArrayList<Card>();
+		for (int i = 0; i < 4; i++) {
+			table.add(Card.fromIndex(i));
+		}
+		GameStateMessage oot = new GameStateMessage(0, "PlayerA", "PlayerA", table, null, new ArrayList<Seat>(), null);
+		assertEquals(4, oot.getTableCards().size());
+	}
+
+	/**
+	 * Verifies that an impossible number of table cards is rejected when the message is built
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidTableCardsRejected() {
+		ArrayList<Card> table = new ArrayList<Card>();
+		table.add(Card.fromIndex(0));
+		new GameStateMessage(0, "PlayerA", "PlayerA", table, null, new ArrayList<Seat>(), null);
+	}
+
+	/**
+	 * Verifies that the state cannot be changed through the parameter view
+	 */
+	@Test
+	public void parametersCannotBeChanged() {
+		GameStateMessage oot = createTwoPlayerState();
+		assertFalse(oot.setParameter("Pot", 500));
+		assertFalse(oot.removeParameter("Pot"));
+		assertEquals(30, oot.getParameter("Pot"));
+	}
+
+	/**
+	 * Verifies that private states are only equal if everything in them is, equity included
+	 */
+	@Test
+	public void privateStatesCompareEquity() {
+		ArrayList<Card> hand = new ArrayList<Card>();
+		hand.add(new Card(Suit.HEARTS, "A"));
+		hand.add(new Card(Suit.SPADES, "A"));
+		PrivateState preflop = new PrivateState(1, hand, 80, 0.85);
+		assertEquals(preflop, new PrivateState(1, hand, 80, 0.85));
+		assertEquals(preflop.hashCode(), new PrivateState(1, hand, 80, 0.85).hashCode());
+		assertFalse(preflop.equals(new PrivateState(1, hand, 80, 0.7)));
+		assertFalse(preflop.equals(new PrivateState(1, hand, 80, null)));
+		assertFalse(new PrivateState(1, hand, 80, null).equals(preflop));
+		assertFalse(preflop.equals(new PrivateState(1, hand, 70, 0.85)));
+		assertFalse(preflop.equals(new PrivateState(1, new ArrayList<Card>(), 80, 0.85)));
+	}
+
+	private GameStateMessage createTwoPlayerState() {
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(1, "PlayerA", "", 80));
+		seats.add(new Seat(2, "PlayerB", "", 20));
+		return new GameStateMessage(30, "PlayerA", "PlayerB", new ArrayList<Card>(), null, seats, null);
+	}
+}
@@ -4,6 +4,15 @@
 package unitTests;
 
 import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import mocks.mockClient;
 import mocks.mockPlayer;
 
 import org.junit.After;
@@ -11,12 +20,21 @@ import org.junit.Before;
 import org.junit.Test;
 
 import pokerServer.ActionMessage;
+import pokerServer.BetMessage;
 import pokerServer.Game;
 import pokerServer.Game.GameState;
+import pokerServer.GameStateDelta;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.HandEvaluator;
+import pokerServer.Message;
 import pokerServer.Player;
 import pokerServer.PokerServer;
+import pokerServer.StateDispatcher;
+import pokerServer.StateDispatcher.OverflowPolicy;
 import pokerServer.StateMessage;
 import pokerServer.ActionMessage.Action;
+import pokerServer.interfaces.Client;
 import pokerServer.interfaces.Observer;
 import pokerServer.interfaces.StateObserver;
 
@@ -28,6 +46,9 @@ public class GameTest {
 	
 	int oldMinPlayers;
 	int oldMaxPlayers;
+	int oldActionTimeout;
+	int oldTimeBank;
+	int oldTimeBankChunk;
 
 	/**
 	 * Observer can be added to a game
@@ -44,12 +65,18 @@ public class GameTest {
 	public void setup() {
 		oldMinPlayers = PokerServer.MIN_PLAYERS_PER_GAME;
 		oldMaxPlayers = PokerServer.MAX_PLAYERS_PER_GAME;
+		oldActionTimeout = PokerServer.ACTION_TIMEOUT_MILLIS;
+		oldTimeBank = PokerServer.TIME_BANK_MILLIS;
+		oldTimeBankChunk = PokerServer.TIME_BANK_CHUNK_MILLIS;
 	}
 	
 	@After
 	public void teardown() {
 		PokerServer.MAX_PLAYERS_PER_GAME = oldMaxPlayers;
 		PokerServer.MIN_PLAYERS_PER_GAME = oldMinPlayers;
+		PokerServer.ACTION_TIMEOUT_MILLIS = oldActionTimeout;
+		PokerServer.TIME_BANK_MILLIS = oldTimeBank;
+		PokerServer.TIME_BANK_CHUNK_MILLIS = oldTimeBankChunk;
 	}
 	
 	/**
@@ -176,6 +203,48 @@ public class GameTest {
 		assertEquals(null, oot.getPositionFor(p1));
 	}
 	
+	/**
+	 * A seat left empty is filled by the next player to join, and each player remembers their seat
+	 */
+	@Test
+	public void emptySeatIsRefilled() {
+		Player p1 = new mockPlayer();
+		Player p2 = new mockPlayer();
+		Player p3 = new mockPlayer();
+		Game oot = new Game();
+		
+		oot.addPlayer(p1);
+		oot.addPlayer(p2);
+		assertEquals(1, p2.getSeat(oot));
+		
+		oot.removePlayer(p1);
+		assertEquals(-1, p1.getSeat(oot));
+		assertEquals(null, oot.getPositionFor(p1));
+		
+		oot.addPlayer(p3);
+		assertEquals(new Integer(0), oot.getPositionFor(p3));
+		assertEquals(new Integer(1), oot.getPositionFor(p2));
+	}
+	
+	/**
+	 * A player who sits in a second game can still be found and removed from the first
+	 */
+	@Test
+	public void playerInTwoGamesCanBeRemoved() {
+		Player p = new mockPlayer();
+		Game first = new Game();
+		Game second = new Game();
+		
+		first.addPlayer(new mockPlayer());
+		first.addPlayer(p);
+		second.addPlayer(p);
+		
+		assertEquals(0, p.getSeat(second));
+		assertEquals(new Integer(1), first.getPositionFor(p));
+		assertTrue(first.removePlayer(p));
+		assertEquals(0, p.getSeat(second));
+	}
+	
 	/**
 	 * When enough players have joined, they are each dealt two cards.
 	 */
@@ -401,15 +470,553 @@ public class GameTest {
 		
 	}
 	
+	/**
+	 * Test that each player's best hand is tracked as cards are dealt
+	 */
+	@Test
+	public void handStrengthIsTracked() {
+		Player p1 = new Player("Player1", "user@example.com", new mockClient(), 1000);
+		Player p2 = new Player("Player2", "user@example.com", new mockClient(), 1000);
+		Game oot = new Game(false);
+		
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		
+		//Nobody has cards before the game starts
+		assertEquals(-1, oot.getHandValue(p1));
+		assertNull(oot.getHandCategory(p1));
+		
+		oot.addObserver(p1);
+		oot.addObserver(p2);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		
+		//Without an ante the hands are dealt straight away
+		assertEquals(GameState.PREFLOP, oot.state);
+		assertEquals(HandEvaluator.evaluate(p1.getHand()), oot.getHandValue(p1));
+		assertEquals(HandEvaluator.evaluate(p2.getHand()), oot.getHandValue(p2));
+		assertNotNull(oot.getHandCategory(p1));
+	}
+	
+	/**
+	 * Test that actions are sent as numbered deltas, with snapshots when asked for
+	 */
+	@Test
+	public void actionsSendDeltas() {
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		Game oot = new Game();
+		
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		
+		oot.addObserver(p1);
+		oot.addObserver(p2);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		
+		//A new hand is always a full snapshot
+		GameStateMessage start = (GameStateMessage) p1.lastStateMessage;
+		mockPlayer better = start.getActor().equals("Player1") ? p1 : p2;
+		
+		ActionMessage betMessage = new ActionMessage(Action.BET, null);
+		betMessage.addParameter("Amount", 100);
+		betMessage.addParameter("All-in", false);
+		assertTrue(oot.parseMessage(betMessage, better));
+		
+		GameStateDelta delta = (GameStateDelta) p1.lastStateMessage;
+		assertEquals(start.getSequence() + 1, delta.getSequence());
+		assertEquals(Integer.valueOf(100), delta.getPot());
+		assertEquals(100, delta.applyTo(start).getPot());
+		
+		//Someone who has fallen behind can ask for the whole state
+		RightObserver late = new RightObserver();
+		oot.addObserver(late);
+		GameStateMessage snapshot = (GameStateMessage) late.lastState;
+		assertEquals(delta.getSequence(), snapshot.getSequence());
+		assertEquals(100, snapshot.getPot());
+		
+		late.lastState = null;
+		oot.sendSnapshot(late);
+		assertSame(snapshot, late.lastState);
+	}
+	
+	/**
+	 * Test that a player who runs out of time checks when nobody has bet
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void idlePlayerChecks() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		PokerServer.ACTION_TIMEOUT_MILLIS = 50;
+		PokerServer.TIME_BANK_MILLIS = 0;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		Game oot = new Game();
+		RecordingObserver table = new RecordingObserver();
+		oot.addObserver(table);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		
+		ActionMessage acted = table.nextActionOtherThan(null);
+		assertTrue(acted instanceof BetMessage);
+		assertEquals(0, ((BetMessage) acted).getAmount());
+	}
+	
+	/**
+	 * Test that a player who runs out of time folds when someone has bet
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void idlePlayerFoldsToBet() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		PokerServer.ACTION_TIMEOUT_MILLIS = 300;
+		PokerServer.TIME_BANK_MILLIS = 0;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		mockPlayer p3 = new mockPlayer("Player3");
+		Game oot = new Game();
+		RecordingObserver table = new RecordingObserver();
+		oot.addObserver(table);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		assertTrue(oot.addPlayer(p3));
+		
+		String actor = ((GameStateMessage) table.states.poll(2, TimeUnit.SECONDS)).getActor();
+		mockPlayer better = actor.equals("Player1") ? p1 : actor.equals("Player2") ? p2 : p3;
+		ActionMessage betMessage = new ActionMessage(Action.BET, null);
+		betMessage.addParameter("Amount", 100);
+		betMessage.addParameter("All-in", false);
+		assertTrue(oot.parseMessage(betMessage, better));
+		
+		assertEquals(Action.FOLD, table.nextActionOtherThan(betMessage).action);
+	}
+	
+	/**
+	 * Test that when the player whose turn it is leaves, the turn passes on and the next player is timed
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void actorLeavingPassesTurnOn() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		PokerServer.ACTION_TIMEOUT_MILLIS = 300;
+		PokerServer.TIME_BANK_MILLIS = 0;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		mockPlayer p3 = new mockPlayer("Player3");
+		Game oot = new Game();
+		RecordingObserver table = new RecordingObserver();
+		oot.addObserver(table);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		assertTrue(oot.addPlayer(p3));
+		
+		String actor = ((GameStateMessage) table.states.poll(2, TimeUnit.SECONDS)).getActor();
+		mockPlayer leaver = actor.equals("Player1") ? p1 : actor.equals("Player2") ? p2 : p3;
+		assertTrue(oot.removePlayer(leaver));
+		
+		ActionMessage left = table.nextActionOtherThan(null);
+		assertEquals(Action.FOLD, left.action);
+		ActionMessage timedOut = table.nextActionOtherThan(left);
+		assertTrue(timedOut instanceof BetMessage);
+		assertEquals(0, ((BetMessage) timedOut).getAmount());
+	}
+	
+	/**
+	 * Test that a dealer who runs out of time and then leaves does not stop the hand
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void idleDealerLeavingDoesNotStallHand() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		PokerServer.ACTION_TIMEOUT_MILLIS = 50;
+		PokerServer.TIME_BANK_MILLIS = 0;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		final mockPlayer p3 = new mockPlayer("Player3");
+		final Game oot = new Game(false);
+		RecordingObserver table = new RecordingObserver();
+		oot.addObserver(table);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		assertTrue(oot.addPlayer(p3));
+		
+		GameStateMessage state = table.nextState();
+		assertEquals("Player3", state.getDealer());
+		//The dealer acts first after the flop, and then runs out of time
+		while (!"Player3".equals(state.getActor())) {
+			state = table.nextState();
+		}
+		assertEquals(3, state.getTableCards().size());
+		while ("Player3".equals(state.getActor())) {
+			state = table.nextState();
+		}
+		oot.post(new Runnable() {
+			@Override
+			public void run() {
+				oot.removePlayer(p3);
+			}
+		});
+		
+		//The other two run out of time in turn, and the turn card is dealt
+		while (state.getTableCards().size() < 4) {
+			state = table.nextState();
+		}
+		assertEquals(GameState.TURN, oot.state);
+	}
+	
+	/**
+	 * Test that a player's time bank gives them longer to act, and is used up doing so
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void timeBankExtendsTurn() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		PokerServer.ACTION_TIMEOUT_MILLIS = 50;
+		PokerServer.TIME_BANK_MILLIS = 100;
+		PokerServer.TIME_BANK_CHUNK_MILLIS = 60;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		Game oot = new Game();
+		RecordingObserver table = new RecordingObserver();
+		oot.addObserver(table);
+		long start = System.nanoTime();
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		String actor = ((GameStateMessage) table.states.poll(2, TimeUnit.SECONDS)).getActor();
+		
+		assertNotNull(table.nextActionOtherThan(null));
+		//The turn plus the whole bank
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(150));
+		assertEquals(0, (actor.equals("Player1") ? p1 : p2).getTimeBank());
+	}
+	
+	/**
+	 * Test that the hand carries on to the flop after the dealer leaves during it
+	 */
+	@Test
+	public void dealerLeavingDoesNotStallHand() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		Player p1 = new Player("Player1", "p1@example.com", new mockClient(), 1000);
+		Player p2 = new Player("Player2", "p2@example.com", new mockClient(), 1000);
+		Player p3 = new Player("Player3", "p3@example.com", new mockClient(), 1000);
+		Game oot = new Game(false);
+		RightObserver watcher = new RightObserver();
+		oot.addObserver(watcher);
+		assertTrue(p1.joinGame(oot));
+		assertTrue(p2.joinGame(oot));
+		assertTrue(p3.joinGame(oot));
+		
+		oot.sendSnapshot(watcher);
+		assertEquals("Player3", ((GameStateMessage) watcher.lastState).getDealer());
+		assertTrue(oot.removePlayer(p3));
+		assertEquals(GameState.PREFLOP, oot.state);
+		
+		ActionMessage check = new ActionMessage(Action.BET, null);
+		check.addParameter("Amount", 0);
+		check.addParameter("All-in", false);
+		assertSame(p1, actorOf(oot, watcher, p1, p2));
+		p1.onMessageReceived(check);
+		assertSame(p2, actorOf(oot, watcher, p1, p2));
+		p2.onMessageReceived(check);
+		
+		assertEquals(GameState.FLOP, oot.state);
+		assertSame(p1, actorOf(oot, watcher, p1, p2));
+		oot.sendSnapshot(watcher);
+		assertEquals(3, ((GameStateMessage) watcher.lastState).getTableCards().size());
+	}
+	
+	/**
+	 * Test that the hand is settled when everyone else leaves it
+	 */
+	@Test
+	public void lastPlayerInHandWinsWhenOthersLeave() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		mockPlayer p1 = new mockPlayer("Player1");
+		mockPlayer p2 = new mockPlayer("Player2");
+		Game oot = new Game();
+		oot.addObserver(p1);
+		assertTrue(oot.addPlayer(p1));
+		assertTrue(oot.addPlayer(p2));
+		
+		mockPlayer better = ((GameStateMessage) p1.lastStateMessage).getActor().equals("Player1") ? p1 : p2;
+		ActionMessage betMessage = new ActionMessage(Action.BET, null);
+		betMessage.addParameter("Amount", 40);
+		betMessage.addParameter("All-in", false);
+		assertTrue(oot.parseMessage(betMessage, better));
+		
+		mockPlayer stayer = better == p1 ? p2 : p1;
+		assertTrue(oot.removePlayer(better));
+		assertEquals(140, stayer.getChips().intValue());
+	}
+	
+	/**
+	 * Test that a player can bet every chip they have, and is passed over once they are all in
+	 */
+	@Test
+	public void allInPlayerIsPassedOver() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		Player p1 = new Player("Player1", "p1@example.com", new mockClient(), 1000);
+		Player p2 = new Player("Player2", "p2@example.com", new mockClient(), 1000);
+		Player p3 = new Player("Player3", "p3@example.com", new mockClient(), 1000);
+		Game oot = new Game(false);
+		RightObserver watcher = new RightObserver();
+		oot.addObserver(watcher);
+		assertTrue(p1.joinGame(oot));
+		assertTrue(p2.joinGame(oot));
+		assertTrue(p3.joinGame(oot));
+		
+		Player allIn = actorOf(oot, watcher, p1, p2, p3);
+		assertSame(p1, allIn);
+		ActionMessage shove = new ActionMessage(Action.BET, null);
+		shove.addParameter("Amount", 1000);
+		shove.addParameter("All-in", true);
+		allIn.onMessageReceived(shove);
+		assertEquals(0, allIn.getChips().intValue());
+		oot.sendSnapshot(watcher);
+		assertEquals(1000, ((GameStateMessage) watcher.lastState).getPot());
+		
+		//The other two carry on betting between themselves: the dealer's turn ends each round, and the all-in player
+		//is passed over after it
+		Player[] expected = {p2, p3, p2, p3};
+		GameState[] streets = {GameState.FLOP, GameState.FLOP, GameState.TURN, GameState.TURN};
+		for (int i = 0; i < expected.length; i++) {
+			assertSame(expected[i], actorOf(oot, watcher, p1, p2, p3));
+			ActionMessage check = new ActionMessage(Action.BET, null);
+			check.addParameter("Amount", 0);
+			check.addParameter("All-in", false);
+			expected[i].onMessageReceived(check);
+			assertEquals(streets[i], oot.state);
+		}
+		assertSame(p2, actorOf(oot, watcher, p1, p2, p3));
+	}
+	
+	/**
+	 * Test that a bet is only all-in if it takes every chip, whatever the client says
+	 */
+	@Test
+	public void allInMustTakeEveryChip() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		Player p1 = new Player("Player1", "p1@example.com", new mockClient(), 1000);
+		Player p2 = new Player("Player2", "p2@example.com", new mockClient(), 1000);
+		Player p3 = new Player("Player3", "p3@example.com", new mockClient(), 1000);
+		Game oot = new Game(false);
+		RightObserver watcher = new RightObserver();
+		oot.addObserver(watcher);
+		assertTrue(p1.joinGame(oot));
+		assertTrue(p2.joinGame(oot));
+		assertTrue(p3.joinGame(oot));
+		
+		//Claiming all-in while keeping chips back is refused, and the chips are given back
+		ActionMessage claim = new ActionMessage(Action.BET, null);
+		claim.addParameter("Amount", 1);
+		claim.addParameter("All-in", true);
+		p1.onMessageReceived(claim);
+		assertEquals(1000, p1.getChips().intValue());
+		assertSame(p1, actorOf(oot, watcher, p1, p2, p3));
+		
+		//Betting every chip is all-in without saying so, so the player is passed over from then on
+		ActionMessage everything = new ActionMessage(Action.BET, null);
+		everything.addParameter("Amount", 1000);
+		everything.addParameter("All-in", false);
+		p1.onMessageReceived(everything);
+		assertEquals(0, p1.getChips().intValue());
+		ActionMessage check = new ActionMessage(Action.BET, null);
+		check.addParameter("Amount", 0);
+		check.addParameter("All-in", false);
+		p2.onMessageReceived(check);
+		assertEquals(GameState.FLOP, oot.state);
+		p3.onMessageReceived(check);
+		assertSame(p2, actorOf(oot, watcher, p1, p2, p3));
+	}
+	
+	private Player actorOf(Game game, RightObserver watcher, Player... players) {
+		game.sendSnapshot(watcher);
+		String actor = ((GameStateMessage) watcher.lastState).getActor();
+		for (Player player : players) {
+			if (player.getUsername().equals(actor)) return player;
+		}
+		fail("Nobody is acting");
+		return null;
+	}
+	
+	/**
+	 * Test that each seated player is sent their own hand and chips in place of their seat, and watchers are not
+	 */
+	@Test
+	public void seatedPlayersAreSentTheirOwnState() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		mockClient client = new mockClient();
+		Player p1 = new Player("Player1", "p1@example.com", client, 1000);
+		Player p2 = new Player("Player2", "p2@example.com", new mockClient(), 1000);
+		Game oot = new Game(false);
+		RightObserver watcher = new RightObserver();
+		oot.addObserver(watcher);
+		assertTrue(p1.joinGame(oot));
+		assertTrue(p2.joinGame(oot));
+		
+		oot.sendSnapshot(p1);
+		GameStateMessage sent = (GameStateMessage) client.lastMessageSent;
+		PrivateState mine = sent.getPrivateState();
+		assertEquals(oot.getPositionFor(p1).intValue(), mine.getPosition());
+		assertEquals(2, mine.getHand().size());
+		assertEquals(p1.getHand(), mine.getHand());
+		assertEquals(p1.getChips().intValue(), mine.getChips());
+		assertEquals(1, sent.getSeats().size());
+		
+		oot.sendSnapshot(watcher);
+		assertNull(((GameStateMessage) watcher.lastState).getPrivateState());
+		assertEquals(2, ((GameStateMessage) watcher.lastState).getSeats().size());
+	}
+	
+	/**
+	 * Test that deltas only repeat a player's own state when it has changed
+	 */
+	@Test
+	public void deltasOnlyRepeatChangedPrivateState() {
+		PokerServer.MIN_PLAYERS_PER_GAME = 3;
+		mockClient client1 = new mockClient();
+		mockClient client2 = new mockClient();
+		mockClient client3 = new mockClient();
+		Player p1 = new Player("Player1", "p1@example.com", client1, 1000);
+		Player p2 = new Player("Player2", "p2@example.com", client2, 1000);
+		Player p3 = new Player("Player3", "p3@example.com", client3, 1000);
+		Game oot = new Game();
+		assertTrue(p1.joinGame(oot));
+		assertTrue(p2.joinGame(oot));
+		assertTrue(p3.joinGame(oot));
+		
+		oot.sendSnapshot(p1);
+		String actor = ((GameStateMessage) client1.lastMessageSent).getActor();
+		Player better = actor.equals("Player1") ? p1 : actor.equals("Player2") ? p2 : p3;
+		mockClient betterClient = better == p1 ? client1 : better == p2 ? client2 : client3;
+		mockClient otherClient = better == p1 ? client2 : client1;
+		
+		ActionMessage betMessage = new ActionMessage(Action.BET, null);
+		betMessage.addParameter("Amount", 10);
+		betMessage.addParameter("All-in", false);
+		better.onMessageReceived(betMessage);
+		
+		GameStateDelta toBetter = (GameStateDelta) betterClient.lastMessageSent;
+		assertEquals(990, toBetter.getPrivateState().getChips());
+		assertNull(((GameStateDelta) otherClient.lastMessageSent).getPrivateState());
+	}
+	
+	/**
+	 * Test that a player moving to another table gets the new table's state, even while updates from the old one are
+	 * still waiting to be delivered
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void playerMovingTablesGetsNewState() throws Exception {
+		PokerServer.MIN_PLAYERS_PER_GAME = 2;
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			StateDispatcher dispatcher = new StateDispatcher(workers, 8, OverflowPolicy.COALESCE);
+			Game first = new Game(true, null, dispatcher);
+			Game second = new Game(true, null, dispatcher);
+			assertTrue(second.addPlayer(new mockPlayer("Seated1")));
+			assertTrue(second.addPlayer(new mockPlayer("Seated2")));
+			
+			//Keep every worker busy, so nothing is delivered until the move is over
+			for (int i = 0; i < 2; i++) {
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				});
+			}
+			
+			RecordingClient client = new RecordingClient();
+			Player mover = new Player("Mover", "mover@example.com", client, 1000);
+			assertTrue(mover.joinGame(first));
+			assertTrue(mover.joinGame(second));
+			assertNull(first.getPositionFor(mover));
+			release.countDown();
+			
+			Message sent = client.messages.poll(2, TimeUnit.SECONDS);
+			assertNotNull("The new table's state was thrown away", sent);
+			assertTrue(sent instanceof GameStateMessage);
+		} finally {
+			release.countDown();
+			workers.shutdown();
+		}
+	}
+	
 	private class WrongObserver implements Observer {
 		
 	}
 	
 	private class RightObserver implements StateObserver {
+		
+		StateMessage lastState;
 
 		@Override
 		public void onStateChanged(StateMessage newState) {
+			lastState = newState;
+		}
+	}
+	
+	/**
+	 * Keeps every message sent to it, from any thread
+	 */
+	private class RecordingClient implements Client {
+		
+		final BlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+
+		@Override
+		public void receiveMessage() {
+		}
+
+		@Override
+		public void sendMessage(Message message) {
+			messages.add(message);
+		}
+	}
+	
+	/**
+	 * Keeps every state it is sent, which may be from the turn timer's thread
+	 */
+	private class RecordingObserver implements StateObserver {
+		
+		final BlockingQueue<StateMessage> states = new LinkedBlockingQueue<StateMessage>();
+		GameStateMessage current;
+
+		@Override
+		public void onStateChanged(StateMessage newState) {
+			states.add(newState);
+		}
+		
+		/**
+		 * Wait for the next state, applying it to the last one if it is a delta
+		 * @return The whole state
+		 * @throws InterruptedException If interrupted while waiting
+		 */
+		GameStateMessage nextState() throws InterruptedException {
+			StateMessage state = states.poll(2, TimeUnit.SECONDS);
+			assertNotNull("Nothing was sent", state);
+			current = state instanceof GameStateDelta ? ((GameStateDelta) state).applyTo(current) : (GameStateMessage) state;
+			return current;
+		}
 		
+		/**
+		 * Wait for a state showing someone acting
+		 * @param ignored An action already seen, to wait past
+		 * @return The action
+		 * @throws InterruptedException If interrupted while waiting
+		 */
+		ActionMessage nextActionOtherThan(ActionMessage ignored) throws InterruptedException {
+			while (true) {
+				StateMessage state = states.poll(2, TimeUnit.SECONDS);
+				assertNotNull("Nobody acted", state);
+				ActionMessage action = state instanceof GameStateDelta ? ((GameStateDelta) state).getLastAction()
+						: ((GameStateMessage) state).getLastAction();
+				if (action != null && action != ignored) return action;
+			}
 		}
 	}
 }
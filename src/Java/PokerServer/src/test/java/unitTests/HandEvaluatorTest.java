@@ -0,0 +1,131 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.HandEvaluator;
+import pokerServer.HandEvaluator.HandCategory;
+
+/**
+ * Unit tests for the hand evaluator
+ * @author bgreen
+ *
+ */
+public class HandEvaluatorTest {
+
+	/**
+	 * Tests that each category of hand is recognised
+	 */
+	@Test
+	public void categoriesAreRecognised() {
+		assertEquals(HandCategory.HIGH_CARD, category("2H", "5C", "9D", "JS", "KH", "3C", "7D"));
+		assertEquals(HandCategory.PAIR, category("2H", "2C", "9D", "JS", "KH", "3C", "7D"));
+		assertEquals(HandCategory.TWO_PAIR, category("2H", "2C", "9D", "9S", "KH", "3C", "7D"));
+		assertEquals(HandCategory.THREE_OF_A_KIND, category("2H", "2C", "2D", "9S", "KH", "3C", "7D"));
+		assertEquals(HandCategory.STRAIGHT, category("4H", "5C", "6D", "7S", "8H", "KC", "KD"));
+		assertEquals(HandCategory.FLUSH, category("2H", "5H", "9H", "JH", "KH", "3C", "7D"));
+		assertEquals(HandCategory.FULL_HOUSE, category("2H", "2C", "2D", "9S", "9H", "3C", "7D"));
+		assertEquals(HandCategory.FOUR_OF_A_KIND, category("2H", "2C", "2D", "2S", "9H", "3C", "7D"));
+		assertEquals(HandCategory.STRAIGHT_FLUSH, category("4H", "5H", "6H", "7H", "8H", "KC", "KD"));
+	}
+
+	/**
+	 * Tests that the ace can play low in a straight, and that the wheel is the lowest straight
+	 */
+	@Test
+	public void wheelIsLowestStraight() {
+		int wheel = value("AH", "2C", "3D", "4S", "5H", "KC", "9D");
+		int sixHigh = value("6H", "2C", "3D", "4S", "5H", "KC", "9D");
+
+		assertEquals(HandCategory.STRAIGHT, HandEvaluator.categoryOf(wheel));
+		assertTrue(sixHigh > wheel);
+	}
+
+	/**
+	 * Tests that a better category always beats a worse one
+	 */
+	@Test
+	public void categoriesAreOrdered() {
+		int highCard = value("AH", "KC", "QD", "JS", "9H", "3C", "7D");
+		int pair = value("2H", "2C", "3D", "4S", "6H", "8C", "9D");
+		int flush = value("2H", "3H", "4H", "5H", "7H");
+		int fullHouse = value("2H", "2C", "2D", "3S", "3H");
+
+		assertTrue(pair > highCard);
+		assertTrue(flush > pair);
+		assertTrue(fullHouse > flush);
+	}
+
+	/**
+	 * Tests that kickers decide between hands of the same category, and that unused cards do not
+	 */
+	@Test
+	public void kickersBreakTies() {
+		int acesWithKing = value("AH", "AC", "KD", "8S", "6H", "3C", "2D");
+		int acesWithQueen = value("AS", "AD", "QD", "8C", "6C", "3S", "2H");
+		int acesWithKingOtherSuits = value("AS", "AD", "KC", "8C", "6C", "4S", "2H");
+
+		assertTrue(acesWithKing > acesWithQueen);
+		assertEquals(acesWithKing, acesWithKingOtherSuits);
+	}
+
+	/**
+	 * Tests that the best full house is chosen when two sets of trips are available
+	 */
+	@Test
+	public void bestFullHouseIsChosen() {
+		int threesOverTwos = value("3H", "3C", "3D", "2S", "2H", "2C", "7D");
+		int threesOverSevens = value("3H", "3C", "3D", "7S", "7H", "2C", "KD");
+
+		assertEquals(HandCategory.FULL_HOUSE, HandEvaluator.categoryOf(threesOverTwos));
+		assertTrue(threesOverSevens > threesOverTwos);
+	}
+
+	/**
+	 * Tests that the hole cards and table cards are scored together
+	 */
+	@Test
+	public void handAndTableAreCombined() {
+		ArrayList<Card> hand = cards("AH", "AC");
+		ArrayList<Card> table = cards("AD", "KS", "KH", "2C", "7D");
+
+		assertEquals(HandCategory.FULL_HOUSE, HandEvaluator.categoryOf(HandEvaluator.evaluate(hand, table)));
+	}
+
+	private HandCategory category(String... cards) {
+		return HandEvaluator.categoryOf(value(cards));
+	}
+
+	private int value(String... cards) {
+		return HandEvaluator.evaluate(cards(cards));
+	}
+
+	private ArrayList<Card> cards(String... cards) {
+		ArrayList<Card> list = new ArrayList<Card>();
+		for (String card : cards) {
+			String value = card.substring(0, card.length() - 1);
+			Suit suit;
+			switch (card.charAt(card.length() - 1)) {
+			case 'H':
+				suit = Suit.HEARTS;
+				break;
+			case 'C':
+				suit = Suit.CLUBS;
+				break;
+			case 'D':
+				suit = Suit.DIAMONDS;
+				break;
+			default:
+				suit = Suit.SPADES;
+				break;
+			}
+			list.add(new Card(suit, value));
+		}
+		return list;
+	}
+}
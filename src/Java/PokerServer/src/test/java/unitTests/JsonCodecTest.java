@@ -0,0 +1,267 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.BetMessage;
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.FoldMessage;
+import pokerServer.GameStateDelta;
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.JoinMessage;
+import pokerServer.JsonCodec;
+import pokerServer.LobbyStateDelta;
+import pokerServer.LobbyStateMessage;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.Message;
+import pokerServer.QuitMessage;
+
+/**
+ * Unit tests for the JSON message format
+ * @author bgreen
+ *
+ */
+public class JsonCodecTest {
+
+	private JsonCodec codec;
+	private ByteBuffer buffer;
+
+	/**
+	 * Set up a codec
+	 */
+	@Before
+	public void setUp() {
+		codec = new JsonCodec();
+		buffer = ByteBuffer.allocate(2048);
+	}
+
+	/**
+	 * Tests that a bet is read
+	 */
+	@Test
+	public void betIsDecoded() {
+		BetMessage bet = (BetMessage) decode("{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":150,\"All-in\":true}}");
+		assertEquals(150, bet.getAmount());
+		assertTrue(bet.isAllIn());
+	}
+
+	/**
+	 * Tests that parameters can come first, and that the token and whitespace are ignored
+	 */
+	@Test
+	public void orderAndTokenIgnored() {
+		JoinMessage join = (JoinMessage) decode(" {\"Parameters\" : {\"GameID\": 12}, \"Token\": {\"id\": [1, 2.5e3, null]},"
+				+ "\n\"Action\": \"Join\"} ");
+		assertEquals(12, join.getGameID());
+	}
+
+	/**
+	 * Tests the other actions
+	 */
+	@Test
+	public void otherActionsAreDecoded() {
+		assertTrue(((FoldMessage) decode("{\"Action\":\"Fold\",\"Parameters\":{\"Quit\":true}}")).isQuit());
+		assertTrue(decode("{\"Action\":\"Quit\",\"Parameters\":{}}") instanceof QuitMessage);
+		assertTrue(decode("{\"Action\":\"Quit\"}") instanceof QuitMessage);
+	}
+
+	/**
+	 * Tests that actions survive the trip
+	 */
+	@Test
+	public void actionsRoundTrip() {
+		codec.encode(new BetMessage(20, false, null), buffer);
+		assertEquals("{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":20,\"All-in\":false}}", written());
+
+		buffer.flip();
+		assertEquals(20, ((BetMessage) codec.decode(buffer, null)).getAmount());
+	}
+
+	/**
+	 * Tests that messages that do not follow the spec are rejected
+	 */
+	@Test
+	public void invalidActionsRejected() {
+		String[] invalid = {
+				"",
+				"[]",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":150}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":-1,\"All-in\":false}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":1.5,\"All-in\":false}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":\"150\",\"All-in\":false}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":99999999999,\"All-in\":false}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":1073741824,\"All-in\":false}}",
+				"{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":1,\"Amount\":2,\"All-in\":false}}",
+				"{\"Action\":\"Fold\",\"Parameters\":{\"Quit\":true,\"Extra\":1}}",
+				"{\"Action\":\"Join\",\"Parameters\":{\"Quit\":true}}",
+				"{\"Action\":\"Dance\",\"Parameters\":{}}",
+				"{\"Parameters\":{}}",
+				"{\"Action\":\"Quit\"} trailing",
+				"{\"Action\":\"Quit\",}",
+				"{\"Action\":\"Quit\"",
+		};
+		for (String json : invalid) {
+			try {
+				decode(json);
+				fail("Accepted " + json);
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+	}
+
+	/**
+	 * Tests that a player's game state is written as the spec says
+	 */
+	@Test
+	public void gameStateIsEncoded() {
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(2, "Player \"B\"", "", 250));
+		ArrayList<Card> table = new ArrayList<Card>();
+		table.add(Card.of(Suit.CLUBS, "10"));
+		table.add(Card.of(Suit.DIAMONDS, "7"));
+		table.add(Card.of(Suit.HEARTS, "J"));
+		ArrayList<Card> hand = new ArrayList<Card>();
+		hand.add(Card.of(Suit.SPADES, "A"));
+		hand.add(Card.of(Suit.SPADES, "K"));
+
+		GameStateMessage state = new GameStateMessage(300, null, "Player \"B\"", table, new FoldMessage(false, null), seats, null)
+				.withPrivateState(new PrivateState(1, hand, 900, 0.5));
+		codec.encode(state, buffer);
+
+		assertEquals("{\"Type\":\"Game\",\"State\":{\"Sequence\":0,\"Pot\":300,\"Dealer\":null,\"Actor\":\"Player \\\"B\\\"\","
+				+ "\"TableCards\":[{\"Value\":\"10\",\"Suit\":\"Clubs\"},{\"Value\":\"7\",\"Suit\":\"Diamonds\"},"
+				+ "{\"Value\":\"J\",\"Suit\":\"Hearts\"}],"
+				+ "\"LastAction\":{\"Action\":\"Fold\",\"Parameters\":{\"Quit\":false}},"
+				+ "\"OtherPlayers\":[{\"Position\":2,\"Username\":\"Player \\\"B\\\"\",\"Avatar\":\"\",\"Chips\":250}],"
+				+ "\"You\":{\"Position\":1,\"Hand\":[{\"Value\":\"A\",\"Suit\":\"Spades\"},{\"Value\":\"K\",\"Suit\":\"Spades\"}],"
+				+ "\"Chips\":900,\"Equity\":0.5}}}", written());
+	}
+
+	/**
+	 * Tests that each player's copy of a shared state leaves out their own seat and adds their hand
+	 */
+	@Test
+	public void sharedStateIsPersonalised() {
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(0, "A", "", 10));
+		seats.add(new Seat(3, "B", "", 20));
+		seats.add(new Seat(5, "C", "", 30));
+		GameStateMessage shared = new GameStateMessage(0, "A", "B", new ArrayList<Card>(), null, seats, null);
+		String prefix = "{\"Type\":\"Game\",\"State\":{\"Sequence\":0,\"Pot\":0,\"Dealer\":\"A\",\"Actor\":\"B\",\"TableCards\":[],"
+				+ "\"LastAction\":null,\"OtherPlayers\":[";
+		String seatA = "{\"Position\":0,\"Username\":\"A\",\"Avatar\":\"\",\"Chips\":10}";
+		String seatB = "{\"Position\":3,\"Username\":\"B\",\"Avatar\":\"\",\"Chips\":20}";
+		String seatC = "{\"Position\":5,\"Username\":\"C\",\"Avatar\":\"\",\"Chips\":30}";
+
+		codec.encode(shared.withPrivateState(new PrivateState(0, new ArrayList<Card>(), 10, null)), buffer);
+		assertEquals(prefix + seatB + "," + seatC + "],\"You\":{\"Position\":0,\"Hand\":[],\"Chips\":10}}}", written());
+
+		buffer.clear();
+		codec.encode(shared.withPrivateState(new PrivateState(5, new ArrayList<Card>(), 30, null)), buffer);
+		assertEquals(prefix + seatA + "," + seatB + "],\"You\":{\"Position\":5,\"Hand\":[],\"Chips\":30}}}", written());
+
+		//A different codec, as for another connection, gets the same bytes
+		buffer.clear();
+		new JsonCodec().encode(shared, buffer);
+		assertEquals(prefix + seatA + "," + seatB + "," + seatC + "]}}", written());
+	}
+
+	/**
+	 * Tests that a delta only writes what it carries
+	 */
+	@Test
+	public void deltaIsEncoded() {
+		ArrayList<ChipCount> chips = new ArrayList<ChipCount>();
+		chips.add(new ChipCount(2, 80));
+		codec.encode(new GameStateDelta(12, 20, "A", new ArrayList<Card>(), new BetMessage(20, false, null), chips, null), buffer);
+
+		assertEquals("{\"Type\":\"GameDelta\",\"State\":{\"Sequence\":12,\"Pot\":20,\"Actor\":\"A\","
+				+ "\"LastAction\":{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":20,\"All-in\":false}},"
+				+ "\"Chips\":[{\"Position\":2,\"Chips\":80}]}}", written());
+
+		buffer.clear();
+		ArrayList<Card> turn = new ArrayList<Card>();
+		turn.add(Card.of(Suit.CLUBS, "Q"));
+		codec.encode(new GameStateDelta(13, null, "B", turn, null, new ArrayList<ChipCount>(), null), buffer);
+		assertEquals("{\"Type\":\"GameDelta\",\"State\":{\"Sequence\":13,\"Actor\":\"B\","
+				+ "\"NewTableCards\":[{\"Value\":\"Q\",\"Suit\":\"Clubs\"}]}}", written());
+	}
+
+	/**
+	 * Tests that the lobby is written as the spec says
+	 */
+	@Test
+	public void lobbyStateIsEncoded() {
+		List<Occupant> players = new ArrayList<Occupant>();
+		players.add(new Occupant("Zoë", "a", 100));
+		List<Occupant> watchers = new ArrayList<Occupant>();
+		watchers.add(new Occupant("Watcher", "b", null));
+		List<Listing> games = new ArrayList<Listing>();
+		games.add(new Listing(7, true, players, new ArrayList<Occupant>()));
+		games.add(new Listing(8, false, new ArrayList<Occupant>(), watchers));
+		List<Occupant> occupants = new ArrayList<Occupant>();
+		occupants.add(new Occupant("Idle", "c", 0));
+
+		codec.encode(new LobbyStateMessage(5, games, occupants, null), buffer);
+
+		assertEquals("{\"Type\":\"Lobby\",\"State\":{\"Sequence\":5,\"Games\":[{\"ID\":7,\"Open\":true,"
+				+ "\"Players\":[{\"Username\":\"Zoë\",\"Avatar\":\"a\",\"Chips\":100}]},"
+				+ "{\"ID\":8,\"Open\":false,\"Players\":[],\"Watchers\":[{\"Username\":\"Watcher\",\"Avatar\":\"b\"}]}],"
+				+ "\"LobbyOccupants\":[{\"Username\":\"Idle\",\"Avatar\":\"c\",\"Chips\":0}]}}", written());
+	}
+
+	/**
+	 * Tests that a lobby delta only writes what changed
+	 */
+	@Test
+	public void lobbyDeltaIsEncoded() {
+		List<Integer> closed = new ArrayList<Integer>();
+		closed.add(3);
+		closed.add(4);
+		List<String> departures = new ArrayList<String>();
+		departures.add("Gone");
+
+		codec.encode(new LobbyStateDelta(6, new ArrayList<Listing>(), closed, new ArrayList<Occupant>(), departures, null),
+				buffer);
+
+		assertEquals("{\"Type\":\"LobbyDelta\",\"State\":{\"Sequence\":6,\"ClosedGames\":[3,4],"
+				+ "\"Departures\":[\"Gone\"]}}", written());
+	}
+
+	/**
+	 * Tests that a message that does not fit leaves the buffer as it was
+	 */
+	@Test
+	public void overflowLeavesNothingBehind() {
+		ByteBuffer small = ByteBuffer.allocate(20);
+		small.put((byte) 'x');
+		try {
+			codec.encode(new JoinMessage(1234, null), small);
+			fail("Message should not fit");
+		} catch (BufferOverflowException e) {
+			assertEquals(1, small.position());
+		}
+	}
+
+	private Message decode(String json) {
+		return codec.decode(ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8)), null);
+	}
+
+	private String written() {
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,125 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import pokerServer.JsonReader;
+import pokerServer.JsonReader.Token;
+
+/**
+ * Unit tests for the JSON pull parser
+ * @author bgreen
+ *
+ */
+public class JsonReaderTest {
+
+	/**
+	 * Tests walking through a document token by token
+	 */
+	@Test
+	public void readsTokens() {
+		JsonReader reader = reader("{\"a\":[1,-20,true,null],\"b\":\"x\"}");
+		reader.beginObject();
+		assertEquals("a", reader.nextName());
+		reader.beginArray();
+		assertEquals(1, reader.nextInt());
+		assertEquals(-20, reader.nextInt());
+		assertTrue(reader.nextBoolean());
+		assertEquals(Token.NULL, reader.peek());
+		reader.nextNull();
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals(Token.NAME, reader.peek());
+		assertEquals(1, reader.nextName(new byte[][] {bytes("a"), bytes("b")}));
+		assertEquals("x", reader.nextString());
+		reader.endObject();
+		reader.endDocument();
+	}
+
+	/**
+	 * Tests that escapes, including surrogate pairs, are undone
+	 */
+	@Test
+	public void unescapesStrings() {
+		JsonReader reader = reader("[\"a\\\"b\\\\c\\n\\u00e9\\ud83c\\udca1\",\"\u00e9\"]");
+		reader.beginArray();
+		assertEquals("a\"b\\c\n\u00e9\ud83c\udca1", reader.nextString());
+		assertEquals("\u00e9", reader.nextString());
+		reader.endArray();
+	}
+
+	/**
+	 * Tests that unknown names are reported, and that nested values can be skipped
+	 */
+	@Test
+	public void skipsUnknownValues() {
+		JsonReader reader = reader("{\"skip\":{\"x\":[{},[],1e5,\"y\"]},\"keep\":3}");
+		byte[][] names = {bytes("keep")};
+		reader.beginObject();
+		assertEquals(-1, reader.nextName(names));
+		reader.skipValue();
+		assertEquals(0, reader.nextName(names));
+		assertEquals(3, reader.nextInt());
+		reader.endObject();
+	}
+
+	/**
+	 * Tests the limits of whole numbers
+	 */
+	@Test
+	public void readsIntLimits() {
+		JsonReader reader = reader("[2147483647,-2147483648,0]");
+		reader.beginArray();
+		assertEquals(Integer.MAX_VALUE, reader.nextInt());
+		assertEquals(Integer.MIN_VALUE, reader.nextInt());
+		assertEquals(0, reader.nextInt());
+		reader.endArray();
+	}
+
+	/**
+	 * Tests that malformed documents are rejected
+	 */
+	@Test
+	public void malformedRejected() {
+		String[] malformed = {"[2147483648]", "[01]", "[1.0]", "[-]", "[tru]", "[\"a]", "[\"\\x\"]", "[\"\\ud83c\"]",
+				"[1 2]", "{\"a\" 1}", "{1:2}", "[1]]"};
+		for (String json : malformed) {
+			try {
+				JsonReader reader = reader(json);
+				reader.beginArray();
+				while (reader.hasNext()) {
+					reader.nextInt();
+				}
+				reader.endArray();
+				reader.endDocument();
+				fail("Accepted " + json);
+			} catch (IllegalArgumentException e) {
+				//Expected
+			}
+		}
+	}
+
+	/**
+	 * Tests that very deep nesting is refused rather than overflowing
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void deepNestingRejected() {
+		StringBuilder json = new StringBuilder();
+		for (int i = 0; i <= JsonReader.MAX_DEPTH; i++) {
+			json.append('[');
+		}
+		reader(json.toString()).skipValue();
+	}
+
+	private JsonReader reader(String json) {
+		return new JsonReader(ByteBuffer.wrap(bytes(json)));
+	}
+
+	private byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+}
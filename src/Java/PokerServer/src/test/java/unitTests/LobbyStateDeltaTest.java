@@ -0,0 +1,97 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import pokerServer.LobbyStateDelta;
+import pokerServer.LobbyStateMessage;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+
+/**
+ * Unit tests for lobby state deltas
+ * @author bgreen
+ *
+ */
+public class LobbyStateDeltaTest {
+
+	/**
+	 * Verifies that applying a delta changes games in place, adds new ones at the end and drops closed ones
+	 */
+	@Test
+	public void applyingDeltaRebuildsState() {
+		List<Listing> games = new ArrayList<Listing>();
+		games.add(listing(1, "PlayerA"));
+		games.add(listing(2, "PlayerB"));
+		games.add(listing(3, "PlayerC"));
+		List<Occupant> occupants = new ArrayList<Occupant>();
+		occupants.add(new Occupant("Idle", "", 10));
+		occupants.add(new Occupant("Leaving", "", 10));
+		LobbyStateMessage before = new LobbyStateMessage(8, games, occupants, null);
+
+		List<Listing> changed = new ArrayList<Listing>();
+		changed.add(listing(4, "PlayerD"));
+		changed.add(listing(1, "PlayerA", "PlayerE"));
+		List<Integer> closed = new ArrayList<Integer>();
+		closed.add(2);
+		List<Occupant> arrivals = new ArrayList<Occupant>();
+		arrivals.add(new Occupant("New", "", 50));
+		arrivals.add(new Occupant("Idle", "", 20));
+		List<String> departures = new ArrayList<String>();
+		departures.add("Leaving");
+
+		LobbyStateMessage after = new LobbyStateDelta(9, changed, closed, arrivals, departures, null).applyTo(before);
+
+		assertEquals(9, after.getSequence());
+		assertEquals(3, after.getGames().size());
+		assertEquals(listing(1, "PlayerA", "PlayerE"), after.getGames().get(0));
+		assertEquals(3, after.getGames().get(1).getID());
+		assertEquals(4, after.getGames().get(2).getID());
+		assertEquals(2, after.getOccupants().size());
+		assertEquals(Integer.valueOf(20), after.getOccupants().get(0).getChips());
+		assertEquals("New", after.getOccupants().get(1).getUsername());
+	}
+
+	/**
+	 * Verifies that a delta cannot be applied to a state it does not follow
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void deltaMustFollowState() {
+		LobbyStateMessage before = new LobbyStateMessage(3, new ArrayList<Listing>(), new ArrayList<Occupant>(), null);
+		new LobbyStateDelta(5, new ArrayList<Listing>(), new ArrayList<Integer>(), new ArrayList<Occupant>(),
+				new ArrayList<String>(), null).applyTo(before);
+	}
+
+	/**
+	 * Verifies that only what changed is in the parameter view
+	 */
+	@Test
+	public void parameterViewLeavesOutUnchanged() {
+		List<Integer> closed = new ArrayList<Integer>();
+		closed.add(2);
+		LobbyStateDelta oot = new LobbyStateDelta(4, new ArrayList<Listing>(), closed, new ArrayList<Occupant>(),
+				new ArrayList<String>(), null);
+
+		assertTrue(oot.isValid());
+		assertEquals(4, oot.getParameter("Sequence"));
+		assertEquals(1, ((List<?>) oot.getParameter("ClosedGames")).size());
+		try {
+			oot.getParameter("Games");
+			fail("Unchanged games should be left out");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	private static Listing listing(int id, String... usernames) {
+		List<Occupant> players = new ArrayList<Occupant>();
+		for (String username : usernames) {
+			players.add(new Occupant(username, "", 100));
+		}
+		return new Listing(id, true, players, new ArrayList<Occupant>());
+	}
+}
@@ -0,0 +1,61 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import pokerServer.LobbyStateMessage;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.StateMessage;
+import pokerServer.StateMessage.StateType;
+
+/**
+ * Unit tests for typed lobby state messages
+ * @author bgreen
+ *
+ */
+public class LobbyStateMessageTest {
+
+	/**
+	 * Verifies that the parameter view passes the untyped validation rules
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parameterViewMatchesSpec() {
+		List<Occupant> players = new ArrayList<Occupant>();
+		players.add(new Occupant("PlayerA", "", 100));
+		List<Occupant> watchers = new ArrayList<Occupant>();
+		watchers.add(new Occupant("Watcher", "", null));
+		List<Listing> games = new ArrayList<Listing>();
+		games.add(new Listing(3, true, players, watchers));
+		List<Occupant> occupants = new ArrayList<Occupant>();
+		occupants.add(new Occupant("PlayerB", "", 50));
+
+		LobbyStateMessage oot = new LobbyStateMessage(games, occupants, null);
+		assertTrue(oot.isValid());
+
+		StateMessage untyped = new StateMessage(StateType.LOBBY, null);
+		untyped.addParameter("Games", oot.getParameter("Games"));
+		untyped.addParameter("LobbyOccupants", oot.getParameter("LobbyOccupants"));
+		assertTrue(untyped.isValid());
+
+		HashMap<String, Object> game = ((ArrayList<HashMap<String, Object>>) oot.getParameter("Games")).get(0);
+		assertEquals(3, game.get("ID"));
+		assertEquals(1, ((ArrayList<Object>) game.get("Watchers")).size());
+	}
+
+	/**
+	 * Verifies that lobby occupants must have chips
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void occupantWithoutChipsRejected() {
+		List<Occupant> occupants = new ArrayList<Occupant>();
+		occupants.add(new Occupant("PlayerB", "", null));
+		new LobbyStateMessage(new ArrayList<Listing>(), occupants, null);
+	}
+}
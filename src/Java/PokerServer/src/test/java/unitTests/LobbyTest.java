@@ -0,0 +1,175 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import mocks.mockPlayer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pokerServer.Game;
+import pokerServer.Lobby;
+import pokerServer.LobbyStateDelta;
+import pokerServer.LobbyStateMessage;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.PokerServer;
+import pokerServer.StateMessage;
+import pokerServer.interfaces.Observer;
+import pokerServer.interfaces.StateObserver;
+
+/**
+ * Unit tests for the Lobby class
+ * @author bgreen
+ *
+ */
+public class LobbyTest {
+
+	private Lobby lobby;
+
+	/**
+	 * Stop the lobby
+	 */
+	@After
+	public void tearDown() {
+		if (lobby != null) lobby.shutdown();
+	}
+
+	/**
+	 * Tests that a new observer gets the whole listing, then only the changes, and that applying them gives the
+	 * lobby's own state
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void observerGetsSnapshotThenDeltas() throws Exception {
+		lobby = startLobby(20);
+		Game game = new Game();
+		RecordingObserver observer = new RecordingObserver();
+		assertTrue(lobby.addObserver(observer));
+
+		LobbyStateMessage state = (LobbyStateMessage) observer.next();
+		assertNotNull(find(state, game.getID()));
+
+		game.addPlayer(new mockPlayer("LobbyTestPlayer"));
+		Listing listed = null;
+		while (listed == null || listed.getPlayers().isEmpty()) {
+			LobbyStateDelta delta = (LobbyStateDelta) observer.next();
+			state = delta.applyTo(state);
+			listed = find(state, game.getID());
+		}
+		assertEquals("LobbyTestPlayer", listed.getPlayers().get(0).getUsername());
+		assertTrue(listed.isOpen());
+
+		//Nothing else is waiting, so this is everything the lobby knows
+		Thread.sleep(60);
+		while (!observer.states.isEmpty()) {
+			state = ((LobbyStateDelta) observer.next()).applyTo(state);
+		}
+		LobbyStateMessage expected = lobby.getSnapshot();
+		assertEquals(expected.getSequence(), state.getSequence());
+		assertEquals(expected.getGames(), state.getGames());
+		assertEquals(expected.getOccupants(), state.getOccupants());
+	}
+
+	/**
+	 * Tests that many changes to a table within a tick are sent as one listing in one delta
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void changesWithinTickAreBatched() throws Exception {
+		lobby = startLobby(300);
+		Game game = new Game();
+		RecordingObserver observer = new RecordingObserver();
+		lobby.addObserver(observer);
+		LobbyStateMessage state = (LobbyStateMessage) observer.next();
+
+		//The snapshot has just been sent, so these all land in the next tick
+		mockPlayer player = new mockPlayer("Flipper");
+		for (int i = 0; i < 10; i++) {
+			game.addPlayer(player);
+			game.removePlayer(player);
+		}
+		game.addPlayer(player);
+
+		LobbyStateDelta delta = (LobbyStateDelta) observer.next();
+		assertEquals(state.getSequence() + 1, delta.getSequence());
+		assertEquals(1, delta.getGames().size());
+		assertEquals(1, delta.getGames().get(0).getPlayers().size());
+		assertTrue(observer.states.isEmpty());
+	}
+
+	/**
+	 * Tests that players arriving and leaving, and games closing, are sent as changes
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void arrivalsDeparturesAndClosedGames() throws Exception {
+		lobby = startLobby(20);
+		Game game = new Game();
+		RecordingObserver observer = new RecordingObserver();
+		lobby.addObserver(observer);
+		observer.next();
+
+		mockPlayer player = new mockPlayer("Arriving");
+		assertTrue(lobby.addObserver(player));
+		assertFalse(lobby.addObserver(player));
+		LobbyStateDelta delta = (LobbyStateDelta) observer.next();
+		assertEquals(1, delta.getArrivals().size());
+		assertEquals(new Occupant("Arriving", player.getAvatarURL().toString(), 100), delta.getArrivals().get(0));
+
+		assertTrue(lobby.removeObserver(player));
+		assertFalse(lobby.removeObserver(player));
+		delta = (LobbyStateDelta) observer.next();
+		assertEquals("Arriving", delta.getDepartures().get(0));
+
+		PokerServer.removeGame(game);
+		delta = (LobbyStateDelta) observer.next();
+		assertEquals(game.getID(), delta.getClosedGames().get(0));
+		assertNull(find(lobby.getSnapshot(), game.getID()));
+	}
+
+	/**
+	 * Tests that a lobby rejects observers that cannot be sent state
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidObserverRejected() {
+		new Lobby(20).addObserver(new Observer() {
+		});
+	}
+
+	private static Lobby startLobby(long tickMillis) {
+		Lobby started = new Lobby(tickMillis);
+		started.start();
+		return started;
+	}
+
+	private static Listing find(LobbyStateMessage state, int gameID) {
+		for (Listing listing : state.getGames()) {
+			if (listing.getID() == gameID) return listing;
+		}
+		return null;
+	}
+
+	/**
+	 * Keeps every state it is sent, from the lobby's thread
+	 */
+	private static class RecordingObserver implements StateObserver {
+
+		final BlockingQueue<StateMessage> states = new LinkedBlockingQueue<StateMessage>();
+
+		@Override
+		public void onStateChanged(StateMessage newState) {
+			states.add(newState);
+		}
+
+		StateMessage next() throws InterruptedException {
+			StateMessage state = states.poll(2, TimeUnit.SECONDS);
+			assertNotNull("Nothing was sent", state);
+			return state;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import pokerServer.Mailbox;
+
+/**
+ * Unit tests for the event queue each game runs on
+ * @author bgreen
+ *
+ */
+public class MailboxTest {
+
+	private static final Executor INLINE = new Executor() {
+		@Override
+		public void execute(Runnable task) {
+			task.run();
+		}
+	};
+
+	/**
+	 * Tests that events posted from many threads never overlap, and each thread's events run in the order it posted them
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=20000)
+	public void eventsRunOneAtATimeInOrder() throws Exception {
+		final int producers = 4;
+		final int perProducer = 20000;
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		final Mailbox mailbox = new Mailbox(pool);
+		final AtomicBoolean running = new AtomicBoolean();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		final int[] lastSeen = new int[producers];
+		final int[] total = new int[1];
+		final CountDownLatch done = new CountDownLatch(producers * perProducer);
+
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			threads[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 1; i <= perProducer; i++) {
+						final int number = i;
+						mailbox.post(new Runnable() {
+							@Override
+							public void run() {
+								if (!running.compareAndSet(false, true)) overlaps.incrementAndGet();
+								if (lastSeen[producer] != number - 1) outOfOrder.incrementAndGet();
+								lastSeen[producer] = number;
+								//Not atomic on purpose; only safe if events never overlap
+								total[0]++;
+								running.set(false);
+								done.countDown();
+							}
+						});
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		assertTrue(done.await(15, TimeUnit.SECONDS));
+		pool.shutdown();
+		assertEquals(0, overlaps.get());
+		assertEquals(0, outOfOrder.get());
+		assertEquals(producers * perProducer, total[0]);
+	}
+
+	/**
+	 * Tests that an event posted from inside an event runs after it rather than inside it
+	 */
+	@Test
+	public void postsFromEventsRunAfterThem() {
+		final Mailbox mailbox = new Mailbox(INLINE);
+		final List<String> order = new ArrayList<String>();
+
+		mailbox.post(new Runnable() {
+			@Override
+			public void run() {
+				order.add("first starts");
+				mailbox.post(new Runnable() {
+					@Override
+					public void run() {
+						order.add("second");
+					}
+				});
+				order.add("first ends");
+			}
+		});
+
+		assertEquals(3, order.size());
+		assertEquals("first starts", order.get(0));
+		assertEquals("first ends", order.get(1));
+		assertEquals("second", order.get(2));
+	}
+
+	/**
+	 * Tests that an event that throws does not stop the ones after it
+	 */
+	@Test
+	public void failingEventDoesNotStopMailbox() {
+		final Mailbox mailbox = new Mailbox(INLINE);
+		final List<String> order = new ArrayList<String>();
+
+		mailbox.post(new Runnable() {
+			@Override
+			public void run() {
+				mailbox.post(new Runnable() {
+					@Override
+					public void run() {
+						order.add("after");
+					}
+				});
+				throw new IllegalStateException("Expected by the test");
+			}
+		});
+		mailbox.post(new Runnable() {
+			@Override
+			public void run() {
+				order.add("later");
+			}
+		});
+
+		assertEquals(2, order.size());
+		assertEquals("after", order.get(0));
+		assertEquals("later", order.get(1));
+	}
+}
@@ -0,0 +1,318 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.ActionMessage;
+import pokerServer.ActionMessage.Action;
+import pokerServer.BetMessage;
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.FoldMessage;
+import pokerServer.GameStateDelta;
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.PrivateState;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.JoinMessage;
+import pokerServer.LobbyStateDelta;
+import pokerServer.LobbyStateMessage;
+import pokerServer.LobbyStateMessage.Listing;
+import pokerServer.LobbyStateMessage.Occupant;
+import pokerServer.Message;
+import pokerServer.MessageCodec;
+import pokerServer.QuitMessage;
+
+/**
+ * Unit tests for the binary message format
+ * @author bgreen
+ *
+ */
+public class MessageCodecTest {
+
+	private MessageCodec sender;
+	private MessageCodec receiver;
+	private ByteBuffer buffer;
+
+	/**
+	 * Set up both ends of a connection
+	 */
+	@Before
+	public void setUp() {
+		sender = new MessageCodec();
+		receiver = new MessageCodec();
+		buffer = ByteBuffer.allocate(1024);
+	}
+
+	/**
+	 * Tests that each kind of action survives the trip
+	 */
+	@Test
+	public void actionsRoundTrip() {
+		BetMessage bet = (BetMessage) roundTrip(new BetMessage(1500, true, null));
+		assertEquals(1500, bet.getAmount());
+		assertTrue(bet.isAllIn());
+		bet = (BetMessage) roundTrip(new BetMessage(BetMessage.MAX_AMOUNT, true, null));
+		assertEquals(BetMessage.MAX_AMOUNT, bet.getAmount());
+		assertTrue(bet.isAllIn());
+
+		assertTrue(((FoldMessage) roundTrip(new FoldMessage(true, null))).isQuit());
+		assertEquals(42, ((JoinMessage) roundTrip(new JoinMessage(42, null))).getGameID());
+		assertTrue(roundTrip(new QuitMessage(null)) instanceof QuitMessage);
+	}
+
+	/**
+	 * Tests that untyped actions are converted before they are sent
+	 */
+	@Test
+	public void untypedActionIsEncoded() {
+		ActionMessage bet = new ActionMessage(Action.BET, null);
+		bet.addParameter("Amount", 20);
+		bet.addParameter("All-in", false);
+
+		assertEquals(20, ((BetMessage) roundTrip(bet)).getAmount());
+	}
+
+	/**
+	 * Tests that a bet takes only a few bytes
+	 */
+	@Test
+	public void betIsCompact() {
+		sender.encode(new BetMessage(100, false, null), buffer);
+		//Version, type, and 200 as a two byte varint
+		assertEquals(4, buffer.position());
+	}
+
+	/**
+	 * Tests that a player's game state survives the trip
+	 */
+	@Test
+	public void gameStateRoundTrips() {
+		GameStateMessage sent = createGameState().withPrivateState(
+				new PrivateState(1, hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "K")), 900, 0.5));
+
+		GameStateMessage received = (GameStateMessage) roundTrip(sent);
+
+		assertTrue(received.isValid());
+		assertEquals(sent.getPot(), received.getPot());
+		assertEquals("PlayerA", received.getDealer());
+		assertEquals("PlayerB", received.getActor());
+		assertEquals(sent.getTableCards(), received.getTableCards());
+		assertEquals(100, ((BetMessage) received.getLastAction()).getAmount());
+		assertEquals(1, received.getSeats().size());
+		assertEquals("PlayerB", received.getSeats().get(0).getUsername());
+		assertEquals(250, received.getSeats().get(0).getChips());
+		assertEquals(sent.getPrivateState().getHand(), received.getPrivateState().getHand());
+		assertEquals(900, received.getPrivateState().getChips());
+		assertEquals(0.5, received.getPrivateState().getEquity(), 0.0001);
+	}
+
+	/**
+	 * Tests that a delta survives the trip, and is a fraction of the size of the full state
+	 */
+	@Test
+	public void deltaRoundTrips() {
+		ArrayList<ChipCount> chips = new ArrayList<ChipCount>();
+		chips.add(new ChipCount(1, 850));
+		GameStateDelta sent = new GameStateDelta(9, 350, "PlayerB", hand(Card.of(Suit.SPADES, "3")),
+				new BetMessage(50, false, null), chips, null)
+				.withPrivateState(new PrivateState(1, hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "K")), 850, null));
+
+		sender.encode(createGameState(), buffer);
+		int fullSize = buffer.position();
+		buffer.flip();
+		receiver.decode(buffer, null);
+		buffer.clear();
+		sender.encode(sent, buffer);
+		assertTrue("Delta was " + buffer.position() + " bytes", buffer.position() * 5 < fullSize);
+
+		buffer.flip();
+		GameStateDelta received = (GameStateDelta) receiver.decode(buffer, null);
+		assertEquals(9, received.getSequence());
+		assertEquals(Integer.valueOf(350), received.getPot());
+		assertEquals("PlayerB", received.getActor());
+		assertEquals(sent.getNewTableCards(), received.getNewTableCards());
+		assertEquals(50, ((BetMessage) received.getLastAction()).getAmount());
+		assertEquals(850, received.getChips().get(0).getChips());
+		assertEquals(850, received.getPrivateState().getChips());
+		assertNull(received.getPrivateState().getEquity());
+	}
+
+	/**
+	 * Tests that a delta that only moves the turn on leaves everything else out
+	 */
+	@Test
+	public void emptyDeltaRoundTrips() {
+		GameStateDelta received = (GameStateDelta) roundTrip(new GameStateDelta(3, null, "PlayerA", new ArrayList<Card>(), null,
+				new ArrayList<ChipCount>(), null));
+		assertNull(received.getPot());
+		assertNull(received.getLastAction());
+		assertTrue(received.getChips().isEmpty());
+		assertNull(received.getPrivateState());
+	}
+
+	/**
+	 * Tests that usernames are only sent in full the first time
+	 */
+	@Test
+	public void stringsAreInterned() {
+		sender.encode(createGameState(), buffer);
+		int firstSize = buffer.position();
+		sender.encode(createGameState(), buffer);
+		int secondSize = buffer.position() - firstSize;
+
+		assertTrue("Second message was " + secondSize + " bytes", secondSize < firstSize - 20);
+
+		buffer.flip();
+		GameStateMessage first = (GameStateMessage) receiver.decode(buffer, null);
+		GameStateMessage second = (GameStateMessage) receiver.decode(buffer, null);
+		assertEquals(first.getActor(), second.getActor());
+		assertEquals(first.getSeats().get(1).getAvatar(), second.getSeats().get(1).getAvatar());
+		assertFalse(buffer.hasRemaining());
+	}
+
+	/**
+	 * Tests that a lobby state survives the trip
+	 */
+	@Test
+	public void lobbyStateRoundTrips() {
+		List<Occupant> players = new ArrayList<Occupant>();
+		players.add(new Occupant("PlayerA", "http://example.com/a", 100));
+		List<Occupant> watchers = new ArrayList<Occupant>();
+		watchers.add(new Occupant("Watcher", "", null));
+		List<Listing> games = new ArrayList<Listing>();
+		games.add(new Listing(7, false, players, watchers));
+		List<Occupant> occupants = new ArrayList<Occupant>();
+		occupants.add(new Occupant("PlayerB", "", 0));
+
+		LobbyStateMessage received = (LobbyStateMessage) roundTrip(new LobbyStateMessage(3, games, occupants, null));
+
+		assertEquals(3, received.getSequence());
+		assertEquals(7, received.getGames().get(0).getID());
+		assertFalse(received.getGames().get(0).isOpen());
+		assertEquals(Integer.valueOf(100), received.getGames().get(0).getPlayers().get(0).getChips());
+		assertNull(received.getGames().get(0).getWatchers().get(0).getChips());
+		assertEquals(Integer.valueOf(0), received.getOccupants().get(0).getChips());
+	}
+
+	/**
+	 * Tests that a lobby delta survives the trip
+	 */
+	@Test
+	public void lobbyDeltaRoundTrips() {
+		List<Occupant> players = new ArrayList<Occupant>();
+		players.add(new Occupant("PlayerA", "", 90));
+		List<Listing> games = new ArrayList<Listing>();
+		games.add(new Listing(7, true, players, new ArrayList<Occupant>()));
+		List<Integer> closed = new ArrayList<Integer>();
+		closed.add(300);
+		List<Occupant> arrivals = new ArrayList<Occupant>();
+		arrivals.add(new Occupant("PlayerB", "", 10));
+		List<String> departures = new ArrayList<String>();
+		departures.add("PlayerA");
+
+		LobbyStateDelta sent = new LobbyStateDelta(4, games, closed, arrivals, departures, null);
+		LobbyStateDelta received = (LobbyStateDelta) roundTrip(sent);
+
+		assertEquals(4, received.getSequence());
+		assertEquals(sent.getGames(), received.getGames());
+		assertEquals(sent.getClosedGames(), received.getClosedGames());
+		assertEquals(sent.getArrivals(), received.getArrivals());
+		assertEquals(sent.getDepartures(), received.getDepartures());
+	}
+
+	/**
+	 * Tests that a message that does not fit leaves the buffer and string table as they were
+	 */
+	@Test
+	public void overflowLeavesNothingBehind() {
+		ByteBuffer small = ByteBuffer.allocate(12);
+		try {
+			sender.encode(createGameState(), small);
+			fail("Message should not fit");
+		} catch (BufferOverflowException e) {
+			assertEquals(0, small.position());
+		}
+
+		//The strings that were interned before the overflow must be sent in full again
+		Message received = roundTrip(createGameState());
+		assertEquals("PlayerB", ((GameStateMessage) received).getActor());
+	}
+
+	/**
+	 * Tests that an unknown version is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void wrongVersionRejected() {
+		receiver.decode(ByteBuffer.wrap(new byte[] {99, 4}), null);
+	}
+
+	/**
+	 * Tests that a card outside the deck is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidCardRejected() {
+		//Game state: no flags, first update, empty pot, new string "A", one table card numbered 60
+		receiver.decode(ByteBuffer.wrap(new byte[] {MessageCodec.VERSION, 5, 0, 1, 0, 1, 1, 'A', 1, 60}), null);
+	}
+
+	/**
+	 * Tests that a reference to a string that was never sent is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownStringRejected() {
+		receiver.decode(ByteBuffer.wrap(new byte[] {MessageCodec.VERSION, 5, 0, 1, 0, 2, 0, 0}), null);
+	}
+
+	/**
+	 * Tests that a message cut short is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void truncatedMessageRejected() {
+		sender.encode(createGameState(), buffer);
+		buffer.flip();
+		buffer.limit(buffer.limit() - 3);
+		receiver.decode(buffer, null);
+	}
+
+	/**
+	 * Tests that a varint too large for an int is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void oversizedVarintRejected() {
+		receiver.decode(ByteBuffer.wrap(new byte[] {MessageCodec.VERSION, 3, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF, 0x0F}), null);
+	}
+
+	private Message roundTrip(Message message) {
+		buffer.clear();
+		sender.encode(message, buffer);
+		buffer.flip();
+		Message received = receiver.decode(buffer, null);
+		assertFalse(buffer.hasRemaining());
+		return received;
+	}
+
+	private GameStateMessage createGameState() {
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(1, "PlayerA", "http://www.gravatar.com/avatar/00000000000000000000000000000000", 900));
+		seats.add(new Seat(2, "PlayerB", "http://www.gravatar.com/avatar/11111111111111111111111111111111", 250));
+		ArrayList<Card> table = hand(Card.of(Suit.CLUBS, "2"), Card.of(Suit.DIAMONDS, "7"), Card.of(Suit.HEARTS, "J"));
+		return new GameStateMessage(300, "PlayerA", "PlayerB", table, new BetMessage(100, false, null), seats, null);
+	}
+
+	private ArrayList<Card> hand(Card... cards) {
+		ArrayList<Card> hand = new ArrayList<Card>();
+		for (Card card : cards) {
+			hand.add(card);
+		}
+		return hand;
+	}
+}
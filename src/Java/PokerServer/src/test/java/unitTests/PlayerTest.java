@@ -22,6 +22,10 @@ import pokerServer.Card;
 import pokerServer.Player;
 import pokerServer.StateMessage;
 import pokerServer.Card.Suit;
+import pokerServer.GameStateDelta;
+import pokerServer.GameStateDelta.ChipCount;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.Seat;
 import pokerServer.StateMessage.StateType;
 
 /**
@@ -218,6 +222,32 @@ public class PlayerTest {
 		
 	}
 	
+	/**
+	 * Tests that the Player passes typed game states on as they are, since the game has already added its hand
+	 */
+	@Test
+	public void playerForwardsTypedGameState() {
+		mockClient client = new mockClient();
+		Player oot = new Player("PlayerA", "test@test.com", client, 100);
+		
+		mockGame game = new mockGame();
+		oot.joinGame(game);
+		game.positionToReturn = 1;
+		oot.addCardToHand(new Card(Suit.DIAMONDS, "Q"));
+		oot.addCardToHand(new Card(Suit.CLUBS, "Q"));
+		
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		seats.add(new Seat(1, "PlayerA", "", 100));
+		seats.add(new Seat(2, "PlayerB", "", 20));
+		GameStateMessage shared = new GameStateMessage(0, "PlayerA", "PlayerA", new ArrayList<Card>(), null, seats, null);
+		oot.onStateChanged(shared);
+		assertSame(shared, client.lastMessageSent);
+		
+		GameStateDelta delta = new GameStateDelta(2, 5, "PlayerB", new ArrayList<Card>(), null, new ArrayList<ChipCount>(), null);
+		oot.onStateChanged(delta);
+		assertSame(delta, client.lastMessageSent);
+	}
+	
 	private StateMessage createTwoPlayerGameState() {
 		StateMessage message = new StateMessage(StateType.GAME, null);
 		
@@ -1,6 +1,23 @@
 package unitTests;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import mocks.mockClient;
+
 import org.junit.Test;
 
+import pokerServer.Game;
+import pokerServer.Player;
+import pokerServer.PokerServer;
+
 /**
  * Unit tests for the PokerServer class
  * @author bgreen
@@ -16,4 +33,111 @@ public class PokerServerTest {
 		//fail("Not yet implemented");  //probably should not fail, just FYI
 	}
 
+	/**
+	 * Tests that games created on many threads at once all get different IDs and can all be found
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=10000)
+	public void gamesCreatedAtOnceAreAllRegistered() throws Exception {
+		final int threads = 8;
+		final int perThread = 50;
+		final Set<Game> created = ConcurrentHashMap.newKeySet();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+
+		for (int t = 0; t < threads; t++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int i = 0; i < perThread; i++) {
+							created.add(new Game());
+						}
+					} catch (InterruptedException e) {
+						//Counted as missing games below
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		start.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		assertEquals(threads * perThread, created.size());
+		Set<Integer> ids = new HashSet<Integer>();
+		List<Game> listing = PokerServer.getGames();
+		for (Game game : created) {
+			assertTrue(ids.add(game.getID()));
+			assertSame(game, PokerServer.findGame(game.getID()));
+			assertTrue(PokerServer.gameIDIsValid(game.getID()));
+			assertTrue(listing.contains(game));
+		}
+	}
+
+	/**
+	 * Tests that removed games can no longer be found or joined
+	 */
+	@Test
+	public void removedGameIsGone() {
+		Game game = new Game();
+		assertSame(game, PokerServer.getGameFromID(game.getID()));
+
+		assertTrue(PokerServer.removeGame(game));
+		assertFalse(PokerServer.removeGame(game));
+		assertNull(PokerServer.findGame(game.getID()));
+		assertFalse(PokerServer.gameIDIsValid(game.getID()));
+		assertFalse(PokerServer.getGames().contains(game));
+		assertNull(PokerServer.findGame(null));
+		assertFalse(PokerServer.gameIDIsValid(null));
+		try {
+			PokerServer.getGameFromID(game.getID());
+			fail("Removed games should not be found");
+		} catch (IllegalArgumentException e) {
+			//Expected
+		}
+	}
+
+	/**
+	 * Tests that a listing being read is not changed by games added while it is read
+	 */
+	@Test
+	public void listingIsNotChangedWhileRead() {
+		new Game();
+		Iterator<Game> reading = PokerServer.getGames().iterator();
+		Game added = new Game();
+
+		List<Game> seen = new ArrayList<Game>();
+		while (reading.hasNext()) {
+			seen.add(reading.next());
+		}
+		assertFalse(seen.contains(added));
+		assertTrue(PokerServer.getGames().contains(added));
+
+		try {
+			PokerServer.getGames().clear();
+			fail("The listing is read-only");
+		} catch (UnsupportedOperationException e) {
+			//Expected
+		}
+	}
+
+	/**
+	 * Tests that only one player at a time can be connected under a username
+	 */
+	@Test
+	public void usernamesAreUnique() {
+		Player first = new Player("RegistryTestPlayer", "a@test.com", new mockClient(), 100);
+		Player second = new Player("RegistryTestPlayer", "b@test.com", new mockClient(), 100);
+
+		assertTrue(PokerServer.addPlayer(first));
+		assertFalse(PokerServer.addPlayer(second));
+		assertSame(first, PokerServer.getPlayer("RegistryTestPlayer"));
+
+		assertFalse(PokerServer.removePlayer(second));
+		assertTrue(PokerServer.removePlayer(first));
+		assertNull(PokerServer.getPlayer("RegistryTestPlayer"));
+	}
+
 }
@@ -0,0 +1,178 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.PotSettlement;
+
+/**
+ * Unit tests for splitting the pot between winners
+ * @author bgreen
+ *
+ */
+public class PotSettlementTest {
+
+	private PotSettlement settlement;
+	private int[] payouts;
+
+	/**
+	 * Set up a six-seat table
+	 */
+	@Before
+	public void setUp() {
+		settlement = new PotSettlement(6);
+		payouts = new int[6];
+	}
+
+	/**
+	 * Tests that equal contributions make a single pot for the best hand
+	 */
+	@Test
+	public void singlePotGoesToBestHand() {
+		settlement.contribute(0, 100, false);
+		settlement.contribute(1, 100, false);
+		settlement.contribute(2, 100, false);
+
+		assertEquals(1, settlement.buildPots());
+		assertEquals(300, settlement.getPotAmount(0));
+		assertEquals(0x7, settlement.getPotEligible(0));
+
+		settlement.settle(new int[] {5, 9, 7, -1, -1, -1}, 0, payouts);
+		assertArrayEquals(new int[] {0, 300, 0, 0, 0, 0}, payouts);
+	}
+
+	/**
+	 * Tests that a short all-in can only win what everyone matched, with the rest going to a side pot
+	 */
+	@Test
+	public void shortAllInMakesSidePot() {
+		settlement.contribute(0, 50, true);
+		settlement.contribute(1, 200, false);
+		settlement.contribute(2, 200, false);
+
+		assertEquals(2, settlement.buildPots());
+		assertEquals(150, settlement.getPotAmount(0));
+		assertEquals(0x7, settlement.getPotEligible(0));
+		assertEquals(300, settlement.getPotAmount(1));
+		assertEquals(0x6, settlement.getPotEligible(1));
+		assertTrue(settlement.isAllIn(0));
+		assertFalse(settlement.isAllIn(1));
+
+		//The all-in player has the best hand, but only wins the main pot
+		settlement.settle(new int[] {9, 5, 7, -1, -1, -1}, 0, payouts);
+		assertArrayEquals(new int[] {150, 0, 300, 0, 0, 0}, payouts);
+	}
+
+	/**
+	 * Tests several all-ins at different levels
+	 */
+	@Test
+	public void multiWayAllIns() {
+		settlement.contribute(0, 30, true);
+		settlement.contribute(1, 80, true);
+		settlement.contribute(2, 150, false);
+		settlement.contribute(3, 150, false);
+
+		assertEquals(3, settlement.buildPots());
+		assertEquals(120, settlement.getPotAmount(0));
+		assertEquals(150, settlement.getPotAmount(1));
+		assertEquals(140, settlement.getPotAmount(2));
+
+		//Seat 1 is best, seat 3 next
+		settlement.settle(new int[] {1, 9, 2, 5, -1, -1}, 0, payouts);
+		assertArrayEquals(new int[] {0, 270, 0, 140, 0, 0}, payouts);
+		assertEquals(settlement.getTotal(), sum(payouts));
+	}
+
+	/**
+	 * Tests that folded seats leave their chips in the pot but cannot win them
+	 */
+	@Test
+	public void foldedChipsStayInPot() {
+		settlement.contribute(0, 100, false);
+		settlement.contribute(1, 40, true);
+		settlement.contribute(2, 100, false);
+		settlement.fold(2);
+
+		assertTrue(settlement.hasFolded(2));
+		assertEquals(2, settlement.buildPots());
+		assertEquals(120, settlement.getPotAmount(0));
+		assertEquals(120, settlement.getPotAmount(1));
+		assertEquals(0x1, settlement.getPotEligible(1));
+
+		//The folded seat has the best cards, but gets nothing
+		settlement.settle(new int[] {3, 5, 9, -1, -1, -1}, 0, payouts);
+		assertArrayEquals(new int[] {120, 120, 0, 0, 0, 0}, payouts);
+	}
+
+	/**
+	 * Tests that if everyone else folds after betting, the last player gets it all even without putting anything in
+	 */
+	@Test
+	public void lastPlayerStandingTakesEverything() {
+		settlement.contribute(0, 20, false);
+		settlement.contribute(1, 20, false);
+		settlement.fold(0);
+		settlement.fold(1);
+		for (int seat = 3; seat < 6; seat++) {
+			settlement.fold(seat);
+		}
+
+		settlement.settle(new int[] {-1, -1, -1, -1, -1, -1}, 0, payouts);
+		assertArrayEquals(new int[] {0, 0, 40, 0, 0, 0}, payouts);
+	}
+
+	/**
+	 * Tests that a tie splits the pot, with odd chips going clockwise from the first seat
+	 */
+	@Test
+	public void oddChipsGoClockwise() {
+		settlement.contribute(0, 25, false);
+		settlement.contribute(2, 25, false);
+		settlement.contribute(4, 25, false);
+		settlement.contribute(5, 25, false);
+		settlement.fold(1);
+		settlement.fold(3);
+
+		//Seats 0, 2 and 5 tie on 100 chips: 33 each, and the odd chip goes to the first of them after seat 3
+		settlement.settle(new int[] {8, -1, 8, -1, 4, 8}, 3, payouts);
+		assertArrayEquals(new int[] {33, 0, 33, 0, 0, 34}, payouts);
+
+		settlement.settle(new int[] {8, -1, 8, -1, 4, 8}, 1, payouts);
+		assertArrayEquals(new int[] {33, 0, 34, 0, 0, 33}, payouts);
+	}
+
+	/**
+	 * Tests that resetting clears the last hand
+	 */
+	@Test
+	public void resetClearsHand() {
+		settlement.contribute(0, 25, true);
+		settlement.fold(1);
+		settlement.reset();
+
+		assertEquals(0, settlement.getTotal());
+		assertEquals(0, settlement.getContribution(0));
+		assertFalse(settlement.isAllIn(0));
+		assertFalse(settlement.hasFolded(1));
+		assertEquals(0, settlement.buildPots());
+	}
+
+	/**
+	 * Tests that chips cannot be taken out
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void negativeContributionRejected() {
+		settlement.contribute(0, -5, false);
+	}
+
+	private int sum(int[] values) {
+		int total = 0;
+		for (int value : values) {
+			total += value;
+		}
+		return total;
+	}
+}
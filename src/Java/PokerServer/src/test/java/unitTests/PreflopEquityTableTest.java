@@ -0,0 +1,139 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import pokerServer.Card;
+import pokerServer.Card.Suit;
+import pokerServer.EquityCalculator.Equity;
+import pokerServer.PreflopEquityTable;
+import pokerServer.PreflopTableGenerator;
+
+/**
+ * Unit tests for the preflop equity table and its generator
+ * @author bgreen
+ *
+ */
+public class PreflopEquityTableTest {
+
+	private static File tableFile;
+	private static PreflopEquityTable table;
+
+	/**
+	 * Generate a small, rough table once for all the tests
+	 * @throws IOException If the temporary file cannot be written
+	 */
+	@BeforeClass
+	public static void generateTable() throws IOException {
+		tableFile = File.createTempFile("preflop", ".eq");
+		PreflopTableGenerator.write(tableFile, 2, 4, 2000);
+		table = PreflopEquityTable.load(tableFile);
+	}
+
+	/**
+	 * Clean up the temporary file
+	 */
+	@AfterClass
+	public static void deleteTable() {
+		tableFile.deleteOnExit();
+	}
+
+	/**
+	 * Tests that the table header is read back
+	 */
+	@Test
+	public void headerIsRead() {
+		assertEquals(2, table.getMinPlayers());
+		assertEquals(4, table.getMaxPlayers());
+	}
+
+	/**
+	 * Tests that every combination of two cards maps to one of the 169 starting hands, with the right number of each
+	 */
+	@Test
+	public void everyHandHasAClass() {
+		int[] counts = new int[PreflopEquityTable.NUM_HAND_CLASSES];
+		for (int i = 0; i < Card.DECK_SIZE; i++) {
+			for (int j = i + 1; j < Card.DECK_SIZE; j++) {
+				counts[PreflopEquityTable.classOf(Card.fromIndex(i), Card.fromIndex(j))]++;
+			}
+		}
+
+		int pairs = 0, suited = 0, offsuit = 0;
+		for (int count : counts) {
+			if (count == 6) pairs++;
+			else if (count == 4) suited++;
+			else if (count == 12) offsuit++;
+		}
+		assertEquals(13, pairs);
+		assertEquals(78, suited);
+		assertEquals(78, offsuit);
+	}
+
+	/**
+	 * Tests that the order of the hole cards does not matter
+	 */
+	@Test
+	public void classIgnoresCardOrder() {
+		Card ace = Card.of(Suit.SPADES, "A");
+		Card king = Card.of(Suit.SPADES, "K");
+		assertEquals(PreflopEquityTable.classOf(ace, king), PreflopEquityTable.classOf(king, ace));
+	}
+
+	/**
+	 * Tests that the stored equities are sensible: aces are the best hand, and get worse as the field grows
+	 */
+	@Test
+	public void equitiesAreSensible() {
+		ArrayList<Card> aces = hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A"));
+		ArrayList<Card> sevenTwo = hand(Card.of(Suit.HEARTS, "7"), Card.of(Suit.SPADES, "2"));
+
+		Equity acesHeadsUp = table.lookup(aces, 2);
+		Equity acesFourWay = table.lookup(aces, 4);
+		Equity sevenTwoHeadsUp = table.lookup(sevenTwo, 2);
+
+		assertEquals(0.85, acesHeadsUp.getShare(), 0.03);
+		assertTrue(acesFourWay.getShare() < acesHeadsUp.getShare());
+		assertTrue(sevenTwoHeadsUp.getShare() < 0.4);
+		assertEquals(acesHeadsUp.getWin() + acesHeadsUp.getTie() + acesHeadsUp.getLose(), 1.0, 0.0001);
+	}
+
+	/**
+	 * Tests that field sizes outside the table are not looked up
+	 */
+	@Test
+	public void fieldSizeOutsideTableGivesNull() {
+		ArrayList<Card> aces = hand(Card.of(Suit.HEARTS, "A"), Card.of(Suit.SPADES, "A"));
+		assertNull(table.lookup(aces, 5));
+	}
+
+	/**
+	 * Tests that a file that is not a table is rejected
+	 * @throws IOException If the temporary file cannot be written
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void invalidFileRejected() throws IOException {
+		File bogus = File.createTempFile("bogus", ".eq");
+		bogus.deleteOnExit();
+		try (FileOutputStream out = new FileOutputStream(bogus)) {
+			out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+		}
+		PreflopEquityTable.load(bogus);
+	}
+
+	private ArrayList<Card> hand(Card... cards) {
+		ArrayList<Card> hand = new ArrayList<Card>();
+		for (Card card : cards) {
+			hand.add(card);
+		}
+		return hand;
+	}
+}
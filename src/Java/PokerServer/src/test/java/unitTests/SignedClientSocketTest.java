@@ -0,0 +1,217 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.BetMessage;
+import pokerServer.ClientSocket;
+import pokerServer.JoinMessage;
+import pokerServer.Message;
+import pokerServer.MessageCodec;
+import pokerServer.SocketServer;
+import pokerServer.interfaces.ClientObserver;
+import pokerServer.interfaces.ConnectionObserver;
+
+/**
+ * Unit tests for signed sessions, using a real server on the loopback address. Tags are worked out here with the
+ * JDK's own HMAC so the tests do not lean on the server's code.
+ * @author bgreen
+ *
+ */
+public class SignedClientSocketTest {
+
+	private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+	private static final int TAG_BYTES = 16;
+
+	private SocketServer server;
+	private BlockingQueue<ClientSocket> connected;
+	private BlockingQueue<Message> received;
+	private SocketChannel channel;
+	private MessageCodec codec;
+	private long sent;
+
+	/**
+	 * Start a server that signs every session with the same key, and records everything its clients send
+	 * @throws IOException If the server cannot start
+	 */
+	@Before
+	public void setUp() throws IOException {
+		connected = new LinkedBlockingQueue<ClientSocket>();
+		received = new LinkedBlockingQueue<Message>();
+		final ClientObserver recorder = new ClientObserver() {
+			@Override
+			public void onMessageReceived(Message message) {
+				received.add(message);
+			}
+		};
+
+		server = new SocketServer(new InetSocketAddress("127.0.0.1", 0), 1);
+		server.addObserver(new ConnectionObserver() {
+			@Override
+			public void onClientConnected(ClientSocket client) {
+				client.startSigning(KEY);
+				client.addObserver(recorder);
+				connected.add(client);
+			}
+		});
+		server.start();
+
+		channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+		codec = new MessageCodec();
+		sent = 0;
+	}
+
+	/**
+	 * Shut everything down
+	 * @throws IOException If the connection will not close
+	 */
+	@After
+	public void tearDown() throws IOException {
+		channel.close();
+		server.stop();
+	}
+
+	/**
+	 * Tests that signed frames are received
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void signedFramesAreReceived() throws Exception {
+		write(signed(new BetMessage(40, false, null)));
+		write(signed(new JoinMessage(2, null)));
+
+		assertEquals(40, ((BetMessage) received.poll(2, TimeUnit.SECONDS)).getAmount());
+		assertEquals(2, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+	}
+
+	/**
+	 * Tests that a frame with a bad tag is dropped, and the session carries on
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void forgedFrameIsDropped() throws Exception {
+		byte[] forged = signed(new BetMessage(1000000, true, null));
+		forged[forged.length - 1] ^= 1;
+		sent--;
+		write(forged);
+		write(signed(new JoinMessage(6, null)));
+
+		assertEquals(6, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+		assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+		assertFalse(connected.peek().isClosed());
+	}
+
+	/**
+	 * Tests that a frame sent twice only counts once
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void replayedFrameIsDropped() throws Exception {
+		byte[] bet = signed(new BetMessage(30, false, null));
+		write(bet);
+		write(bet);
+		write(signed(new JoinMessage(8, null)));
+
+		assertEquals(30, ((BetMessage) received.poll(2, TimeUnit.SECONDS)).getAmount());
+		assertEquals(8, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+		assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Tests that an unsigned frame is dropped
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void unsignedFrameIsDropped() throws Exception {
+		ByteBuffer out = ByteBuffer.allocate(256);
+		out.position(ClientSocket.LENGTH_BYTES);
+		codec.encode(new BetMessage(20, false, null), out);
+		//Long enough to pass for a signed frame, but the "tag" is the message
+		for (int i = 0; i < TAG_BYTES; i++) {
+			out.put((byte) 0);
+		}
+		out.putInt(0, out.position() - ClientSocket.LENGTH_BYTES);
+		out.flip();
+		write(Arrays.copyOf(out.array(), out.limit()));
+		write(signed(new JoinMessage(1, null)));
+
+		assertEquals(1, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+		assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Tests that messages to the client carry tags the client can check, numbered separately from the client's own
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void sentFramesAreSigned() throws Exception {
+		write(signed(new JoinMessage(5, null)));
+		received.poll(2, TimeUnit.SECONDS);
+
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		client.sendMessage(new BetMessage(15, false, null));
+		client.sendMessage(new BetMessage(16, false, null));
+
+		assertEquals(15, ((BetMessage) readSigned(0)).getAmount());
+		assertEquals(16, ((BetMessage) readSigned(1)).getAmount());
+	}
+
+	private byte[] signed(Message message) throws Exception {
+		ByteBuffer out = ByteBuffer.allocate(256);
+		out.position(ClientSocket.LENGTH_BYTES);
+		codec.encode(message, out);
+		int end = out.position();
+		out.put(tag('C', sent++, Arrays.copyOfRange(out.array(), ClientSocket.LENGTH_BYTES, end)));
+		out.putInt(0, out.position() - ClientSocket.LENGTH_BYTES);
+		return Arrays.copyOf(out.array(), out.position());
+	}
+
+	private Message readSigned(long number) throws Exception {
+		ByteBuffer length = ByteBuffer.allocate(ClientSocket.LENGTH_BYTES);
+		readFully(length);
+		ByteBuffer body = ByteBuffer.allocate(length.getInt(0));
+		readFully(body);
+
+		byte[] bytes = body.array();
+		byte[] message = Arrays.copyOf(bytes, bytes.length - TAG_BYTES);
+		assertArrayEquals(tag('S', number, message), Arrays.copyOfRange(bytes, message.length, bytes.length));
+		return codec.decode(ByteBuffer.wrap(message), null);
+	}
+
+	private byte[] tag(char direction, long number, byte[] message) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(KEY, "HmacSHA256"));
+		mac.update((byte) direction);
+		mac.update(ByteBuffer.allocate(8).putLong(number).array());
+		mac.update(message);
+		return Arrays.copyOf(mac.doFinal(), TAG_BYTES);
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		ByteBuffer out = ByteBuffer.wrap(bytes);
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) throw new IOException("Closed early");
+		}
+	}
+}
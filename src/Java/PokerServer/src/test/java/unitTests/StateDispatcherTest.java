@@ -0,0 +1,230 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.StateDispatcher;
+import pokerServer.StateDispatcher.OverflowPolicy;
+import pokerServer.StateDispatcher.Snapshot;
+import pokerServer.StateMessage;
+import pokerServer.StateMessage.StateType;
+import pokerServer.interfaces.StateObserver;
+
+/**
+ * Unit tests for delivering state updates through per-observer queues
+ * @author bgreen
+ *
+ */
+public class StateDispatcherTest {
+
+	private List<Runnable> pending;
+	private Executor manual;
+	private RecordingObserver observer;
+	private final Object source = new Object();
+
+	/**
+	 * Set up workers that only run when the test says so
+	 */
+	@Before
+	public void setUp() {
+		pending = new ArrayList<Runnable>();
+		manual = new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				pending.add(task);
+			}
+		};
+		observer = new RecordingObserver();
+	}
+
+	/**
+	 * Tests that updates wait in the queue until a worker delivers them, in order
+	 */
+	@Test
+	public void updatesDeliveredInOrder() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 8, OverflowPolicy.COALESCE);
+		StateMessage first = message();
+		StateMessage second = message();
+
+		dispatcher.publish(source, observer, first, first);
+		dispatcher.publish(source, observer, second, second);
+		assertTrue(observer.received.isEmpty());
+		assertEquals(2, dispatcher.getBacklog(source, observer));
+		//One worker is enough for both
+		assertEquals(1, pending.size());
+
+		runPending();
+		assertEquals(2, observer.received.size());
+		assertSame(first, observer.received.get(0));
+		assertSame(second, observer.received.get(1));
+		assertEquals(0, dispatcher.getBacklog(source, observer));
+	}
+
+	/**
+	 * Tests that coalescing replaces the backlog with the latest snapshot
+	 */
+	@Test
+	public void coalesceReplacesBacklog() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 2, OverflowPolicy.COALESCE);
+		StateMessage snapshot = message();
+
+		dispatcher.publish(source, observer, message(), message());
+		dispatcher.publish(source, observer, message(), message());
+		dispatcher.publish(source, observer, message(), snapshot);
+		assertEquals(1, dispatcher.getBacklog(source, observer));
+
+		runPending();
+		assertEquals(1, observer.received.size());
+		assertSame(snapshot, observer.received.get(0));
+	}
+
+	/**
+	 * Tests that resyncing lets the backlog finish, then sends the latest snapshot
+	 */
+	@Test
+	public void resyncSendsSnapshotAfterBacklog() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 2, OverflowPolicy.RESYNC);
+		StateMessage first = message();
+		StateMessage second = message();
+		StateMessage snapshot = message();
+
+		dispatcher.publish(source, observer, first, message());
+		dispatcher.publish(source, observer, second, message());
+		dispatcher.publish(source, observer, message(), message());
+		dispatcher.publish(source, observer, message(), snapshot);
+
+		runPending();
+		assertEquals(3, observer.received.size());
+		assertSame(first, observer.received.get(0));
+		assertSame(second, observer.received.get(1));
+		assertSame(snapshot, observer.received.get(2));
+	}
+
+	/**
+	 * Tests that a snapshot given as a source is only made once an observer falls behind
+	 */
+	@Test
+	public void lazySnapshotOnlyMadeOnOverflow() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 2, OverflowPolicy.RESYNC);
+		final StateMessage snapshot = message();
+		final int[] made = new int[1];
+		Snapshot lazy = new Snapshot() {
+			@Override
+			public StateMessage get() {
+				made[0]++;
+				return snapshot;
+			}
+		};
+
+		dispatcher.publish(source, observer, message(), lazy);
+		dispatcher.publish(source, observer, message(), lazy);
+		assertEquals(0, made[0]);
+		dispatcher.publish(source, observer, message(), lazy);
+		assertEquals(0, made[0]);
+
+		runPending();
+		assertEquals(1, made[0]);
+		assertEquals(3, observer.received.size());
+		assertSame(snapshot, observer.received.get(2));
+	}
+
+	/**
+	 * Tests that a removed observer gets nothing more
+	 */
+	@Test
+	public void removedObserverGetsNothing() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 8, OverflowPolicy.COALESCE);
+		dispatcher.publish(source, observer, message(), message());
+		dispatcher.remove(source, observer);
+
+		runPending();
+		assertTrue(observer.received.isEmpty());
+	}
+
+	/**
+	 * Tests that removing an observer from one source leaves what another source has queued for it
+	 */
+	@Test
+	public void removeOnlyAffectsOneSource() {
+		StateDispatcher dispatcher = new StateDispatcher(manual, 8, OverflowPolicy.COALESCE);
+		Object other = new Object();
+		StateMessage kept = message();
+		dispatcher.publish(source, observer, message(), message());
+		dispatcher.publish(other, observer, kept, kept);
+		dispatcher.remove(source, observer);
+		assertEquals(0, dispatcher.getBacklog(source, observer));
+		assertEquals(1, dispatcher.getBacklog(other, observer));
+
+		runPending();
+		assertEquals(1, observer.received.size());
+		assertSame(kept, observer.received.get(0));
+	}
+
+	/**
+	 * Tests that a stuck observer does not hold up the sender or anyone else
+	 * @throws InterruptedException If the test is interrupted
+	 */
+	@Test(timeout=5000)
+	public void slowObserverDoesNotBlock() throws InterruptedException {
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch fastDone = new CountDownLatch(3);
+		StateObserver stuck = new StateObserver() {
+			@Override
+			public void onStateChanged(StateMessage newState) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		StateObserver fast = new StateObserver() {
+			@Override
+			public void onStateChanged(StateMessage newState) {
+				fastDone.countDown();
+			}
+		};
+
+		StateDispatcher dispatcher = new StateDispatcher(workers, 8, OverflowPolicy.COALESCE);
+		for (int i = 0; i < 3; i++) {
+			StateMessage update = message();
+			dispatcher.publish(source, stuck, update, update);
+			dispatcher.publish(source, fast, update, update);
+		}
+
+		assertTrue(fastDone.await(2, TimeUnit.SECONDS));
+		release.countDown();
+		workers.shutdown();
+		assertTrue(workers.awaitTermination(2, TimeUnit.SECONDS));
+	}
+
+	private void runPending() {
+		while (!pending.isEmpty()) {
+			pending.remove(0).run();
+		}
+	}
+
+	private StateMessage message() {
+		return new StateMessage(StateType.GAME, null);
+	}
+
+	private static class RecordingObserver implements StateObserver {
+		List<StateMessage> received = new ArrayList<StateMessage>();
+
+		@Override
+		public void onStateChanged(StateMessage newState) {
+			received.add(newState);
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package unitTests;
+
+import pokerServer.SocketServer.Transport;
+
+/**
+ * Runs the TCP client tests against a server that gives each connection its own threads
+ * @author bgreen
+ *
+ */
+public class ThreadPerConnectionClientSocketTest extends ClientSocketTest {
+
+	@Override
+	protected Transport transport() {
+		return Transport.THREAD_PER_CONNECTION;
+	}
+}
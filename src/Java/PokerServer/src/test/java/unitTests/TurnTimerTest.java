@@ -0,0 +1,134 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import pokerServer.TurnTimer;
+import pokerServer.TurnTimer.Timeout;
+
+/**
+ * Unit tests for the turn timer's wheel
+ * @author bgreen
+ *
+ */
+public class TurnTimerTest {
+
+	private TurnTimer timer;
+
+	/**
+	 * Stop the wheel
+	 */
+	@After
+	public void tearDown() {
+		if (timer != null) timer.shutdown();
+	}
+
+	/**
+	 * Tests that a timeout runs once its delay is up, and not before
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void timeoutRunsAfterDelay() throws Exception {
+		timer = new TurnTimer(10, 8);
+		timer.start();
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, 50, TimeUnit.MILLISECONDS);
+		assertEquals(1, timer.getPending());
+
+		assertTrue(ran.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.cancel());
+		assertEquals(0, timer.getPending());
+	}
+
+	/**
+	 * Tests that a cancelled timeout never runs
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void cancelledTimeoutDoesNotRun() throws Exception {
+		timer = new TurnTimer(10, 8);
+		timer.start();
+		final AtomicInteger runs = new AtomicInteger();
+		Timeout timeout = timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				runs.incrementAndGet();
+			}
+		}, 30, TimeUnit.MILLISECONDS);
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+		assertEquals(0, timer.getPending());
+
+		Thread.sleep(100);
+		assertEquals(0, runs.get());
+		assertFalse(timeout.isExpired());
+	}
+
+	/**
+	 * Tests that a timeout further away than one turn of the wheel waits for the right turn
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void timeoutWaitsForLaterTurns() throws Exception {
+		//One turn of this wheel is 40ms
+		timer = new TurnTimer(10, 4);
+		timer.start();
+		final CountDownLatch ran = new CountDownLatch(1);
+		long start = System.nanoTime();
+		timer.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ran.countDown();
+			}
+		}, 130, TimeUnit.MILLISECONDS);
+
+		assertTrue(ran.await(2, TimeUnit.SECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(130));
+	}
+
+	/**
+	 * Tests that of many timeouts set at once, exactly the ones not cancelled run
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=10000)
+	public void manyTimeoutsCancelledAndRun() throws Exception {
+		timer = new TurnTimer(10, 16);
+		timer.start();
+		final int count = 10000;
+		final CountDownLatch ran = new CountDownLatch(count / 2);
+		final AtomicInteger runs = new AtomicInteger();
+		Timeout[] timeouts = new Timeout[count];
+		for (int i = 0; i < count; i++) {
+			timeouts[i] = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					runs.incrementAndGet();
+					ran.countDown();
+				}
+			}, 300 + i % 200, TimeUnit.MILLISECONDS);
+		}
+		for (int i = 0; i < count; i += 2) {
+			assertTrue(timeouts[i].cancel());
+		}
+
+		assertTrue(ran.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertEquals(count / 2, runs.get());
+		assertEquals(0, timer.getPending());
+	}
+}
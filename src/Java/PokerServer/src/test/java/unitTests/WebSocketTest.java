@@ -0,0 +1,291 @@
+package unitTests;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pokerServer.BetMessage;
+import pokerServer.Card;
+import pokerServer.ClientSocket;
+import pokerServer.GameStateMessage;
+import pokerServer.GameStateMessage.Seat;
+import pokerServer.JoinMessage;
+import pokerServer.Message;
+import pokerServer.QuitMessage;
+import pokerServer.SocketServer;
+import pokerServer.SocketServer.Protocol;
+import pokerServer.SocketServer.Transport;
+import pokerServer.interfaces.ClientObserver;
+import pokerServer.interfaces.ConnectionObserver;
+
+/**
+ * Unit tests for browser clients connected with WebSockets, using a real server on the loopback address
+ * @author bgreen
+ *
+ */
+public class WebSocketTest {
+
+	//The example from RFC 6455
+	private static final String KEY = "dGhlIHNhbXBsZSBub25jZQ==";
+	private static final String ACCEPT = "s3pPLMBiTxaQ9kYGzzhZRbK+xOo=";
+
+	private SocketServer server;
+	private BlockingQueue<ClientSocket> connected;
+	private BlockingQueue<Message> received;
+	private SocketChannel channel;
+	//Bytes read from the server but not yet used
+	private ByteBuffer in;
+
+	/**
+	 * Start a server that records everything its clients send
+	 * @throws IOException If the server cannot start
+	 */
+	@Before
+	public void setUp() throws IOException {
+		connected = new LinkedBlockingQueue<ClientSocket>();
+		received = new LinkedBlockingQueue<Message>();
+		final ClientObserver recorder = new ClientObserver() {
+			@Override
+			public void onMessageReceived(Message message) {
+				received.add(message);
+			}
+		};
+
+		server = new SocketServer(new InetSocketAddress("127.0.0.1", 0), transport(), Protocol.WEBSOCKET, 1);
+		server.addObserver(new ConnectionObserver() {
+			@Override
+			public void onClientConnected(ClientSocket client) {
+				client.addObserver(recorder);
+				connected.add(client);
+			}
+		});
+		server.start();
+
+		channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+		in = ByteBuffer.allocate(128 * 1024);
+		in.flip();
+	}
+
+	/**
+	 * Shut everything down
+	 * @throws IOException If the connection will not close
+	 */
+	@After
+	public void tearDown() throws IOException {
+		channel.close();
+		server.stop();
+	}
+
+	/**
+	 * Tests the handshake, then JSON both ways
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void jsonRoundTrip() throws Exception {
+		String response = handshake("");
+		assertTrue(response.startsWith("HTTP/1.1 101"));
+		assertTrue(response.contains("Sec-WebSocket-Accept: " + ACCEPT + "\r\n"));
+		assertFalse(response.contains("Sec-WebSocket-Extensions"));
+
+		sendFrame(0x81, "{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":25,\"All-in\":false}}".getBytes(StandardCharsets.UTF_8));
+		assertEquals(25, ((BetMessage) received.poll(2, TimeUnit.SECONDS)).getAmount());
+
+		connected.poll(2, TimeUnit.SECONDS).sendMessage(new JoinMessage(4, null));
+		byte[] frame = readFrame(0x81);
+		assertEquals("{\"Action\":\"Join\",\"Parameters\":{\"GameID\":4}}", new String(frame, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Tests that messages sent before the handshake wait for it
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void messagesWaitForHandshake() throws Exception {
+		connected.poll(2, TimeUnit.SECONDS).sendMessage(new JoinMessage(9, null));
+		assertTrue(handshake("").startsWith("HTTP/1.1 101"));
+		assertEquals("{\"Action\":\"Join\",\"Parameters\":{\"GameID\":9}}", new String(readFrame(0x81), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Tests that compressed messages reuse what came before, and that compressed messages are read
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void compressionKeepsContext() throws Exception {
+		String response = handshake("Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n");
+		assertTrue(response.contains("Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+
+		ClientSocket client = connected.poll(2, TimeUnit.SECONDS);
+		ArrayList<Seat> seats = new ArrayList<Seat>();
+		for (int i = 0; i < 6; i++) {
+			seats.add(new Seat(i, "Player" + i, "https://www.gravatar.com/avatar/" + i, 1000));
+		}
+		GameStateMessage state = new GameStateMessage(0, "Player0", "Player1", new ArrayList<Card>(), null, seats, null);
+		client.sendMessage(state);
+		client.sendMessage(state);
+
+		Inflater inflater = new Inflater(true);
+		byte[] first = readFrame(0xC1);
+		byte[] second = readFrame(0xC1);
+		String firstText = inflate(inflater, first);
+		assertTrue(firstText.startsWith("{\"Type\":\"Game\""));
+		assertEquals(firstText, inflate(inflater, second));
+		assertTrue("Second copy should mostly refer back to the first", second.length * 4 < first.length);
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		sendFrame(0xC1, deflate(deflater, "{\"Action\":\"Join\",\"Parameters\":{\"GameID\":3}}"));
+		sendFrame(0xC1, deflate(deflater, "{\"Action\":\"Join\",\"Parameters\":{\"GameID\":5}}"));
+		assertEquals(3, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+		assertEquals(5, ((JoinMessage) received.poll(2, TimeUnit.SECONDS)).getGameID());
+	}
+
+	/**
+	 * Tests that a message split into fragments, with a ping in the middle, is put back together
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void fragmentsAndPings() throws Exception {
+		handshake("");
+		byte[] json = "{\"Action\":\"Bet\",\"Parameters\":{\"Amount\":7,\"All-in\":true}}".getBytes(StandardCharsets.UTF_8);
+		sendFrame(0x01, Arrays.copyOfRange(json, 0, 10));
+		sendFrame(0x89, "hello".getBytes(StandardCharsets.UTF_8));
+		sendFrame(0x80, Arrays.copyOfRange(json, 10, json.length));
+
+		assertEquals("hello", new String(readFrame(0x8A), StandardCharsets.UTF_8));
+		assertEquals(7, ((BetMessage) received.poll(2, TimeUnit.SECONDS)).getAmount());
+	}
+
+	/**
+	 * Tests that closing is answered, and passed on as quitting
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void closeIsAnswered() throws Exception {
+		handshake("");
+		sendFrame(0x88, new byte[] {0x03, (byte) 0xE9});
+
+		assertArrayEquals(new byte[] {0x03, (byte) 0xE9}, readFrame(0x88));
+		assertTrue(received.poll(2, TimeUnit.SECONDS) instanceof QuitMessage);
+		assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+	}
+
+	/**
+	 * Tests that a request that is not a WebSocket upgrade is turned away
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void plainRequestRefused() throws Exception {
+		channel.write(ByteBuffer.wrap("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+		assertTrue(readResponse().startsWith("HTTP/1.1 400"));
+		assertTrue(received.poll(2, TimeUnit.SECONDS) instanceof QuitMessage);
+	}
+
+	/**
+	 * Tests that unmasked frames drop the connection
+	 * @throws Exception If the test fails
+	 */
+	@Test(timeout=5000)
+	public void unmaskedFrameDisconnects() throws Exception {
+		handshake("");
+		channel.write(ByteBuffer.wrap(new byte[] {(byte) 0x81, 0x02, '{', '}'}));
+		assertTrue(received.poll(2, TimeUnit.SECONDS) instanceof QuitMessage);
+	}
+
+	/**
+	 * The way the server under test serves connections
+	 * @return The transport
+	 */
+	protected Transport transport() {
+		return Transport.SELECTOR;
+	}
+
+	private String handshake(String extraHeaders) throws IOException {
+		String request = "GET /poker HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: keep-alive, Upgrade\r\n"
+				+ "Sec-WebSocket-Key: " + KEY + "\r\nSec-WebSocket-Version: 13\r\n" + extraHeaders + "\r\n";
+		channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII)));
+		return readResponse();
+	}
+
+	private String readResponse() throws IOException {
+		StringBuilder response = new StringBuilder();
+		while (!response.toString().endsWith("\r\n\r\n")) {
+			fill(1);
+			response.append((char) in.get());
+		}
+		return response.toString();
+	}
+
+	private void sendFrame(int first, byte[] payload) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(payload.length + 14);
+		frame.put((byte) first);
+		if (payload.length < 126) {
+			frame.put((byte) (0x80 | payload.length));
+		} else {
+			frame.put((byte) (0x80 | 126)).putShort((short) payload.length);
+		}
+		byte[] mask = {0x12, 0x34, 0x56, 0x78};
+		frame.put(mask);
+		for (int i = 0; i < payload.length; i++) {
+			frame.put((byte) (payload[i] ^ mask[i & 3]));
+		}
+		frame.flip();
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+	}
+
+	private byte[] readFrame(int expectedFirst) throws IOException {
+		fill(2);
+		assertEquals(expectedFirst, in.get() & 0xFF);
+		int length = in.get();
+		assertEquals("Server frames are not masked", 0, length & 0x80);
+		if (length == 126) {
+			fill(2);
+			length = in.getShort() & 0xFFFF;
+		}
+		fill(length);
+		byte[] payload = new byte[length];
+		in.get(payload);
+		return payload;
+	}
+
+	private void fill(int needed) throws IOException {
+		while (in.remaining() < needed) {
+			in.compact();
+			if (channel.read(in) < 0) throw new IOException("Closed early");
+			in.flip();
+		}
+	}
+
+	private String inflate(Inflater inflater, byte[] payload) throws Exception {
+		byte[] withTail = Arrays.copyOf(payload, payload.length + 4);
+		withTail[payload.length + 2] = (byte) 0xFF;
+		withTail[payload.length + 3] = (byte) 0xFF;
+		inflater.setInput(withTail);
+		byte[] out = new byte[64 * 1024];
+		int length = inflater.inflate(out);
+		return new String(out, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private byte[] deflate(Deflater deflater, String text) {
+		deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+		byte[] out = new byte[1024];
+		int length = deflater.deflate(out, 0, out.length, Deflater.SYNC_FLUSH);
+		return Arrays.copyOf(out, length - 4);
+	}
+}